@@ -25,8 +25,8 @@ import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.proxy.CoapTranslator;
 import org.eclipse.californium.proxy.TranslationException;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
-import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
 
 
@@ -64,6 +64,22 @@ public class ProxyCoapClientResource extends ForwardingResource {
 
     @Override
     public Response forwardRequest(Request request) {
+        try {
+            return forward(request);
+        } finally {
+            // The request and response of the exchange have been captured
+            if (this.stateMachine != null) {
+                this.stateMachine.endExchange();
+            }
+        }
+    }
+
+    /**
+     * Forward a request to the target and capture it and its response.
+     * @param request The request received by the proxy.
+     * @return The response to return to the client.
+     */
+    private Response forward(Request request) {
         System.out.println("ProxyCoAP2CoAP forwards "+request);
             Request incomingRequest = request;
 
@@ -118,7 +134,7 @@ public class ProxyCoapClientResource extends ForwardingResource {
 
 				// create the real response for the original request
 				Response outgoingResponse = CoapTranslator.getResponse(receivedResponse);
-                                post(outgoingResponse);
+                                post(incomingRequest, outgoingResponse);
 				return outgoingResponse;
 			} else {
 				LOGGER.warning("No response received.");
@@ -170,94 +186,25 @@ public class ProxyCoapClientResource extends ForwardingResource {
              */
 
             // Build the basic information
+            final CaptureProjection fields = this.stateMachine == null
+                    ? CaptureProjection.ALL : this.stateMachine.getProjection();
             final COAPEvent rReq = new COAPEvent();
 
-            rReq.addParameter(new Parameter(COAPEvent.COAP_FROM, originalRequest.getSourceContext().getPeerAddress().getAddress().getHostAddress()));
-            rReq.addParameter(new Parameter(COAPEvent.COAP_TOINTERFACE, incomingRequest.getURI()));
-            rReq.addParameter(new Parameter(COAPEvent.COAP_TO, incomingRequest.getDestination().getHostAddress()));
-            rReq.addParameter(new Parameter(COAPEvent.COAP_MSG, incomingRequest.getCode().toString()));
-
-            // Build the headers from the HTTP headers
-            OptionSet options = incomingRequest.getOptions();
-
-            if(options.hasAccept()) {
-                int accept = options.getAccept();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Accept", "" + accept));
-            }
-            if(options.hasContentFormat()) {
-                int cf = options.getContentFormat();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Content-Format", "" + cf));
-            }
-            if(options.hasUriHost()) {
-                String uHost = options.getUriHost();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", uHost));
-            }
-            if(options.hasUriPort()) {
-                Integer uPort = options.getUriPort();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", "" + uPort));
-            }
-            if(options.hasMaxAge()) {
-                Long maxAge = options.getMaxAge();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Max-Age", "" + maxAge));
-            }
-
-            if(options.hasProxyScheme()) {
-                String proxy = options.getProxyScheme();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Scheme", proxy));
-            }
-            if(options.hasProxyUri()) {
-                String proxy = options.getProxyUri();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Uri", proxy));
-            }
-            if(options.hasSize1()) {
-                Integer size = options.getSize1();
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Size1", "" + size));
-            }
-
-            rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-None-Match", "" + options.hasIfNoneMatch()));
-
-            if(options.getIfMatchCount() > 0 ) {
-                List<byte[]> ifMatch = options.getIfMatch();
-                String ifMtachString="[";
-                for(byte[] str: ifMatch) {
-                    ifMtachString += str + ";";
-                }
-                ifMtachString += "]";
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-Match", "" + ifMtachString));
-            }
-
-            if(options.getLocationPathCount() > 0 ) {
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Path", options.getLocationPathString()));
-            }
-            if(options.getURIPathCount()> 0 ) {
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Path", options.getUriPathString()));
-            }
-            if(options.getURIQueryCount() > 0 ) {
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Query", options.getUriQueryString()));
-            }
-            if(options.getLocationPathCount() > 0 ) {
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Query", options.getLocationQueryString()));
+            rReq.addParameter(COAPEvent.COAP_FROM, originalRequest.getSourceContext().getPeerAddress().getAddress().getHostAddress());
+            rReq.addParameter(COAPEvent.COAP_TOINTERFACE, incomingRequest.getURI());
+            rReq.addParameter(COAPEvent.COAP_TO, incomingRequest.getDestination().getHostAddress());
+            rReq.addParameter(COAPEvent.COAP_MSG, incomingRequest.getCode().toString());
+            // The client's token correlates the exchange; the response to the
+            // client carries the same token
+            if (!originalRequest.hasEmptyToken()) {
+                rReq.addParameter(COAPEvent.COAP_TOKEN, originalRequest.getTokenString());
             }
 
-            if(options.getETagCount()> 0 ) {
-                List<byte[]> ifMatch = options.getETags();
-                String eTagsString="[";
-                for(byte[] str: ifMatch) {
-                    eTagsString += str + ";";
-                }
-                eTagsString += "]";
-                rReq.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "ETag", "" + eTagsString));
-            }
-            final byte[] msgContent = incomingRequest.getPayload();
-            if(incomingRequest.getPayloadSize()>0) {
-                if (!options.hasContentFormat()) {
-                    rReq.addContent("TEXT/PLAIN", new String(msgContent));
-                    rReq.addParameter(new Parameter("coap.content-format", "TEXT/PLAIN"));
-                } else {
-                    String mediaName = getContentFormatString(options.getContentFormat());
-                    rReq.addContent(mediaName, new String(msgContent));
-
-                }
+            // Build the options and body read by the pattern
+            final OptionSet options = incomingRequest.getOptions();
+            captureOptions(options, rReq, fields);
+            if (incomingRequest.getPayloadSize() > 0) {
+                captureContent(options, incomingRequest.getPayload(), rReq, fields);
             }
             if (this.stateMachine != null) {
                 this.stateMachine.pushEvent(rReq);
@@ -272,12 +219,15 @@ public class ProxyCoapClientResource extends ForwardingResource {
     /**
      * Create a REST Event used by the interoperability tool state machine from
      * the RESTLET Response generated by invoking this REST Message.
+     * @param originalRequest The client request this response answers
      * @param response The HTTP msg response received
      * @return A generated Rest event object.
      * @throws InvalidRESTMessage Error creating event from message.
      */
-    private void post(final Response response) {
+    private void post(final Request originalRequest, final Response response) {
         try{
+            final CaptureProjection fields = this.stateMachine == null
+                    ? CaptureProjection.ALL : this.stateMachine.getProjection();
             final COAPEvent rResp = new COAPEvent();
 
             /*
@@ -286,15 +236,18 @@ public class ProxyCoapClientResource extends ForwardingResource {
             */
     //        rResp.addParameter(new Parameter(COAPEvent.RESPONSE_TIME, Long.toString(time)));
             if(response.getSource() != null) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_FROM, response.getSource().getHostAddress()));
+                rResp.addParameter(COAPEvent.COAP_FROM, response.getSource().getHostAddress());
             }
             if(response.getDestination() != null) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_TO, response.getDestination().getHostAddress()));
+                rResp.addParameter(COAPEvent.COAP_TO, response.getDestination().getHostAddress());
+            }
+            rResp.addParameter(COAPEvent.COAP_CODE, Integer.toString(response.getCode().value));
+            rResp.addParameter(COAPEvent.COAP_MSG, response.getCode().toString());
+            if (!originalRequest.hasEmptyToken()) {
+                rResp.addParameter(COAPEvent.COAP_TOKEN, originalRequest.getTokenString());
             }
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CODE, Integer.toString(response.getCode().value)));
-            rResp.addParameter(new Parameter(COAPEvent.COAP_MSG, response.getCode().toString()));
 
-            // Build the headers from the COAP options
+            // Build the options and body read by the pattern
             OptionSet options = response.getOptions();
 
             /**
@@ -303,90 +256,125 @@ public class ProxyCoapClientResource extends ForwardingResource {
             if(options == null)
                 return ;
 
-            if(options.hasAccept()) {
-                int accept = options.getAccept();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Accept", "" + accept));
-            }
-            if(options.hasContentFormat()) {
-                int cf = options.getContentFormat();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Content-Format", "" + cf));
-            }
-            if(options.hasUriHost()) {
-                String uHost = options.getUriHost();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", uHost));
-            }
-            if(options.hasUriPort()) {
-                Integer uPort = options.getUriPort();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", "" + uPort));
-            }
-            if(options.hasMaxAge()) {
-                Long maxAge = options.getMaxAge();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Max-Age", "" + maxAge));
+            captureOptions(options, rResp, fields);
+            captureContent(options, response.getPayload(), rResp, fields);
+            if (this.stateMachine != null) {
+                this.stateMachine.pushEvent(rResp);
             }
+        }
+        catch(Exception e) {
+            return;
+        }
+    }
 
-            if(options.hasProxyScheme()) {
-                String proxy = options.getProxyScheme();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Scheme", proxy));
-            }
-            if(options.hasProxyUri()) {
-                String proxy = options.getProxyUri();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Uri", proxy));
-            }
-            if(options.hasSize1()) {
-                Integer size = options.getSize1();
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Size1", "" + size));
-            }
+    /**
+     * Whether the pattern reads a CoAP option.
+     * @param fields The fields of the message read by the pattern.
+     * @param option The option name e.g. Accept.
+     * @return True if the option must be captured.
+     */
+    private static boolean wants(final CaptureProjection fields, final String option) {
+        return fields.isAll() || fields.wants(COAPEvent.COAP_CONFIG_HEAD + option);
+    }
 
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-None-Match", "" + options.hasIfNoneMatch()));
+    /**
+     * Add the options of a message that the pattern reads to an event.
+     * @param options The options of the request or response.
+     * @param event The event being built from the message.
+     * @param fields The fields of the message read by the pattern.
+     */
+    private static void captureOptions(final OptionSet options, final COAPEvent event,
+            final CaptureProjection fields) {
+        if(options.hasAccept() && wants(fields, "Accept")) {
+            int accept = options.getAccept();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Accept", "" + accept);
+        }
+        if(options.hasContentFormat() && wants(fields, "Content-Format")) {
+            int cf = options.getContentFormat();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Content-Format", "" + cf);
+        }
+        if(options.hasUriHost() && wants(fields, "Uri-Host")) {
+            String uHost = options.getUriHost();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", uHost);
+        }
+        if(options.hasUriPort() && wants(fields, "Uri-Host")) {
+            Integer uPort = options.getUriPort();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", "" + uPort);
+        }
+        if(options.hasMaxAge() && wants(fields, "Max-Age")) {
+            Long maxAge = options.getMaxAge();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Max-Age", "" + maxAge);
+        }
 
-            if(options.getIfMatchCount() > 0 ) {
-                List<byte[]> ifMatch = options.getIfMatch();
-                String ifMtachString="[";
-                for(byte[] str: ifMatch) {
-                    ifMtachString += str + ";";
-                }
-                ifMtachString += "]";
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-Match", "" + ifMtachString));
-            }
+        if(options.hasProxyScheme() && wants(fields, "Proxy-Scheme")) {
+            String proxy = options.getProxyScheme();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Scheme", proxy);
+        }
+        if(options.hasProxyUri() && wants(fields, "Proxy-Uri")) {
+            String proxy = options.getProxyUri();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Uri", proxy);
+        }
+        if(options.hasSize1() && wants(fields, "Size1")) {
+            Integer size = options.getSize1();
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Size1", "" + size);
+        }
 
-            if(options.getLocationPathCount() > 0 ) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Path", options.getLocationPathString()));
-            }
-            if(options.getURIPathCount()> 0 ) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Path", options.getUriPathString()));
-            }
-            if(options.getURIQueryCount() > 0 ) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Query", options.getUriQueryString()));
-            }
-            if(options.getLocationPathCount() > 0 ) {
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Query", options.getLocationQueryString()));
-            }
+        if (wants(fields, "If-None-Match")) {
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "If-None-Match", "" + options.hasIfNoneMatch());
+        }
 
-            if(options.getETagCount()> 0 ) {
-                List<byte[]> ifMatch = options.getETags();
-                String eTagsString="[";
-                for(byte[] str: ifMatch) {
-                    eTagsString += str + ";";
-                }
-                eTagsString += "]";
-                rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "ETag", "" + eTagsString));
+        if(options.getIfMatchCount() > 0 && wants(fields, "If-Match")) {
+            List<byte[]> ifMatch = options.getIfMatch();
+            String ifMtachString="[";
+            for(byte[] str: ifMatch) {
+                ifMtachString += str + ";";
             }
-            final byte[] msgContent = response.getPayload();
+            ifMtachString += "]";
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "If-Match", "" + ifMtachString);
+        }
 
-            if (!options.hasContentFormat()) {
-                rResp.addContent("TEXT/PLAIN", new String(msgContent));
-                rResp.addParameter(new Parameter("coap.content-format", "TEXT/PLAIN"));
-            } else {
-                String mediaName = getContentFormatString(options.getContentFormat());
-                rResp.addContent(mediaName, new String(msgContent));
+        if(options.getLocationPathCount() > 0 && wants(fields, "Location-Path")) {
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Path", options.getLocationPathString());
+        }
+        if(options.getURIPathCount()> 0 && wants(fields, "Uri-Path")) {
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Path", options.getUriPathString());
+        }
+        if(options.getURIQueryCount() > 0 && wants(fields, "Uri-Query")) {
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Query", options.getUriQueryString());
+        }
+        if(options.getLocationPathCount() > 0 && wants(fields, "Location-Query")) {
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Query", options.getLocationQueryString());
+        }
 
+        if(options.getETagCount()> 0 && wants(fields, "ETag")) {
+            List<byte[]> ifMatch = options.getETags();
+            String eTagsString="[";
+            for(byte[] str: ifMatch) {
+                eTagsString += str + ";";
             }
-            if (this.stateMachine != null) {
-                this.stateMachine.pushEvent(rResp);
-            }
+            eTagsString += "]";
+            event.addParameter(COAPEvent.COAP_CONFIG_HEAD + "ETag", "" + eTagsString);
         }
-        catch(Exception e) {
+    }
+
+    /**
+     * Add the payload of a message to an event if the pattern reads it.
+     * @param options The options of the request or response.
+     * @param payload The payload bytes.
+     * @param event The event being built from the message.
+     * @param fields The fields of the message read by the pattern.
+     */
+    private void captureContent(final OptionSet options, final byte[] payload, final COAPEvent event,
+            final CaptureProjection fields) {
+        if (!fields.wantsContent()) {
             return;
         }
+        if (!options.hasContentFormat()) {
+            event.addContent("TEXT/PLAIN", payload, null);
+            event.addParameter("coap.content-format", "TEXT/PLAIN");
+        } else {
+            String mediaName = getContentFormatString(options.getContentFormat());
+            event.addContent(mediaName, payload, null);
+        }
     }
 }
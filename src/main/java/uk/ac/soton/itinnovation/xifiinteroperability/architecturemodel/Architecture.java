@@ -32,6 +32,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -40,10 +42,14 @@ import org.xml.sax.SAXException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent.WrapperDeploymentException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.PatternValidation;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLDocument;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.CycleListener;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.SessionScheduler;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidStateMachineException;
@@ -103,6 +109,33 @@ public class Architecture {
      */
     private final transient Map<String, String> dataConstants = new HashMap();
 
+    /**
+     * The <behaviour> element of the pattern, kept to build the state
+     * machines of further sessions.
+     */
+    private final transient Element behaviourSpec;
+
+    /**
+     * The guards built from each transition of the behaviour. Guards are
+     * immutable, so sessions share them with the architecture they were
+     * created from rather than parsing them again.
+     */
+    private final transient Map<Element, List<Guard>> compiledGuards;
+
+    /**
+     * Whether this architecture created the proxies in services. Sessions
+     * share the proxies of the architecture they were created from and
+     * must not release them.
+     */
+    private final transient boolean ownsServices;
+
+    /**
+     * Whether the proxies push the captured events to a router rather than
+     * to the state machine of this architecture; required to create
+     * sessions.
+     */
+    private final transient boolean routed;
+
     /**
      * Accessor for the data constants field.
      * @return The current set of data constants.
@@ -146,8 +179,29 @@ public class Architecture {
      * @throws InvalidStateMachineException when the XML is invalid
      * @throws InvalidPatternException when there are more than one start nodes in the graph
      */
-    @SuppressWarnings("LeakingThisInConstructor")
     public Architecture(final String xml, final InteroperabilityReport report, final boolean debugMode, final ExecutionPanel execPanel) throws InvalidStateMachineException, InvalidPatternException {
+        this(xml, report, debugMode, execPanel, null);
+    }
+
+    /**
+     * Construct a new architecture from a given specification in XML whose
+     * proxies push the captured events to a router rather than directly to
+     * the state machine e.g. an EventDemultiplexer that routes them to many
+     * concurrent sessions created with newSession().
+     * @param xml The architecture specification (pattern).
+     * @param report The report to output tests to.
+     * @param debugMode whether the state machine is run in debug mode
+     * @param execPanel the execution panel to use for testing animations
+     * @param router Receives the captured events; null for the state machine.
+     * @throws InvalidStateMachineException when the XML is invalid
+     * @throws InvalidPatternException when there are more than one start nodes in the graph
+     */
+    @SuppressWarnings("LeakingThisInConstructor")
+    public Architecture(final String xml, final InteroperabilityReport report, final boolean debugMode,
+            final ExecutionPanel execPanel, final EventCapture router) throws InvalidStateMachineException, InvalidPatternException {
+        this.ownsServices = true;
+        this.routed = router != null;
+        this.compiledGuards = new ConcurrentHashMap<>();
         try {
             if (report == null) {
                 this.behaviourSequence = new StateMachine(debugMode, execPanel);
@@ -186,12 +240,12 @@ public class Architecture {
 
             // Create the set of services that match the ADL description
             this.services = createServices(pattern.getRootElement().getChild("architecture"),
-                    this.behaviourSequence);
+                    router == null ? this.behaviourSequence : router);
 
             // Create the state machine describing the interoperability tests
-            XMLStateMachine.createStateMachine(
-                    pattern.getRootElement().getChild("behaviour"),
-                    this.behaviourSequence, this);
+            this.behaviourSpec = pattern.getRootElement().getChild("behaviour");
+            XMLStateMachine.createStateMachine(this.behaviourSpec,
+                    this.behaviourSequence, this, this.compiledGuards);
 
         } catch (InvalidStateMachineException ex) {
             cleanup();
@@ -206,6 +260,52 @@ public class Architecture {
     }
 
 
+    /**
+     * Construct a further session of a loaded architecture: a new state
+     * machine over the same services, pattern data and guards.
+     * @param template The architecture loaded from the pattern.
+     * @param report The report to output tests to.
+     * @throws InvalidStateMachineException when the behaviour is invalid
+     */
+    @SuppressWarnings("LeakingThisInConstructor")
+    private Architecture(final Architecture template, final InteroperabilityReport report)
+            throws InvalidStateMachineException {
+        this.ownsServices = false;
+        this.routed = true;
+        this.services = template.services;
+        this.dataConstants.putAll(template.dataConstants);
+        this.behaviourSpec = template.behaviourSpec;
+        this.compiledGuards = template.compiledGuards;
+        if (report == null) {
+            this.behaviourSequence = new StateMachine(false, null);
+        } else {
+            this.behaviourSequence = new StateMachine(report, false, null);
+        }
+        XMLStateMachine.createStateMachine(this.behaviourSpec, this.behaviourSequence, this,
+                this.compiledGuards);
+    }
+
+    /**
+     * Create a new test session of this architecture. The session has its
+     * own state machine and report but shares the proxies, so many clients
+     * can be tested concurrently when the captured events are routed to
+     * each session's state machine by correlation key.
+     * @param report The report to output the session's tests to.
+     * @return The new session.
+     * @throws InvalidStateMachineException when the behaviour is invalid
+     * @throws IllegalStateException when this architecture was built without
+     * a router, so its proxies only push to its own state machine
+     */
+    public final Architecture newSession(final InteroperabilityReport report)
+            throws InvalidStateMachineException {
+        if (!this.routed) {
+            throw new IllegalStateException("Sessions can only be created from an architecture"
+                    + " whose proxies push to a router");
+        }
+        return new Architecture(this, report);
+    }
+
+
     /**
      * State accessors. Access the two parts of the architecture using
      * two spearate operations: i) for components, ii) for the state machine.
@@ -274,6 +374,46 @@ public class Architecture {
          return this.behaviourSequence.start();
      }
 
+     /**
+      * Begin testing of the architecture without dedicating a thread to it.
+      * The state machine is executed by the workers of a scheduler shared
+      * between many concurrent tests and only occupies a worker while it has
+      * events to process.
+      * @param scheduler The shared session scheduler.
+      * @return The future interoperability report, completed once the
+      * pattern reaches an end state.
+      */
+     public final Future<InteroperabilityReport> executePattern(final SessionScheduler scheduler) {
+         return this.behaviourSequence.start(scheduler);
+     }
+
+     /**
+      * Monitor the architecture continuously. Each time the pattern
+      * completes, its verdict is passed to the listener and the state
+      * machine is re-armed at the start state on the same proxies, so there
+      * is no per run cost of parsing the pattern or binding the proxies.
+      * Returns once the state machine is stopped.
+      * @param listener Receives the verdict of each cycle; may be null.
+      * @return The report holding the monitoring statistics.
+      */
+     public final InteroperabilityReport monitorPattern(final CycleListener listener) {
+         this.behaviourSequence.enableMonitoring(listener);
+         return this.behaviourSequence.start();
+     }
+
+     /**
+      * Monitor the architecture continuously on a shared scheduler.
+      * @param scheduler The shared session scheduler.
+      * @param listener Receives the verdict of each cycle; may be null.
+      * @return The future report holding the monitoring statistics,
+      * completed once the state machine is stopped.
+      */
+     public final Future<InteroperabilityReport> monitorPattern(final SessionScheduler scheduler,
+             final CycleListener listener) {
+         this.behaviourSequence.enableMonitoring(listener);
+         return this.behaviourSequence.start(scheduler);
+     }
+
 
      /**
       * Release all resources used by this object i.e. after the pattern has
@@ -283,7 +423,7 @@ public class Architecture {
       * requests).
       */
      public final void cleanup() {
-        if (services != null) {
+        if (services != null && ownsServices) {
             final Collection<RESTComponent> entrySet = services.values();
             for (RESTComponent rComponent : entrySet) {
                 for (RESTInterface ri : rComponent.getInterfaces()) {
@@ -369,18 +509,18 @@ public class Architecture {
         try {
             switch (exprSplit[1]) {
                 case "content":
-                    final String content = rEv.getDataBody().getData();
-                    if (rEv.getDataBody().getType().equalsIgnoreCase("xml")) {
-                        return XML.readValue(content, exprSplit[2]);
-                    } else if (rEv.getDataBody().getType().equalsIgnoreCase("json")){
-                        return JSON.readValue(content, "$." + exprSplit[2]);
-                    } else if (rEv.getDataBody().getType().equalsIgnoreCase("application/xml")) {
-                        return XML.readValue(content, exprSplit[2]);
-                    } else if (rEv.getDataBody().getType().equalsIgnoreCase("application/json")){
-                        return JSON.readValue(content, "$." + exprSplit[2]);
+                    final Content content = rEv.getDataBody();
+                    if (content.getType().equalsIgnoreCase("xml")) {
+                        return XML.readValue(content.getXmlDocument(), exprSplit[2]);
+                    } else if (content.getType().equalsIgnoreCase("json")){
+                        return JSON.readValue(content.getJsonDocument(), "$." + exprSplit[2]);
+                    } else if (content.getType().equalsIgnoreCase("application/xml")) {
+                        return XML.readValue(content.getXmlDocument(), exprSplit[2]);
+                    } else if (content.getType().equalsIgnoreCase("application/json")){
+                        return JSON.readValue(content.getJsonDocument(), "$." + exprSplit[2]);
                     }
                     else {
-                        return content;
+                        return content.getData();
                     }
                 case "headers":
                     return rEv.getParameterMap().get(exprSplit[2]).getValue();
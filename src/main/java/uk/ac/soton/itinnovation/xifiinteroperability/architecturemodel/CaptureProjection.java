@@ -0,0 +1,332 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.EventParameters;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * The fields of a captured message that a pattern reads: the event
+ * parameters named by its guards and by its $$state|headers|name$$
+ * references, and whether the message body is read at all (by a content
+ * guard or a $$state|content|path$$ reference).
+ *
+ * A proxy uses the projection of the pattern it pushes events to so that
+ * it only copies the headers, query parameters and form fields that will
+ * be read, and leaves an unread body in the message. The address, method,
+ * status and other fixed fields of an event are always captured.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class CaptureProjection {
+
+    /**
+     * Every field of a message is captured.
+     */
+    public static final CaptureProjection ALL = new CaptureProjection(null, true);
+
+    /**
+     * No field of a message is captured.
+     */
+    public static final CaptureProjection NONE = new CaptureProjection(Collections.<String>emptySet(), false);
+
+    /**
+     * The label of the message body in guards and references.
+     */
+    private static final String CONTENTLABEL = "content";
+
+    /**
+     * The label of event parameters in $$ references.
+     */
+    private static final String HEADERSLABEL = "headers";
+
+    /**
+     * The prefix of query parameters.
+     */
+    private static final String QUERY_HEAD = "query.";
+
+    /**
+     * A $$...$$ reference in the text of a pattern.
+     */
+    private static final Pattern REFERENCE = Pattern.compile("\\$\\$([^$]+)\\$\\$");
+
+    /**
+     * The parameter names read; null if every field is read.
+     */
+    private final transient Set<String> names;
+
+    /**
+     * True if the message body is read.
+     */
+    private final transient boolean content;
+
+    /**
+     * True if a header parameter (http.name) is read.
+     */
+    private final transient boolean headers;
+
+    /**
+     * True if a query parameter (query.name) is read.
+     */
+    private final transient boolean query;
+
+    /**
+     * True if a parameter without a protocol prefix that is neither a fixed
+     * field nor a bare protocol name, i.e. the field of a form body, is read.
+     */
+    private final transient boolean fields;
+
+    /**
+     * Create a projection.
+     * @param read The parameter names read; null for all.
+     * @param body True if the message body is read.
+     */
+    private CaptureProjection(final Set<String> read, final boolean body) {
+        this.names = read;
+        this.content = body;
+        boolean header = read == null;
+        boolean queries = read == null;
+        boolean field = read == null;
+        if (read != null) {
+            for (String name : read) {
+                if (name.startsWith(RESTEvent.HTTP_CONFIG_HEAD)) {
+                    header = true;
+                } else if (name.startsWith(QUERY_HEAD)) {
+                    queries = true;
+                } else if (isFormField(name)) {
+                    field = true;
+                }
+            }
+        }
+        this.headers = header;
+        this.query = queries;
+        this.fields = field;
+    }
+
+    /**
+     * Whether a parameter name can only be the field of a form body: it has
+     * no protocol prefix, is not a fixed field such as response-time and is
+     * not a protocol name such as http.
+     * @param name The parameter name.
+     * @return True if a form body must be parsed to read the name.
+     */
+    private static boolean isFormField(final String name) {
+        if (name.startsWith(COAPEvent.COAP_CONFIG_HEAD) || EventParameters.isField(name)) {
+            return false;
+        }
+        final String prefix = name + ".";
+        return !prefix.equals(RESTEvent.HTTP_CONFIG_HEAD) && !prefix.equals(QUERY_HEAD)
+                && !prefix.equals(COAPEvent.COAP_CONFIG_HEAD);
+    }
+
+    /**
+     * Create the projection of a set of parameter names.
+     * @param read The parameter names read by a pattern.
+     * @param body True if the pattern reads the message body.
+     * @return The projection.
+     */
+    public static CaptureProjection of(final Collection<String> read, final boolean body) {
+        final Set<String> set = new HashSet<>(read);
+        if (body) {
+            // Content is parsed according to its type
+            set.add(RESTEvent.HTTP_CONFIG_HEAD + "content-type");
+        }
+        return new CaptureProjection(Collections.unmodifiableSet(set), body);
+    }
+
+    /**
+     * Add a parameter name to the projection.
+     * @param name The event parameter name.
+     * @return The projection including the name.
+     */
+    public CaptureProjection with(final String name) {
+        if (names == null || names.contains(name)) {
+            return this;
+        }
+        final Set<String> set = new HashSet<>(names);
+        set.add(name);
+        return of(set, content);
+    }
+
+    /**
+     * Add the message body to the projection.
+     * @return The projection including the body.
+     */
+    public CaptureProjection withContent() {
+        return names == null || content ? this : of(names, true);
+    }
+
+    /**
+     * Add the fields named by the $$state|headers|name$$ and
+     * $$state|content|path$$ references in a text of a pattern. Other
+     * references (e.g. to pattern data) do not read a message.
+     * @param text A guard value, message body, url or other text.
+     * @return The projection including the referenced fields.
+     */
+    public CaptureProjection withReferences(final String text) {
+        return withReferences(text, null);
+    }
+
+    /**
+     * Add the fields of the event stored by one state that are named by
+     * the $$state|headers|name$$ and $$state|content|path$$ references in
+     * a text of a pattern.
+     * @param text A guard value, message body, url or other text.
+     * @param state The state label; null for the references to any state.
+     * @return The projection including the referenced fields.
+     */
+    public CaptureProjection withReferences(final String text, final String state) {
+        if (text == null || names == null) {
+            return this;
+        }
+        CaptureProjection result = this;
+        final Matcher matcher = REFERENCE.matcher(text);
+        while (matcher.find()) {
+            final String[] parts = matcher.group(1).split("\\|");
+            if (parts.length != 3 || (state != null && !state.equals(parts[0]))) {
+                continue;
+            }
+            if (parts[1].equalsIgnoreCase(CONTENTLABEL)) {
+                result = result.withContent();
+            } else if (parts[1].equalsIgnoreCase(HEADERSLABEL)) {
+                result = result.with(parts[2]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the field read by a guard.
+     * @param label The guard label: an event parameter name, content or
+     * content[path] for the body, or a $$ reference.
+     * @return The projection including the field.
+     */
+    public CaptureProjection withGuard(final String label) {
+        if (label.contains("$$")) {
+            return withReferences(label);
+        }
+        if (label.startsWith(CONTENTLABEL)) {
+            return withContent();
+        }
+        return with(label);
+    }
+
+    /**
+     * Add the fields read by a guard. A contains guard on the parameters of
+     * an event (rather than on its body) tests whether the event holds the
+     * parameter named by its value, e.g. label http and value http.accept,
+     * so the value is the field read.
+     * @param guard The guard of a transition.
+     * @return The projection including the fields.
+     */
+    public CaptureProjection withGuard(final Guard guard) {
+        final String label = guard.getGuardLabel();
+        if (guard.getType() != Guard.ComparisonType.CONTAINS || label.startsWith(CONTENTLABEL)) {
+            return withGuard(label);
+        }
+        final String name = guard.getGuardCompare();
+        // A name bound from a $$ reference is only known in a session
+        return name.contains("$$") ? ALL : withReferences(label).with(name);
+    }
+
+    /**
+     * Whether every field is captured.
+     * @return True for the projection of all fields.
+     */
+    public boolean isAll() {
+        return names == null;
+    }
+
+    /**
+     * Whether no field is captured.
+     * @return True if neither a parameter nor the body is read.
+     */
+    public boolean isEmpty() {
+        return names != null && names.isEmpty() && !content;
+    }
+
+    /**
+     * Whether a parameter is read.
+     * @param name The event parameter name.
+     * @return True if the parameter must be captured.
+     */
+    public boolean wants(final String name) {
+        return names == null || names.contains(name);
+    }
+
+    /**
+     * Whether the message body is read.
+     * @return True if the body must be captured.
+     */
+    public boolean wantsContent() {
+        return content;
+    }
+
+    /**
+     * Whether any header parameter is read.
+     * @return False if the headers need not be read.
+     */
+    public boolean wantsHeaders() {
+        return headers;
+    }
+
+    /**
+     * Whether any query parameter is read.
+     * @return False if the query need not be parsed.
+     */
+    public boolean wantsQuery() {
+        return query;
+    }
+
+    /**
+     * Whether any field of a form body is read.
+     * @return False if a form body need not be parsed.
+     */
+    public boolean wantsFormFields() {
+        return fields;
+    }
+
+    /**
+     * The parameter names read.
+     * @return The names; null if every field is read.
+     */
+    public Set<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,221 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.util.Map;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+
+/**
+ * Describes how to read the correlation key of a captured event i.e. the
+ * value that identifies which test session the event belongs to. The key
+ * can be a header, the address of the client, the CoAP token or a value
+ * in the message body selected by a JSON path or XPath expression.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class CorrelationKey {
+
+    /**
+     * Where the key is read from.
+     */
+    public enum Source {
+        /**
+         * A named header (event parameter) e.g. http.x-device-id.
+         */
+        HEADER,
+        /**
+         * The address of the client: the sender of a request, or the
+         * receiver of a response.
+         */
+        CLIENT_ADDRESS,
+        /**
+         * The token of a CoAP exchange.
+         */
+        COAP_TOKEN,
+        /**
+         * A path expression on the message body: XPath for xml content,
+         * otherwise a JSON path.
+         */
+        CONTENT_PATH;
+    }
+
+    /**
+     * Where the key is read from.
+     */
+    private final transient Source source;
+
+    /**
+     * The header name or path expression; null for the other sources.
+     */
+    private final transient String expression;
+
+    /**
+     * Create a key description.
+     * @param from Where the key is read from.
+     * @param expr The header name or path expression.
+     */
+    private CorrelationKey(final Source from, final String expr) {
+        this.source = from;
+        this.expression = expr;
+    }
+
+    /**
+     * Correlate events by a header value.
+     * @param name The event parameter name e.g. http.x-device-id.
+     * @return The key description.
+     */
+    public static CorrelationKey header(final String name) {
+        return new CorrelationKey(Source.HEADER, name);
+    }
+
+    /**
+     * Correlate events by the client address.
+     * @return The key description.
+     */
+    public static CorrelationKey clientAddress() {
+        return new CorrelationKey(Source.CLIENT_ADDRESS, null);
+    }
+
+    /**
+     * Correlate CoAP events by their token.
+     * @return The key description.
+     */
+    public static CorrelationKey coapToken() {
+        return new CorrelationKey(Source.COAP_TOKEN, null);
+    }
+
+    /**
+     * Correlate events by a value in the message body.
+     * @param path The XPath or JSON path expression of the value.
+     * @return The key description.
+     */
+    public static CorrelationKey contentPath(final String path) {
+        return new CorrelationKey(Source.CONTENT_PATH, path);
+    }
+
+    /**
+     * Where the key is read from.
+     * @return The key source.
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Add the fields that the key is read from to a projection.
+     * @param fields The fields read by the sessions.
+     * @return The fields including those of the key.
+     */
+    CaptureProjection require(final CaptureProjection fields) {
+        switch (source) {
+            case HEADER:
+                return fields.with(expression);
+            case CONTENT_PATH:
+                return fields.withContent();
+            default:
+                return fields;
+        }
+    }
+
+    /**
+     * Read the key of an event.
+     * @param event The captured event.
+     * @return The key or null if the event does not carry one.
+     */
+    public String extract(final MsgEvent event) {
+        final Map<String, Parameter> params = event.getParameterMap();
+        switch (source) {
+            case HEADER:
+                return valueOf(params.get(expression));
+            case CLIENT_ADDRESS:
+                if (params.containsKey(RESTEvent.HTTP_CODE) || params.containsKey(COAPEvent.COAP_CODE)) {
+                    return firstOf(params, RESTEvent.HTTP_TO, COAPEvent.COAP_TO);
+                }
+                return firstOf(params, RESTEvent.HTTP_FROM, COAPEvent.COAP_FROM);
+            case COAP_TOKEN:
+                return valueOf(params.get(COAPEvent.COAP_TOKEN));
+            case CONTENT_PATH:
+                return readContent(event.getDataBody());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Read the key from a message body.
+     * @param body The body.
+     * @return The value at the path, or null if absent or unreadable.
+     */
+    private String readContent(final Content body) {
+        if (body == null || body.getData() == null || body.getData().isEmpty()) {
+            return null;
+        }
+        try {
+            final String value;
+            if (body.getType() != null && body.getType().contains("xml")) {
+                value = XML.readValue(body.getXmlDocument(), expression);
+            } else {
+                value = JSON.readValue(body.getJsonDocument(),
+                        expression.startsWith("$") ? expression : "$." + expression);
+            }
+            return value == null || value.isEmpty() ? null : value;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The value of the first of two parameters that is present.
+     * @param params The event parameters.
+     * @param first The preferred parameter.
+     * @param second The alternative parameter.
+     * @return The value or null.
+     */
+    private static String firstOf(final Map<String, Parameter> params, final String first,
+            final String second) {
+        final String value = valueOf(params.get(first));
+        return value == null ? valueOf(params.get(second)) : value;
+    }
+
+    /**
+     * The value of a parameter.
+     * @param param The parameter; may be null.
+     * @return The value or null.
+     */
+    private static String valueOf(final Parameter param) {
+        return param == null ? null : param.getValue();
+    }
+}
@@ -55,4 +55,30 @@ public interface EventCapture {
      * is up to the listener to determine the exception type.
      */
     void logException(Exception excep);
+
+    /**
+     * The fields of a message that are read by the receiver of the events;
+     * a proxy need not capture the others.
+     * @return The projection; by default every field.
+     */
+    default CaptureProjection getProjection() {
+        return CaptureProjection.ALL;
+    }
+
+    /**
+     * The request and response of an exchange have been captured; called by
+     * a proxy once it has passed on the response, including when the
+     * exchange failed.
+     */
+    default void endExchange() {
+        // no state kept between the events of an exchange by default
+    }
+
+    /**
+     * Stop receiving events e.g. when a session is discarded because it is
+     * idle.
+     */
+    default void stop() {
+        // nothing to stop by default
+    }
 }
@@ -0,0 +1,352 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Routes the events captured by a shared set of proxies to many concurrent
+ * test sessions. Each event's correlation key (e.g. a client id header, the
+ * client address or the CoAP token) is read and the event is pushed to the
+ * session registered for that key. The lookup is a single concurrent hash
+ * map access, so routing does not serialise the proxies.
+ *
+ * Events without a key (e.g. a response without the header) go to the
+ * session of the request of the same exchange: the http and CoAP proxies
+ * capture a request and its response on one thread, and end the exchange
+ * (endExchange) once the response is passed on. Routes created by the
+ * session factory that see no traffic for the idle timeout are removed by
+ * a timer, and their sessions stopped; close() the demultiplexer to stop
+ * the timer.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventDemultiplexer implements EventCapture {
+
+    /**
+     * A session registered against a key.
+     */
+    private static final class Route {
+        /**
+         * The session receiving the events.
+         */
+        private final transient EventCapture session;
+
+        /**
+         * Registered routes are kept until unregistered; routes created by
+         * the session factory expire when idle.
+         */
+        private final transient boolean pinned;
+
+        /**
+         * Time of the last event routed, in nanoseconds.
+         */
+        private transient volatile long lastSeen;
+
+        /**
+         * Create a route.
+         * @param target The session receiving the events.
+         * @param fixed Whether the route never expires.
+         */
+        Route(final EventCapture target, final boolean fixed) {
+            this.session = target;
+            this.pinned = fixed;
+            this.lastSeen = System.nanoTime();
+        }
+    }
+
+    /**
+     * How the key of each event is read.
+     */
+    private final transient CorrelationKey key;
+
+    /**
+     * The routes indexed by key.
+     */
+    private final transient Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates sessions for keys that are not registered; may be null.
+     */
+    private transient volatile Function<String, EventCapture> sessionFactory;
+
+    /**
+     * Receives events that match no route; may be null.
+     */
+    private transient volatile EventCapture defaultSession;
+
+    /**
+     * Idle time after which an unpinned route is removed, in nanoseconds.
+     */
+    private final transient long idleTimeout;
+
+    /**
+     * The thread that sweeps the idle routes of every demultiplexer.
+     */
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(task -> {
+        final Thread thread = new Thread(task, "EventDemultiplexer sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The scheduled sweep of this demultiplexer's idle routes.
+     */
+    private final transient ScheduledFuture<?> sweep;
+
+    /**
+     * Number of events that matched no route and were dropped.
+     */
+    private final transient AtomicLong unrouted = new AtomicLong();
+
+    /**
+     * The key of the request of the exchange this thread is capturing,
+     * inherited by events without a key of their own; cleared when the
+     * exchange ends.
+     */
+    private final transient ThreadLocal<String> currentKey = new ThreadLocal<>();
+
+    /**
+     * The fields of a message read by the sessions and by the key.
+     */
+    private transient volatile CaptureProjection projection = CaptureProjection.ALL;
+
+    /**
+     * Create a demultiplexer.
+     * @param correlation How the key of each event is read.
+     * @param idleMillis Idle time in milliseconds after which a route
+     * created by the session factory is removed.
+     * @throws IllegalArgumentException The idle time is not positive.
+     */
+    public EventDemultiplexer(final CorrelationKey correlation, final long idleMillis) {
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        this.key = correlation;
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.sweep = SWEEPER.scheduleWithFixedDelay(() -> sweep(System.nanoTime()),
+                idleMillis, idleMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sweeping idle routes, and stop the sessions created by the
+     * session factory.
+     */
+    public final void close() {
+        sweep.cancel(false);
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            final Route route = entry.getValue();
+            if (!route.pinned && routes.remove(entry.getKey(), route)) {
+                route.session.stop();
+            }
+        }
+    }
+
+    /**
+     * Route the events with the given key to a session.
+     * @param keyValue The correlation key value.
+     * @param session The session receiving the events.
+     */
+    public final void register(final String keyValue, final EventCapture session) {
+        routes.put(keyValue, new Route(session, true));
+    }
+
+    /**
+     * Stop routing the events with the given key.
+     * @param keyValue The correlation key value.
+     */
+    public final void unregister(final String keyValue) {
+        routes.remove(keyValue);
+    }
+
+    /**
+     * Set the factory that creates a session the first time a key is seen.
+     * @param factory The session factory; null to not create sessions.
+     */
+    public final void setSessionFactory(final Function<String, EventCapture> factory) {
+        this.sessionFactory = factory;
+    }
+
+    /**
+     * Set the session that receives events matching no route.
+     * @param session The default session; null to drop those events.
+     */
+    public final void setDefaultSession(final EventCapture session) {
+        this.defaultSession = session;
+    }
+
+    /**
+     * Set the fields of a message that the sessions read, e.g. the
+     * projection of the state machine of the architecture they are
+     * sessions of. The fields the key is read from are added.
+     * @param fields The projection of the sessions.
+     */
+    public final void setProjection(final CaptureProjection fields) {
+        this.projection = key.require(fields);
+    }
+
+    /**
+     * The fields of a message read by the sessions and by the key; every
+     * field unless a projection has been set.
+     * @return The projection.
+     */
+    @Override
+    public final CaptureProjection getProjection() {
+        return this.projection;
+    }
+
+    /**
+     * The number of sessions currently routed.
+     * @return The route count.
+     */
+    public final int getRouteCount() {
+        return routes.size();
+    }
+
+    /**
+     * The number of events dropped because they matched no route.
+     * @return The dropped event count.
+     */
+    public final long getUnroutedCount() {
+        return unrouted.get();
+    }
+
+    /**
+     * Route a captured event to its session.
+     * @param event The captured event.
+     */
+    @Override
+    public final void pushEvent(final MsgEvent event) {
+        final long now = System.nanoTime();
+        String keyValue = key.extract(event);
+        if (keyValue == null) {
+            keyValue = currentKey.get();
+        } else {
+            currentKey.set(keyValue);
+        }
+
+        final EventCapture session = lookup(keyValue, now);
+        if (session == null) {
+            unrouted.incrementAndGet();
+            ServiceLogger.LOG.debug("No session for event key " + keyValue);
+            return;
+        }
+        session.pushEvent(event);
+    }
+
+    /**
+     * Pass an exception to the session of the current exchange.
+     * @param excep The exception generated.
+     */
+    @Override
+    public final void logException(final Exception excep) {
+        final EventCapture session = lookup(currentKey.get(), System.nanoTime());
+        if (session != null) {
+            session.logException(excep);
+        }
+    }
+
+    /**
+     * The exchange captured by this thread has ended; later events without
+     * a key no longer go to the session of its request.
+     */
+    @Override
+    public final void endExchange() {
+        currentKey.remove();
+    }
+
+    /**
+     * Find the session of a key, creating it if there is a session factory.
+     * The route is refreshed atomically with the sweep, so a session that
+     * is returned has not been swept. The session is created outside the
+     * map's lock; if another thread creates a session for the same key
+     * first, this one is stopped and the other's is used.
+     * @param keyValue The key value; may be null.
+     * @param now The current time in nanoseconds.
+     * @return The session or null if there is none.
+     */
+    private EventCapture lookup(final String keyValue, final long now) {
+        if (keyValue != null) {
+            final Function<String, EventCapture> factory = sessionFactory;
+            while (true) {
+                final Route route = routes.computeIfPresent(keyValue, (k, live) -> {
+                    live.lastSeen = now;
+                    return live;
+                });
+                if (route != null) {
+                    return route.session;
+                }
+                final EventCapture created = factory == null ? null : factory.apply(keyValue);
+                if (created == null) {
+                    break;
+                }
+                if (routes.putIfAbsent(keyValue, new Route(created, false)) == null) {
+                    return created;
+                }
+                created.stop();
+            }
+        }
+        return defaultSession;
+    }
+
+    /**
+     * Remove idle routes and stop their sessions. Run by the sweeper thread
+     * once per idle timeout.
+     * @param now The current time in nanoseconds.
+     */
+    private void sweep(final long now) {
+        final Route[] removed = new Route[1];
+        for (String keyValue : routes.keySet()) {
+            removed[0] = null;
+            // Checked under the key's lock, so a route being refreshed by
+            // lookup is not removed
+            routes.computeIfPresent(keyValue, (k, route) -> {
+                if (!route.pinned && now - route.lastSeen > idleTimeout) {
+                    removed[0] = route;
+                    return null;
+                }
+                return route;
+            });
+            if (removed[0] != null) {
+                removed[0].session.stop();
+            }
+        }
+    }
+}
@@ -46,7 +46,7 @@ public final class Function implements Serializable {
     }
 
      /**
-     * Can be equals, notequals, contains, lessthan, greaterthan, regex.
+     * Can be equals, notequals, contains, lessthan, greaterthan, regex, validates.
      */
     public enum FunctionType {
 
@@ -84,7 +84,12 @@ public final class Function implements Serializable {
         /**
          * The regex function - matching values with regular expressions
          */
-        Regex("regex");
+        Regex("regex"),
+
+        /**
+         * The validates function - the value complies with a schema
+         */
+        Validates("validates");
 
         /**
          * The string version of the type e.g. "equals"
@@ -143,6 +148,9 @@ public final class Function implements Serializable {
         if (typeName.equalsIgnoreCase("regex")){
             return FunctionType.Regex;
         }
+        if (typeName.equalsIgnoreCase("validates")){
+            return FunctionType.Validates;
+        }
         return null;
     }
 
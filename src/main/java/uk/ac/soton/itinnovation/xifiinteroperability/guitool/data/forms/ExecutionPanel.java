@@ -57,6 +57,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableModel;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.RESTComponent;
 import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.ObjectDeepCloner;
@@ -97,6 +98,11 @@ public class ExecutionPanel extends JPanel {
      */
     private transient final JTable portsTable;
 
+    /**
+     * the dialog counting down the timeout of the current test state, if any
+     */
+    private transient TimerDialog timerDialog;
+
     /**
      * constructor for the panel, initialises the GUI components
      * @param editor the editor reference
@@ -279,4 +285,35 @@ public class ExecutionPanel extends JPanel {
         mxCell toSelect = (mxCell) ((mxGraphModel) graph.getModel()).getCell(guiID);
         graph.getSelectionModel().setCell(toSelect);
     }
+
+    /**
+     * a method to show the countdown of a timeout transition, called by the
+     * test engine when it enters a state with a timeout
+     * @param time the timeout in milliseconds
+     */
+    public void showTimeout(long time){
+        SwingUtilities.invokeLater(() -> {
+            closeTimerDialog();
+            timerDialog = new TimerDialog();
+            timerDialog.initGUI(time);
+        });
+    }
+
+    /**
+     * a method to close the countdown of a timeout transition, called by the
+     * test engine when an event arrives before the timeout
+     */
+    public void hideTimeout(){
+        SwingUtilities.invokeLater(this::closeTimerDialog);
+    }
+
+    /**
+     * closes the timer dialog if one is open
+     */
+    private void closeTimerDialog(){
+        if (timerDialog != null){
+            timerDialog.dispose();
+            timerDialog = null;
+        }
+    }
 }
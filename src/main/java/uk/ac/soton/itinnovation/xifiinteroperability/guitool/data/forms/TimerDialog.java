@@ -23,7 +23,7 @@
 //  License : GNU Lesser General Public License, version 3
 //
 /////////////////////////////////////////////////////////////////////////
-package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+package uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.forms;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -51,6 +51,11 @@ public class TimerDialog extends JDialog {
 
     private final JLabel timeoutLabel = new JLabel();
 
+    /**
+     * the swing timer updating the countdown
+     */
+    private Timer countdown;
+
     public TimerDialog() {
         super();
     }
@@ -86,7 +91,7 @@ public class TimerDialog extends JDialog {
     private void startTimer(long time){
 
         JDialog reference = this;
-        new Timer(500, new ActionListener() {
+        countdown = new Timer(500, new ActionListener() {
             int timeCount = -500;
 
             @Override
@@ -99,6 +104,18 @@ public class TimerDialog extends JDialog {
                     timeoutLabel.setText("      Time left before timeout transition takes place: " + (time - timeCount) + "ms      ");
                 }
             }
-        }).start();
+        });
+        countdown.start();
+    }
+
+    /**
+     * closes the dialog and stops the countdown
+     */
+    @Override
+    public void dispose(){
+        if (countdown != null){
+            countdown.stop();
+        }
+        super.dispose();
     }
 }
@@ -60,19 +60,25 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelcomponent;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import org.restlet.Context;
+import org.restlet.Message;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.Restlet;
+import org.restlet.data.CharacterSet;
 import org.restlet.data.Form;
+import org.restlet.data.MediaType;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import org.restlet.data.Reference;
 import org.restlet.data.Status;
 import org.restlet.engine.header.HeaderConstants;
+import org.restlet.representation.ByteArrayRepresentation;
+import org.restlet.representation.InputRepresentation;
 import org.restlet.representation.Representation;
 
 /**
@@ -80,10 +86,13 @@ import org.restlet.representation.Representation;
  * Author: Paul Grace
  * Contact: pjg@it-innovation.soton.ac.uk
  */
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
 import org.restlet.engine.header.Header;
 import org.restlet.routing.Template;
 import org.restlet.util.Series;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.EventParameters;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 
@@ -314,6 +323,8 @@ public final class AOPRedirector extends Restlet {
 
     /**
      * Handles a call by redirecting using the selected redirection mode.
+     * The exchange is ended once the response has been captured, so that
+     * the events of later exchanges are not taken to be part of it.
      *
      * @param request
      *            The request to handle.
@@ -322,6 +333,23 @@ public final class AOPRedirector extends Restlet {
      */
     @Override
     public synchronized void handle(final Request request, final Response response) {
+        try {
+            redirect(request, response);
+        } finally {
+            this.stateMachine.endExchange();
+        }
+    }
+
+    /**
+     * Redirect a call using the selected redirection mode, capturing the
+     * request and the response.
+     *
+     * @param request
+     *            The request to handle.
+     * @param response
+     *            The response to update.
+     */
+    private void redirect(final Request request, final Response response) {
         // Generate the target reference
         Reference targetRef = getTargetRef(request, response);
         if (targetRef == null) {
@@ -603,21 +631,18 @@ public final class AOPRedirector extends Restlet {
          * Create a REST event about the Service Response i.e. capture and
          * uniform the data to be understood by the state machine rule checker
          */
+        final CaptureProjection fields = this.stateMachine == null
+                ? CaptureProjection.ALL : this.stateMachine.getProjection();
         final RESTEvent rResp = new RESTEvent();
         rResp.setResponseTime(time);
-        rResp.addParameter(new Parameter(RESTEvent.RESPONSE_TIME, Long.toString(time)));
-        rResp.addParameter(new Parameter(RESTEvent.HTTP_FROM, response.getServerInfo().getAddress()));
-        rResp.addParameter(new Parameter(RESTEvent.HTTP_TO, req.getClientInfo().getAddress()));
-        rResp.addParameter(new Parameter(RESTEvent.HTTP_MSG, RESTEvent.REPLY_LABEL));
-        rResp.addParameter(new Parameter(RESTEvent.HTTP_CODE, Integer.toString(response.getStatus().getCode())));
-
-        // Build the headers from the HTTP headers
-        final Series<Header> headers = (Series<Header>) response.getAttributes().get("org.restlet.http.headers");
-        if (headers != null) {
-            for (Header h : headers) {
-                rResp.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + h.getName().toLowerCase(), h.getValue()));
-            }
-        }
+        rResp.addParameter(RESTEvent.RESPONSE_TIME, Long.toString(time));
+        rResp.addParameter(RESTEvent.HTTP_FROM, response.getServerInfo().getAddress());
+        rResp.addParameter(RESTEvent.HTTP_TO, req.getClientInfo().getAddress());
+        rResp.addParameter(RESTEvent.HTTP_MSG, RESTEvent.REPLY_LABEL);
+        rResp.addParameter(RESTEvent.HTTP_CODE, Integer.toString(response.getStatus().getCode()));
+
+        // Build the headers read by the pattern from the HTTP headers
+        captureHeaders(response, rResp, fields);
         // Build the body data structure
         /*
          * Extract the parameter content. RESTLET reads off the stream, so the
@@ -625,21 +650,14 @@ public final class AOPRedirector extends Restlet {
          * will be interfered with.
          */
         if (response.isEntityAvailable()) {
-            final String contentType = response.getEntity().getMediaType().getName();
-            final String msgBody = response.getEntityAsText();
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + "content-type", contentType));
-            rResp.addContent(contentType, msgBody);
-            // Get the local parameters from the attached REST form
+            rResp.addParameter(RESTEvent.HTTP_CONFIG_HEAD + "content-type",
+                    response.getEntity().getMediaType().getName());
+            // Capture the body; the fields of a form become parameters
             try {
-                final Form iForm = new Form(msgBody);
-                for (org.restlet.data.Parameter parameter : iForm) {
-                    final Parameter toCast = new Parameter(parameter.getName(), parameter.getValue());
-                    rResp.addParameter(toCast);
-                }
+                captureBody(response, rResp, fields);
             } catch (Exception ex) {
                 ServiceLogger.LOG.error("Error creating response event for state machine", ex);
             }
-            response.setEntity(msgBody, response.getEntity().getMediaType());
         }
 
         // Push the create event
@@ -669,6 +687,8 @@ public final class AOPRedirector extends Restlet {
              */
 
             // Build the basic information
+            final CaptureProjection fields = this.stateMachine == null
+                    ? CaptureProjection.ALL : this.stateMachine.getProjection();
             final RESTEvent rReq = new RESTEvent();
 
             final String sTarget = this.getTargetTemplate(request.getOriginalRef().toUrl());
@@ -676,37 +696,29 @@ public final class AOPRedirector extends Restlet {
                 return;
             }
             final URL target = new URL(sTarget);
-            rReq.addParameter(new Parameter(RESTEvent.HTTP_FROM, request.getClientInfo().getAddress()));
-            rReq.addParameter(new Parameter(RESTEvent.HTTP_TOINTERFACE, target.toExternalForm()));
-            rReq.addParameter(new Parameter(RESTEvent.HTTP_TO, target.getHost()));
-            rReq.addParameter(new Parameter(RESTEvent.HTTP_MSG, request.getMethod().getName()));
-
-            // Build the headers from the HTTP headers
-            final Series<Header> headers = (Series<Header>) request.getAttributes().get("org.restlet.http.headers");
-            if (headers != null) {
-                for (Header h : headers) {
-                    rReq.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + h.getName().toLowerCase(), h.getValue()));
+            rReq.addParameter(RESTEvent.HTTP_FROM, request.getClientInfo().getAddress());
+            rReq.addParameter(RESTEvent.HTTP_TOINTERFACE, target.toExternalForm());
+            rReq.addParameter(RESTEvent.HTTP_TO, target.getHost());
+            rReq.addParameter(RESTEvent.HTTP_MSG, request.getMethod().getName());
+
+            // Build the headers read by the pattern from the HTTP headers
+            captureHeaders(request, rReq, fields);
+
+            // Build the message parameters from the query; it is only
+            // parsed if the pattern reads a query parameter
+            if (fields.wantsQuery()) {
+                final Form form = request.getResourceRef().getQueryAsForm();
+                for (org.restlet.data.Parameter parameter : form) {
+                    final String name = "query." + parameter.getName();
+                    if (fields.wants(name)) {
+                        rReq.addParameter(new Parameter(name, parameter.getValue()));
+                    }
                 }
             }
-            // Build the message parameters from the FORM input
-            final Form form = request.getResourceRef().getQueryAsForm();
-            for (org.restlet.data.Parameter parameter : form) {
-                final Parameter toCast = new Parameter("query." + parameter.getName(), parameter.getValue());
-                rReq.addParameter(toCast);
-            }
 
             // Build the body data structure
             if (request.isEntityAvailable()) {
-                final String contentType = request.getEntity().getMediaType().getName();
-                final String msgBody = request.getEntityAsText();
-                rReq.addContent(contentType, msgBody);
-                // Get the local parameters from the attached REST form
-                final Form iForm = new Form(msgBody);
-                for (org.restlet.data.Parameter parameter : iForm) {
-                    final Parameter toCast = new Parameter(parameter.getName(), parameter.getValue());
-                    rReq.addParameter(toCast);
-                }
-                request.setEntity(msgBody, request.getEntity().getMediaType());
+                captureBody(request, rReq, fields);
             }
 
             // Push the constructed event to the state machine
@@ -719,6 +731,71 @@ public final class AOPRedirector extends Restlet {
         }
     }
 
+    /**
+     * Add the headers of a message that the pattern reads to an event.
+     * The headers are not read at all if the pattern reads none of them.
+     * @param message The request or response.
+     * @param event The event being built from the message.
+     * @param fields The fields of the message read by the pattern.
+     */
+    private static void captureHeaders(final Message message, final RESTEvent event,
+            final CaptureProjection fields) {
+        if (!fields.wantsHeaders()) {
+            return;
+        }
+        final Series<Header> headers = (Series<Header>) message.getAttributes().get("org.restlet.http.headers");
+        if (headers != null) {
+            for (Header h : headers) {
+                final String name = EventParameters.headerKey(RESTEvent.HTTP_CONFIG_HEAD, h.getName());
+                if (fields.wants(name)) {
+                    event.addParameter(name, h.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Capture the body of a message into an event as the bytes received;
+     * they are only decoded if a guard reads them. A large body is streamed
+     * straight off the heap. The message is given an unread copy of the
+     * same bytes, so it is passed on unchanged; a copy of a body stored off
+     * the heap holds it until the copy has been sent. The
+     * fields of a form body read by the pattern are added as event
+     * parameters. A body that the pattern does not read is left unread in
+     * the message.
+     * @param message The request or response.
+     * @param event The event being built from the message.
+     * @param fields The fields of the message read by the pattern.
+     * @throws IOException Error reading the body.
+     */
+    private static void captureBody(final Message message, final RESTEvent event,
+            final CaptureProjection fields) throws IOException {
+        final Representation entity = message.getEntity();
+        final MediaType mediaType = entity.getMediaType();
+        final boolean form = MediaType.APPLICATION_WWW_FORM.equals(mediaType, true);
+        if (!fields.wantsContent() && !(form && fields.wantsFormFields())) {
+            return;
+        }
+        final CharacterSet charset = entity.getCharacterSet();
+        event.addContent(mediaType.getName(), entity.getStream(), charset == null ? null : charset.getName());
+
+        final Content body = event.getDataBody();
+        final Representation copy = body.isStoredOffHeap()
+                ? new InputRepresentation(body.openStream(), mediaType, body.size())
+                : new ByteArrayRepresentation(body.getBytes(), mediaType);
+        copy.setCharacterSet(charset);
+        message.setEntity(copy);
+
+        if (form && fields.wantsFormFields()) {
+            final Form iForm = new Form(event.getDataBody().getData());
+            for (org.restlet.data.Parameter parameter : iForm) {
+                if (fields.wants(parameter.getName())) {
+                    event.addParameter(parameter.getName(), parameter.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * End modification
      */
@@ -296,12 +296,12 @@ public class COAPMessage extends ProtocolMessage{
         * Create a REST event about the Service Response i.e. capture and
         * uniform the data to be understood by the state machine rule checker
         */
-        rResp.addParameter(new Parameter(COAPEvent.RESPONSE_TIME, Long.toString(time)));
-        rResp.addParameter(new Parameter(COAPEvent.COAP_FROM, response.advanced().getSource().getHostAddress()));
+        rResp.addParameter(COAPEvent.RESPONSE_TIME, Long.toString(time));
+        rResp.addParameter(COAPEvent.COAP_FROM, response.advanced().getSource().getHostAddress());
         if(response.advanced().getDestination() != null) {
-            rResp.addParameter(new Parameter(COAPEvent.COAP_TO, response.advanced().getDestination().getHostAddress()));
+            rResp.addParameter(COAPEvent.COAP_TO, response.advanced().getDestination().getHostAddress());
         }
-        rResp.addParameter(new Parameter(COAPEvent.COAP_CODE, Integer.toString(response.getCode().value)));
+        rResp.addParameter(COAPEvent.COAP_CODE, Integer.toString(response.getCode().value));
 
         String responseText = response.getResponseText();
         // Build the headers from the COAP options
@@ -315,39 +315,39 @@ public class COAPMessage extends ProtocolMessage{
 
         if(options.hasAccept()) {
             int accept = options.getAccept();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Accept", "" + accept));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Accept", "" + accept);
         }
         if(options.hasContentFormat()) {
             int cf = options.getContentFormat();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Content-Format", "" + cf));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Content-Format", "" + cf);
         }
         if(options.hasUriHost()) {
             String uHost = options.getUriHost();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", uHost));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", uHost);
         }
         if(options.hasUriPort()) {
             Integer uPort = options.getUriPort();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", "" + uPort));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Host", "" + uPort);
         }
         if(options.hasMaxAge()) {
             Long maxAge = options.getMaxAge();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Max-Age", "" + maxAge));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Max-Age", "" + maxAge);
         }
 
         if(options.hasProxyScheme()) {
             String proxy = options.getProxyScheme();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Scheme", proxy));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Scheme", proxy);
         }
         if(options.hasProxyUri()) {
             String proxy = options.getProxyUri();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Uri", proxy));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Proxy-Uri", proxy);
         }
         if(options.hasSize1()) {
             Integer size = options.getSize1();
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Size1", "" + size));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Size1", "" + size);
         }
 
-        rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-None-Match", "" + options.hasIfNoneMatch()));
+        rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "If-None-Match", "" + options.hasIfNoneMatch());
 
         if(options.getIfMatchCount() > 0 ) {
             List<byte[]> ifMatch = options.getIfMatch();
@@ -356,20 +356,20 @@ public class COAPMessage extends ProtocolMessage{
                 ifMtachString += str + ";";
             }
             ifMtachString += "]";
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "If-Match", "" + ifMtachString));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "If-Match", "" + ifMtachString);
         }
 
         if(options.getLocationPathCount() > 0 ) {
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Path", options.getLocationPathString()));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Path", options.getLocationPathString());
         }
         if(options.getURIPathCount()> 0 ) {
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Path", options.getUriPathString()));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Path", options.getUriPathString());
         }
         if(options.getURIQueryCount() > 0 ) {
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Query", options.getUriQueryString()));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Uri-Query", options.getUriQueryString());
         }
         if(options.getLocationPathCount() > 0 ) {
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Query", options.getLocationQueryString()));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "Location-Query", options.getLocationQueryString());
         }
 
         if(options.getETagCount()> 0 ) {
@@ -379,16 +379,16 @@ public class COAPMessage extends ProtocolMessage{
                 eTagsString += str + ";";
             }
             eTagsString += "]";
-            rResp.addParameter(new Parameter(COAPEvent.COAP_CONFIG_HEAD + "ETag", "" + eTagsString));
+            rResp.addParameter(COAPEvent.COAP_CONFIG_HEAD + "ETag", "" + eTagsString);
         }
         final byte[] msgContent = response.getPayload();
 
         if (!options.hasContentFormat()) {
-            rResp.addContent("TEXT/PLAIN", new String(msgContent));
-            rResp.addParameter(new Parameter("coap.content-format", "TEXT/PLAIN"));
+            rResp.addContent("TEXT/PLAIN", msgContent, null);
+            rResp.addParameter("coap.content-format", "TEXT/PLAIN");
         } else {
             String mediaName = getContentFormatString(options.getContentFormat());
-            rResp.addContent(mediaName, new String(msgContent));
+            rResp.addContent(mediaName, msgContent, null);
 
         }
         return rResp;
@@ -26,14 +26,51 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import org.w3c.dom.Document;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JsonStreamPath;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.MultiPathMatcher;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathExpressions;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XmlStreamPath;
 /**
  * Content refers to the content of a message. In HTTP and REST terms this is
  * very unstructured - it is simply a data element (set of bytes) with an
  * qualified types: application/xml, application/json, etc.
  *
+ * Captured messages keep the body as the bytes received, with the
+ * character set it is encoded in; it is only decoded to text when a guard
+ * or report first reads it. Binary bodies are passed on unchanged. Large
+ * bodies are held off the heap (see PayloadStore) until the states that
+ * keep their event release it; their text is decoded at most once, and
+ * only kept while the heap has room for it.
+ *
+ * The parsed form of the data is built on first use and then shared by
+ * every guard that reads the content; changing the data discards it. A body
+ * captured as bytes is parsed from the bytes, without decoding it. Large
+ * json or xml content is not parsed for simple paths: these are streamed
+ * from the text instead, and the paths of all the guards of a state can be
+ * read in one pass.
+ *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
  *
@@ -68,24 +105,429 @@ public class Content implements Serializable {
     }
 
     /**
-     * The data content.
+     * The data content; for a body captured as bytes, null until first
+     * decoded.
+     */
+    private volatile String data;
+
+    /**
+     * The body as the bytes received; null for content given as text.
+     */
+    private byte[] bytes;
+
+    /**
+     * A large body stored off the heap; null otherwise.
+     */
+    private transient volatile PayloadStore.Payload payload;
+
+    /**
+     * The text of a body stored off the heap, once decoded; softly held so
+     * that it can be dropped again if the heap runs short.
      */
-    private String data;
+    private transient volatile SoftReference<String> decoded;
+
+    /**
+     * The number of holders that have retained a body stored off the heap
+     * through this content and not yet released it.
+     */
+    private transient int holders;
+
+    /**
+     * The name of the character set the bytes are encoded in.
+     */
+    private String charset = StandardCharsets.UTF_8.name();
 
     /**
      * Get the content value.
      * @return The content as a string (HTTP message body).
      */
     public final String getData() {
-        return data;
+        String text = decodedText();
+        if (text == null && (bytes != null || payload != null)) {
+            synchronized (this) {
+                text = decodedText();
+                final PayloadStore.Payload stored = payload;
+                if (text == null && stored != null) {
+                    text = stored.decode(getCharset());
+                    decoded = new SoftReference<>(text);
+                } else if (text == null && bytes != null) {
+                    text = new String(bytes, getCharset());
+                    data = text;
+                }
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Get the text of the content if it is at hand, without decoding it.
+     * @return The text; null if it has not been decoded.
+     */
+    private String decodedText() {
+        final String text = data;
+        if (text != null) {
+            return text;
+        }
+        final SoftReference<String> cached = decoded;
+        return cached == null ? null : cached.get();
+    }
+
+    /**
+     * Read the bytes of a body captured as bytes; the caller must hold the
+     * content while reading.
+     * @return A stream over the bytes.
+     */
+    private InputStream bodyStream() {
+        final PayloadStore.Payload stored = payload;
+        return stored != null ? stored.stream() : new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Read the text of the content, from the text if it is at hand and
+     * otherwise by decoding the bytes as they are read.
+     * @return A reader over the text.
+     */
+    private Reader openReader() {
+        final String text = decodedText();
+        return text != null ? new StringReader(text) : new InputStreamReader(bodyStream(), getCharset());
+    }
+
+    /**
+     * Open a stream over the content, encoded in its character set, e.g. to
+     * pass the body on once its event has been handed to the state machine.
+     * A body stored off the heap is held until the stream is closed.
+     * @return The stream.
+     */
+    public final InputStream openStream() {
+        final PayloadStore.Payload stored = payload;
+        if (stored != null) {
+            return stored.openStream();
+        }
+        final byte[] raw = getBytes();
+        return new ByteArrayInputStream(raw == null ? new byte[0] : raw);
+    }
+
+    /**
+     * Test if the text of the content is held on the heap, e.g. to check
+     * that a large body has been read without decoding it.
+     * @return True if the text has been given or decoded.
+     */
+    public final boolean isDecoded() {
+        return decodedText() != null;
+    }
+
+    /**
+     * Test if the body is stored off the heap.
+     * @return True for a large body held in the PayloadStore.
+     */
+    public final boolean isStoredOffHeap() {
+        return payload != null;
+    }
+
+    /**
+     * Get the content as bytes, encoded in its character set.
+     * @return The body as received; null if there is no content.
+     */
+    public final byte[] getBytes() {
+        final byte[] raw = bytes;
+        if (raw != null) {
+            return raw;
+        }
+        final PayloadStore.Payload stored = payload;
+        if (stored != null) {
+            return stored.toArray();
+        }
+        final String text = data;
+        return text == null ? null : text.getBytes(getCharset());
+    }
+
+    /**
+     * Get the character set of the content.
+     * @return The character set the bytes are encoded in.
+     */
+    public final Charset getCharset() {
+        return Charset.forName(charset);
     }
 
     /**
-     * Change the data to the newcontent.
+     * Test if there is content, without decoding it.
+     * @return True if the content is not null.
+     */
+    private boolean hasData() {
+        return bytes != null || payload != null || data != null;
+    }
+
+    /**
+     * The size of the content, without decoding it.
+     * @return The number of bytes or characters.
+     */
+    public final int size() {
+        final byte[] raw = bytes;
+        if (raw != null) {
+            return raw.length;
+        }
+        final PayloadStore.Payload stored = payload;
+        return stored != null ? stored.length() : data.length();
+    }
+
+    /**
+     * Add a holder of the content, e.g. a state keeping its event. A body
+     * stored off the heap is kept until every holder has released it.
+     */
+    public final synchronized void retain() {
+        final PayloadStore.Payload stored = payload;
+        if (stored != null) {
+            stored.retain();
+            holders++;
+        }
+    }
+
+    /**
+     * Remove a holder of the content; the off-heap store of a large body is
+     * reused once the last holder has released it.
+     */
+    public final synchronized void release() {
+        final PayloadStore.Payload stored = payload;
+        if (stored != null && holders > 0) {
+            holders--;
+            stored.release();
+        }
+    }
+
+    /**
+     * Change the data to the newcontent. A body stored off the heap is
+     * released for each holder that retained it through this content, as
+     * their later releases no longer refer to it.
      * @param newContent The updated message content.
      */
     public final void setData(final String newContent) {
-        data = newContent;
+        synchronized (this) {
+            final PayloadStore.Payload stored = payload;
+            for (; holders > 0; holders--) {
+                stored.release();
+            }
+            data = newContent;
+            bytes = null;
+            payload = null;
+            decoded = null;
+            xmlTree = null;
+            jsonTree = null;
+            matches = null;
+        }
+    }
+
+    /**
+     * Length of content from which simple paths are evaluated by streaming
+     * the text rather than by building the parsed tree.
+     */
+    private static final int STREAMING_THRESHOLD = readStreamingThreshold();
+
+    /**
+     * Read the streaming threshold from the configuration.
+     * @return The threshold; Integer.MAX_VALUE if streaming is not configured.
+     */
+    private static int readStreamingThreshold() {
+        try {
+            final String value = SystemProperties.readProperty("streaming_threshold");
+            return value == null ? Integer.MAX_VALUE : Integer.parseInt(value.trim());
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Could not read streaming_threshold property", ex);
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Marker stored in place of a parsed tree when the data does not parse.
+     */
+    private static final Object UNPARSABLE = new Object();
+
+    /**
+     * The data parsed as an xml DOM; null until first requested.
+     */
+    private transient volatile Object xmlTree;
+
+    /**
+     * The data parsed as a json path document; null until first requested.
+     */
+    private transient volatile Object jsonTree;
+
+    /**
+     * The paths most recently matched against the data in a single pass.
+     */
+    private transient volatile MultiPathMatcher.Matches matches;
+
+    /**
+     * Get the data as a parsed xml document. The document is parsed once
+     * and is only to be read (not edited) by callers.
+     * @return The document or null if the data is not valid xml.
+     */
+    public final Document getXmlDocument() {
+        Object tree = xmlTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = xmlTree;
+                if (tree == null) {
+                    tree = hasData() ? XML.parseQuietly(openReader()) : null;
+                    if (tree == null) {
+                        tree = UNPARSABLE;
+                    }
+                    xmlTree = tree;
+                }
+            }
+        }
+        return tree == UNPARSABLE ? null : (Document) tree;
+    }
+
+    /**
+     * Parse the data as an xml document that only the caller reads. A DOM
+     * is not safe to read on several threads at once, so a thread that
+     * evaluates guards alongside others parses its own document rather
+     * than reading the shared one.
+     * @return The document or null if the data is not valid xml.
+     */
+    public final Document parseXmlDocument() {
+        return hasData() ? XML.parseQuietly(openReader()) : null;
+    }
+
+    /**
+     * Read the value of a simple XPath expression from large content that
+     * has not been parsed, by streaming the bytes; neither the DOM nor the
+     * text of the content is built.
+     * @param pathLocation The XPath expression to evaluate.
+     * @return The matches answering the path; null if the path is not
+     * streamed or the stream does not answer it.
+     */
+    public final MultiPathMatcher.Matches streamXmlPath(final String pathLocation) {
+        if (xmlTree != null || !hasData() || size() < STREAMING_THRESHOLD) {
+            return null;
+        }
+        final XmlStreamPath streamed = PathExpressions.xmlStreamPath(pathLocation);
+        if (streamed == null) {
+            return null;
+        }
+        final String value;
+        try (Reader reader = openReader()) {
+            value = streamed.read(reader);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.debug("Streamed xpath not evaluated", ex);
+            return null;
+        }
+        return value == null ? null : MultiPathMatcher.Matches.of(pathLocation, value);
+    }
+
+    /**
+     * Get the xml document to evaluate an XPath expression against. Simple
+     * paths into large content that has not been parsed are answered by
+     * streaming it, so the DOM is never built.
+     * @param pathLocation The XPath expression to evaluate.
+     * @return The parsed document, or the matches of the streamed path.
+     */
+    public final Object getXmlDocument(final String pathLocation) {
+        final MultiPathMatcher.Matches streamed = streamXmlPath(pathLocation);
+        return streamed != null ? streamed : getXmlDocument();
+    }
+
+    /**
+     * Get the data as a parsed json document for json path evaluation. The
+     * document is parsed once and is only to be read by callers.
+     * @return The document or null if the data is not valid json.
+     */
+    public final Object getJsonDocument() {
+        Object tree = jsonTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = jsonTree;
+                if (tree == null) {
+                    tree = hasData() ? parseJson() : null;
+                    if (tree == null) {
+                        tree = UNPARSABLE;
+                    }
+                    jsonTree = tree;
+                }
+            }
+        }
+        return tree == UNPARSABLE ? null : tree;
+    }
+
+    /**
+     * Parse the content as json, from the bytes if it has not been decoded.
+     * @return The document or null if the data is not valid json.
+     */
+    private Object parseJson() {
+        final String text = decodedText();
+        return text != null ? JSON.parseQuietly(text) : JSON.parseQuietly(bodyStream(), getCharset());
+    }
+
+    /**
+     * Read the value of a simple json path from large content that has not
+     * been parsed, by streaming the bytes; neither the tree nor the text of
+     * the content is built.
+     * @param pathLocation The json path expression to evaluate.
+     * @return The matches answering the path; null if the path is not
+     * streamed or the stream does not answer it.
+     */
+    public final MultiPathMatcher.Matches streamJsonPath(final String pathLocation) {
+        if (jsonTree != null || !hasData() || size() < STREAMING_THRESHOLD) {
+            return null;
+        }
+        final JsonStreamPath streamed = PathExpressions.jsonStreamPath(pathLocation);
+        if (streamed == null) {
+            return null;
+        }
+        final String value;
+        try (Reader reader = openReader()) {
+            value = streamed.read(reader);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.debug("Streamed json path not evaluated", ex);
+            return null;
+        }
+        return value == null ? null : MultiPathMatcher.Matches.of(pathLocation, value);
+    }
+
+    /**
+     * Get the json document to evaluate a path expression against. The
+     * whole document expression "*" is answered from the original text so
+     * that it is returned exactly as received. Simple paths into large
+     * content that has not been parsed are answered by streaming it, so
+     * the tree is never built.
+     * @param pathLocation The json path expression to evaluate.
+     * @return The parsed document, the data text for "*", or the matches of
+     * the streamed path.
+     */
+    public final Object getJsonDocument(final String pathLocation) {
+        if ("*".equals(pathLocation)) {
+            return getData();
+        }
+        final MultiPathMatcher.Matches streamed = streamJsonPath(pathLocation);
+        return streamed != null ? streamed : getJsonDocument();
+    }
+
+    /**
+     * Get the values of a set of paths, read from the data in a single
+     * streamed pass. The result of the last matcher is kept, so the guards
+     * of every transition of a state share one pass. Once the data has been
+     * parsed in the matcher's format the tree is used instead.
+     * @param matcher The paths of a state; may be null.
+     * @return The matches, or null if the parsed tree should be used.
+     */
+    public final MultiPathMatcher.Matches getMatches(final MultiPathMatcher matcher) {
+        if (matcher == null || (matcher.isXml() ? xmlTree : jsonTree) != null) {
+            return null;
+        }
+        MultiPathMatcher.Matches result = matches;
+        if (result == null || !result.isFrom(matcher)) {
+            synchronized (this) {
+                result = matches;
+                if (result == null || !result.isFrom(matcher)) {
+                    if (!hasData()) {
+                        return null;
+                    }
+                    result = matcher.read(openReader());
+                    matches = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -98,6 +540,113 @@ public class Content implements Serializable {
         this.type = newType;
     }
 
+    /**
+     * Construct a data object for a message body captured as bytes. The
+     * bytes are kept (not copied) and decoded when the text is first read.
+     * @param newType The type of the content.
+     * @param newBytes The message body.
+     * @param charsetName The character set of the body; null or unknown
+     * names are read as UTF-8.
+     */
+    public Content(final String newType, final byte[] newBytes, final String charsetName) {
+        if (newBytes != null && PayloadStore.isLarge(newBytes.length)) {
+            this.payload = PayloadStore.store(newBytes);
+        } else {
+            this.bytes = newBytes;
+        }
+        this.type = newType;
+        this.charset = charsetFor(charsetName).name();
+    }
+
+    /**
+     * Get a character set by name.
+     * @param charsetName The name; may be null.
+     * @return The character set, or UTF-8 if the name is null or unknown.
+     */
+    private static Charset charsetFor(final String charsetName) {
+        if (charsetName == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(charsetName);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+            ServiceLogger.LOG.error("Unknown character set " + charsetName + ", reading content as UTF-8");
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Serialize the content; a body stored off the heap is written as bytes.
+     * @param out The stream to write to.
+     * @throws IOException Error writing the content.
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        final PayloadStore.Payload stored = payload;
+        out.writeObject(stored == null ? null : stored.toArray());
+    }
+
+    /**
+     * Read serialized content; a large body is stored off the heap again.
+     * @param in The stream to read from.
+     * @throws IOException Error reading the content.
+     * @throws ClassNotFoundException The stream holds an unknown class.
+     */
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] stored;
+        try {
+            stored = (byte[]) in.readObject();
+        } catch (OptionalDataException ex) {
+            // Written before large bodies were stored off the heap
+            stored = null;
+        }
+        if (stored != null) {
+            this.payload = PayloadStore.store(stored);
+        }
+    }
+
+    /**
+     * Read a message body from a stream. A body that reaches the off-heap
+     * threshold is copied into the PayloadStore as it is read, rather than
+     * being buffered on the heap.
+     * @param newType The type of the content.
+     * @param input The stream of the body; may be null for no body.
+     * @param charsetName The character set of the body; null or unknown
+     * names are read as UTF-8.
+     * @return The content read.
+     * @throws IOException Error reading the stream.
+     */
+    public static Content read(final String newType, final InputStream input, final String charsetName)
+            throws IOException {
+        final Content body = new Content(newType, (String) null);
+        body.charset = charsetFor(charsetName).name();
+        if (input == null) {
+            body.bytes = new byte[0];
+            return body;
+        }
+        try {
+            byte[] buffer = new byte[4096];
+            int length = 0;
+            int read = input.read(buffer, 0, buffer.length);
+            while (read != -1) {
+                length += read;
+                if (PayloadStore.isLarge(length)) {
+                    body.payload = PayloadStore.store(buffer, length, input);
+                    return body;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                read = input.read(buffer, length, buffer.length - length);
+            }
+            body.bytes = Arrays.copyOf(buffer, length);
+            return body;
+        } finally {
+            input.close();
+        }
+    }
+
     /**
      * Change the value of the data using a path expression on the input value.
      * That is change all or part of the message content.
@@ -107,9 +656,9 @@ public class Content implements Serializable {
      */
     public final String setField(final String pathLocation, final String value) {
         if (type.equalsIgnoreCase("json")) {
-            return JSON.writeValue(data, pathLocation, value);
+            return JSON.writeValue(getData(), pathLocation, value);
         } else {
-            return XML.writeValue(data, pathLocation, value);
+            return XML.writeValue(getData(), pathLocation, value);
         }
     }
 
@@ -121,9 +670,9 @@ public class Content implements Serializable {
      */
     public final String getFieldValue(final String pathLocation) {
         if (type.equalsIgnoreCase("json")) {
-            return JSON.readValue(data, pathLocation);
+            return JSON.readValue(getJsonDocument(pathLocation), pathLocation);
         } else {
-            return XML.readValue(data, pathLocation);
+            return XML.readValue(getXmlDocument(pathLocation), pathLocation);
         }
     }
 }
@@ -0,0 +1,569 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+
+/**
+ * The parameters of an event, laid out to keep capture cheap. The fields
+ * every HTTP and CoAP event carries (from, to, msg, code, response-time,
+ * content...) live in fixed slots indexed by the Field enumeration; other
+ * headers and query parameters sit in a small open-addressing table.
+ * Values added as strings are stored as they are, and a Parameter is only
+ * created for the values that are read; it then replaces the string, so
+ * later reads share it. Guards read the strings themselves (getValue). The
+ * content field refers to the event's Content, so a body captured as bytes
+ * is only decoded if it is read; its Parameter is not kept, so that it does
+ * not hold the text of a large body on the heap.
+ *
+ * Header names are turned into parameter names (e.g. "http.accept") with
+ * headerKey(), which returns one shared name per header rather than
+ * building a new string for every message.
+ *
+ * An event is built by one thread and then passed on to be evaluated; the
+ * table is not synchronized. get() replaces a string with its Parameter,
+ * so it is only called by the thread that evaluates the event; getValue(),
+ * getContent() and containsKey() do not modify the table, so the guards of
+ * several transitions may read one event on several threads.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class EventParameters extends AbstractMap<String, Parameter> implements Serializable {
+
+    /**
+     * Portable serializable class.
+     */
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * The fields with a fixed slot.
+     */
+    public enum Field {
+        /** http.from. */
+        HTTP_FROM(RESTEvent.HTTP_FROM),
+        /** http.to. */
+        HTTP_TO(RESTEvent.HTTP_TO),
+        /** http.tointerface. */
+        HTTP_TOINTERFACE(RESTEvent.HTTP_TOINTERFACE),
+        /** http.path. */
+        HTTP_PATH(RESTEvent.HTTP_TOPATH),
+        /** http.msg. */
+        HTTP_MSG(RESTEvent.HTTP_MSG),
+        /** http.code. */
+        HTTP_CODE(RESTEvent.HTTP_CODE),
+        /** http.content-type. */
+        HTTP_CONTENT_TYPE("http.content-type"),
+        /** response-time. */
+        RESPONSE_TIME(RESTEvent.RESPONSE_TIME),
+        /** content. */
+        CONTENT("content"),
+        /** coap.from. */
+        COAP_FROM(COAPEvent.COAP_FROM),
+        /** coap.to. */
+        COAP_TO(COAPEvent.COAP_TO),
+        /** coap.tointerface. */
+        COAP_TOINTERFACE(COAPEvent.COAP_TOINTERFACE),
+        /** coap.msg. */
+        COAP_MSG(COAPEvent.COAP_MSG),
+        /** coap.code. */
+        COAP_CODE(COAPEvent.COAP_CODE),
+        /** coap.token. */
+        COAP_TOKEN(COAPEvent.COAP_TOKEN);
+
+        /**
+         * The parameter name of the field.
+         */
+        private final String key;
+
+        /**
+         * Construct the field.
+         * @param name The parameter name.
+         */
+        Field(final String name) {
+            this.key = name;
+        }
+
+        /**
+         * Get the parameter name of the field.
+         * @return The name e.g. http.from.
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * The fields in slot order.
+     */
+    private static final Field[] SLOTS = Field.values();
+
+    /**
+     * The fields by parameter name.
+     */
+    private static final Map<String, Field> FIELDS = new HashMap<>();
+
+    static {
+        for (Field field : SLOTS) {
+            FIELDS.put(field.key, field);
+        }
+    }
+
+    /**
+     * Upper bound on the shared header names of each prefix; names beyond
+     * this are built for every message rather than growing the cache.
+     */
+    private static final int MAX_KEYS = 1024;
+
+    /**
+     * The shared parameter names, by prefix and then by header name as
+     * received.
+     */
+    private static final ConcurrentHashMap<String, Map<String, String>> KEYS = new ConcurrentHashMap<>();
+
+    /**
+     * Initial size of the table of other parameters; a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The values of the fixed fields: a String, Parameter, Content or null.
+     */
+    private final Object[] fixed = new Object[SLOTS.length];
+
+    /**
+     * The names of the other parameters, placed by hash with linear probing.
+     */
+    private String[] keys;
+
+    /**
+     * The values of the other parameters: a String or a Parameter.
+     */
+    private Object[] values;
+
+    /**
+     * The number of parameters held.
+     */
+    private int count;
+
+    /**
+     * Whether a parameter name is one of the fixed fields of an event,
+     * e.g. http.from or response-time.
+     * @param name The parameter name.
+     * @return True if the name has a fixed slot.
+     */
+    public static boolean isField(final String name) {
+        return FIELDS.containsKey(name);
+    }
+
+    /**
+     * Get the shared parameter name of a header: the prefix followed by the
+     * header name in lower case.
+     * @param prefix The parameter prefix e.g. http.
+     * @param name The header name as received.
+     * @return The parameter name.
+     */
+    public static String headerKey(final String prefix, final String name) {
+        final Map<String, String> names = KEYS.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>());
+        String key = names.get(name);
+        if (key == null) {
+            key = prefix + name.toLowerCase(Locale.ENGLISH);
+            if (names.size() < MAX_KEYS) {
+                names.put(name, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Add a parameter given as a name and value, without creating a
+     * Parameter for it.
+     * @param key The parameter name.
+     * @param value The value (can be null).
+     * @return The previous value, or null if there was none.
+     */
+    public String putValue(final String key, final String value) {
+        return valueOf(store(key, value == null ? new Parameter(key, null) : value));
+    }
+
+    /**
+     * Set the content field to the text of a message body, which is only
+     * decoded when the field is read.
+     * @param body The message body.
+     */
+    void putContent(final Content body) {
+        store(Field.CONTENT.key, body);
+    }
+
+    /**
+     * Get the message body that the content field refers to, without
+     * decoding it.
+     * @return The body; null if the field is not set or has been replaced
+     * by another value.
+     */
+    public Content getContent() {
+        final Object stored = fixed[Field.CONTENT.ordinal()];
+        return stored instanceof Content ? (Content) stored : null;
+    }
+
+    /**
+     * Get the value of a parameter without creating a Parameter for it.
+     * @param key The parameter name.
+     * @return The value, or null if there is no such parameter.
+     */
+    public String getValue(final String key) {
+        return valueOf(lookup(key));
+    }
+
+    @Override
+    public Parameter put(final String key, final Parameter value) {
+        return toParameter(key, store(key, value));
+    }
+
+    @Override
+    public Parameter get(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        final String name = (String) key;
+        final Field field = FIELDS.get(name);
+        if (field != null) {
+            final Object stored = fixed[field.ordinal()];
+            final Parameter view = toParameter(name, stored);
+            if (stored instanceof String) {
+                fixed[field.ordinal()] = view;
+            }
+            return view;
+        }
+        final int slot = find(name);
+        if (slot < 0) {
+            return null;
+        }
+        final Object stored = values[slot];
+        final Parameter view = toParameter(name, stored);
+        if (stored instanceof String) {
+            values[slot] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof String && lookup((String) key) != null;
+    }
+
+    @Override
+    public Parameter remove(final Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        final String name = (String) key;
+        final Field field = FIELDS.get(name);
+        final Object previous;
+        if (field != null) {
+            previous = fixed[field.ordinal()];
+            fixed[field.ordinal()] = null;
+        } else {
+            final int slot = find(name);
+            if (slot < 0) {
+                return null;
+            }
+            previous = values[slot];
+            delete(slot);
+        }
+        if (previous != null) {
+            count--;
+        }
+        return toParameter(name, previous);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < fixed.length; i++) {
+            fixed[i] = null;
+        }
+        keys = null;
+        values = null;
+        count = 0;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Parameter>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Parameter>>() {
+            @Override
+            public Iterator<Map.Entry<String, Parameter>> iterator() {
+                return new Entries();
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Store a value.
+     * @param key The parameter name.
+     * @param value A String, Parameter or Content.
+     * @return The previous value, or null if there was none.
+     */
+    private Object store(final String key, final Object value) {
+        final Field field = FIELDS.get(key);
+        final Object previous;
+        if (field != null) {
+            previous = fixed[field.ordinal()];
+            fixed[field.ordinal()] = value;
+        } else {
+            if (keys == null || (count + 1) * 2 > keys.length) {
+                grow();
+            }
+            int slot = indexOf(key, keys.length);
+            while (keys[slot] != null && !matches(keys[slot], key)) {
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            previous = values[slot];
+            keys[slot] = key;
+            values[slot] = value;
+        }
+        if (previous == null) {
+            count++;
+        }
+        return previous;
+    }
+
+    /**
+     * Find the stored value of a parameter.
+     * @param key The parameter name.
+     * @return A String or Parameter, or null if there is none.
+     */
+    private Object lookup(final String key) {
+        final Field field = FIELDS.get(key);
+        if (field != null) {
+            return fixed[field.ordinal()];
+        }
+        final int slot = find(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    /**
+     * Find the table slot of a parameter.
+     * @param key The parameter name.
+     * @return The slot, or -1 if the parameter is not in the table.
+     */
+    private int find(final String key) {
+        if (keys == null) {
+            return -1;
+        }
+        int slot = indexOf(key, keys.length);
+        while (keys[slot] != null) {
+            if (matches(keys[slot], key)) {
+                return slot;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Empty a table slot, moving later entries of the same probe run back
+     * so that they can still be found.
+     * @param removed The slot to empty.
+     */
+    private void delete(final int removed) {
+        final int mask = keys.length - 1;
+        int hole = removed;
+        int next = (hole + 1) & mask;
+        while (keys[next] != null) {
+            final int home = indexOf(keys[next], keys.length);
+            final boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!stays) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[hole] = null;
+        values[hole] = null;
+    }
+
+    /**
+     * Create or double the table.
+     */
+    private void grow() {
+        final String[] oldKeys = keys;
+        final Object[] oldValues = values;
+        final int capacity = oldKeys == null ? INITIAL_CAPACITY : oldKeys.length * 2;
+        keys = new String[capacity];
+        values = new Object[capacity];
+        if (oldKeys != null) {
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = indexOf(oldKeys[i], capacity);
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * The home slot of a name.
+     * @param key The parameter name.
+     * @param capacity The table size.
+     * @return The slot.
+     */
+    private static int indexOf(final String key, final int capacity) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    /**
+     * Compare a stored name with a name being looked up; shared names
+     * usually match by reference.
+     * @param stored The stored name.
+     * @param key The name looked up.
+     * @return True if they are the same name.
+     */
+    private static boolean matches(final String stored, final String key) {
+        return stored == key || stored.equals(key);
+    }
+
+    /**
+     * The string value of a stored value.
+     * @param stored A String, Parameter, Content or null.
+     * @return The value.
+     */
+    private static String valueOf(final Object stored) {
+        if (stored instanceof Parameter) {
+            return ((Parameter) stored).getValue();
+        }
+        if (stored instanceof Content) {
+            return ((Content) stored).getData();
+        }
+        return (String) stored;
+    }
+
+    /**
+     * The Parameter of a stored value.
+     * @param key The parameter name.
+     * @param stored A String, Parameter, Content or null.
+     * @return The parameter; null if there is no value.
+     */
+    private static Parameter toParameter(final String key, final Object stored) {
+        if (stored == null || stored instanceof Parameter) {
+            return (Parameter) stored;
+        }
+        return new Parameter(key, valueOf(stored));
+    }
+
+    /**
+     * Iterates over the fixed fields and then the table.
+     */
+    private final class Entries implements Iterator<Map.Entry<String, Parameter>> {
+
+        /**
+         * The position: fixed slots first, then table slots.
+         */
+        private int position = -1;
+
+        /**
+         * Move to the next position holding a value.
+         * @return The position, or -1 at the end.
+         */
+        private int advance() {
+            int next = position + 1;
+            while (next < fixed.length) {
+                if (fixed[next] != null) {
+                    return next;
+                }
+                next++;
+            }
+            if (keys != null) {
+                while (next - fixed.length < keys.length) {
+                    if (keys[next - fixed.length] != null) {
+                        return next;
+                    }
+                    next++;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return advance() >= 0;
+        }
+
+        @Override
+        public Map.Entry<String, Parameter> next() {
+            final int next = advance();
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            position = next;
+            final String key;
+            final Parameter view;
+            if (next < fixed.length) {
+                key = SLOTS[next].key;
+                view = toParameter(key, fixed[next]);
+                if (fixed[next] instanceof String) {
+                    fixed[next] = view;
+                }
+            } else {
+                key = keys[next - fixed.length];
+                view = toParameter(key, values[next - fixed.length]);
+                if (values[next - fixed.length] instanceof String) {
+                    values[next - fixed.length] = view;
+                }
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(key, view);
+        }
+    }
+}
@@ -26,13 +26,14 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
-import java.util.HashMap;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architecture;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.InvalidPatternReferenceException;
-import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidJSONPathException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidSchemaException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidXPathException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathExpressions;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.SchemaRegistry;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidInputException;
 
@@ -40,6 +41,11 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine
  * A guard is a rule applied to an event that evaluates to true or false.
  * A transition can only be realised where
  *
+ * Guards are immutable once built from the pattern, so the guards of one
+ * loaded pattern can be shared by concurrent sessions. A guard whose value
+ * refers to $$...$$ data is a template: each evaluation binds it to the
+ * value in the evaluating session with bind().
+ *
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
  *
@@ -53,9 +59,10 @@ public class Guard {
      */
     public enum ComparisonType {
         /**
-         * 7 types: =, !=, set contains, <, >, counter and regex.
+         * 8 types: =, !=, set contains, <, >, counter, regex and validates
+         * (the value complies with a schema).
          */
-	EQUALS(0), NOTEQUALS(1), CONTAINS(2), LESSTHAN(3), GREATERTHAN(4), COUNTER (5), REGEX(6);
+	EQUALS(0), NOTEQUALS(1), CONTAINS(2), LESSTHAN(3), GREATERTHAN(4), COUNTER (5), REGEX(6), VALIDATES(7);
 
         /**
          * The integer id of the type (specified above).
@@ -106,7 +113,7 @@ public class Guard {
      * value; then when V is applied to the function the evaluation against
      * this compareto value must be true.
      */
-    private transient String compareTo;
+    private final transient String compareTo;
 
     /**
      * Return the comparison value that this guard is evaluating.
@@ -117,11 +124,22 @@ public class Guard {
     }
 
     /**
-     * Setter for the comparitor.
-     * @param compare The new compare to value.
+     * The test of this guard, compiled from the comparison type and value.
      */
-    public final void setGuardCompare(final String compare) {
-        compareTo = compare;
+    private final transient GuardPredicate predicate;
+
+    /**
+     * True if the comparison value refers to $$...$$ data that is only known
+     * when the guard is evaluated in a session.
+     */
+    private final transient boolean template;
+
+    /**
+     * Whether this guard must be bound before it is evaluated.
+     * @return True if the comparison value contains a $$...$$ reference.
+     */
+    public final boolean requiresBinding() {
+        return template;
     }
 
     /**
@@ -138,6 +156,65 @@ public class Guard {
         return guardCondition;
     }
 
+    /**
+     * The path expression of a content[...] guard; null for other guards.
+     */
+    private final transient String contentPath;
+
+    /**
+     * Return the path into the message content that this guard evaluates.
+     * @return The path expression inside content[...], or null if this guard
+     * does not test the content.
+     */
+    public final String getContentPath() {
+        return contentPath;
+    }
+
+    /**
+     * Label prefix of the guards that test a path in the message content.
+     */
+    private static final String CONTENT_PREFIX = "content[";
+
+    /**
+     * Estimated relative cost of evaluating this guard.
+     */
+    private final transient int cost;
+
+    /**
+     * Get the estimated relative cost of evaluating this guard, used to
+     * evaluate the cheap guards of a transition first: a header lookup (0),
+     * a numeric comparison or regex on a header (1), a content path (2), a
+     * regex on the content (3), and validating against a schema (4).
+     * @return The cost estimate.
+     */
+    public final int getCost() {
+        return cost;
+    }
+
+    /**
+     * Estimate the relative cost of evaluating a guard.
+     * @param label The guard label.
+     * @param condition The guard type.
+     * @return The cost estimate.
+     * @see #getCost()
+     */
+    private static int estimateCost(final String label, final ComparisonType condition) {
+        if (condition == ComparisonType.VALIDATES) {
+            return 4;
+        }
+        if (label != null && label.startsWith("content")) {
+            return condition == ComparisonType.REGEX ? 3 : 2;
+        }
+        switch (condition) {
+            case EQUALS:
+            case NOTEQUALS:
+            case CONTAINS:
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
     /**
      * Construct the guard. Note, all elements are translated to lowercase for
      * case independent matching. This is because, there may be little
@@ -148,7 +225,8 @@ public class Guard {
      * @param condition The condition e.g. =
      * @param comparitor What to compare a value against.
      * @param arc Overall architecture context.
-     * @throws InvalidGuard Exception indicating guard could not be produced from the inputs
+     * @throws InvalidGuard Exception indicating guard could not be produced from the inputs,
+     * including a content path or schema that does not compile
      */
     public Guard(final String label, final Class type, final ComparisonType condition,
             final String comparitor, final Architecture arc) throws InvalidGuard {
@@ -163,9 +241,66 @@ public class Guard {
             }
         }
 
+        if (label != null && label.startsWith(CONTENT_PREFIX) && label.endsWith("]")) {
+            this.contentPath = label.substring(CONTENT_PREFIX.length(), label.length() - 1);
+            if (!label.contains("$$")) {
+                try {
+                    PathExpressions.register(this.contentPath);
+                } catch (InvalidXPathException | InvalidJSONPathException ex) {
+                    throw new InvalidGuard(ex.getMessage(), ex);
+                }
+            }
+        } else {
+            this.contentPath = null;
+        }
+
+        if (condition == ComparisonType.VALIDATES) {
+            if (this.contentPath != null) {
+                throw new InvalidGuard("A validates guard tests the whole content or a parameter, not "
+                        + label);
+            }
+            if (!testCondition.contains("$$")) {
+                try {
+                    SchemaRegistry.schema(testCondition);
+                } catch (InvalidSchemaException ex) {
+                    throw new InvalidGuard(ex.getMessage(), ex);
+                }
+            }
+        }
+
         this.guardCondType = condition;
         this.compareTo = testCondition;
         this.dataType = type;
+        this.predicate = GuardPredicate.compile(condition, type, testCondition);
+        this.template = testCondition.contains("$$");
+        this.cost = estimateCost(label, condition);
+    }
+
+    /**
+     * Construct the guard that a template is bound to in one evaluation.
+     * @param unbound The template guard.
+     * @param bound The value its $$...$$ reference resolved to.
+     */
+    private Guard(final Guard unbound, final String bound) {
+        this.guardCondition = unbound.guardCondition;
+        this.contentPath = unbound.contentPath;
+        this.guardCondType = unbound.guardCondType;
+        this.dataType = unbound.dataType;
+        this.compareTo = bound;
+        this.predicate = GuardPredicate.compile(guardCondType, dataType, bound);
+        this.template = false;
+        this.cost = unbound.cost;
+    }
+
+    /**
+     * Bind a template guard to the value of its $$...$$ reference in the
+     * evaluating session. This guard is unchanged.
+     * @param value The resolved comparison value; null if it could not be
+     * resolved.
+     * @return A guard testing against the resolved value.
+     */
+    public final Guard bind(final String value) {
+        return new Guard(this, value);
     }
 
     /**
@@ -176,55 +311,18 @@ public class Guard {
      * @throws InvalidRegexException Thrown in case of an invalid regex syntax
      */
     public final boolean evaluate(final Object input) throws InvalidInputException, InvalidRegexException {
-        Object toCompare = input;
-        if (dataType == String.class) {
-            toCompare = ((String) input);
-        }
+        return predicate.test(input);
+    }
 
-        switch(this.guardCondType) {
-            case EQUALS:
-                if (dataType == String.class) {
-                    return ((String) toCompare).equalsIgnoreCase(this.compareTo);
-                }
-                return toCompare.equals(this.compareTo);
-            case NOTEQUALS:
-                if (dataType == String.class) {
-                    return !((String) toCompare).equalsIgnoreCase(this.compareTo);
-                }
-                return !toCompare.equals(this.compareTo);
-            case COUNTER:
-                Integer aC = new Integer(this.compareTo);
-                Integer bC = (Integer) toCompare;
-                return aC==bC;
-            case LESSTHAN:
-                try{
-                    double a = new Double(this.compareTo);
-                    double b = new Double(toCompare.toString());
-                    return b < a;
-                } catch(Exception ex) {
-                    return false;
-                }
-            case GREATERTHAN:
-                try{
-                    double a = new Double(this.compareTo);
-                    double b = new Double(toCompare.toString());
-                    return b > a;
-                } catch(Exception ex) {
-                    return false;
-                }
-            case CONTAINS:
-                 final HashMap<String, Parameter> heads = (HashMap<String, Parameter>) input;
-                 return heads.containsKey(this.compareTo);
-            case REGEX:
-                try {
-                    return Pattern.matches(this.compareTo, toCompare.toString());
-                }
-                catch (PatternSyntaxException ex){
-                    throw new InvalidRegexException("There is a regex guard with an invalid regular expression.");
-                }
-             default:
-                 throw new InvalidInputException("Unknown condition type");
-        }
+    /**
+     * Describe why an input fails this guard e.g. the first error found
+     * validating a document against the guard's schema.
+     * @param input The input that failed the guard.
+     * @return The reason; null if the guard reports no more than the value.
+     * @throws InvalidInputException Error in input and exception thrown during compare.
+     */
+    public final String explain(final Object input) throws InvalidInputException {
+        return predicate.explain(input);
     }
 }
 
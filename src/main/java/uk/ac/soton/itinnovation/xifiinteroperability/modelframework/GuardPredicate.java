@@ -0,0 +1,374 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidSchemaException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.SchemaRegistry;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidInputException;
+
+/**
+ * The test applied by a guard, compiled once from its comparison type and
+ * value when the pattern is loaded. Each comparison type has its own
+ * implementation holding the value in the form it is tested with: a parsed
+ * number, a compiled regular expression, etc. Testing an event value then
+ * does no parsing or compiling and allocates nothing.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+abstract class GuardPredicate {
+
+    /**
+     * Test a value from an event.
+     * @param input The value to test.
+     * @return True if the value satisfies the guard.
+     * @throws InvalidInputException The guard cannot test this value.
+     * @throws InvalidRegexException The guard's regular expression is invalid.
+     */
+    abstract boolean test(Object input) throws InvalidInputException, InvalidRegexException;
+
+    /**
+     * Describe why a value fails the test, where the test finds more than
+     * that it failed.
+     * @param input The value that failed the test.
+     * @return The reason; null if there is no more to report.
+     * @throws InvalidInputException The guard cannot test this value.
+     */
+    String explain(final Object input) throws InvalidInputException {
+        return null;
+    }
+
+    /**
+     * Compile the predicate for a guard.
+     * @param condition The comparison type.
+     * @param dataType The data type of the guarded value.
+     * @param compareTo The value to compare against.
+     * @return The compiled predicate.
+     */
+    static GuardPredicate compile(final Guard.ComparisonType condition, final Class dataType,
+            final String compareTo) {
+        if (condition == null) {
+            return new Unknown();
+        }
+        switch (condition) {
+            case EQUALS:
+                return new Equality(dataType == String.class, compareTo, false);
+            case NOTEQUALS:
+                return new Equality(dataType == String.class, compareTo, true);
+            case LESSTHAN:
+                return new Numeric(compareTo, true);
+            case GREATERTHAN:
+                return new Numeric(compareTo, false);
+            case COUNTER:
+                return new Counter(compareTo);
+            case CONTAINS:
+                return new Contains(compareTo);
+            case REGEX:
+                return new Regex(compareTo);
+            case VALIDATES:
+                return new Validates(compareTo);
+            default:
+                return new Unknown();
+        }
+    }
+
+    /**
+     * EQUALS and NOTEQUALS: string values are compared ignoring case.
+     */
+    private static final class Equality extends GuardPredicate {
+
+        /**
+         * True if the guarded value is a string.
+         */
+        private final boolean text;
+
+        /**
+         * The value to compare against.
+         */
+        private final String compareTo;
+
+        /**
+         * True for NOTEQUALS.
+         */
+        private final boolean negate;
+
+        /**
+         * Construct the predicate.
+         * @param isText True if the guarded value is a string.
+         * @param value The value to compare against.
+         * @param notEquals True for NOTEQUALS.
+         */
+        Equality(final boolean isText, final String value, final boolean notEquals) {
+            this.text = isText;
+            this.compareTo = value;
+            this.negate = notEquals;
+        }
+
+        @Override
+        boolean test(final Object input) {
+            final boolean equal = text ? ((String) input).equalsIgnoreCase(compareTo) : input.equals(compareTo);
+            return equal != negate;
+        }
+    }
+
+    /**
+     * LESSTHAN and GREATERTHAN: the comparand is parsed as a number once.
+     * A comparand or value that is not a number fails the test.
+     */
+    private static final class Numeric extends GuardPredicate {
+
+        /**
+         * The parsed comparand.
+         */
+        private final double bound;
+
+        /**
+         * False if the comparand is not a number.
+         */
+        private final boolean valid;
+
+        /**
+         * True for LESSTHAN.
+         */
+        private final boolean less;
+
+        /**
+         * Construct the predicate.
+         * @param value The comparand.
+         * @param lessThan True for LESSTHAN, false for GREATERTHAN.
+         */
+        Numeric(final String value, final boolean lessThan) {
+            double parsed = 0;
+            boolean ok = value != null;
+            if (ok) {
+                try {
+                    parsed = Double.parseDouble(value);
+                } catch (NumberFormatException ex) {
+                    ok = false;
+                }
+            }
+            this.bound = parsed;
+            this.valid = ok;
+            this.less = lessThan;
+        }
+
+        @Override
+        boolean test(final Object input) {
+            if (!valid || input == null) {
+                return false;
+            }
+            final double value;
+            if (input instanceof Number) {
+                value = ((Number) input).doubleValue();
+            } else {
+                try {
+                    value = Double.parseDouble(input.toString());
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+            return less ? value < bound : value > bound;
+        }
+    }
+
+    /**
+     * COUNTER: the value must equal the parsed integer comparand.
+     */
+    private static final class Counter extends GuardPredicate {
+
+        /**
+         * The parsed comparand.
+         */
+        private final int target;
+
+        /**
+         * False if the comparand is not an integer.
+         */
+        private final boolean valid;
+
+        /**
+         * Construct the predicate.
+         * @param value The comparand.
+         */
+        Counter(final String value) {
+            int parsed = 0;
+            boolean ok = value != null;
+            if (ok) {
+                try {
+                    parsed = Integer.parseInt(value.trim());
+                } catch (NumberFormatException ex) {
+                    ok = false;
+                }
+            }
+            this.target = parsed;
+            this.valid = ok;
+        }
+
+        @Override
+        boolean test(final Object input) throws InvalidInputException {
+            if (!valid || !(input instanceof Number)) {
+                throw new InvalidInputException("Counter guard requires an integer comparison");
+            }
+            return ((Number) input).intValue() == target;
+        }
+    }
+
+    /**
+     * CONTAINS: the value is a map of fields that must hold the comparand.
+     */
+    private static final class Contains extends GuardPredicate {
+
+        /**
+         * The field that must be present.
+         */
+        private final String field;
+
+        /**
+         * Construct the predicate.
+         * @param value The field that must be present.
+         */
+        Contains(final String value) {
+            this.field = value;
+        }
+
+        @Override
+        boolean test(final Object input) {
+            return ((Map<?, ?>) input).containsKey(field);
+        }
+    }
+
+    /**
+     * REGEX: the expression is compiled once. Each thread reuses its own
+     * matcher so that no matcher is created per test.
+     */
+    private static final class Regex extends GuardPredicate {
+
+        /**
+         * The compiled expression; null if it does not compile.
+         */
+        private final Pattern pattern;
+
+        /**
+         * The matcher of each thread.
+         */
+        private final ThreadLocal<Matcher> matchers;
+
+        /**
+         * Construct the predicate.
+         * @param value The regular expression.
+         */
+        Regex(final String value) {
+            Pattern compiled = null;
+            if (value != null) {
+                try {
+                    compiled = Pattern.compile(value);
+                } catch (PatternSyntaxException ex) {
+                    compiled = null;
+                }
+            }
+            this.pattern = compiled;
+            this.matchers = compiled == null ? null : ThreadLocal.withInitial(() -> this.pattern.matcher(""));
+        }
+
+        @Override
+        boolean test(final Object input) throws InvalidRegexException {
+            if (pattern == null) {
+                throw new InvalidRegexException("There is a regex guard with an invalid regular expression.");
+            }
+            final Matcher matcher = matchers.get();
+            final boolean matched = matcher.reset(input.toString()).matches();
+            // Drop the reference to the event's value
+            matcher.reset("");
+            return matched;
+        }
+    }
+
+    /**
+     * VALIDATES: the value is a document that must comply with the schema,
+     * which is compiled once by the schema registry.
+     */
+    private static final class Validates extends GuardPredicate {
+
+        /**
+         * The compiled schema; null if it does not compile.
+         */
+        private final SchemaRegistry.CompiledSchema schema;
+
+        /**
+         * Why the schema does not compile; null if it does.
+         */
+        private final String error;
+
+        /**
+         * Construct the predicate.
+         * @param value The schema, or a reference to it.
+         */
+        Validates(final String value) {
+            SchemaRegistry.CompiledSchema compiled = null;
+            String failure = null;
+            try {
+                compiled = SchemaRegistry.schema(value);
+            } catch (InvalidSchemaException ex) {
+                failure = ex.getMessage();
+            }
+            this.schema = compiled;
+            this.error = failure;
+        }
+
+        @Override
+        boolean test(final Object input) throws InvalidInputException {
+            return explain(input) == null;
+        }
+
+        @Override
+        String explain(final Object input) throws InvalidInputException {
+            if (schema == null) {
+                throw new InvalidInputException(error);
+            }
+            return schema.check(input == null ? null : input.toString());
+        }
+    }
+
+    /**
+     * A guard whose comparison type cannot be evaluated.
+     */
+    private static final class Unknown extends GuardPredicate {
+
+        @Override
+        boolean test(final Object input) throws InvalidInputException {
+            throw new InvalidInputException("Unknown condition type");
+        }
+    }
+}
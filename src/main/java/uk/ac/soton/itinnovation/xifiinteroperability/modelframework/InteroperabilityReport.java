@@ -27,6 +27,8 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The Interoperability report is a generated report of the trace through
@@ -34,6 +36,11 @@ import java.io.PrintStream;
  * for a simple request response (e.g. POST) operation to monitor a system.
  * Alternatively the dynamic output stream can be used to monitor in progress
  * execution
+ *
+ * Guard outcomes are recorded as structured trace events, which are only
+ * rendered to text when the trace is read (or printed in realtime). Once
+ * rendered, the entries are dropped and only their text is kept. A report
+ * can be read, e.g. by the GUI, while the test is still adding to it.
  * 
  * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
  * & XIFI (http://www.fi-xifi.eu)
@@ -53,17 +60,74 @@ public class InteroperabilityReport {
     }
 
     /**
-     * This is the editable content of the report (i.e. the body). We initialise
-     * with a title.
+     * The title the report is initialised with.
+     */
+    private static final String TITLE = "Beginning test: \n";
+
+    /**
+     * This is the editable content of the report (i.e. the body): the text
+     * and trace events added since the trace was last read, in the order
+     * they were added. We initialise with a title.
+     */
+    private final transient List<Object> entries = new ArrayList<>();
+
+    /**
+     * The text of the entries rendered so far.
      */
-    private transient String textTrace = "Beginning test: \n";
+    private final transient StringBuilder textTrace = new StringBuilder();
 
     /**
      * a getter for the text trace of the report
      * @return the text trace of the report
      */
     public String getTextTrace(){
-        return this.textTrace;
+        return render();
+    }
+
+    /**
+     * Render the entries added since the trace was last read, and drop
+     * them.
+     * @return The complete text trace.
+     */
+    private synchronized String render() {
+        renderTo(entries, textTrace);
+        entries.clear();
+        return textTrace.toString();
+    }
+
+    /**
+     * Render entries as text.
+     * @param added The text and trace events.
+     * @param text The text to append them to.
+     */
+    private static void renderTo(final List<Object> added, final StringBuilder text) {
+        for (Object entry : added) {
+            if (entry instanceof TraceEvent) {
+                ((TraceEvent) entry).renderTo(text);
+            } else {
+                text.append((String) entry);
+            }
+        }
+    }
+
+    /**
+     * Replace the content of the report.
+     * @param text The new text trace.
+     */
+    private synchronized void replace(final String text) {
+        entries.clear();
+        entries.add(text);
+        textTrace.setLength(0);
+    }
+
+    /**
+     * Add entries to the report.
+     * @param added The text and trace events.
+     */
+    private synchronized void add(final Object... added) {
+        for (Object entry : added) {
+            entries.add(entry);
+        }
     }
 
     /**
@@ -92,13 +156,6 @@ public class InteroperabilityReport {
      */
     private final transient boolean realtime;
 
-    /**
-     * Method to add a new line to the report. Simple formatting method.
-     */
-    private void newline() {
-        this.textTrace += "\n";
-    }
-
     /**
      * The interoperability report outputs in realtime to the output stream.
      * @param printOut The output stream to report to in realtime.
@@ -106,7 +163,8 @@ public class InteroperabilityReport {
     public InteroperabilityReport(final PrintStream printOut) {
         this.output = printOut;
         this.realtime = true;
-        println(textTrace);
+        add(TITLE);
+        println(TITLE);
     }
 
     /**
@@ -115,6 +173,7 @@ public class InteroperabilityReport {
      */
     public InteroperabilityReport() {
         this.realtime = false;
+        add(TITLE);
     }
 
     /**
@@ -122,9 +181,7 @@ public class InteroperabilityReport {
      * @param newval String to report.
      */
     public final void println(final String newval) {
-        newline();
-        this.textTrace += newval;
-        newline();
+        add("\n", newval, "\n");
 
         if (realtime) {
             output.println(newval);
@@ -159,24 +216,84 @@ public class InteroperabilityReport {
         return this.intReport;
     }
 
+    /**
+     * The JSON report entries added so far, without the closing bracket.
+     * Used to checkpoint a report in progress.
+     * @return The unterminated JSON array.
+     */
+    public final String getReportEntries() {
+        return this.intReport;
+    }
+
+    /**
+     * Restore the content of a report in progress from a checkpoint.
+     * @param success The success verdict so far.
+     * @param trace The text trace so far.
+     * @param entries The unterminated JSON array of entries so far.
+     */
+    public final void restore(final String success, final String trace, final String entries) {
+        this.Success = success;
+        replace(trace);
+        this.intReport = entries;
+        if (realtime) {
+            output.println(trace);
+        }
+    }
+
     /**
     * Add a tabbed string new line.
     * @param newval The text to add as a tabbed line.
     */
     public final void printtabline(final String newval) {
-        this.textTrace += "\t" + newval;
-        newline();
+        add("\t", newval, "\n");
 
         if (realtime) {
             output.println("\t" + newval);
         }
     }
 
+    /**
+     * Add a trace event as a tabbed line. The event is only rendered to text
+     * when the trace is read, or now if the report is in realtime.
+     * @param event The event to add.
+     */
+    public final void trace(final TraceEvent event) {
+        add(event);
+
+        if (realtime) {
+            output.println("\t" + event.getMessage());
+        }
+    }
+
+    /**
+     * The trace events added to the report since the trace was last read,
+     * in order.
+     * @return The events.
+     */
+    public final synchronized List<TraceEvent> getTraceEvents() {
+        final List<TraceEvent> events = new ArrayList<>();
+        for (Object entry : entries) {
+            if (entry instanceof TraceEvent) {
+                events.add((TraceEvent) entry);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Reset the report to empty e.g. between the cycles of a monitoring run.
+     */
+    public final void reset() {
+        this.Success = null;
+        replace("");
+        this.intReport = "[";
+    }
+
     /**
      * Clear the text trace of the report
      */
     public final void clear(){
-        this.textTrace = "";
+        replace("");
     }
 
     /**
@@ -185,7 +302,7 @@ public class InteroperabilityReport {
      * @return The interoperability report as a single string.
      */
     public final String outputTrace() {
-        return this.textTrace;
+        return render();
     }
 
 }
@@ -26,9 +26,11 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 
 /**
@@ -64,6 +66,9 @@ public abstract class MsgEvent implements Serializable {
     /** XML <guards><regex> tag constant */
     public static final String REGEX = "regex";
 
+    /** XML <guards><validates> tag constant. */
+    public static final String VALIDATES_LABEL = "validates";
+
     /** XML <param>tag constant. */
     public static final String PARAM_LABEL = "param";
 
@@ -121,11 +126,32 @@ public abstract class MsgEvent implements Serializable {
         dataBody = newBody;
     }
 
+    /**
+     * Add a holder of this event, e.g. a state keeping it for later $$
+     * references; a large body stored off the heap is kept until every
+     * holder has released it.
+     */
+    public void retain() {
+        if (dataBody != null) {
+            dataBody.retain();
+        }
+    }
+
+    /**
+     * Remove a holder of this event.
+     */
+    public void release() {
+        if (dataBody != null) {
+            dataBody.release();
+        }
+    }
+
     /**
      * Each rest events has a series of parameters e.g. HTTP headers,
-     * Query parameters, even parameters in the body.
+     * Query parameters, even parameters in the body. The well-known fields
+     * are held in fixed slots (see EventParameters).
      */
-    private Map<String, Parameter> inputParams = new HashMap();
+    private final EventParameters inputParams = new EventParameters();
 
     /**
      * Retrieve the parameters list.
@@ -149,6 +175,20 @@ public abstract class MsgEvent implements Serializable {
         return true;
     }
 
+    /**
+     * Add a new parameter from its name and value, without creating a
+     * Parameter object; use EventParameters.headerKey() to name headers.
+     * This must be unique with the param set (otherwise it will overwrite
+     * the existing value.
+     *
+     * @param name The parameter name.
+     * @param value The parameter value.
+     * @return True if an existing value was overwritten.
+     */
+    public boolean addParameter(final String name, final String value) {
+        return this.inputParams.putValue(name, value) != null;
+    }
+
     /**
      * Add the event body.
      * @param type The type of the data content
@@ -156,7 +196,72 @@ public abstract class MsgEvent implements Serializable {
      */
     public void addContent(final String type, final String body) {
         setDataBody(new Content(type, body));
-        addParameter(new Parameter("content", body));
+        inputParams.putContent(getDataBody());
+    }
+
+    /**
+     * Add the event body as the bytes received; they are only decoded to
+     * text if a guard or report reads the content.
+     * @param type The type of the data content
+     * @param body The data content itself.
+     * @param charset The character set of the body; null for UTF-8.
+     */
+    public void addContent(final String type, final byte[] body, final String charset) {
+        setDataBody(new Content(type, body, charset));
+        inputParams.putContent(getDataBody());
+    }
+
+    /**
+     * Add the event body read from a stream; a large body is copied off the
+     * heap as it is read (see Content.read).
+     * @param type The type of the data content
+     * @param body The stream of the body; it is closed once read.
+     * @param charset The character set of the body; null for UTF-8.
+     * @throws IOException Error reading the body.
+     */
+    public void addContent(final String type, final InputStream body, final String charset)
+            throws IOException {
+        setDataBody(Content.read(type, body, charset));
+        inputParams.putContent(getDataBody());
+    }
+
+    /**
+     * Copy the given fields of this event, e.g. the fields that a state
+     * keeps for the $$ references that read its event. The body is shared
+     * rather than copied.
+     * @param fields The parameters to copy and whether to keep the body.
+     * @return The copy; this event if every field is kept, or null if none.
+     */
+    public MsgEvent project(final CaptureProjection fields) {
+        if (fields.isAll()) {
+            return this;
+        }
+        if (fields.isEmpty()) {
+            return null;
+        }
+        final MsgEvent copy = new StoredEvent();
+        copy.responseTime = this.responseTime;
+        for (String name : fields.getNames()) {
+            final Parameter value = this.inputParams.get(name);
+            if (value != null) {
+                copy.addParameter(value);
+            }
+        }
+        if (fields.wantsContent() && this.dataBody != null) {
+            copy.setDataBody(this.dataBody);
+            copy.inputParams.putContent(this.dataBody);
+        }
+        return copy;
+    }
+
+    /**
+     * The fields of an event kept by a state.
+     */
+    public static final class StoredEvent extends MsgEvent {
+        /**
+         * Portable serializable class.
+         */
+        public static final long serialVersionUID = 1L;
     }
 
 }
@@ -0,0 +1,383 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+
+/**
+ * Off-heap store for large captured message bodies. Bodies of at least the
+ * configured offheap_threshold bytes are copied into direct buffers, so
+ * that proxying large downloads or uploads does not need a large heap. A
+ * body read from a stream is copied in as it arrives, once it reaches the
+ * threshold, rather than being buffered on the heap first.
+ *
+ * A stored payload is reference counted by the states that keep its event
+ * for later $$ references: when the last of them lets the event go, the
+ * buffer is returned to a pool and reused for later payloads. A payload
+ * that is never retained is left to the garbage collector.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class PayloadStore {
+
+    /**
+     * Utility class. Private constructor.
+     */
+    private PayloadStore() {
+        // no implementation required.
+    }
+
+    /**
+     * Size from which captured bodies are stored off the heap.
+     */
+    private static final int THRESHOLD = readThreshold();
+
+    /**
+     * The smallest pooled buffer; buffers are pooled in power of two sizes.
+     */
+    private static final int MIN_BUFFER = 1 << 16;
+
+    /**
+     * Upper bound on the bytes of released buffers kept for reuse.
+     */
+    private static final long MAX_POOLED = 64L << 20;
+
+    /**
+     * The size of the chunks a streamed body is read in.
+     */
+    private static final int CHUNK = 8192;
+
+    /**
+     * The released buffers of each power of two size.
+     */
+    private static final Queue<ByteBuffer>[] POOL = createPool();
+
+    /**
+     * The bytes of the buffers in the pool.
+     */
+    private static final AtomicLong POOLED = new AtomicLong();
+
+    /**
+     * Read the threshold from the configuration.
+     * @return The threshold; Integer.MAX_VALUE if off-heap storage is not
+     * configured.
+     */
+    private static int readThreshold() {
+        try {
+            final String value = SystemProperties.readProperty("offheap_threshold");
+            return value == null ? Integer.MAX_VALUE : Integer.parseInt(value.trim());
+        } catch (ConfigurationException | NumberFormatException ex) {
+            ServiceLogger.LOG.error("Could not read offheap_threshold property", ex);
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Create the empty pool.
+     * @return A queue for each power of two size.
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<ByteBuffer>[] createPool() {
+        final Queue<ByteBuffer>[] pool = new Queue[Integer.SIZE];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new ConcurrentLinkedQueue<>();
+        }
+        return pool;
+    }
+
+    /**
+     * Is a body large enough to be stored off the heap.
+     * @param length The size of the body in bytes.
+     * @return True if it is stored off the heap.
+     */
+    public static boolean isLarge(final int length) {
+        return length >= THRESHOLD;
+    }
+
+    /**
+     * Copy a body into an off-heap buffer.
+     * @param data The body.
+     * @return The stored payload, not yet retained.
+     */
+    public static Payload store(final byte[] data) {
+        final ByteBuffer buffer = acquire(data.length);
+        buffer.put(data).flip();
+        return new Payload(buffer, data.length);
+    }
+
+    /**
+     * Copy a body being read from a stream into an off-heap buffer, which
+     * is grown as the rest of the body arrives.
+     * @param head The first bytes of the body, already read.
+     * @param headLength The number of bytes of head that were read.
+     * @param input The rest of the body.
+     * @return The stored payload, not yet retained.
+     * @throws IOException Error reading the stream.
+     */
+    public static Payload store(final byte[] head, final int headLength, final InputStream input)
+            throws IOException {
+        ByteBuffer buffer = acquire(headLength);
+        buffer.put(head, 0, headLength);
+        final byte[] chunk = new byte[CHUNK];
+        int read = input.read(chunk);
+        while (read != -1) {
+            if (buffer.remaining() < read) {
+                final ByteBuffer larger = acquire((int) Math.min(Integer.MAX_VALUE - CHUNK,
+                        2L * buffer.capacity()));
+                buffer.flip();
+                larger.put(buffer);
+                recycle(buffer);
+                buffer = larger;
+            }
+            buffer.put(chunk, 0, read);
+            read = input.read(chunk);
+        }
+        final int length = buffer.position();
+        buffer.flip();
+        return new Payload(buffer, length);
+    }
+
+    /**
+     * The pool index of the buffers that hold a length.
+     * @param length The number of bytes.
+     * @return The power of two of the buffer size.
+     */
+    private static int sizeClass(final int length) {
+        final int size = Math.max(length, MIN_BUFFER);
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate one.
+     * @param length The number of bytes to hold.
+     * @return An empty buffer of at least the length.
+     */
+    private static ByteBuffer acquire(final int length) {
+        final int sizeClass = sizeClass(length);
+        final ByteBuffer pooled = sizeClass < POOL.length ? POOL[sizeClass].poll() : null;
+        if (pooled != null) {
+            POOLED.addAndGet(-pooled.capacity());
+            pooled.clear();
+            return pooled;
+        }
+        return ByteBuffer.allocateDirect(sizeClass < Integer.SIZE - 1 ? 1 << sizeClass : length);
+    }
+
+    /**
+     * Return a buffer to the pool, unless the pool is full.
+     * @param buffer The released buffer.
+     */
+    private static void recycle(final ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        if (POOLED.addAndGet(capacity) > MAX_POOLED) {
+            POOLED.addAndGet(-capacity);
+            return;
+        }
+        POOL[sizeClass(capacity)].offer(buffer);
+    }
+
+    /**
+     * A body held off the heap.
+     */
+    public static final class Payload {
+
+        /**
+         * The buffer holding the body; null once released.
+         */
+        private volatile ByteBuffer buffer;
+
+        /**
+         * The size of the body in bytes.
+         */
+        private final int length;
+
+        /**
+         * The number of holders that have retained the payload.
+         */
+        private final AtomicInteger references = new AtomicInteger();
+
+        /**
+         * Construct the payload.
+         * @param data The buffer holding the body.
+         * @param size The size of the body.
+         */
+        private Payload(final ByteBuffer data, final int size) {
+            this.buffer = data;
+            this.length = size;
+        }
+
+        /**
+         * Get the size of the body.
+         * @return The number of bytes.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Add a holder of the payload.
+         */
+        public void retain() {
+            references.incrementAndGet();
+        }
+
+        /**
+         * Remove a holder of the payload; the buffer is returned to the pool
+         * when the last holder releases it.
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                final ByteBuffer released = buffer;
+                buffer = null;
+                if (released != null) {
+                    recycle(released);
+                }
+            }
+        }
+
+        /**
+         * Get the buffer of a payload that has not been released.
+         * @return A read-only view of the body.
+         */
+        private ByteBuffer view() {
+            final ByteBuffer data = buffer;
+            if (data == null) {
+                throw new IllegalStateException("The message content has been released");
+            }
+            return data.asReadOnlyBuffer();
+        }
+
+        /**
+         * Read the body as a stream, e.g. to parse it without decoding it
+         * to a string. The caller must hold the payload while reading.
+         * @return A stream over a read-only view of the body.
+         */
+        InputStream stream() {
+            final ByteBuffer data = view();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return data.hasRemaining() ? data.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(final byte[] target, final int offset, final int count) {
+                    if (count == 0) {
+                        return 0;
+                    }
+                    if (!data.hasRemaining()) {
+                        return -1;
+                    }
+                    final int length = Math.min(count, data.remaining());
+                    data.get(target, offset, length);
+                    return length;
+                }
+
+                @Override
+                public int available() {
+                    return data.remaining();
+                }
+            };
+        }
+
+        /**
+         * Open a stream over the body that holds the payload until it is
+         * closed, e.g. to pass the body on after its event is handed to the
+         * state machine.
+         * @return The stream; closing it releases the payload.
+         */
+        public InputStream openStream() {
+            final InputStream body = stream();
+            retain();
+            return new InputStream() {
+                /**
+                 * Whether the stream has released the payload.
+                 */
+                private boolean closed;
+
+                @Override
+                public int read() throws IOException {
+                    return body.read();
+                }
+
+                @Override
+                public int read(final byte[] target, final int offset, final int count) throws IOException {
+                    return body.read(target, offset, count);
+                }
+
+                @Override
+                public int available() throws IOException {
+                    return body.available();
+                }
+
+                @Override
+                public void close() {
+                    if (!closed) {
+                        closed = true;
+                        release();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Copy the body onto the heap.
+         * @return The bytes of the body.
+         */
+        public byte[] toArray() {
+            final byte[] copy = new byte[length];
+            view().get(copy);
+            return copy;
+        }
+
+        /**
+         * Decode the body as text.
+         * @param charset The character set of the body.
+         * @return The text.
+         */
+        public String decode(final Charset charset) {
+            return charset.decode(view()).toString();
+        }
+    }
+}
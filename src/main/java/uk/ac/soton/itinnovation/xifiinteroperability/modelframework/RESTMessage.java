@@ -27,12 +27,14 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentMap;
 import org.restlet.Client;
 import org.restlet.Context;
 import org.restlet.Message;
 import org.restlet.Response;
+import org.restlet.data.CharacterSet;
 import org.restlet.data.MediaType;
 import org.restlet.data.Protocol;
 import org.restlet.engine.header.Header;
@@ -338,11 +340,11 @@ public class RESTMessage extends ProtocolMessage{
             * uniform the data to be understood by the state machine rule checker
             */
 
-            rResp.addParameter(new Parameter(RESTEvent.RESPONSE_TIME, Long.toString(time)));
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_FROM, response.getServerInfo().getAddress()));
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_TO, SystemProperties.getIP()));
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_MSG, RESTEvent.REPLY_LABEL));
-            rResp.addParameter(new Parameter(RESTEvent.HTTP_CODE, Integer.toString(response.getStatus().getCode())));
+            rResp.addParameter(RESTEvent.RESPONSE_TIME, Long.toString(time));
+            rResp.addParameter(RESTEvent.HTTP_FROM, response.getServerInfo().getAddress());
+            rResp.addParameter(RESTEvent.HTTP_TO, SystemProperties.getIP());
+            rResp.addParameter(RESTEvent.HTTP_MSG, RESTEvent.REPLY_LABEL);
+            rResp.addParameter(RESTEvent.HTTP_CODE, Integer.toString(response.getStatus().getCode()));
 
             // Build the headers from the HTTP headers
             final Series<Header> headers = (Series<Header>) response.getAttributes().get("org.restlet.http.headers");
@@ -354,17 +356,20 @@ public class RESTMessage extends ProtocolMessage{
                 return rResp;
 
             for (Header h : headers) {
-                rResp.addParameter(new Parameter(RESTEvent.HTTP_CONFIG_HEAD + h.getName().toLowerCase(), h.getValue()));
+                rResp.addParameter(EventParameters.headerKey(RESTEvent.HTTP_CONFIG_HEAD, h.getName()), h.getValue());
             }
 
             final Representation msgContent = response.getEntity();
             MediaType mediaType = msgContent.getMediaType();
+            final CharacterSet charset = msgContent.getCharacterSet();
+            final InputStream body = msgContent.getStream();
+            final String charsetName = charset == null ? null : charset.getName();
             if (mediaType != null) {
-                rResp.addContent(mediaType.getName(), response.getEntityAsText());
+                rResp.addContent(mediaType.getName(), body, charsetName);
             } else {
                 mediaType = acceptType;
-                rResp.addContent(mediaType.getName(), response.getEntityAsText());
-                rResp.addParameter(new Parameter("http.content-type", mediaType.getName()));
+                rResp.addContent(mediaType.getName(), body, charsetName);
+                rResp.addParameter("http.content-type", mediaType.getName());
             }
 
         } catch (ConfigurationException ex) {
@@ -27,9 +27,6 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
-import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 
 /**
  * Capture the data held in each rest event. Note we use a builder pattern
@@ -76,86 +73,4 @@ public class SOAPEvent extends MsgEvent implements Serializable {
     /** A label for response time **/
     public static final String RESPONSE_TIME = "response-time";
 
-    /**
-     * The content of the message - optional, not all REST events will
-     * have associated data.
-     */
-    private Content dataBody;
-
-    /**
-     * Getter for the data content of the event.
-     * @return The data content.
-     */
-    public final Content getDataBody() {
-        return dataBody;
-    }
-
-    /**
-     * A receiving state stores the response time for the server
-     * to react to the request. This can be used for QoS metric testing.
-     */
-    private long responseTime;
-
-    /**
-     * get the event time stamp
-     * @return the time stamp in milliseconds
-     */
-    public long getResponseTime() {
-        return this.responseTime;
-    }
-
-    /**
-     * Set the event time response
-     * @respTime the time stamp in milliseconds
-     */
-    public void setResponseTime(long respTime) {
-        this.responseTime = respTime;
-    }
-
-    /**
-     * Set the event content.
-     * @param newBody Content to set.
-     */
-    public final void setDataBody(final Content newBody) {
-        dataBody = newBody;
-    }
-
-    /**
-     * Each rest events has a series of parameters e.g. HTTP headers,
-     * Query parameters, even parameters in the body.
-     */
-    private final Map<String, Parameter> inputParams = new HashMap();
-
-    /**
-     * Retrieve the parameters list.
-     * @return The list of parameters.
-     */
-    public final Map<String, Parameter> getParameterMap() {
-        return this.inputParams;
-    }
-
-    /**
-     * Add a new parameter. This must be unique with the param set (otherwise
-     * it will overwrite the existing value.
-     *
-     * @param pNew The new parameter to add.
-     * @return True if the parameter added successfully.
-     */
-    public final boolean addParameter(final Parameter pNew) {
-        if (this.inputParams.put(pNew.getName(), pNew) == null) {
-            return false;
-        }
-        return true;
-    }
-
-    /**
-     * Add the event body.
-     * @param type The type of the data content
-     * @param body The data content itself.
-     */
-    public final void addContent(final String type, final String body) {
-        setDataBody(new Content(type, body));
-        addParameter(new Parameter("content", body));
-    }
-
 }
@@ -384,11 +384,11 @@ public class SOAPMessage extends ProtocolMessage{
         final byte[] msgContent = response.getPayload();
 
         if (!options.hasContentFormat()) {
-            rResp.addContent("TEXT/PLAIN", new String(msgContent));
+            rResp.addContent("TEXT/PLAIN", msgContent, null);
             rResp.addParameter(new Parameter("coap.content-format", "TEXT/PLAIN"));
         } else {
             String mediaName = getContentFormatString(options.getContentFormat());
-            rResp.addContent(mediaName, new String(msgContent));
+            rResp.addContent(mediaName, msgContent, null);
 
         }
         return rResp;
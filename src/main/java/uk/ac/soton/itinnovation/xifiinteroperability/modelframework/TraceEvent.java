@@ -0,0 +1,389 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A structured entry in the trace of a test: the outcome of evaluating a
+ * guard against an event. The event holds the guard's label, type and
+ * comparison value, and the value it observed as text; it keeps no
+ * reference to the guard or to the event's data. The text of the report
+ * line is only built when the trace is rendered.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class TraceEvent {
+
+    /**
+     * The outcomes that are traced.
+     */
+    public enum Kind {
+        /**
+         * The guards of a transition are about to be evaluated; the observed
+         * value is the number of guards.
+         */
+        GUARDS,
+        /**
+         * The guard evaluated to true.
+         */
+        SUCCEEDED,
+        /**
+         * A guard on an event parameter evaluated to false; the observed
+         * value is the parameter's value.
+         */
+        FAILED,
+        /**
+         * A guard on the content evaluated to false; the observed value is
+         * the value at the path, or the child fields for a contains guard.
+         */
+        CONTENT_FAILED,
+        /**
+         * The parameter tested by the guard is not part of the event.
+         */
+        ABSENT,
+        /**
+         * A contains guard on an event parameter evaluated to false.
+         */
+        NOT_CONTAINED,
+        /**
+         * A validates guard evaluated to false; the observed value is the
+         * first error found against the schema.
+         */
+        INVALID,
+        /**
+         * A guard could not be evaluated; the observed value is the error.
+         */
+        ERROR
+    }
+
+    /**
+     * The outcome.
+     */
+    private final Kind kind;
+
+    /**
+     * The label of the guard evaluated; null for GUARDS and ERROR.
+     */
+    private final String label;
+
+    /**
+     * The comparison type of the guard; null for GUARDS and ERROR.
+     */
+    private final Guard.ComparisonType type;
+
+    /**
+     * The value the guard compared against; null for GUARDS and ERROR.
+     */
+    private final String comparand;
+
+    /**
+     * The value observed by the guard: text, the names of child fields, or
+     * the number of guards; may be null.
+     */
+    private final Object observed;
+
+    /**
+     * Construct the event.
+     * @param outcome The outcome.
+     * @param evaluated The guard evaluated; may be null.
+     * @param value The value observed.
+     */
+    private TraceEvent(final Kind outcome, final Guard evaluated, final Object value) {
+        this.kind = outcome;
+        this.label = evaluated == null ? null : evaluated.getGuardLabel();
+        this.type = evaluated == null ? null : evaluated.getType();
+        this.comparand = evaluated == null ? null : evaluated.getGuardCompare();
+        this.observed = detach(value);
+    }
+
+    /**
+     * Copy an observed value as text, so that the trace does not hold on to
+     * the data it was read from.
+     * @param value The value; may be null.
+     * @return The text, a list of the texts of a list, or the number.
+     */
+    private static Object detach(final Object value) {
+        if (value == null || value instanceof String || value instanceof Integer) {
+            return value;
+        }
+        if (value instanceof List) {
+            final List<String> names = new ArrayList<>(((List<?>) value).size());
+            for (Object name : (List<?>) value) {
+                names.add(String.valueOf(name));
+            }
+            return Collections.unmodifiableList(names);
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * The guards of a transition are about to be evaluated.
+     * @param count The number of guards.
+     * @return The event.
+     */
+    public static TraceEvent guards(final int count) {
+        return new TraceEvent(Kind.GUARDS, null, count);
+    }
+
+    /**
+     * A guard evaluated to true.
+     * @param evaluated The guard, bound to its comparison value.
+     * @return The event.
+     */
+    public static TraceEvent succeeded(final Guard evaluated) {
+        return new TraceEvent(Kind.SUCCEEDED, evaluated, null);
+    }
+
+    /**
+     * A guard on an event parameter evaluated to false.
+     * @param evaluated The guard, bound to its comparison value.
+     * @param value The parameter's value.
+     * @return The event.
+     */
+    public static TraceEvent failed(final Guard evaluated, final String value) {
+        return new TraceEvent(Kind.FAILED, evaluated, value);
+    }
+
+    /**
+     * A guard on the content evaluated to false.
+     * @param evaluated The guard, bound to its comparison value.
+     * @param value The value at the path, or the list of child field names
+     * for a contains guard.
+     * @return The event.
+     */
+    public static TraceEvent contentFailed(final Guard evaluated, final Object value) {
+        return new TraceEvent(Kind.CONTENT_FAILED, evaluated, value);
+    }
+
+    /**
+     * The parameter tested by a guard is not part of the event.
+     * @param evaluated The guard.
+     * @return The event.
+     */
+    public static TraceEvent absent(final Guard evaluated) {
+        return new TraceEvent(Kind.ABSENT, evaluated, null);
+    }
+
+    /**
+     * A contains guard on an event parameter evaluated to false.
+     * @param evaluated The guard.
+     * @return The event.
+     */
+    public static TraceEvent notContained(final Guard evaluated) {
+        return new TraceEvent(Kind.NOT_CONTAINED, evaluated, null);
+    }
+
+    /**
+     * A validates guard evaluated to false.
+     * @param evaluated The guard.
+     * @param error The first error found against the schema.
+     * @return The event.
+     */
+    public static TraceEvent invalid(final Guard evaluated, final String error) {
+        return new TraceEvent(Kind.INVALID, evaluated, error);
+    }
+
+    /**
+     * A guard could not be evaluated e.g. its path or expression is invalid.
+     * @param error The message of the error.
+     * @return The event.
+     */
+    public static TraceEvent error(final String error) {
+        return new TraceEvent(Kind.ERROR, null, error);
+    }
+
+    /**
+     * Get the outcome.
+     * @return The kind of event.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the label of the guard evaluated.
+     * @return The label; null for GUARDS and ERROR.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Get the comparison type of the guard evaluated.
+     * @return The type; null for GUARDS and ERROR.
+     */
+    public Guard.ComparisonType getType() {
+        return type;
+    }
+
+    /**
+     * Get the value observed by the guard.
+     * @return The value; may be null.
+     */
+    public Object getObserved() {
+        return observed;
+    }
+
+    /**
+     * Get the value the guard compared against.
+     * @return The comparison value; null for GUARDS and ERROR.
+     */
+    public String getComparand() {
+        return comparand;
+    }
+
+    /**
+     * Format a value tested by a guard for the report: response times are
+     * shown in milliseconds.
+     * @param value The guard's comparison value or the tested value.
+     * @return The value as reported.
+     */
+    private String withUnits(final Object value) {
+        if (label.equalsIgnoreCase(RESTEvent.RESPONSE_TIME)) {
+            return value + "ms";
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Render the event as a report line.
+     * @return The text of the line.
+     */
+    public String getMessage() {
+        switch (kind) {
+            case GUARDS:
+                return "Evaluating " + observed + " guards";
+            case SUCCEEDED:
+                return "Guard test succeeded: '" + label + "' " + succeededVerb(type)
+                        + " '" + withUnits(comparand) + "'";
+            case FAILED:
+                return failedMessage(withUnits(observed), withUnits(comparand), false);
+            case CONTENT_FAILED:
+                if (type == Guard.ComparisonType.CONTAINS) {
+                    return containsMessage();
+                }
+                return failedMessage(String.valueOf(observed), comparand, true);
+            case ABSENT:
+                return "Guard test failed: " + label + " is not part of message";
+            case NOT_CONTAINED:
+                return "Guard test failed: " + label + " doesn't contain " + comparand;
+            case INVALID:
+                return "Guard test failed: '" + label + "' does not validate against the schema '"
+                        + comparand + "': " + observed;
+            case ERROR:
+                return "Guard test failed due to the following error:\n\t" + observed;
+            default:
+                return "Guard test failed!";
+        }
+    }
+
+    /**
+     * Render the event as a tabbed report line.
+     * @param text The text to append the line to.
+     */
+    void renderTo(final StringBuilder text) {
+        text.append('\t').append(getMessage()).append('\n');
+    }
+
+    /**
+     * The relation a successful guard reports.
+     * @param type The comparison type.
+     * @return The relation e.g. "is equal to".
+     */
+    private static String succeededVerb(final Guard.ComparisonType type) {
+        switch (type) {
+            case NOTEQUALS:
+                return "is not equal to";
+            case EQUALS:
+                return "is equal to";
+            case GREATERTHAN:
+                return "is greater than";
+            case LESSTHAN:
+                return "is less than";
+            case CONTAINS:
+                return "contains child field";
+            case REGEX:
+                return "matches the regular expression";
+            case VALIDATES:
+                return "validates against the schema";
+            default:
+                return "is";
+        }
+    }
+
+    /**
+     * Render a failed comparison.
+     * @param actual The value observed.
+     * @param compare The comparison value.
+     * @param content True for a content guard.
+     * @return The text of the line.
+     */
+    private String failedMessage(final String actual, final String compare, final boolean content) {
+        final String start = "Guard test failed: '" + label + "' is '" + actual;
+        switch (type) {
+            case EQUALS:
+                return start + "', while it was supposed to be equal to the guard value: '" + compare + "'";
+            case NOTEQUALS:
+                return start + "', while it was supposed to be not equal to the guard value: '" + compare + "'";
+            case GREATERTHAN:
+                return start + "', while it was supposed to be greater than the guard value: '" + compare + "'";
+            case LESSTHAN:
+                return start + "', while it was supposed to be less than the guard value: '" + compare + "'";
+            case REGEX:
+                return start + (content ? "', while" : "' while")
+                        + " it was supposed to match the regular expression: '" + compare + "'";
+            default:
+                return "Guard test failed!";
+        }
+    }
+
+    /**
+     * Render a failed contains guard on the content.
+     * @return The text of the line.
+     */
+    private String containsMessage() {
+        final List<?> childFields = (List<?>) observed;
+        if (childFields.isEmpty()) {
+            return "Guard test failed: '" + label + "' doesn't contain any child fields";
+        }
+        final StringBuilder msg = new StringBuilder("Guard test failed: '").append(label)
+                .append("' contains child fields (");
+        for (int i = 0; i < childFields.size() - 1; i++) {
+            msg.append('\'').append(childFields.get(i)).append("' ");
+        }
+        msg.append('\'').append(childFields.get(childFields.size() - 1))
+                .append("') but doesn't contain child field '").append(comparand).append('\'');
+        return msg.toString();
+    }
+}
@@ -30,15 +30,13 @@ package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.github.fge.jackson.JsonLoader;
-import com.github.fge.jsonschema.core.exceptions.ProcessingException;
-import com.github.fge.jsonschema.main.JsonSchema;
-import com.github.fge.jsonschema.main.JsonSchemaFactory;
 import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.InvalidJsonException;
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.PathNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -77,8 +75,22 @@ public final class JSON {
      */
     public static PathEvaluationResult assertJSON(final String jsondoc,
                         final String reference, final Object value) throws InvalidJSONPathException {
+        return assertJSON(parseQuietly(jsondoc), reference, value);
+    }
+
+    /**
+     * Assert against an already parsed JSON document.
+     * @param document The parsed document; null if it could not be parsed.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see #assertJSON(String, String, Object)
+     */
+    public static PathEvaluationResult assertJSON(final Object document,
+                        final String reference, final Object value) throws InvalidJSONPathException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value).toLowerCase(Locale.ENGLISH);
             return new PathEvaluationResult(jsonVal.equalsIgnoreCase(xprVal), xprVal, DataFormat.JSON);
         }
@@ -108,8 +120,24 @@ public final class JSON {
     public static PathEvaluationResult compareJSON(final String jsondoc,
                         final String reference, final Object value, final Guard.ComparisonType comparisonType)
             throws InvalidJSONPathException {
+        return compareJSON(parseQuietly(jsondoc), reference, value, comparisonType);
+    }
+
+    /**
+     * Compare against an already parsed JSON document.
+     * @param document The parsed document; null if it could not be parsed.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see #compareJSON(String, String, Object, Guard.ComparisonType)
+     */
+    public static PathEvaluationResult compareJSON(final Object document,
+                        final String reference, final Object value, final Guard.ComparisonType comparisonType)
+            throws InvalidJSONPathException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value);
             if (comparisonType == Guard.ComparisonType.GREATERTHAN){
                 try{
@@ -152,8 +180,23 @@ public final class JSON {
      */
     public static PathEvaluationResult regexJSON(final String jsondoc,
             final String reference, final Object value) throws InvalidJSONPathException, InvalidRegexException {
+        return regexJSON(parseQuietly(jsondoc), reference, value);
+    }
+
+    /**
+     * Regular expression match against an already parsed JSON document.
+     * @param document The parsed document; null if it could not be parsed.
+     * @param reference the JSON path expression
+     * @param value the regular expression to check against
+     * @return PathEvaluationResult with the boolean result and the value of the JSONPath expression
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @throws InvalidRegexException Thrown in case of an invalid regex
+     * @see #regexJSON(String, String, Object)
+     */
+    public static PathEvaluationResult regexJSON(final Object document,
+            final String reference, final Object value) throws InvalidJSONPathException, InvalidRegexException {
         try {
-            final String xprVal = readValue(jsondoc, reference);
+            final String xprVal = readValue(document, reference);
             final String jsonVal = ((String) value);
             boolean boolResult = Pattern.matches(jsonVal, xprVal);
             return new PathEvaluationResult(boolResult, xprVal, DataFormat.JSON);
@@ -182,9 +225,40 @@ public final class JSON {
     public static PathEvaluationResult containsJSON(final String jsondoc,
                         final String reference, final Object value)
             throws InvalidJSONPathException {
+        return containsJSON(parseQuietly(jsondoc), reference, value);
+    }
+
+    /**
+     * Contains check against an already parsed JSON document.
+     * @param document The parsed document, or the matches of a single pass
+     * that answered the path; null if it could not be parsed.
+     * @param reference The JSON path expression.
+     * @param value The required value.
+     * @return PathEvaluationResult with the boolean result and the fields of the JSONPath expression (array list)
+     * @throws InvalidJSONPathException Thrown in case of an invalid JSONPath in a guard.
+     * @see #containsJSON(String, String, Object)
+     */
+    public static PathEvaluationResult containsJSON(final Object document,
+                        final String reference, final Object value)
+            throws InvalidJSONPathException {
+        if (document instanceof MultiPathMatcher.Matches) {
+            final List<String> childFields = ((MultiPathMatcher.Matches) document).children(reference);
+            if (childFields == null) {
+                throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+            }
+            boolean containsResult = false;
+            for (String child : childFields) {
+                if (child.equalsIgnoreCase(value.toString())) {
+                    containsResult = true;
+                }
+            }
+            return new PathEvaluationResult(containsResult, childFields, DataFormat.JSON);
+        }
+        if (document == null) {
+            throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
+        }
         try {
-            final Object document = Configuration.defaultConfiguration().jsonProvider().parse(jsondoc);
-            Map<String, String> childFields = JsonPath.read(document, reference);
+            Map<String, String> childFields = PathExpressions.jsonPath(reference).read(document);
             List<String> childFieldsList = new ArrayList<>();
 
             boolean containsResult = false;
@@ -202,38 +276,36 @@ public final class JSON {
             probably returned a list and not a map, hence there are no child fields */
             return new PathEvaluationResult(false, new ArrayList<>(), DataFormat.JSON);
         }
-        catch (PathNotFoundException | InvalidJsonException ex) {
+        catch (InvalidPathException | InvalidJsonException ex) {
             throw new InvalidJSONPathException("JSONPath '" + reference + "' is invalid or does not exist.");
         }
     }
 
     /**
-     * Validate a JSON document against a schema.
+     * Validate a JSON document against a schema. The schema is compiled once
+     * (see SchemaRegistry).
      * @param jsonDoc The full json document content as a string.
-     * @param schemaIn The full json schema as a string.
+     * @param schemaIn The json schema as a string, or the classpath resource,
+     * file or URL of the schema.
      * @return true if the document validates.
      */
     public static boolean validateJSON(final String jsonDoc, final String schemaIn) {
-
         try {
-            final JsonNode fstabSchema = JsonLoader.fromResource(schemaIn);
-
-            final JsonSchemaFactory factory = JsonSchemaFactory.byDefault();
-
-            final JsonSchema schema = factory.getJsonSchema(fstabSchema);
-
-            schema.validate(fstabSchema);
-            return true;
-        } catch (ProcessingException ex) {
-            ServiceLogger.LOG.error("json input does not comply with schema", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error reading json data", ex);
+            final String error = SchemaRegistry.schema(schemaIn).check(jsonDoc);
+            if (error != null) {
+                ServiceLogger.LOG.error("json input does not comply with schema: " + error);
+            }
+            return error == null;
+        } catch (InvalidSchemaException ex) {
+            ServiceLogger.LOG.error("Invalid Schema", ex);
         }
         return false;
     }
 
     /**
-     * Read a JSON value from a doc based on a JSON Path expression.
+     * Read a JSON value from a doc based on a JSON Path expression. Simple
+     * paths to a scalar value are read by streaming the text (see
+     * JsonStreamPath); other paths parse the whole document.
      * @param jsondoc The json content.
      * @param pathexpr The json path expression.
      * @return The data value as a string (Can be typed later).
@@ -242,7 +314,84 @@ public final class JSON {
         if (pathexpr.equalsIgnoreCase("*")) {
             return jsondoc;
         }
-        return JsonPath.read(jsondoc, pathexpr).toString();
+        final JsonStreamPath streamed = PathExpressions.jsonStreamPath(pathexpr);
+        if (streamed != null) {
+            final String value = streamed.read(jsondoc);
+            if (value != null) {
+                return value;
+            }
+        }
+        return PathExpressions.jsonPath(pathexpr).read(jsondoc).toString();
+    }
+
+    /**
+     * Read a JSON value from a parsed doc based on a JSON Path expression.
+     * The raw json text may be passed instead, e.g. where the whole document
+     * "*" is read and must be returned unchanged, or the matches of a single
+     * pass that answered the path.
+     * @param document The parsed json content, the json text or the matches.
+     * @param pathexpr The json path expression.
+     * @return The data value as a string (Can be typed later).
+     */
+    public static String readValue(final Object document, final String pathexpr) {
+        if (document instanceof MultiPathMatcher.Matches) {
+            final String value = ((MultiPathMatcher.Matches) document).value(pathexpr);
+            if (value == null) {
+                throw new InvalidJsonException("The json path was not matched");
+            }
+            return value;
+        }
+        if (document instanceof String) {
+            return readValue((String) document, pathexpr);
+        }
+        if (document == null) {
+            throw new InvalidJsonException("The json document could not be parsed");
+        }
+        if (pathexpr.equalsIgnoreCase("*")) {
+            return Configuration.defaultConfiguration().jsonProvider().toJson(document);
+        }
+        return PathExpressions.jsonPath(pathexpr).read(document).toString();
+    }
+
+    /**
+     * Parse a json document into the json path provider's object model. The
+     * result can be evaluated repeatedly without parsing again.
+     * @param jsondoc The json content.
+     * @return The parsed document.
+     * @throws InvalidJsonException The content is not valid json.
+     */
+    public static Object parse(final String jsondoc) {
+        return Configuration.defaultConfiguration().jsonProvider().parse(jsondoc);
+    }
+
+    /**
+     * Parse a json document, returning null if it is not valid json.
+     * @param jsondoc The json content.
+     * @return The parsed document or null.
+     */
+    public static Object parseQuietly(final String jsondoc) {
+        try {
+            return parse(jsondoc);
+        } catch (InvalidJsonException | IllegalArgumentException ex) {
+            ServiceLogger.LOG.debug("Content is not valid json", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Parse a json document as it is read, e.g. from the bytes of a message
+     * body, returning null if it is not valid json.
+     * @param jsondoc The json content.
+     * @param charset The character set the content is encoded in.
+     * @return The parsed document or null.
+     */
+    public static Object parseQuietly(final InputStream jsondoc, final Charset charset) {
+        try {
+            return Configuration.defaultConfiguration().jsonProvider().parse(jsondoc, charset.name());
+        } catch (InvalidJsonException | IllegalArgumentException ex) {
+            ServiceLogger.LOG.debug("Content is not valid json", ex);
+            return null;
+        }
     }
 
     /**
@@ -0,0 +1,298 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+
+/**
+ * A simple absolute json path, e.g. $.a.b[3].c or $['a b'][0], evaluated
+ * with the Jackson streaming parser. The document is read token by token:
+ * the subtrees that are not on the path are skipped without being built and
+ * reading stops at the target value, so large documents are evaluated in
+ * constant memory.
+ *
+ * Only scalar values found at the path are answered, formatted as the
+ * JsonPath evaluation formats them. Anything else - a missing field, a null,
+ * an object or array, invalid json - is left to the full JsonPath evaluation
+ * so that results and errors are unchanged.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class JsonStreamPath {
+
+    /**
+     * Parser factory; thread safe once configured.
+     */
+    static final JsonFactory FACTORY = new JsonFactory();
+
+    /**
+     * Longest floating point text that JsonPath reads as a double; longer
+     * numbers are read as big decimals and are left to JsonPath.
+     */
+    private static final int MAX_DOUBLE_TEXT = 15;
+
+    /**
+     * The steps of the path: a String field name or an Integer array index.
+     */
+    private final Object[] steps;
+
+    /**
+     * Construct the evaluator.
+     * @param pathSteps The field names and array indexes from the root.
+     */
+    private JsonStreamPath(final Object[] pathSteps) {
+        this.steps = pathSteps;
+    }
+
+    /**
+     * Compile a json path if it is simple enough to be streamed: $ followed
+     * by .name, ['name'] and [index] steps only.
+     * @param expression The json path expression.
+     * @return The evaluator, or null if the path must be evaluated by JsonPath.
+     */
+    public static JsonStreamPath compile(final String expression) {
+        if (expression == null || !expression.startsWith("$")) {
+            return null;
+        }
+        final List<Object> parsed = new ArrayList<>();
+        int pos = 1;
+        final int length = expression.length();
+        while (pos < length) {
+            final char next = expression.charAt(pos);
+            if (next == '.') {
+                int end = pos + 1;
+                while (end < length && isNameChar(expression.charAt(end))) {
+                    end++;
+                }
+                if (end == pos + 1) {
+                    return null;
+                }
+                parsed.add(expression.substring(pos + 1, end));
+                pos = end;
+            } else if (next == '[') {
+                final int close = expression.indexOf(']', pos);
+                if (close < 0) {
+                    return null;
+                }
+                final Object step = bracketStep(expression.substring(pos + 1, close));
+                if (step == null) {
+                    return null;
+                }
+                parsed.add(step);
+                pos = close + 1;
+            } else {
+                return null;
+            }
+        }
+        if (parsed.isEmpty()) {
+            return null;
+        }
+        return new JsonStreamPath(parsed.toArray());
+    }
+
+    /**
+     * The steps of the path.
+     * @return The field names (String) and array indexes (Integer) from the
+     * root; not to be modified.
+     */
+    Object[] steps() {
+        return steps;
+    }
+
+    /**
+     * Whether a character may appear in a dot notation field name.
+     * @param chr The character.
+     * @return True for letters, digits, _ and -.
+     */
+    private static boolean isNameChar(final char chr) {
+        return Character.isLetterOrDigit(chr) || chr == '_' || chr == '-';
+    }
+
+    /**
+     * Read the step inside [...]: a quoted field name or an index.
+     * @param inner The text between the brackets.
+     * @return The field name or index, or null if not a simple step.
+     */
+    private static Object bracketStep(final String inner) {
+        if (inner.length() >= 2 && inner.charAt(0) == '\'' && inner.charAt(inner.length() - 1) == '\'') {
+            final String name = inner.substring(1, inner.length() - 1);
+            if (name.isEmpty() || name.indexOf('\'') >= 0 || name.indexOf('\\') >= 0) {
+                return null;
+            }
+            return name;
+        }
+        if (inner.isEmpty() || inner.length() > 9) {
+            return null;
+        }
+        for (int i = 0; i < inner.length(); i++) {
+            if (!Character.isDigit(inner.charAt(i))) {
+                return null;
+            }
+        }
+        return Integer.valueOf(inner);
+    }
+
+    /**
+     * Read the scalar value at this path from a json document.
+     * @param jsondoc The json text.
+     * @return The value as a string, or null if there is no scalar value at
+     * the path or the document cannot be streamed; the caller then uses the
+     * full JsonPath evaluation.
+     */
+    public String read(final String jsondoc) {
+        try (JsonParser parser = FACTORY.createParser(jsondoc)) {
+            return find(parser);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.debug("Streamed json path not evaluated", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Read the scalar value at this path from json content as it is read,
+     * e.g. from the bytes of a message body, without building its text.
+     * @param jsondoc The json content.
+     * @return The value as a string, or null if there is no scalar value at
+     * the path or the document cannot be streamed.
+     * @see #read(String)
+     */
+    public String read(final Reader jsondoc) {
+        try (JsonParser parser = FACTORY.createParser(jsondoc)) {
+            return find(parser);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.debug("Streamed json path not evaluated", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Follow the steps of this path and read the scalar value there.
+     * @param parser The parser at the start of the document.
+     * @return The value, or null if there is no scalar value at the path.
+     * @throws IOException Error reading the json.
+     */
+    private String find(final JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        for (final Object step : steps) {
+            token = step instanceof String
+                    ? field(parser, token, (String) step)
+                    : element(parser, token, (Integer) step);
+            if (token == null) {
+                return null;
+            }
+        }
+        return scalar(parser, token);
+    }
+
+    /**
+     * Move to the value of a field of the current object.
+     * @param parser The parser, positioned on the object's first token.
+     * @param token The current token.
+     * @param name The field name.
+     * @return The first token of the field's value, or null if not found.
+     * @throws IOException Error reading the json.
+     */
+    private static JsonToken field(final JsonParser parser, final JsonToken token, final String name)
+            throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            return null;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final boolean match = name.equals(parser.getCurrentName());
+            final JsonToken value = parser.nextToken();
+            if (match) {
+                return value;
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    /**
+     * Move to an element of the current array.
+     * @param parser The parser, positioned on the array's first token.
+     * @param token The current token.
+     * @param index The element index.
+     * @return The first token of the element, or null if not found.
+     * @throws IOException Error reading the json.
+     */
+    private static JsonToken element(final JsonParser parser, final JsonToken token, final int index)
+            throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            return null;
+        }
+        int position = 0;
+        JsonToken value = parser.nextToken();
+        while (value != null && value != JsonToken.END_ARRAY) {
+            if (position == index) {
+                return value;
+            }
+            parser.skipChildren();
+            position++;
+            value = parser.nextToken();
+        }
+        return null;
+    }
+
+    /**
+     * Format the scalar value at the current token as JsonPath would.
+     * @param parser The parser.
+     * @param token The value's token.
+     * @return The formatted value, or null if it is not a simple scalar.
+     * @throws IOException Error reading the json.
+     */
+    static String scalar(final JsonParser parser, final JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue().toString();
+            case VALUE_NUMBER_FLOAT:
+                if (parser.getTextLength() > MAX_DOUBLE_TEXT) {
+                    return null;
+                }
+                return Double.toString(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return Boolean.TRUE.toString();
+            case VALUE_FALSE:
+                return Boolean.FALSE.toString();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,661 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+
+/**
+ * Matches a set of content paths against a message body in a single pass.
+ * A state collects the paths of all the content guards on its outgoing
+ * transitions into one matcher; the body is then streamed once and every
+ * value those guards need is read on the way, instead of evaluating each
+ * path separately against a parsed tree.
+ *
+ * Two kinds of path are matched: value paths, which read the value of the
+ * first selected node (as the equality, comparison and regex guards do),
+ * and child paths, which list the child field names of the selected node
+ * (as the contains guards do). Every path must be in the streamed subset of
+ * its format (see XmlStreamPath and JsonStreamPath). As with the single
+ * path evaluators, a path that the stream cannot answer exactly as the tree
+ * would is left out of the matches and the caller evaluates it on the tree.
+ *
+ * For xml the paths form an automaton over element names: each element is
+ * only checked against the paths with a step of that name, and reading
+ * stops once every path is resolved. For json the paths form a tree of
+ * field names and indexes: only the subtrees on some path are read and the
+ * rest of the document is skipped.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class MultiPathMatcher {
+
+    /**
+     * Capture of the string value of an element.
+     */
+    private static final int VALUE = 0;
+
+    /**
+     * Capture of the first text node of an element.
+     */
+    private static final int TEXT = 1;
+
+    /**
+     * Capture of the child element names of an element.
+     */
+    private static final int CHILDREN = 2;
+
+    /**
+     * Whether the paths are XPath expressions rather than json paths.
+     */
+    private final boolean xml;
+
+    /**
+     * The path expressions: the value paths followed by the child paths.
+     */
+    private final String[] expressions;
+
+    /**
+     * Whether each path lists child names rather than reading a value.
+     */
+    private final boolean[] childPaths;
+
+    /**
+     * The streamed form of each XPath expression; null for json.
+     */
+    private final XmlStreamPath[] xmlPaths;
+
+    /**
+     * The xml paths with a step of each element name; null for json.
+     */
+    private final Map<String, int[]> pathsByName;
+
+    /**
+     * The root of the tree of json path steps; null for xml.
+     */
+    private final JsonStep jsonRoot;
+
+    /**
+     * A step in the tree of json paths.
+     */
+    private static final class JsonStep {
+
+        /**
+         * The following steps, by field name (String) or index (Integer).
+         */
+        private final Map<Object, JsonStep> next = new HashMap<>();
+
+        /**
+         * The value path ending at this step; null if none.
+         */
+        private String valuePath;
+
+        /**
+         * The child path ending at this step; null if none.
+         */
+        private String childPath;
+    }
+
+    /**
+     * Construct the matcher.
+     * @param isXml Whether the paths are XPath expressions.
+     * @param paths The path expressions.
+     * @param children Whether each path is a child path.
+     * @param streamed The streamed XPath of each path; null for json.
+     * @param byName The xml paths per element name; null for json.
+     * @param root The tree of json path steps; null for xml.
+     */
+    private MultiPathMatcher(final boolean isXml, final String[] paths, final boolean[] children,
+            final XmlStreamPath[] streamed, final Map<String, int[]> byName, final JsonStep root) {
+        this.xml = isXml;
+        this.expressions = paths;
+        this.childPaths = children;
+        this.xmlPaths = streamed;
+        this.pathsByName = byName;
+        this.jsonRoot = root;
+    }
+
+    /**
+     * Build a matcher for a set of paths.
+     * @param valuePaths The paths whose values are read.
+     * @param childPaths The paths whose child field names are listed.
+     * @param isXml True for XPath expressions, false for json paths.
+     * @return The matcher, or null if there are no paths or one of them is
+     * not in the streamed subset.
+     */
+    public static MultiPathMatcher compile(final Collection<String> valuePaths,
+            final Collection<String> childPaths, final boolean isXml) {
+        final Set<String> values = new LinkedHashSet<>(valuePaths);
+        final Set<String> children = new LinkedHashSet<>(childPaths);
+        final int count = values.size() + children.size();
+        if (count == 0) {
+            return null;
+        }
+        final String[] paths = new String[count];
+        final boolean[] childFlags = new boolean[count];
+        int index = 0;
+        for (String path : values) {
+            paths[index++] = path;
+        }
+        for (String path : children) {
+            childFlags[index] = true;
+            paths[index++] = path;
+        }
+        return isXml ? compileXml(paths, childFlags) : compileJson(paths, childFlags);
+    }
+
+    /**
+     * Build a matcher for XPath expressions.
+     * @param paths The expressions.
+     * @param children Whether each expression is a child path.
+     * @return The matcher, or null if an expression cannot be streamed.
+     */
+    private static MultiPathMatcher compileXml(final String[] paths, final boolean[] children) {
+        final XmlStreamPath[] streamed = new XmlStreamPath[paths.length];
+        final Map<String, int[]> byName = new HashMap<>();
+        for (int p = 0; p < paths.length; p++) {
+            streamed[p] = PathExpressions.xmlStreamPath(paths[p]);
+            if (streamed[p] == null || (children[p] && streamed[p].selectsText())) {
+                return null;
+            }
+            for (int k = 0; k < streamed[p].steps(); k++) {
+                final int[] current = byName.get(streamed[p].stepName(k));
+                if (current == null) {
+                    byName.put(streamed[p].stepName(k), new int[] {p});
+                } else if (current[current.length - 1] != p) {
+                    final int[] extended = Arrays.copyOf(current, current.length + 1);
+                    extended[current.length] = p;
+                    byName.put(streamed[p].stepName(k), extended);
+                }
+            }
+        }
+        return new MultiPathMatcher(true, paths, children, streamed, byName, null);
+    }
+
+    /**
+     * Build a matcher for json paths.
+     * @param paths The json paths.
+     * @param children Whether each path is a child path.
+     * @return The matcher, or null if a path cannot be streamed.
+     */
+    private static MultiPathMatcher compileJson(final String[] paths, final boolean[] children) {
+        final JsonStep root = new JsonStep();
+        for (int p = 0; p < paths.length; p++) {
+            final JsonStreamPath streamed = PathExpressions.jsonStreamPath(paths[p]);
+            if (streamed == null) {
+                return null;
+            }
+            JsonStep step = root;
+            for (Object key : streamed.steps()) {
+                JsonStep next = step.next.get(key);
+                if (next == null) {
+                    next = new JsonStep();
+                    step.next.put(key, next);
+                }
+                step = next;
+            }
+            if (children[p]) {
+                step.childPath = paths[p];
+            } else {
+                step.valuePath = paths[p];
+            }
+        }
+        return new MultiPathMatcher(false, paths, children, null, null, root);
+    }
+
+    /**
+     * Whether the paths of this matcher are XPath expressions.
+     * @return True for xml, false for json.
+     */
+    public boolean isXml() {
+        return xml;
+    }
+
+    /**
+     * Match the paths against a body in one pass.
+     * @param data The xml or json text.
+     * @return The values and child names that were read.
+     */
+    public Matches read(final String data) {
+        return read(new StringReader(data));
+    }
+
+    /**
+     * Match the paths against a body in one pass, as it is read.
+     * @param data The xml or json content.
+     * @return The values and child names that were read.
+     */
+    public Matches read(final Reader data) {
+        final Map<String, String> values = new HashMap<>();
+        final Map<String, List<String>> children = new HashMap<>();
+        if (xml) {
+            XMLStreamReader reader = null;
+            try {
+                reader = XmlStreamPath.open(data);
+                matchXml(reader, values, children);
+            } catch (XMLStreamException ex) {
+                ServiceLogger.LOG.debug("Streamed xpaths not evaluated", ex);
+            } finally {
+                XmlStreamPath.close(reader);
+            }
+        } else {
+            try (JsonParser parser = JsonStreamPath.FACTORY.createParser(data)) {
+                final JsonToken token = parser.nextToken();
+                if (token != null) {
+                    matchJson(parser, token, jsonRoot, values, children);
+                }
+            } catch (IOException ex) {
+                ServiceLogger.LOG.debug("Streamed json paths not evaluated", ex);
+                values.clear();
+                children.clear();
+            }
+            values.values().removeIf(value -> value == null);
+            children.values().removeIf(names -> names == null);
+        }
+        return new Matches(this, values, children);
+    }
+
+    /**
+     * An element whose value or children are being read.
+     */
+    private static final class Capture {
+
+        /**
+         * The index of the path that selected the element.
+         */
+        private final int path;
+
+        /**
+         * The depth of the element.
+         */
+        private final int depth;
+
+        /**
+         * What is read: VALUE, TEXT or CHILDREN.
+         */
+        private final int mode;
+
+        /**
+         * The text read so far.
+         */
+        private final StringBuilder text = new StringBuilder();
+
+        /**
+         * The child element names read so far, without repeats.
+         */
+        private final Set<String> names = new LinkedHashSet<>();
+
+        /**
+         * Start reading an element.
+         * @param pathIndex The path that selected it.
+         * @param elementDepth Its depth.
+         * @param captureMode What is read.
+         */
+        private Capture(final int pathIndex, final int elementDepth, final int captureMode) {
+            this.path = pathIndex;
+            this.depth = elementDepth;
+            this.mode = captureMode;
+        }
+    }
+
+    /**
+     * Run the xml automaton over the document. For each open element and
+     * each path the reader keeps the same step sets and sibling counts as
+     * XmlStreamPath; an element whose name is on no path only inherits its
+     * parent's sets. The first element selected by a path is captured, and
+     * the capture resolves to a value, or to nothing where the DOM must
+     * decide.
+     * @param reader The reader at the start of the document.
+     * @param values The values read, by path.
+     * @param children The child names read, by path.
+     * @throws XMLStreamException The xml is not well formed.
+     */
+    private void matchXml(final XMLStreamReader reader, final Map<String, String> values,
+            final Map<String, List<String>> children) throws XMLStreamException {
+        final int count = xmlPaths.length;
+        final boolean[] started = new boolean[count];
+        final List<Capture> captures = new ArrayList<>();
+        long[][] matched = new long[16][];
+        long[][] inherited = new long[16][];
+        int[][][] counts = new int[16][][];
+        int depth = 0;
+        int remaining = count;
+        matched[0] = new long[count];
+        inherited[0] = new long[count];
+        counts[0] = new int[count][];
+        for (int p = 0; p < count; p++) {
+            matched[0][p] = 1L;
+            inherited[0][p] = 1L;
+            counts[0][p] = new int[xmlPaths[p].steps()];
+        }
+        while (remaining > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.DTD) {
+                values.clear();
+                children.clear();
+                return;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                final Iterator<Capture> open = captures.iterator();
+                while (open.hasNext()) {
+                    final Capture capture = open.next();
+                    if (capture.mode == TEXT) {
+                        resolve(capture, capture.text.length() == 0 ? null : capture.text, values, children);
+                        open.remove();
+                        remaining--;
+                    } else if (capture.mode == CHILDREN && capture.depth == depth) {
+                        final String prefix = reader.getPrefix();
+                        capture.names.add(prefix == null || prefix.isEmpty()
+                                ? reader.getLocalName() : prefix + ":" + reader.getLocalName());
+                    }
+                }
+                depth++;
+                if (depth == matched.length) {
+                    matched = Arrays.copyOf(matched, depth * 2);
+                    inherited = Arrays.copyOf(inherited, depth * 2);
+                    counts = Arrays.copyOf(counts, depth * 2);
+                }
+                if (matched[depth] == null) {
+                    matched[depth] = new long[count];
+                    inherited[depth] = new long[count];
+                    counts[depth] = new int[count][];
+                    for (int p = 0; p < count; p++) {
+                        counts[depth][p] = new int[xmlPaths[p].steps()];
+                    }
+                }
+                for (int p = 0; p < count; p++) {
+                    matched[depth][p] = 0L;
+                    inherited[depth][p] = inherited[depth - 1][p];
+                    Arrays.fill(counts[depth][p], 0);
+                }
+                final String namespace = reader.getNamespaceURI();
+                final int[] candidates = namespace == null || namespace.isEmpty()
+                        ? pathsByName.get(reader.getLocalName()) : null;
+                if (candidates != null) {
+                    for (int p : candidates) {
+                        if (started[p]) {
+                            continue;
+                        }
+                        final long set = xmlPaths[p].stepsMatched(namespace, reader.getLocalName(),
+                                matched[depth - 1][p], inherited[depth - 1][p], counts[depth - 1][p]);
+                        matched[depth][p] = set;
+                        inherited[depth][p] |= set;
+                        if ((set & (1L << xmlPaths[p].steps())) != 0) {
+                            started[p] = true;
+                            captures.add(new Capture(p, depth, childPaths[p] ? CHILDREN
+                                    : xmlPaths[p].selectsText() ? TEXT : VALUE));
+                        }
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                final Iterator<Capture> open = captures.iterator();
+                while (open.hasNext()) {
+                    final Capture capture = open.next();
+                    if (capture.depth == depth || capture.mode == TEXT) {
+                        resolve(capture, capture.mode == TEXT && capture.text.length() == 0
+                                ? null : capture.text, values, children);
+                        open.remove();
+                        remaining--;
+                    }
+                }
+                depth--;
+            } else {
+                remaining -= characters(reader, event, captures, values, children);
+            }
+        }
+    }
+
+    /**
+     * Add a text, comment or other content event to the open captures.
+     * @param reader The reader.
+     * @param event The event type.
+     * @param captures The open captures; those resolved are removed.
+     * @param values The values read, by path.
+     * @param children The child names read, by path.
+     * @return The number of captures resolved.
+     */
+    private int characters(final XMLStreamReader reader, final int event, final List<Capture> captures,
+            final Map<String, String> values, final Map<String, List<String>> children) {
+        int resolved = 0;
+        final Iterator<Capture> open = captures.iterator();
+        while (open.hasNext()) {
+            final Capture capture = open.next();
+            boolean done = false;
+            CharSequence value = null;
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (capture.mode != CHILDREN) {
+                        capture.text.append(reader.getTextCharacters(), reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.CDATA:
+                    if (capture.mode == VALUE) {
+                        capture.text.append(reader.getTextCharacters(), reader.getTextStart(),
+                                reader.getTextLength());
+                    }
+                    done = capture.mode == TEXT;
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    done = true;
+                    break;
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    if (capture.mode == TEXT) {
+                        done = true;
+                        value = capture.text.length() == 0 ? null : capture.text;
+                    }
+                    break;
+                default:
+                    done = capture.mode == TEXT;
+                    break;
+            }
+            if (done) {
+                resolve(capture, value, values, children);
+                open.remove();
+                resolved++;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Record the result of a capture.
+     * @param capture The capture.
+     * @param value The text read; null if the DOM must decide.
+     * @param values The values read, by path.
+     * @param children The child names read, by path.
+     */
+    private void resolve(final Capture capture, final CharSequence value,
+            final Map<String, String> values, final Map<String, List<String>> children) {
+        if (capture.mode == CHILDREN) {
+            if (value != null) {
+                children.put(expressions[capture.path],
+                        Collections.unmodifiableList(new ArrayList<>(capture.names)));
+            }
+        } else if (value != null) {
+            values.put(expressions[capture.path], value.toString());
+        }
+    }
+
+    /**
+     * Read the json value at a step of the path tree, and the steps below
+     * it. A field that appears more than once is read each time, so that as
+     * with JsonPath the last one wins; a value that cannot be answered is
+     * recorded as null.
+     * @param parser The parser.
+     * @param token The first token of the value.
+     * @param step The step the value is at.
+     * @param values The values read, by path.
+     * @param children The child names read, by path.
+     * @throws IOException Error reading the json.
+     */
+    private static void matchJson(final JsonParser parser, final JsonToken token, final JsonStep step,
+            final Map<String, String> values, final Map<String, List<String>> children) throws IOException {
+        if (step.valuePath != null) {
+            values.put(step.valuePath, JsonStreamPath.scalar(parser, token));
+        }
+        Set<String> names = null;
+        if (step.childPath != null) {
+            if (token == JsonToken.START_OBJECT) {
+                names = new LinkedHashSet<>();
+            } else {
+                // JsonPath lists no fields for arrays and scalars; a null is left to it
+                children.put(step.childPath, token == JsonToken.VALUE_NULL ? null
+                        : Collections.<String>emptyList());
+            }
+        }
+        if (step.next.isEmpty() && names == null) {
+            parser.skipChildren();
+        } else if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                if (names != null) {
+                    names.add(name);
+                }
+                final JsonToken value = parser.nextToken();
+                final JsonStep next = step.next.get(name);
+                if (next == null) {
+                    parser.skipChildren();
+                } else {
+                    matchJson(parser, value, next, values, children);
+                }
+            }
+            if (names != null) {
+                children.put(step.childPath, Collections.unmodifiableList(new ArrayList<>(names)));
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            JsonToken value = parser.nextToken();
+            while (value != null && value != JsonToken.END_ARRAY) {
+                final JsonStep next = step.next.get(index);
+                if (next == null) {
+                    parser.skipChildren();
+                } else {
+                    matchJson(parser, value, next, values, children);
+                }
+                index++;
+                value = parser.nextToken();
+            }
+        }
+    }
+
+    /**
+     * The values and child names read from one body by a matcher. Paths
+     * that are absent were not answered by the stream.
+     */
+    public static final class Matches {
+
+        /**
+         * The matcher that read the body.
+         */
+        private final MultiPathMatcher matcher;
+
+        /**
+         * The values read, by path.
+         */
+        private final Map<String, String> values;
+
+        /**
+         * The child field names read, by path.
+         */
+        private final Map<String, List<String>> children;
+
+        /**
+         * Construct the matches.
+         * @param source The matcher that read the body.
+         * @param valueMap The values read, by path.
+         * @param childMap The child field names read, by path.
+         */
+        private Matches(final MultiPathMatcher source, final Map<String, String> valueMap,
+                final Map<String, List<String>> childMap) {
+            this.matcher = source;
+            this.values = valueMap;
+            this.children = childMap;
+        }
+
+        /**
+         * Create the matches of a single value path read by streaming.
+         * @param path The path expression.
+         * @param value The value read.
+         * @return The matches, answering only the path.
+         */
+        public static Matches of(final String path, final String value) {
+            return new Matches(null, Collections.singletonMap(path, value),
+                    Collections.<String, List<String>>emptyMap());
+        }
+
+        /**
+         * Whether these matches were read by the given matcher.
+         * @param source The matcher.
+         * @return True if it read them.
+         */
+        public boolean isFrom(final MultiPathMatcher source) {
+            return matcher == source;
+        }
+
+        /**
+         * Get the value read for a value path.
+         * @param path The path expression.
+         * @return The value, or null if the path was not answered.
+         */
+        public String value(final String path) {
+            return values.get(path);
+        }
+
+        /**
+         * Get the child field names read for a child path.
+         * @param path The path expression.
+         * @return The names in document order, or null if the path was not
+         * answered.
+         */
+        public List<String> children(final String path) {
+            return children.get(path);
+        }
+    }
+}
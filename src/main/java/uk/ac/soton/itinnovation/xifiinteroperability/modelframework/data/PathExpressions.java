@@ -0,0 +1,234 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import com.jayway.jsonpath.InvalidPathException;
+import com.jayway.jsonpath.JsonPath;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Registry of compiled path expressions used by content guards. Each
+ * expression is compiled once: patterns register their content[...] paths
+ * when they are loaded, so that invalid paths are reported then rather than
+ * part way through a test, and evaluations reuse the compiled form.
+ *
+ * Compiled JSON paths are immutable and shared by all threads. Compiled
+ * XPath expressions are not thread safe, so each thread keeps its own
+ * cache of them.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class PathExpressions {
+
+    /**
+     * Utility class. Private constructor.
+     */
+    private PathExpressions() {
+        // no implementation required.
+    }
+
+    /**
+     * Upper bound on the cached expressions of each kind; expressions beyond
+     * this are compiled on every use rather than growing the cache further.
+     */
+    private static final int MAX_CACHED = 4096;
+
+    /**
+     * The compiled json path expressions, shared by every thread.
+     */
+    private static final Map<String, JsonPath> JSON_PATHS = new ConcurrentHashMap<>();
+
+    /**
+     * The streaming evaluators of simple json paths; NOT_STREAMABLE for the
+     * paths that need the full JsonPath evaluation.
+     */
+    private static final Map<String, Object> JSON_STREAM_PATHS = new ConcurrentHashMap<>();
+
+    /**
+     * The streaming evaluators of XPath expressions in the streamed subset;
+     * NOT_STREAMABLE for the expressions that need the DOM.
+     */
+    private static final Map<String, Object> XML_STREAM_PATHS = new ConcurrentHashMap<>();
+
+    /**
+     * Marks a path that cannot be streamed.
+     */
+    private static final Object NOT_STREAMABLE = new Object();
+
+    /**
+     * The compiled XPath expressions of each thread.
+     */
+    private static final ThreadLocal<XPathCache> XPATHS = ThreadLocal.withInitial(XPathCache::new);
+
+    /**
+     * The XPath compiler of one thread and the expressions it has compiled.
+     */
+    private static final class XPathCache {
+
+        /**
+         * The thread's XPath compiler.
+         */
+        private final XPath xpath = XPathFactory.newInstance().newXPath();
+
+        /**
+         * The expressions compiled by this thread.
+         */
+        private final Map<String, XPathExpression> compiled = new HashMap<>();
+
+        /**
+         * Get the compiled form of an expression, compiling it if new.
+         * @param expression The XPath expression.
+         * @return The compiled expression.
+         * @throws XPathExpressionException The expression is not valid XPath.
+         */
+        private XPathExpression get(final String expression) throws XPathExpressionException {
+            XPathExpression expr = compiled.get(expression);
+            if (expr == null) {
+                expr = xpath.compile(expression);
+                if (compiled.size() < MAX_CACHED) {
+                    compiled.put(expression, expr);
+                }
+            }
+            return expr;
+        }
+    }
+
+    /**
+     * Get the compiled form of an XPath expression for use by the calling
+     * thread. The result must not be handed to another thread.
+     * @param expression The XPath expression.
+     * @return The compiled expression.
+     * @throws XPathExpressionException The expression is not valid XPath.
+     */
+    public static XPathExpression xpath(final String expression) throws XPathExpressionException {
+        return XPATHS.get().get(expression);
+    }
+
+    /**
+     * Get the compiled form of a json path expression.
+     * @param expression The json path expression.
+     * @return The compiled path, which may be used by any thread.
+     * @throws InvalidPathException The expression is not a valid json path.
+     */
+    public static JsonPath jsonPath(final String expression) {
+        JsonPath path = JSON_PATHS.get(expression);
+        if (path == null) {
+            path = JsonPath.compile(expression);
+            if (JSON_PATHS.size() < MAX_CACHED) {
+                final JsonPath existing = JSON_PATHS.putIfAbsent(expression, path);
+                if (existing != null) {
+                    path = existing;
+                }
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Get the streaming evaluator of a json path expression.
+     * @param expression The json path expression.
+     * @return The evaluator, which may be used by any thread, or null if the
+     * path is not simple enough to be streamed.
+     * @see JsonStreamPath
+     */
+    public static JsonStreamPath jsonStreamPath(final String expression) {
+        Object path = JSON_STREAM_PATHS.get(expression);
+        if (path == null) {
+            path = JsonStreamPath.compile(expression);
+            if (path == null) {
+                path = NOT_STREAMABLE;
+            }
+            if (JSON_STREAM_PATHS.size() < MAX_CACHED) {
+                JSON_STREAM_PATHS.putIfAbsent(expression, path);
+            }
+        }
+        return path == NOT_STREAMABLE ? null : (JsonStreamPath) path;
+    }
+
+    /**
+     * Get the streaming evaluator of an XPath expression.
+     * @param expression The XPath expression.
+     * @return The evaluator, which may be used by any thread, or null if the
+     * expression is not in the streamed subset.
+     * @see XmlStreamPath
+     */
+    public static XmlStreamPath xmlStreamPath(final String expression) {
+        Object path = XML_STREAM_PATHS.get(expression);
+        if (path == null) {
+            path = XmlStreamPath.compile(expression);
+            if (path == null) {
+                path = NOT_STREAMABLE;
+            }
+            if (XML_STREAM_PATHS.size() < MAX_CACHED) {
+                XML_STREAM_PATHS.putIfAbsent(expression, path);
+            }
+        }
+        return path == NOT_STREAMABLE ? null : (XmlStreamPath) path;
+    }
+
+    /**
+     * Compile the path of a content guard when its pattern is loaded. The
+     * dialect is only known once a message's content type is seen, so a path
+     * starting with $ or @ must be a json path and any other path must be
+     * valid as either XPath or a json path.
+     * @param expression The path expression inside content[...].
+     * @throws InvalidXPathException The path is valid in neither dialect.
+     * @throws InvalidJSONPathException The path is not a valid json path.
+     */
+    public static void register(final String expression)
+            throws InvalidXPathException, InvalidJSONPathException {
+        if (expression.startsWith("$") || expression.startsWith("@")) {
+            try {
+                jsonPath(expression);
+                return;
+            } catch (InvalidPathException ex) {
+                throw new InvalidJSONPathException("JSONPath '" + expression + "' is invalid: "
+                        + ex.getMessage(), ex);
+            }
+        }
+        try {
+            xpath(expression);
+        } catch (XPathExpressionException ex) {
+            try {
+                jsonPath(expression);
+            } catch (InvalidPathException jsonEx) {
+                throw new InvalidXPathException("Path '" + expression
+                        + "' is neither a valid XPath nor a valid JSONPath.", ex);
+            }
+        }
+    }
+}
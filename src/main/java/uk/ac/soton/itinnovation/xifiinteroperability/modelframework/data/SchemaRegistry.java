@@ -0,0 +1,312 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jackson.JsonLoader;
+import com.github.fge.jsonschema.core.exceptions.ProcessingException;
+import com.github.fge.jsonschema.core.report.ProcessingMessage;
+import com.github.fge.jsonschema.core.report.ProcessingReport;
+import com.github.fge.jsonschema.main.JsonSchema;
+import com.github.fge.jsonschema.main.JsonSchemaFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import org.xml.sax.SAXException;
+
+/**
+ * Registry of compiled schemas used to validate message content. Each
+ * schema is read and compiled once, the first time it is referenced, and
+ * every later validation against it reuses the compiled form.
+ *
+ * A schema reference is either the schema itself (text starting with '<'
+ * is an XML schema, text starting with '{' is a JSON schema), a URL, a
+ * resource on the classpath or a file. Referenced documents starting with
+ * '<' are XML schemas; all others are JSON schemas.
+ *
+ * Compiled schemas are immutable and shared by all threads. XML schema
+ * validators are not thread safe, so each thread keeps its own validator
+ * for each schema.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class SchemaRegistry {
+
+    /**
+     * Utility class. Private constructor.
+     */
+    private SchemaRegistry() {
+        // no implementation required.
+    }
+
+    /**
+     * Upper bound on the cached schemas; beyond this the least recently
+     * used schema is evicted.
+     */
+    private static final int MAX_CACHED = 256;
+
+    /**
+     * The compiled schemas, keyed by their reference, in order of use.
+     */
+    private static final Map<String, CompiledSchema> SCHEMAS = Collections.synchronizedMap(
+            new LinkedHashMap<String, CompiledSchema>(16, 0.75f, true) {
+                /**
+                 * Serialization version.
+                 */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CompiledSchema> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            });
+
+    /**
+     * The JSON schema factory; thread safe and shared by every compilation.
+     */
+    private static final JsonSchemaFactory JSON_SCHEMAS = JsonSchemaFactory.byDefault();
+
+    /**
+     * Get the compiled form of a schema, compiling it if new.
+     * @param reference The schema text, URL, classpath resource or file.
+     * @return The compiled schema.
+     * @throws InvalidSchemaException The schema cannot be read or compiled.
+     */
+    public static CompiledSchema schema(final String reference) throws InvalidSchemaException {
+        if (reference == null) {
+            throw new InvalidSchemaException("No schema given");
+        }
+        CompiledSchema compiled = SCHEMAS.get(reference);
+        if (compiled == null) {
+            // Compiled outside the lock; a concurrent compilation of the
+            // same schema gives way to the first cached
+            compiled = compile(reference);
+            final CompiledSchema existing = SCHEMAS.putIfAbsent(reference, compiled);
+            if (existing != null) {
+                compiled = existing;
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Read and compile a schema.
+     * @param reference The schema text, URL, classpath resource or file.
+     * @return The compiled schema.
+     * @throws InvalidSchemaException The schema cannot be read or compiled.
+     */
+    private static CompiledSchema compile(final String reference) throws InvalidSchemaException {
+        final String trimmed = reference.trim();
+        String text = trimmed;
+        String systemId = null;
+        if (!trimmed.startsWith("<") && !trimmed.startsWith("{")) {
+            try {
+                final URL location = locate(trimmed);
+                systemId = location.toExternalForm();
+                text = read(location).trim();
+            } catch (IOException ex) {
+                throw new InvalidSchemaException("Schema '" + reference + "' cannot be read", ex);
+            }
+        }
+
+        if (text.startsWith("<")) {
+            try {
+                final SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                return new CompiledSchema(factory.newSchema(new StreamSource(new StringReader(text), systemId)));
+            } catch (SAXException ex) {
+                throw new InvalidSchemaException("Schema '" + reference + "' is not a valid xml schema: "
+                        + ex.getMessage(), ex);
+            }
+        }
+        try {
+            final JsonNode schema = JsonLoader.fromString(text);
+            final ProcessingReport syntax = JSON_SCHEMAS.getSyntaxValidator().validateSchema(schema);
+            if (!syntax.isSuccess()) {
+                throw new InvalidSchemaException("Schema '" + reference + "' is not a valid json schema: "
+                        + firstMessage(syntax));
+            }
+            return new CompiledSchema(JSON_SCHEMAS.getJsonSchema(schema));
+        } catch (IOException | ProcessingException ex) {
+            throw new InvalidSchemaException("Schema '" + reference + "' is not a valid json schema: "
+                    + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Find the location of a referenced schema.
+     * @param reference A URL, classpath resource or file name.
+     * @return The location to read the schema from.
+     * @throws IOException The schema cannot be found.
+     */
+    private static URL locate(final String reference) throws IOException {
+        if (reference.contains(":/")) {
+            return new URL(reference);
+        }
+        final URL resource = SchemaRegistry.class.getResource(
+                reference.startsWith("/") ? reference : "/" + reference);
+        if (resource != null) {
+            return resource;
+        }
+        final File file = new File(reference);
+        if (!file.isFile()) {
+            throw new IOException("No schema resource or file named " + reference);
+        }
+        return file.toURI().toURL();
+    }
+
+    /**
+     * Read the text of a schema.
+     * @param location The location of the schema.
+     * @return The schema text.
+     * @throws IOException Error reading the schema.
+     */
+    private static String read(final URL location) throws IOException {
+        try (InputStream input = location.openStream()) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[4096];
+            int read = input.read(chunk);
+            while (read != -1) {
+                buffer.write(chunk, 0, read);
+                read = input.read(chunk);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Get the first message of a failed json schema report.
+     * @param report The processing report.
+     * @return The text of the first message.
+     */
+    private static String firstMessage(final ProcessingReport report) {
+        final Iterator<ProcessingMessage> messages = report.iterator();
+        return messages.hasNext() ? messages.next().getMessage() : "the json does not comply";
+    }
+
+    /**
+     * A compiled XML or JSON schema that documents are checked against.
+     */
+    public static final class CompiledSchema {
+
+        /**
+         * The compiled XML schema; null for a JSON schema.
+         */
+        private final transient Schema xmlSchema;
+
+        /**
+         * The validator of each thread for the XML schema.
+         */
+        private final transient ThreadLocal<Validator> validators;
+
+        /**
+         * The compiled JSON schema; null for an XML schema.
+         */
+        private final transient JsonSchema jsonSchema;
+
+        /**
+         * Construct a compiled XML schema.
+         * @param schema The compiled schema.
+         */
+        private CompiledSchema(final Schema schema) {
+            this.xmlSchema = schema;
+            this.validators = ThreadLocal.withInitial(schema::newValidator);
+            this.jsonSchema = null;
+        }
+
+        /**
+         * Construct a compiled JSON schema.
+         * @param schema The compiled schema.
+         */
+        private CompiledSchema(final JsonSchema schema) {
+            this.xmlSchema = null;
+            this.validators = null;
+            this.jsonSchema = schema;
+        }
+
+        /**
+         * Is this an XML schema.
+         * @return True for an XML schema, false for a JSON schema.
+         */
+        public boolean isXml() {
+            return xmlSchema != null;
+        }
+
+        /**
+         * Check a document against the schema.
+         * @param document The document content.
+         * @return null if the document is valid; otherwise the first error
+         * found, including a document that cannot be parsed.
+         */
+        public String check(final String document) {
+            if (document == null) {
+                return "there is no content to validate";
+            }
+            if (xmlSchema != null) {
+                final Validator validator = validators.get();
+                try {
+                    validator.validate(new StreamSource(new StringReader(document)));
+                    return null;
+                } catch (SAXException ex) {
+                    return ex.getMessage();
+                } catch (IOException ex) {
+                    return "the content cannot be read: " + ex.getMessage();
+                } finally {
+                    validator.reset();
+                }
+            }
+            final JsonNode node;
+            try {
+                node = JsonLoader.fromString(document);
+            } catch (IOException ex) {
+                return "the content is not json: " + ex.getMessage();
+            }
+            try {
+                final ProcessingReport report = jsonSchema.validate(node);
+                return report.isSuccess() ? null : firstMessage(report);
+            } catch (ProcessingException ex) {
+                return ex.getMessage();
+            }
+        }
+    }
+}
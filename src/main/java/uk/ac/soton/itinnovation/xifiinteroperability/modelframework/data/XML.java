@@ -27,6 +27,7 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URL;
@@ -36,7 +37,6 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
-import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -46,15 +46,9 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -83,6 +77,141 @@ public final class XML {
         // no implementation required.
     }
 
+    /**
+     * Xerces feature that builds DOM nodes lazily on first access.
+     */
+    private static final String DEFER_NODE_EXPANSION =
+            "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    /**
+     * Parse an xml document. The DOM is fully expanded when parsed. It is
+     * not safe to read on several threads at once.
+     * @param xmlDoc The xml content.
+     * @return The parsed document.
+     * @throws SAXException Error parsing the document.
+     * @throws IOException Error buffering the string data.
+     * @throws ParserConfigurationException Error configuring the parser.
+     */
+    public static Document parse(final String xmlDoc)
+            throws SAXException, IOException, ParserConfigurationException {
+        return parse(new StringReader(xmlDoc));
+    }
+
+    /**
+     * Parse an xml document as it is read, e.g. from the bytes of a message
+     * body, without building its text first.
+     * @param xmlDoc The xml content.
+     * @return The parsed document.
+     * @throws SAXException Error parsing the document.
+     * @throws IOException Error reading the content.
+     * @throws ParserConfigurationException Error configuring the parser.
+     * @see #parse(String)
+     */
+    public static Document parse(final Reader xmlDoc)
+            throws SAXException, IOException, ParserConfigurationException {
+        final DocumentBuilderFactory domFactory = DocumentBuilderFactory
+            .newInstance();
+        domFactory.setNamespaceAware(true);
+        try {
+            domFactory.setFeature(DEFER_NODE_EXPANSION, false);
+        } catch (ParserConfigurationException ex) {
+            ServiceLogger.LOG.debug("Parser always expands the DOM", ex);
+        }
+        final DocumentBuilder builder = domFactory.newDocumentBuilder();
+        return builder.parse(new InputSource(xmlDoc));
+    }
+
+    /**
+     * Parse an xml document, logging rather than throwing errors.
+     * @param xmlDoc The xml content.
+     * @return The parsed document or null if it is not valid xml.
+     */
+    public static Document parseQuietly(final String xmlDoc) {
+        return parseQuietly(new StringReader(xmlDoc));
+    }
+
+    /**
+     * Parse an xml document as it is read, logging rather than throwing
+     * errors.
+     * @param xmlDoc The xml content.
+     * @return The parsed document or null if it is not valid xml.
+     */
+    public static Document parseQuietly(final Reader xmlDoc) {
+        try {
+            return parse(xmlDoc);
+        } catch (SAXException ex) {
+            ServiceLogger.LOG.error("Error parsing the xml document", ex);
+        } catch (IOException ex) {
+            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
+        } catch (ParserConfigurationException ex) {
+            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
+        }
+        return null;
+    }
+
+    /**
+     * Compile an XPath expression and check that it selects something in the
+     * document.
+     * @param doc The parsed document.
+     * @param reference The XPath expression.
+     * @return The compiled expression.
+     * @throws XPathExpressionException The expression is not valid XPath.
+     * @throws InvalidXPathException The expression selects nothing.
+     */
+    private static XPathExpression existingPath(final Document doc, final String reference)
+            throws XPathExpressionException, InvalidXPathException {
+        final XPathExpression expr = PathExpressions.xpath(reference);
+        final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
+        if (!xPathExist){
+            throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
+        }
+        return expr;
+    }
+
+    /**
+     * Read a value from xml text in a single streamed pass.
+     * @param xmlDoc The xml text.
+     * @param reference The XPath expression.
+     * @return The value, or null if the expression is outside the streamed
+     * subset or the text must be read as a DOM.
+     */
+    private static String streamValue(final String xmlDoc, final String reference) {
+        final XmlStreamPath streamed = PathExpressions.xmlStreamPath(reference);
+        return streamed == null ? null : streamed.read(xmlDoc);
+    }
+
+    /**
+     * Read the string value of an XPath expression. Xml text is first read
+     * by streaming it when the expression is in the streamed subset (see
+     * XmlStreamPath); otherwise it is parsed and evaluated on the DOM.
+     * @param source The parsed Document, the xml text, or the matches of a
+     * single pass that answered the expression.
+     * @param reference The XPath expression.
+     * @return The value, or null if the document could not be parsed.
+     * @throws XPathExpressionException The expression is not valid XPath.
+     * @throws InvalidXPathException The expression selects nothing.
+     */
+    private static String pathValue(final Object source, final String reference)
+            throws XPathExpressionException, InvalidXPathException {
+        if (source instanceof MultiPathMatcher.Matches) {
+            return ((MultiPathMatcher.Matches) source).value(reference);
+        }
+        final Document doc;
+        if (source instanceof String) {
+            final String value = streamValue((String) source, reference);
+            if (value != null) {
+                return value;
+            }
+            doc = parseQuietly((String) source);
+        } else {
+            doc = (Document) source;
+        }
+        if (doc == null) {
+            return null;
+        }
+        return existingPath(doc, reference).evaluate(doc);
+    }
+
     /**
      * XPATH based method to assert that particular expressions in an
      * XML data structure e.g. /Resp/Address/Street == Main St. Given an XML
@@ -96,32 +225,31 @@ public final class XML {
      */
     public static PathEvaluationResult xmlAssert(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException {
+        return xmlAssert((Object) xmlDoc, reference, value);
+    }
+
+    /**
+     * XPATH based assertion on an already parsed document.
+     * @param source The parsed xml Document, or the xml text; null if it
+     * could not be parsed
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see #xmlAssert(String, String, Object)
+     */
+    public static PathEvaluationResult xmlAssert(final Object source, final String reference, final Object value)
+            throws InvalidXPathException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
+            final Object result = pathValue(source, reference);
+            if (result == null) {
+                return new PathEvaluationResult(false, null, DataFormat.XML);
             }
-            final Object result = expr.evaluate(doc);
             return new PathEvaluationResult(result.equals(value.toString()), result, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
     /**
@@ -138,20 +266,27 @@ public final class XML {
      */
     public static PathEvaluationResult xmlCompare(final String xmlDoc, final String reference, final Object value,
             final Guard.ComparisonType comparisonType) throws InvalidXPathException {
+        return xmlCompare((Object) xmlDoc, reference, value, comparisonType);
+    }
+
+    /**
+     * XPATH based comparison on an already parsed document.
+     * @param source The parsed xml Document, or the xml text; null if it
+     * could not be parsed
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @param comparisonType The type of the comparison, GREATERTHAN or LESSTHAN
+     * @return PathEvaluationResult with the boolean result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see #xmlCompare(String, String, Object, Guard.ComparisonType)
+     */
+    public static PathEvaluationResult xmlCompare(final Object source, final String reference, final Object value,
+            final Guard.ComparisonType comparisonType) throws InvalidXPathException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
+            final Object result = pathValue(source, reference);
+            if (result == null) {
+                return new PathEvaluationResult(false, null, DataFormat.XML);
             }
-            final Object result = expr.evaluate(doc);
             if (comparisonType == Guard.ComparisonType.GREATERTHAN){
                 try{
                     double a = new Double(result.toString());
@@ -170,12 +305,6 @@ public final class XML {
                     return new PathEvaluationResult(false, result, DataFormat.XML);
                 }
             }
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
@@ -197,28 +326,29 @@ public final class XML {
      */
     public static PathEvaluationResult xmlRegex(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException, InvalidRegexException {
+        return xmlRegex((Object) xmlDoc, reference, value);
+    }
+
+    /**
+     * XPATH based regular expression match on an already parsed document.
+     * @param source The parsed xml Document, or the xml text; null if it
+     * could not be parsed
+     * @param reference the XPATH reference expression to evaluate
+     * @param value the regex to match against
+     * @return the evaluation result and the value of the XPath expression
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in guard
+     * @throws InvalidRegexException Thrown in case of an invalid regex in guard
+     * @see #xmlRegex(String, String, Object)
+     */
+    public static PathEvaluationResult xmlRegex(final Object source, final String reference, final Object value)
+            throws InvalidXPathException, InvalidRegexException {
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
+            final Object result = pathValue(source, reference);
+            if (result == null) {
+                return new PathEvaluationResult(false, null, DataFormat.XML);
             }
-            final Object result = expr.evaluate(doc);
             boolean boolResult = Pattern.matches(value.toString(), result.toString());
             return new PathEvaluationResult(boolResult, result, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
@@ -226,7 +356,6 @@ public final class XML {
             ServiceLogger.LOG.error("Error with invalid regular expression", ex);
             throw new InvalidRegexException("There is a regex guard with an invalid regular expression.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
     /**
@@ -242,68 +371,60 @@ public final class XML {
      */
     public static PathEvaluationResult xmlContains(final String xmlDoc, final String reference, final Object value)
             throws InvalidXPathException {
-        try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-            final boolean xPathExist = (boolean) expr.evaluate(doc, XPathConstants.BOOLEAN);
-            if (!xPathExist){
-                throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
-            }
+        return xmlContains(parseQuietly(xmlDoc), reference, value);
+    }
 
-            final Node resultNode = (Node) expr.evaluate(doc, XPathConstants.NODE);
-            final NodeList resultNodeList = (NodeList) resultNode.getChildNodes();
+    /**
+     * XPATH based contains check on an already parsed document.
+     * @param source The parsed xml Document, or the matches of a single pass
+     * that answered the expression; null if it could not be parsed
+     * @param reference The XPATH reference expression to evaluate
+     * @param value The value to compare against
+     * @return PathEvaluationResult with the boolean result and the names of the child fields (array list)
+     * @throws InvalidXPathException Thrown in case of an invalid XPath in a guard.
+     * @see #xmlContains(String, String, Object)
+     */
+    public static PathEvaluationResult xmlContains(final Object source, final String reference, final Object value)
+            throws InvalidXPathException {
+        if (source instanceof MultiPathMatcher.Matches) {
+            final List<String> childFields = ((MultiPathMatcher.Matches) source).children(reference);
+            if (childFields == null) {
+                return new PathEvaluationResult(false, null, DataFormat.XML);
+            }
+            return new PathEvaluationResult(childFields.contains(value.toString()), childFields, DataFormat.XML);
+        }
+        final Document doc = (Document) source;
+        if (doc == null) {
+            return new PathEvaluationResult(false, null, DataFormat.XML);
+        }
+        try {
+            final Node resultNode = (Node) existingPath(doc, reference).evaluate(doc, XPathConstants.NODE);
 
             boolean containsResult = false;
-            List<Node> elementNodesList = new ArrayList<>();
+            List<String> elementNodesList = new ArrayList<>();
             /* the set is used to avoid duplicate child fields*/
             Set<String> elementNodesSet = new HashSet<>();
-            for (int i=0; i<resultNodeList.getLength(); i++){
-                if (resultNodeList.item(i).getNodeType() == Node.ELEMENT_NODE){
-                    if (elementNodesSet.add(resultNodeList.item(i).getNodeName())){
-                        elementNodesList.add(resultNodeList.item(i));
+            // Walk the siblings rather than getChildNodes(), whose cache is
+            // not safe to share between threads
+            for (Node child = resultNode.getFirstChild(); child != null; child = child.getNextSibling()){
+                if (child.getNodeType() == Node.ELEMENT_NODE){
+                    if (elementNodesSet.add(child.getNodeName())){
+                        elementNodesList.add(child.getNodeName());
 
-                        if (resultNodeList.item(i).getNodeName().equals(value.toString())){
+                        if (child.getNodeName().equals(value.toString())){
                             containsResult = true;
                         }
                     }
                 }
             }
             return new PathEvaluationResult(containsResult, elementNodesList, DataFormat.XML);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml document", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error buffering the xml string data", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the xml parser", ex);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Error with invalid xml xpath expression", ex);
             throw new InvalidXPathException("XPath '" + reference + "' is invalid or does not exist.");
         }
-        return new PathEvaluationResult(false, null, DataFormat.XML);
     }
 
 
-    /**
-     * Validate and xml document against the xml schema; throw exceptions
-     * when the schema doesn't match.
-     * @param xml The xml document to check.
-     * @param schema The schema to test against.
-     * @throws SAXException Error stating that it doesn't match.
-     * @throws IOException Error during the processing of the operation.
-     */
-    private static void localValidate(final String xml, final Schema schema)
-            throws SAXException, IOException {
-        final StreamSource source = new StreamSource(new StringReader(xml));
-        final Validator validator = schema.newValidator();
-        validator.validate(source);
-    }
-
     public static int getArraySize(final String xmlDoc, final String reference) {
         try {
             final DocumentBuilderFactory domFactory = DocumentBuilderFactory
@@ -312,9 +433,7 @@ public final class XML {
             final DocumentBuilder builder = domFactory.newDocumentBuilder();
             final InputSource source = new InputSource(new StringReader(xmlDoc));
             final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(reference);
-
+            final XPathExpression expr = PathExpressions.xpath(reference);
 
             Object result = expr.evaluate(doc, XPathConstants.NODESET);
             NodeList products = (NodeList) result;
@@ -333,45 +452,33 @@ public final class XML {
 
     /**
      * Public operation to check if an xml document (as a string) matches
-     * a schema given at a URL.
+     * a schema given at a URL. The schema is compiled once (see
+     * SchemaRegistry).
      * @param xmlDoc The xml document to test.
      * @param schemaFile The URL location of the schema.
      * @return true if the doc conforms to the schema, false otherwise.
      */
     public static boolean xmlValidate(final String xmlDoc, final URL schemaFile) {
-        final SchemaFactory schemaFactory = SchemaFactory
-            .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        try {
-            final Schema schema = schemaFactory.newSchema(schemaFile);
-            localValidate(xmlDoc, schema);
-            return true;
-        } catch (SAXException e) {
-            ServiceLogger.LOG.error("Invalid Schema", e);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Cannot read schema", ex);
-        }
-        return false;
+        return xmlValidate(xmlDoc, schemaFile.toExternalForm());
     }
 
     /**
      * Public operation to check if an xml document (as a string) matches
-     * a schema given as a string.
+     * a schema given as a string. The schema is compiled once (see
+     * SchemaRegistry).
      * @param xmlDoc The xml document to test.
-     * @param schemaIn The complete schema in a string.
+     * @param schemaIn The complete schema in a string, or a reference to it.
      * @return true if the doc conforms to the schema, false otherwise.
      */
     public static boolean xmlValidate(final String xmlDoc, final String schemaIn) {
-        final StreamSource schemaFile = new StreamSource(new StringReader(schemaIn));
-        final SchemaFactory schemaFactory = SchemaFactory
-            .newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
         try {
-            final Schema schema = schemaFactory.newSchema(schemaFile);
-            localValidate(xmlDoc, schema);
-            return true;
-        } catch (SAXException e) {
-           ServiceLogger.LOG.error("Invalid Schema", e);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Unable to read schema", ex);
+            final String error = SchemaRegistry.schema(schemaIn).check(xmlDoc);
+            if (error != null) {
+                ServiceLogger.LOG.error("xml input does not comply with schema: " + error);
+            }
+            return error == null;
+        } catch (InvalidSchemaException ex) {
+            ServiceLogger.LOG.error("Invalid Schema", ex);
         }
         return false;
     }
@@ -383,22 +490,37 @@ public final class XML {
      * @return The xml value read.
      */
     public static String readValue(final String xmlDoc, final String pathexpr) {
+        return readValue((Object) xmlDoc, pathexpr);
+    }
+
+    /**
+     * Given an xpath expression: read that value from a parsed document, or
+     * from xml text by streaming it where the expression allows.
+     * @param source The parsed xml Document or the xml text; null if it
+     * could not be parsed. The matches of a single pass that answered the
+     * expression may also be given.
+     * @param pathexpr The xpath expression.
+     * @return The xml value read, or null.
+     */
+    public static String readValue(final Object source, final String pathexpr) {
+        if (source instanceof MultiPathMatcher.Matches) {
+            return ((MultiPathMatcher.Matches) source).value(pathexpr);
+        }
+        final Document doc;
+        if (source instanceof String) {
+            final String value = streamValue((String) source, pathexpr);
+            if (value != null) {
+                return value;
+            }
+            doc = parseQuietly((String) source);
+        } else {
+            doc = (Document) source;
+        }
+        if (doc == null) {
+            return null;
+        }
         try {
-            final DocumentBuilderFactory domFactory = DocumentBuilderFactory
-                    .newInstance();
-            domFactory.setNamespaceAware(true);
-            final DocumentBuilder builder = domFactory.newDocumentBuilder();
-            final InputSource source = new InputSource(new StringReader(xmlDoc));
-            final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(pathexpr);
-            return expr.evaluate(doc);
-        } catch (SAXException ex) {
-            ServiceLogger.LOG.error("Error parsing the xml string", ex);
-        } catch (IOException ex) {
-            ServiceLogger.LOG.error("Error reading the xml into buffer", ex);
-        } catch (ParserConfigurationException ex) {
-            ServiceLogger.LOG.error("Error configuring the parser", ex);
+            return PathExpressions.xpath(pathexpr).evaluate(doc);
         } catch (XPathExpressionException ex) {
             ServiceLogger.LOG.error("Invalid XML XPATH check", ex);
         }
@@ -420,8 +542,7 @@ public final class XML {
             final DocumentBuilder builder = domFactory.newDocumentBuilder();
             final InputSource source = new InputSource(new StringReader(xmlDoc));
             final Document doc = builder.parse(source);
-            final XPath xpath = XPathFactory.newInstance().newXPath();
-            final XPathExpression expr = xpath.compile(pathexpr);
+            final XPathExpression expr = PathExpressions.xpath(pathexpr);
             final Node param =  (Node) expr.evaluate(doc, XPathConstants.NODESET);
             param.setNodeValue(val);
 
@@ -0,0 +1,445 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+
+/**
+ * A location path in the XPath subset used by patterns, evaluated on the
+ * xml text with a StAX stream reader rather than on a DOM. The subset is:
+ * absolute paths of child (/) and descendant (//) steps naming elements
+ * without a prefix, an optional positional predicate on each step e.g.
+ * /resp/item[2], and an optional final text() step.
+ *
+ * The value read is the XPath string value of the first matching node in
+ * document order, and reading stops as soon as it is complete. As with the
+ * namespace aware DOM, a name only matches an element in no namespace.
+ * Where the stream cannot give the same answer as the DOM - no match, a
+ * document type declaration, text split by CDATA or entities - no value is
+ * returned and the caller evaluates the path on the DOM.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class XmlStreamPath {
+
+    /**
+     * Stream reader factory of each thread; factories are not guaranteed
+     * to be thread safe.
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORIES = ThreadLocal.withInitial(() -> {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    });
+
+    /**
+     * Most element steps in a streamed path; bit sets of steps are longs.
+     */
+    private static final int MAX_STEPS = 62;
+
+    /**
+     * The element name of each step.
+     */
+    private final String[] names;
+
+    /**
+     * The positional predicate of each step; 0 for none.
+     */
+    private final int[] positions;
+
+    /**
+     * Whether each step is on the descendant (//) axis.
+     */
+    private final boolean[] descendant;
+
+    /**
+     * Whether the path ends with a text() step.
+     */
+    private final boolean text;
+
+    /**
+     * Construct the evaluator.
+     * @param stepNames The element name of each step.
+     * @param stepPositions The positional predicate of each step.
+     * @param stepDescendant Whether each step is on the descendant axis.
+     * @param textStep Whether the path ends with text().
+     */
+    private XmlStreamPath(final String[] stepNames, final int[] stepPositions,
+            final boolean[] stepDescendant, final boolean textStep) {
+        this.names = stepNames;
+        this.positions = stepPositions;
+        this.descendant = stepDescendant;
+        this.text = textStep;
+    }
+
+    /**
+     * Compile an XPath expression if it is in the streamed subset.
+     * @param expression The XPath expression.
+     * @return The evaluator, or null if the path must be evaluated on the DOM.
+     */
+    public static XmlStreamPath compile(final String expression) {
+        if (expression == null || !expression.startsWith("/")) {
+            return null;
+        }
+        final List<String> stepNames = new ArrayList<>();
+        final List<Integer> stepPositions = new ArrayList<>();
+        final List<Boolean> stepDescendant = new ArrayList<>();
+        boolean textStep = false;
+        int pos = 0;
+        final int length = expression.length();
+        while (pos < length) {
+            if (textStep || expression.charAt(pos) != '/') {
+                return null;
+            }
+            final boolean desc = pos + 1 < length && expression.charAt(pos + 1) == '/';
+            pos += desc ? 2 : 1;
+            int end = pos;
+            while (end < length && isNameChar(expression.charAt(end), end == pos)) {
+                end++;
+            }
+            final String name = expression.substring(pos, end);
+            if (name.isEmpty()) {
+                return null;
+            }
+            if ("text".equals(name) && expression.startsWith("()", end)) {
+                if (desc || stepNames.isEmpty()) {
+                    return null;
+                }
+                textStep = true;
+                pos = end + 2;
+                continue;
+            }
+            int position = 0;
+            if (end < length && expression.charAt(end) == '[') {
+                final int close = expression.indexOf(']', end);
+                position = parsePosition(close < 0 ? "" : expression.substring(end + 1, close));
+                if (position <= 0) {
+                    return null;
+                }
+                end = close + 1;
+            }
+            stepNames.add(name);
+            stepPositions.add(position);
+            stepDescendant.add(desc);
+            pos = end;
+        }
+        final int count = stepNames.size();
+        if (count == 0 || count > MAX_STEPS) {
+            return null;
+        }
+        final int[] positionArray = new int[count];
+        final boolean[] descendantArray = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            positionArray[i] = stepPositions.get(i);
+            descendantArray[i] = stepDescendant.get(i);
+        }
+        return new XmlStreamPath(stepNames.toArray(new String[count]), positionArray, descendantArray, textStep);
+    }
+
+    /**
+     * Whether a character may appear in an element name without a prefix.
+     * @param chr The character.
+     * @param first True for the first character of the name.
+     * @return True if the character is allowed.
+     */
+    private static boolean isNameChar(final char chr, final boolean first) {
+        if (Character.isLetter(chr) || chr == '_') {
+            return true;
+        }
+        return !first && (Character.isDigit(chr) || chr == '-' || chr == '.');
+    }
+
+    /**
+     * Parse a positional predicate.
+     * @param inner The text between the brackets.
+     * @return The position, or 0 if it is not a plain positive integer.
+     */
+    private static int parsePosition(final String inner) {
+        if (inner.isEmpty() || inner.length() > 9) {
+            return 0;
+        }
+        for (int i = 0; i < inner.length(); i++) {
+            if (!Character.isDigit(inner.charAt(i))) {
+                return 0;
+            }
+        }
+        return Integer.parseInt(inner);
+    }
+
+    /**
+     * The number of element steps in the path.
+     * @return The step count.
+     */
+    int steps() {
+        return names.length;
+    }
+
+    /**
+     * The element name of a step.
+     * @param step The step index.
+     * @return The name.
+     */
+    String stepName(final int step) {
+        return names[step];
+    }
+
+    /**
+     * Whether the path ends with a text() step.
+     * @return True if the path selects the first text node of its element.
+     */
+    boolean selectsText() {
+        return text;
+    }
+
+    /**
+     * Open a stream reader on xml text with the calling thread's factory.
+     * @param xmlDoc The xml text.
+     * @return The reader, at the start of the document.
+     * @throws XMLStreamException The reader cannot be created.
+     */
+    static XMLStreamReader open(final String xmlDoc) throws XMLStreamException {
+        return open(new StringReader(xmlDoc));
+    }
+
+    /**
+     * Open a stream reader on xml content with the calling thread's factory.
+     * @param xmlDoc The xml content.
+     * @return The reader, at the start of the document.
+     * @throws XMLStreamException The reader cannot be created.
+     */
+    static XMLStreamReader open(final Reader xmlDoc) throws XMLStreamException {
+        return FACTORIES.get().createXMLStreamReader(xmlDoc);
+    }
+
+    /**
+     * Close a stream reader, logging rather than throwing any error.
+     * @param reader The reader; may be null.
+     */
+    static void close(final XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException ex) {
+                ServiceLogger.LOG.debug("Error closing xml stream", ex);
+            }
+        }
+    }
+
+    /**
+     * Read the string value of the first node selected by this path.
+     * @param xmlDoc The xml text.
+     * @return The value, or null if the path must be evaluated on the DOM.
+     */
+    public String read(final String xmlDoc) {
+        return read(new StringReader(xmlDoc));
+    }
+
+    /**
+     * Read the string value of the first node selected by this path from
+     * xml content as it is read, without building its text.
+     * @param xmlDoc The xml content.
+     * @return The value, or null if the path must be evaluated on the DOM.
+     */
+    public String read(final Reader xmlDoc) {
+        XMLStreamReader reader = null;
+        try {
+            reader = open(xmlDoc);
+            return find(reader);
+        } catch (XMLStreamException ex) {
+            ServiceLogger.LOG.debug("Streamed xpath not evaluated", ex);
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * Find the first match and read its value.
+     *
+     * For each open element the reader keeps the set of steps the element
+     * matches (bit k+1 for step k; bit 0 is the document root), the union
+     * of those sets over the element and its ancestors, and the number of
+     * its children seen with each step's name, for positional predicates.
+     *
+     * @param reader The stream reader at the start of the document.
+     * @return The value, or null if the path must be evaluated on the DOM.
+     * @throws XMLStreamException The xml is not well formed.
+     */
+    private String find(final XMLStreamReader reader) throws XMLStreamException {
+        final int steps = names.length;
+        final long target = 1L << steps;
+        long[] matched = new long[16];
+        long[] inherited = new long[16];
+        int[][] counts = new int[16][];
+        int depth = 0;
+        matched[0] = 1L;
+        inherited[0] = 1L;
+        counts[0] = new int[steps];
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.DTD) {
+                return null;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                final long set = stepsMatched(reader.getNamespaceURI(), reader.getLocalName(),
+                        matched[depth], inherited[depth], counts[depth]);
+                depth++;
+                if (depth == matched.length) {
+                    matched = Arrays.copyOf(matched, depth * 2);
+                    inherited = Arrays.copyOf(inherited, depth * 2);
+                    counts = Arrays.copyOf(counts, depth * 2);
+                }
+                matched[depth] = set;
+                inherited[depth] = inherited[depth - 1] | set;
+                if (counts[depth] == null) {
+                    counts[depth] = new int[steps];
+                } else {
+                    Arrays.fill(counts[depth], 0);
+                }
+                if ((set & target) != 0) {
+                    return text ? firstText(reader) : stringValue(reader);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Work out the steps matched by an element.
+     * @param namespace The namespace of the element; null or empty for none.
+     * @param local The local name of the element.
+     * @param parentSet The steps matched by the parent.
+     * @param ancestorSet The steps matched by the parent and its ancestors.
+     * @param siblingCounts The parent's child counts per step name, updated.
+     * @return The set of steps matched by the element.
+     */
+    long stepsMatched(final String namespace, final String local, final long parentSet,
+            final long ancestorSet, final int[] siblingCounts) {
+        if (namespace != null && !namespace.isEmpty()) {
+            return 0L;
+        }
+        long set = 0L;
+        boolean counted = false;
+        for (int k = 0; k < names.length; k++) {
+            if (!names[k].equals(local)) {
+                continue;
+            }
+            if (!counted) {
+                // One count per name, shared by the steps with that name
+                for (int j = 0; j < names.length; j++) {
+                    if (names[j].equals(local)) {
+                        siblingCounts[j]++;
+                    }
+                }
+                counted = true;
+            }
+            final long context = descendant[k] ? ancestorSet : parentSet;
+            if ((context & (1L << k)) == 0) {
+                continue;
+            }
+            if (positions[k] != 0 && siblingCounts[k] != positions[k]) {
+                continue;
+            }
+            set |= 1L << (k + 1);
+        }
+        return set;
+    }
+
+    /**
+     * Read the string value of the element at the reader's position: all
+     * the text it contains.
+     * @param reader The reader, at the element's start.
+     * @return The concatenated text.
+     * @throws XMLStreamException The xml is not well formed.
+     */
+    private static String stringValue(final XMLStreamReader reader) throws XMLStreamException {
+        final StringBuilder value = new StringBuilder();
+        int open = 1;
+        while (open > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    open++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    open--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    value.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    return null;
+                default:
+                    break;
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Read the first text node of the element at the reader's position. Only
+     * text that is the element's first content and is plain character data
+     * is answered; otherwise the DOM decides which node is first.
+     * @param reader The reader, at the element's start.
+     * @return The text, or null to evaluate on the DOM.
+     * @throws XMLStreamException The xml is not well formed.
+     */
+    private static String firstText(final XMLStreamReader reader) throws XMLStreamException {
+        final StringBuilder value = new StringBuilder();
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                value.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.START_ELEMENT
+                    || event == XMLStreamConstants.COMMENT
+                    || event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+                return value.length() == 0 ? null : value.toString();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -27,17 +27,21 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import org.jdom.Attribute;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.xpath.XPath;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architecture;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.RESTComponent;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.RESTInterface;
@@ -270,6 +274,13 @@ public final class XMLStateMachine {
                             Guard.ComparisonType.REGEX,
                             guardValue, archDesc));
                 }
+                else if (eltIndex.getName().equalsIgnoreCase(MsgEvent.VALIDATES_LABEL)) {
+                    arrayOfGuards.add(new Guard(
+                            eltIndex.getChildTextTrim(MsgEvent.PARAM_LABEL),
+                            String.class,
+                            Guard.ComparisonType.VALIDATES,
+                            guardValue, archDesc));
+                }
                 else if (eltIndex.getName().equalsIgnoreCase("counter")) {
                     arrayOfGuards.add(new Guard(
                         eltIndex.getChildTextTrim(MsgEvent.PARAM_LABEL),
@@ -283,7 +294,7 @@ public final class XMLStateMachine {
              ServiceLogger.LOG.error("Invalid Rest Message specification");
              throw new InvalidTransitionException("Error in message spec", ex);
          } catch (InvalidGuard ex) {
-             ServiceLogger.LOG.error("Invalid guard specification");
+             ServiceLogger.LOG.error("Invalid guard specification: " + ex.getMessage());
              throw new InvalidTransitionException("Error in guard spec", ex);
          }
 
@@ -472,11 +483,14 @@ public final class XMLStateMachine {
       * @param elState The xml specification to find transitions in.
       * @param states The current set of states being produced.
       * @param archDesc The overall architecture reference context.
+      * @param compiledGuards The guards already built for each transition
+      * element; guards built here are added.
       * @throws InvalidTransitionException Error parsing the information into
       * a data structure about the transitions.
       */
      private static void addTransitions(final Element elState, final Map<String,
-             State> states, final Architecture archDesc) throws InvalidTransitionException {
+             State> states, final Architecture archDesc, final Map<Element, List<Guard>> compiledGuards)
+             throws InvalidTransitionException {
 
          final State fromState = states.get(elState.getChildText(LABEL_LABEL));
          if (fromState.isEndNode()) {
@@ -493,7 +507,15 @@ public final class XMLStateMachine {
                  if (isMessageTransition(eltIndex)) {
                      fromState.addTransition(new Transition(toLabel, getMessage(eltIndex, archDesc), getReport(eltIndex)));
                  } else {
-                    fromState.addTransition(new Transition(toLabel, getGuards(eltIndex, archDesc), getReport(eltIndex)));
+                    List<Guard> guards = compiledGuards.get(eltIndex);
+                    if (guards == null) {
+                        guards = Collections.unmodifiableList(getGuards(eltIndex, archDesc));
+                        final List<Guard> built = compiledGuards.putIfAbsent(eltIndex, guards);
+                        if (built != null) {
+                            guards = built;
+                        }
+                    }
+                    fromState.addTransition(new Transition(toLabel, guards, getReport(eltIndex)));
                  }
              } catch (InvalidTransitionException ex) {
                  throw new InvalidTransitionException("Invalid transition specification", ex);
@@ -510,11 +532,12 @@ public final class XMLStateMachine {
       * @param doc The XML document with a fully formed state machine as
       * input. An invalid state machine input will generate an exception.
       * @param arch The overall architecture context of the operation.
+      * @param compiledGuards The guards already built for each transition.
       * @return The set of created states from the xml spec.
       * @throws InvalidStateMachineException Error caused by invalid behaviour specification.
       */
-     private static Map<String, State> createStates(final Element doc, final Architecture arch)
-             throws InvalidStateMachineException {
+     private static Map<String, State> createStates(final Element doc, final Architecture arch,
+             final Map<Element, List<Guard>> compiledGuards) throws InvalidStateMachineException {
 
         final Map<String, State> states = new HashMap();
         try {
@@ -532,7 +555,7 @@ public final class XMLStateMachine {
                 states.put(label, new StateNode(label, type, arch, report, success));
             }
             for (Element eltIndex2 : xmlStates) {
-                addTransitions(eltIndex2, states, arch);
+                addTransitions(eltIndex2, states, arch, compiledGuards);
             }
         } catch (JDOMException ex) {
             throw new InvalidStateMachineException("Invalid XML input", ex);
@@ -578,12 +601,33 @@ public final class XMLStateMachine {
      */
     public static void createStateMachine(final Element doc, final StateMachine sMach,
             final Architecture inst) throws InvalidStateMachineException {
+        createStateMachine(doc, sMach, inst, new HashMap<>());
+    }
+
+    /**
+     * Create a state machine from the XML document, reusing the guards
+     * already built from the same document for another state machine.
+     * Guards are immutable so the state machines of concurrent sessions
+     * can share them; only the states and transitions are built again.
+     *
+     * @param doc The XML instance of the state machine domain language.
+     * @param sMach The State Machine to fill with content.
+     * @param inst The parent architecture context.
+     * @param compiledGuards The guards of each transition element. Guards
+     * not yet in the map are built and added, so the map must be safe for
+     * concurrent use if it is shared.
+     * @throws InvalidStateMachineException error during the parsing of the state
+     * machine from the XML.
+     */
+    public static void createStateMachine(final Element doc, final StateMachine sMach,
+            final Architecture inst, final Map<Element, List<Guard>> compiledGuards)
+            throws InvalidStateMachineException {
 
          /**
           * First parse the xml documents to create the state set with
           * transitions between them.
           */
-         final Map<String, State> states = createStates(doc, inst);
+         final Map<String, State> states = createStates(doc, inst, compiledGuards);
          final String firstLabel = getFirstState(states);
          if (firstLabel == null) {
              throw new InvalidStateMachineException("State machine: <behaviour> "
@@ -594,6 +638,68 @@ public final class XMLStateMachine {
           * state set.
           */
          sMach.inputContent(firstLabel, states);
+
+         /**
+          * Analyse the $$ references of the behaviour: the proxies capture
+          * only the fields the pattern reads and each state keeps only the
+          * fields of its event that later references read.
+          */
+         final List<String> texts = new ArrayList<>();
+         referenceTexts(doc, texts);
+         sMach.setProjection(projection(texts, states.values()));
+         for (State state : states.values()) {
+             CaptureProjection kept = CaptureProjection.NONE;
+             for (String text : texts) {
+                 kept = kept.withReferences(text, state.getLabel());
+             }
+             state.setRetention(kept);
+         }
+    }
+
+    /**
+     * Find the fields of a captured message that the pattern reads: the
+     * parameters its guards are evaluated on and the fields named by the
+     * $$ references anywhere in the behaviour, e.g. in guard values or in
+     * the messages sent by trigger states.
+     * @param texts The texts of the behaviour holding $$ references.
+     * @param states The states created from it.
+     * @return The projection of the pattern.
+     */
+    private static CaptureProjection projection(final List<String> texts, final Collection<State> states) {
+        CaptureProjection fields = CaptureProjection.NONE;
+        for (State state : states) {
+            for (Transition transition : state.getTransitions()) {
+                for (Guard guard : transition.listGuards()) {
+                    fields = fields.withGuard(guard);
+                }
+            }
+        }
+        for (String text : texts) {
+            fields = fields.withReferences(text);
+        }
+        return fields;
+    }
+
+    /**
+     * Collect the texts and attribute values of an element and its
+     * descendants that hold $$ references.
+     * @param element The element of the behaviour.
+     * @param texts The list the texts are added to.
+     */
+    private static void referenceTexts(final Element element, final List<String> texts) {
+        if (element.getText().contains("$$")) {
+            texts.add(element.getText());
+        }
+        final List<Attribute> attributes = element.getAttributes();
+        for (Attribute attribute : attributes) {
+            if (attribute.getValue().contains("$$")) {
+                texts.add(attribute.getValue());
+            }
+        }
+        final List<Element> children = element.getChildren();
+        for (Element child : children) {
+            referenceTexts(child, texts);
+        }
     }
 
     /**
@@ -0,0 +1,335 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * A snapshot of the live state of a state machine execution: the current
+ * state, the counter of each state, the events saved for $$ references and
+ * the report so far. Long running tests write checkpoints periodically so
+ * that after a restart the execution resumes where it was rather than
+ * replaying the whole capture.
+ *
+ * The snapshot is taken by the executing thread between transitions (it
+ * only copies references) and is encoded and written by a background
+ * thread. The file is a compact binary record:
+ * magic, version, pattern fingerprint, current state id, the report and
+ * then one (counter, event) entry per state id; events are written in
+ * the explicit form of EventCodec, after a flag marking whether the state
+ * keeps one.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public final class Checkpoint {
+
+    /**
+     * File type marker.
+     */
+    private static final int MAGIC = 0x49435054;
+
+    /**
+     * Format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Length marker of an absent string.
+     */
+    private static final int ABSENT = -1;
+
+    /**
+     * Single background thread writing checkpoint files for all machines.
+     */
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Identifies the state machine the checkpoint was taken from.
+     */
+    private final transient int fingerprint;
+
+    /**
+     * The id of the current state.
+     */
+    private final transient int currentState;
+
+    /**
+     * The success verdict of the report so far; may be null.
+     */
+    private final transient String success;
+
+    /**
+     * The text trace of the report so far.
+     */
+    private final transient String trace;
+
+    /**
+     * The unterminated JSON report so far.
+     */
+    private final transient String jsonReport;
+
+    /**
+     * The counter of each state, by state id.
+     */
+    private final transient int[] counters;
+
+    /**
+     * The saved event of each state, by state id; null where none.
+     */
+    private final transient MsgEvent[] events;
+
+    /**
+     * Create a checkpoint.
+     * @param print Identifies the state machine.
+     * @param stateId The id of the current state.
+     * @param verdict The success verdict so far.
+     * @param text The text trace so far.
+     * @param json The unterminated JSON report so far.
+     * @param stateCounters The counter of each state.
+     * @param stateEvents The saved event of each state.
+     */
+    Checkpoint(final int print, final int stateId, final String verdict, final String text,
+            final String json, final int[] stateCounters, final MsgEvent[] stateEvents) {
+        this.fingerprint = print;
+        this.currentState = stateId;
+        this.success = verdict;
+        this.trace = text;
+        this.jsonReport = json;
+        this.counters = stateCounters;
+        this.events = stateEvents;
+    }
+
+    /**
+     * Identifies the state machine the checkpoint was taken from.
+     * @return The pattern fingerprint.
+     */
+    int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The id of the current state.
+     * @return The state id.
+     */
+    int getCurrentState() {
+        return currentState;
+    }
+
+    /**
+     * The success verdict of the report.
+     * @return The verdict or null.
+     */
+    String getSuccess() {
+        return success;
+    }
+
+    /**
+     * The text trace of the report.
+     * @return The trace.
+     */
+    String getTrace() {
+        return trace;
+    }
+
+    /**
+     * The unterminated JSON report.
+     * @return The report.
+     */
+    String getJsonReport() {
+        return jsonReport;
+    }
+
+    /**
+     * The counter of each state.
+     * @return The counters by state id.
+     */
+    int[] getCounters() {
+        return counters;
+    }
+
+    /**
+     * The saved event of each state.
+     * @return The events by state id.
+     */
+    MsgEvent[] getEvents() {
+        return events;
+    }
+
+    /**
+     * Write the checkpoint on the background writer thread.
+     * @param file The checkpoint file.
+     * @param done Called once the write has finished or failed.
+     */
+    void writeAsync(final File file, final Runnable done) {
+        WRITER.execute(() -> {
+            try {
+                write(file);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Could not write checkpoint " + file, ex);
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * Write the checkpoint. The file is replaced atomically so a crash
+     * during the write leaves the previous checkpoint intact.
+     * @param file The checkpoint file.
+     * @throws IOException Error writing the file.
+     */
+    public void write(final File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(fingerprint);
+                out.writeInt(currentState);
+                writeString(out, success);
+                writeString(out, trace);
+                writeString(out, jsonReport);
+                out.writeInt(counters.length);
+                for (int i = 0; i < counters.length; i++) {
+                    out.writeInt(counters[i]);
+                    writeEvent(out, events[i]);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Read a checkpoint file.
+     * @param file The checkpoint file.
+     * @return The checkpoint.
+     * @throws IOException Error reading the file, or it is not a checkpoint.
+     */
+    public static Checkpoint read(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a state machine checkpoint: " + file);
+            }
+            final int print = in.readInt();
+            final int stateId = in.readInt();
+            final String verdict = readString(in);
+            final String text = readString(in);
+            final String json = readString(in);
+            final int stateCount = in.readInt();
+            final int[] stateCounters = new int[stateCount];
+            final MsgEvent[] stateEvents = new MsgEvent[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                stateCounters[i] = in.readInt();
+                stateEvents[i] = readEvent(in);
+            }
+            return new Checkpoint(print, stateId, verdict, text, json, stateCounters, stateEvents);
+        }
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string.
+     * @param out The output.
+     * @param value The string; may be null.
+     * @throws IOException Error writing.
+     */
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(ABSENT);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString().
+     * @param in The input.
+     * @return The string or null.
+     * @throws IOException Error reading.
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == ABSENT) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write an event, if there is one.
+     * @param out The output.
+     * @param event The event; may be null.
+     * @throws IOException Error writing.
+     */
+    private static void writeEvent(final DataOutputStream out, final MsgEvent event) throws IOException {
+        out.writeBoolean(event != null);
+        if (event != null) {
+            EventCodec.write(out, event);
+        }
+    }
+
+    /**
+     * Read an event written by writeEvent().
+     * @param in The input.
+     * @return The event or null.
+     * @throws IOException Error reading.
+     */
+    private static MsgEvent readEvent(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? EventCodec.read(in) : null;
+    }
+}
@@ -0,0 +1,54 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+
+/**
+ * Receives the verdict of each cycle of a state machine running in
+ * monitoring mode i.e. every time the pattern reaches an end state (or
+ * fails) before it is re-armed at the start state.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public interface CycleListener {
+
+    /**
+     * A monitoring cycle has completed. Called on the thread executing the
+     * state machine, so implementations should return quickly.
+     * @param cycle The number of the cycle, starting at 1.
+     * @param passed The verdict of the cycle.
+     * @param report The report of the cycle; it is reset once this returns.
+     * @param statistics The statistics including this cycle.
+     */
+    void cycleCompleted(long cycle, boolean passed, InteroperabilityReport report,
+            MonitoringStatistics statistics);
+}
@@ -0,0 +1,225 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.COAPEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.EventParameters;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.SOAPEvent;
+
+/**
+ * Explicit binary form of a captured event, used to spill queued events to
+ * a file and to write the events kept by states to checkpoints: the kind of
+ * event, its response time, its parameters as name and value strings and
+ * its body as the bytes received with their type and character set. Unlike
+ * java serialization the form does not depend on the classes' fields, only
+ * the known kinds of event can be read back, and a large body is read back
+ * into the off-heap store.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+final class EventCodec {
+
+    /**
+     * Kind of an http event.
+     */
+    private static final int REST = 0;
+
+    /**
+     * Kind of a CoAP event.
+     */
+    private static final int COAP = 1;
+
+    /**
+     * Kind of a SOAP event.
+     */
+    private static final int SOAP = 2;
+
+    /**
+     * Kind of the fields of an event kept by a state.
+     */
+    private static final int STORED = 3;
+
+    /**
+     * Length written in place of a null string or body.
+     */
+    private static final int ABSENT = -1;
+
+    /**
+     * The parameter holding the text of the body; written as the body.
+     */
+    private static final String CONTENT = EventParameters.Field.CONTENT.getKey();
+
+    /**
+     * Utility class.
+     */
+    private EventCodec() {
+    }
+
+    /**
+     * Write an event.
+     * @param out The output.
+     * @param event The event.
+     * @throws IOException Error writing, or an event of an unknown kind.
+     */
+    static void write(final DataOutput out, final MsgEvent event) throws IOException {
+        out.writeByte(kindOf(event));
+        out.writeLong(event.getResponseTime());
+
+        final Content body = event.getDataBody();
+        final Map<String, Parameter> params = event.getParameterMap();
+        final int count = params.size() - (body != null && params.containsKey(CONTENT) ? 1 : 0);
+        out.writeInt(count);
+        for (Map.Entry<String, Parameter> param : params.entrySet()) {
+            if (body != null && CONTENT.equals(param.getKey())) {
+                continue;
+            }
+            writeString(out, param.getKey());
+            writeString(out, param.getValue().getValue());
+        }
+
+        if (body == null) {
+            out.writeInt(ABSENT);
+            return;
+        }
+        final byte[] bytes = body.getBytes();
+        if (bytes == null) {
+            out.writeInt(ABSENT);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        writeString(out, body.getType());
+        writeString(out, body.getCharset().name());
+    }
+
+    /**
+     * Read an event written by write().
+     * @param in The input.
+     * @return The event.
+     * @throws IOException Error reading, or an event of an unknown kind.
+     */
+    static MsgEvent read(final DataInput in) throws IOException {
+        final MsgEvent event = create(in.readByte());
+        event.setResponseTime(in.readLong());
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            event.addParameter(readString(in), readString(in));
+        }
+        final int length = in.readInt();
+        if (length != ABSENT) {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            event.addContent(readString(in), bytes, readString(in));
+        }
+        return event;
+    }
+
+    /**
+     * The kind of an event.
+     * @param event The event.
+     * @return REST, COAP, SOAP or STORED.
+     * @throws IOException The event is of none of these kinds.
+     */
+    private static int kindOf(final MsgEvent event) throws IOException {
+        if (event instanceof RESTEvent) {
+            return REST;
+        } else if (event instanceof COAPEvent) {
+            return COAP;
+        } else if (event instanceof SOAPEvent) {
+            return SOAP;
+        } else if (event instanceof MsgEvent.StoredEvent) {
+            return STORED;
+        }
+        throw new IOException("Cannot write event of type " + event.getClass().getName());
+    }
+
+    /**
+     * Create an empty event of a kind.
+     * @param kind The kind written by kindOf().
+     * @return The event.
+     * @throws IOException Unknown kind.
+     */
+    private static MsgEvent create(final int kind) throws IOException {
+        switch (kind) {
+            case REST:
+                return new RESTEvent();
+            case COAP:
+                return new COAPEvent();
+            case SOAP:
+                return new SOAPEvent();
+            case STORED:
+                return new MsgEvent.StoredEvent();
+            default:
+                throw new IOException("Unknown event kind " + kind);
+        }
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string.
+     * @param out The output.
+     * @param value The string; may be null.
+     * @throws IOException Error writing.
+     */
+    private static void writeString(final DataOutput out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(ABSENT);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString().
+     * @param in The input.
+     * @return The string or null.
+     * @throws IOException Error reading.
+     */
+    private static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length == ABSENT) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,606 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+
+/**
+ * Bounded event queue in front of a state machine. Many proxies push events
+ * concurrently; the state machine consumes them. Enqueue and dequeue are
+ * lock-free (a ring of sequenced slots); the lock is only taken to park a
+ * thread that must wait, and to wake it again.
+ *
+ * What happens when the ring is full is decided by the overflow policy, so
+ * that a burst of traffic need not stall the proxy threads (and hence the
+ * system under test).
+ *
+ * The queue holds each event it keeps in memory (see MsgEvent.retain()):
+ * an event that is dropped is released by the queue, and an event taken
+ * from the queue is passed on with that hold, to be released by the
+ * consumer once it has processed the event.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventRingBuffer extends AbstractQueue<MsgEvent> implements BlockingQueue<MsgEvent> {
+
+    /**
+     * The behaviour of push() when the ring is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait until the state machine has consumed an event.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest queued event to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Reject the new event immediately.
+         */
+        FAIL_FAST,
+        /**
+         * Write the event to a local file; it is read back, in order, once
+         * the ring has drained.
+         */
+        SPILL;
+
+        /**
+         * Read a policy from its configuration name e.g. drop-oldest.
+         * @param name The name of the policy; case and - or _ are ignored.
+         * @return The policy.
+         * @throws IllegalArgumentException If the name matches no policy.
+         */
+        public static OverflowPolicy fromString(final String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        }
+    }
+
+    /**
+     * The slots of the ring. The capacity is a power of two.
+     */
+    private final transient AtomicReferenceArray<MsgEvent> slots;
+
+    /**
+     * The sequence number of each slot: equal to the position when free for
+     * a producer, position + 1 when full for the consumer.
+     */
+    private final transient AtomicLongArray sequences;
+
+    /**
+     * Mask to turn a position into a slot index.
+     */
+    private final transient int mask;
+
+    /**
+     * Next position to be written.
+     */
+    private final transient AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next position to be read.
+     */
+    private final transient AtomicLong head = new AtomicLong();
+
+    /**
+     * The overflow policy applied by push().
+     */
+    private final transient OverflowPolicy policy;
+
+    /**
+     * The number of events dropped or rejected.
+     */
+    private final transient AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Lock used only to park and wake waiting threads.
+     */
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when an event is added.
+     */
+    private final transient Condition notEmpty = lock.newCondition();
+
+    /**
+     * Signalled when an event is removed.
+     */
+    private final transient Condition notFull = lock.newCondition();
+
+    /**
+     * The number of consumers parked on notEmpty.
+     */
+    private final transient AtomicInteger waitingConsumers = new AtomicInteger();
+
+    /**
+     * The number of producers parked on notFull.
+     */
+    private final transient AtomicInteger waitingProducers = new AtomicInteger();
+
+    /**
+     * The overflow file; null unless the policy is SPILL.
+     */
+    private final transient SpillFile spill;
+
+    /**
+     * Create a new event queue.
+     * @param capacity The minimum number of events held in memory; rounded
+     * up to a power of two.
+     * @param overflow The behaviour of push() when the queue is full.
+     */
+    public EventRingBuffer(final int capacity, final OverflowPolicy overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Event queue capacity must be positive");
+        }
+        final int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.slots = new AtomicReferenceArray(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.policy = overflow;
+        this.spill = overflow == OverflowPolicy.SPILL ? new SpillFile() : null;
+    }
+
+    /**
+     * Add an event, applying the overflow policy if the queue is full.
+     * @param event The event to add.
+     * @return False if the event was rejected or could not be kept.
+     * @throws InterruptedException If interrupted while waiting (BLOCK only).
+     */
+    public final boolean push(final MsgEvent event) throws InterruptedException {
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!enqueue(event)) {
+                    final MsgEvent oldest = dequeue();
+                    if (oldest != null) {
+                        dropped.incrementAndGet();
+                        oldest.release();
+                    }
+                }
+                break;
+            case FAIL_FAST:
+                if (!enqueue(event)) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                break;
+            case SPILL:
+                return offer(event);
+            default:
+                put(event);
+                return true;
+        }
+        signal(notEmpty, waitingConsumers);
+        return true;
+    }
+
+    /**
+     * The number of events that have been dropped or rejected.
+     * @return The drop counter.
+     */
+    public final long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * The configured overflow policy.
+     * @return The policy.
+     */
+    public final OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Claim the tail slot and write the event into it; the queue then holds
+     * the event.
+     * @param event The event to add.
+     * @return False if the ring is full.
+     */
+    private boolean enqueue(final MsgEvent event) {
+        long pos = tail.get();
+        for (;;) {
+            final int index = (int) pos & mask;
+            final long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    event.retain();
+                    slots.lazySet(index, event);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Claim the head slot and take its event.
+     * @return The event, or null if the ring is empty.
+     */
+    private MsgEvent dequeue() {
+        long pos = head.get();
+        for (;;) {
+            final int index = (int) pos & mask;
+            final long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final MsgEvent event = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    return event;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Wake the threads parked on a condition, if there are any.
+     * @param condition The condition to signal.
+     * @param waiting The count of threads parked on it.
+     */
+    private void signal(final Condition condition, final AtomicInteger waiting) {
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                condition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public final boolean offer(final MsgEvent event) {
+        if (event == null) {
+            throw new NullPointerException();
+        }
+        if (spill == null) {
+            if (!enqueue(event)) {
+                return false;
+            }
+        } else if (!spill.isEmpty() || !enqueue(event)) {
+            // Once spilling, later events follow the spilled ones to keep order
+            try {
+                spill.append(event);
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to spill event to file", ex);
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        signal(notEmpty, waitingConsumers);
+        return true;
+    }
+
+    @Override
+    public final void put(final MsgEvent event) throws InterruptedException {
+        if (offer(event)) {
+            return;
+        }
+        lock.lockInterruptibly();
+        waitingProducers.incrementAndGet();
+        try {
+            while (!offer(event)) {
+                notFull.await();
+            }
+        } finally {
+            waitingProducers.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final boolean offer(final MsgEvent event, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        if (offer(event)) {
+            return true;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        waitingProducers.incrementAndGet();
+        try {
+            while (!offer(event)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            waitingProducers.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent poll() {
+        MsgEvent event = dequeue();
+        if (event == null && spill != null && !spill.isEmpty()) {
+            event = spill.read();
+        }
+        if (event != null) {
+            signal(notFull, waitingProducers);
+        }
+        return event;
+    }
+
+    @Override
+    public final MsgEvent take() throws InterruptedException {
+        MsgEvent event = poll();
+        if (event != null) {
+            return event;
+        }
+        lock.lockInterruptibly();
+        waitingConsumers.incrementAndGet();
+        try {
+            while ((event = poll()) == null) {
+                notEmpty.await();
+            }
+            return event;
+        } finally {
+            waitingConsumers.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        MsgEvent event = poll();
+        if (event != null) {
+            return event;
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        waitingConsumers.incrementAndGet();
+        try {
+            while ((event = poll()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return event;
+        } finally {
+            waitingConsumers.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public final MsgEvent peek() {
+        final long pos = head.get();
+        if (sequences.get((int) pos & mask) == pos + 1) {
+            return slots.get((int) pos & mask);
+        }
+        return null;
+    }
+
+    /**
+     * The number of queued events, including any spilled to file.
+     * @return The queue depth.
+     */
+    @Override
+    public final int size() {
+        final long depth = Math.max(0, tail.get() - head.get());
+        return (int) Math.min(Integer.MAX_VALUE, depth + (spill == null ? 0 : spill.size()));
+    }
+
+    @Override
+    public final int remainingCapacity() {
+        if (spill != null) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(0, (mask + 1) - size());
+    }
+
+    @Override
+    public final int drainTo(final Collection<? super MsgEvent> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final int drainTo(final Collection<? super MsgEvent> collection, final int maxElements) {
+        int count = 0;
+        MsgEvent event;
+        while (count < maxElements && (event = poll()) != null) {
+            collection.add(event);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A snapshot of the events held in memory; spilled events are not
+     * included.
+     * @return Iterator over the snapshot.
+     */
+    @Override
+    public final Iterator<MsgEvent> iterator() {
+        final List<MsgEvent> snapshot = new ArrayList();
+        for (long pos = head.get(); pos < tail.get(); pos++) {
+            final MsgEvent event = slots.get((int) pos & mask);
+            if (event != null) {
+                snapshot.add(event);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * Overflow events written to a temporary file as length prefixed
+     * records in the form of EventCodec. The file is created on first use
+     * and deleted when it has been read back completely.
+     */
+    private static final class SpillFile {
+
+        /**
+         * The open file, or null when nothing is spilled.
+         */
+        private transient RandomAccessFile file;
+
+        /**
+         * The location of the file.
+         */
+        private transient File location;
+
+        /**
+         * Offset of the next event to read.
+         */
+        private transient long readPos;
+
+        /**
+         * Offset at which the next event is written.
+         */
+        private transient long writePos;
+
+        /**
+         * Number of events in the file not yet read.
+         */
+        private transient volatile int pending;
+
+        /**
+         * Whether the file is empty.
+         * @return True if no event is spilled.
+         */
+        boolean isEmpty() {
+            return pending == 0;
+        }
+
+        /**
+         * The number of spilled events.
+         * @return The number of events waiting in the file.
+         */
+        int size() {
+            return pending;
+        }
+
+        /**
+         * Write an event to the end of the file.
+         * @param event The event to write.
+         * @throws IOException If the file cannot be written.
+         */
+        synchronized void append(final MsgEvent event) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                EventCodec.write(out, event);
+            }
+            if (file == null) {
+                location = File.createTempFile("events", ".spill");
+                location.deleteOnExit();
+                file = new RandomAccessFile(location, "rw");
+                readPos = 0;
+                writePos = 0;
+            }
+            file.seek(writePos);
+            file.writeInt(bytes.size());
+            file.write(bytes.toByteArray());
+            writePos = file.getFilePointer();
+            pending++;
+        }
+
+        /**
+         * Read the oldest spilled event; the queue holds the event read.
+         * @return The event, or null if none is spilled or it is unreadable.
+         */
+        synchronized MsgEvent read() {
+            if (pending == 0) {
+                return null;
+            }
+            try {
+                file.seek(readPos);
+                final byte[] data = new byte[file.readInt()];
+                file.readFully(data);
+                readPos = file.getFilePointer();
+                final MsgEvent event = EventCodec.read(new DataInputStream(new ByteArrayInputStream(data)));
+                event.retain();
+                return event;
+            } catch (IOException ex) {
+                ServiceLogger.LOG.error("Unable to read spilled event", ex);
+                return null;
+            } finally {
+                pending--;
+                if (pending == 0) {
+                    release();
+                }
+            }
+        }
+
+        /**
+         * Close and delete the drained file.
+         */
+        private void release() {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                ServiceLogger.LOG.debug("Unable to close spill file", ex);
+            }
+            if (!location.delete()) {
+                ServiceLogger.LOG.debug("Unable to delete spill file " + location);
+            }
+            file = null;
+            location = null;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+
+/**
+ * Timer for the timeout transitions of many concurrent sessions. Pending
+ * timeouts are hashed into the buckets of a wheel that a single thread
+ * advances one bucket per tick; hence starting and cancelling a timeout is
+ * constant time and a thread is only woken once per tick, however many
+ * timeouts are pending. Timeouts fire with a precision of one tick.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class HashedWheelTimer {
+
+    /**
+     * The default tick duration in milliseconds.
+     */
+    public static final long DEFAULT_TICK = 10;
+
+    /**
+     * The default number of buckets in the wheel.
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * The buckets of the wheel; only accessed by the timer thread.
+     */
+    private final transient Entry[] wheel;
+
+    /**
+     * Mask to turn a tick into a bucket index.
+     */
+    private final transient int mask;
+
+    /**
+     * The duration of a tick in nanoseconds.
+     */
+    private final transient long tickNanos;
+
+    /**
+     * Timeouts started since the last tick, waiting to be put in the wheel.
+     */
+    private final transient Queue<Entry> added = new ConcurrentLinkedQueue();
+
+    /**
+     * The time the timer started; ticks are counted from here.
+     */
+    private final transient long startTime;
+
+    /**
+     * The thread that advances the wheel.
+     */
+    private final transient Thread worker;
+
+    /**
+     * Set when the timer is stopped.
+     */
+    private transient volatile boolean stopped;
+
+    /**
+     * The number of ticks processed; only accessed by the timer thread.
+     */
+    private transient long tick;
+
+    /**
+     * Create and start a timer with the default tick and wheel size.
+     */
+    public HashedWheelTimer() {
+        this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Create and start a timer.
+     * @param tickDuration The tick in milliseconds; the timer's precision.
+     * @param wheelSize The number of buckets; rounded up to a power of two.
+     */
+    public HashedWheelTimer(final long tickDuration, final int wheelSize) {
+        if (tickDuration < 1 || wheelSize < 1) {
+            throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+        }
+        final int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        this.wheel = new Entry[size];
+        this.mask = size - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, "session-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Run a task once a delay has elapsed.
+     * @param task The task to run on the timer thread; it must be short
+     * e.g. hand work to another executor.
+     * @param delay The delay in milliseconds.
+     * @return The handle with which the timeout can be cancelled.
+     */
+    public final Entry newTimeout(final Runnable task, final long delay) {
+        final long deadline = System.nanoTime() - startTime
+                + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay));
+        final Entry entry = new Entry(task, deadline);
+        added.add(entry);
+        return entry;
+    }
+
+    /**
+     * Stop the timer. Pending timeouts never fire.
+     */
+    public final void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    /**
+     * The timer thread: wait for each tick, then expire its bucket.
+     */
+    private void run() {
+        while (!stopped) {
+            final long deadline = (tick + 1) * tickNanos;
+            final long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    continue;
+                }
+            }
+            transferAdded();
+            expire((int) (tick & mask), deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Place the newly started timeouts in their buckets.
+     */
+    private void transferAdded() {
+        Entry entry;
+        while ((entry = added.poll()) != null) {
+            if (entry.isCancelled()) {
+                continue;
+            }
+            // Round up so a timeout never fires early; never before this tick
+            final long target = Math.max(tick, (entry.deadline + tickNanos - 1) / tickNanos - 1);
+            entry.rounds = (target - tick) / wheel.length;
+            final int index = (int) (target & mask);
+            entry.next = wheel[index];
+            wheel[index] = entry;
+        }
+    }
+
+    /**
+     * Fire or age the timeouts in a bucket.
+     * @param index The bucket.
+     * @param deadline The time of the current tick.
+     */
+    private void expire(final int index, final long deadline) {
+        Entry previous = null;
+        Entry entry = wheel[index];
+        while (entry != null) {
+            final Entry next = entry.next;
+            boolean keep = false;
+            if (!entry.isCancelled()) {
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                    keep = true;
+                } else if (entry.deadline <= deadline) {
+                    entry.expire();
+                } else {
+                    keep = true;
+                }
+            }
+            if (keep) {
+                previous = entry;
+            } else {
+                if (previous == null) {
+                    wheel[index] = next;
+                } else {
+                    previous.next = next;
+                }
+                entry.next = null;
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * A pending timeout.
+     */
+    public static final class Entry {
+
+        /**
+         * Waiting to fire.
+         */
+        private static final int PENDING = 0;
+
+        /**
+         * Cancelled before it fired.
+         */
+        private static final int CANCELLED = 1;
+
+        /**
+         * Fired.
+         */
+        private static final int EXPIRED = 2;
+
+        /**
+         * The task to run.
+         */
+        private final transient Runnable task;
+
+        /**
+         * When to fire, relative to the timer start, in nanoseconds.
+         */
+        private final transient long deadline;
+
+        /**
+         * Full turns of the wheel left before the timeout is due.
+         */
+        private transient long rounds;
+
+        /**
+         * Next entry of the same bucket.
+         */
+        private transient Entry next;
+
+        /**
+         * One of PENDING, CANCELLED or EXPIRED.
+         */
+        private final transient AtomicInteger state = new AtomicInteger(PENDING);
+
+        /**
+         * Create an entry.
+         * @param runnable The task to run.
+         * @param due When to fire.
+         */
+        private Entry(final Runnable runnable, final long due) {
+            this.task = runnable;
+            this.deadline = due;
+        }
+
+        /**
+         * Cancel the timeout.
+         * @return False if it has already fired or been cancelled.
+         */
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        /**
+         * Whether the timeout has been cancelled.
+         * @return True if cancelled.
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * Run the task unless the timeout has been cancelled.
+         */
+        private void expire() {
+            if (state.compareAndSet(PENDING, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    ServiceLogger.LOG.error("Timeout task failed", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.Locale;
+
+/**
+ * Pass, fail and latency statistics of a state machine running in
+ * monitoring mode, where every pass from the start state to an end state
+ * is one cycle. Totals cover every cycle since monitoring began; the
+ * rolling figures cover the most recent cycles only, so a change in
+ * behaviour shows up quickly however long the monitor has been running.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class MonitoringStatistics {
+
+    /**
+     * The number of recent cycles in the rolling figures.
+     */
+    private static final int DEFAULT_WINDOW = 100;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    /**
+     * Verdicts of the recent cycles, as a ring.
+     */
+    private final transient boolean[] recentPassed;
+
+    /**
+     * Latencies of the recent cycles in nanoseconds, as a ring.
+     */
+    private final transient long[] recentLatency;
+
+    /**
+     * Total number of cycles completed.
+     */
+    private transient long cycles;
+
+    /**
+     * Total number of cycles that passed.
+     */
+    private transient long passed;
+
+    /**
+     * Sum of all cycle latencies in nanoseconds.
+     */
+    private transient long totalLatency;
+
+    /**
+     * The shortest cycle latency in nanoseconds.
+     */
+    private transient long minLatency = Long.MAX_VALUE;
+
+    /**
+     * The longest cycle latency in nanoseconds.
+     */
+    private transient long maxLatency;
+
+    /**
+     * Create statistics with a rolling window of 100 cycles.
+     */
+    public MonitoringStatistics() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Create statistics with a given rolling window.
+     * @param window The number of recent cycles in the rolling figures.
+     */
+    public MonitoringStatistics(final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The rolling window must hold at least one cycle");
+        }
+        this.recentPassed = new boolean[window];
+        this.recentLatency = new long[window];
+    }
+
+    /**
+     * Record a completed cycle.
+     * @param pass Whether the cycle passed.
+     * @param latencyNanos The duration of the cycle in nanoseconds.
+     */
+    public final synchronized void record(final boolean pass, final long latencyNanos) {
+        final int slot = (int) (cycles % recentPassed.length);
+        recentPassed[slot] = pass;
+        recentLatency[slot] = latencyNanos;
+        cycles++;
+        if (pass) {
+            passed++;
+        }
+        totalLatency += latencyNanos;
+        minLatency = Math.min(minLatency, latencyNanos);
+        maxLatency = Math.max(maxLatency, latencyNanos);
+    }
+
+    /**
+     * Total number of cycles completed.
+     * @return The cycle count.
+     */
+    public final synchronized long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Total number of cycles that passed.
+     * @return The pass count.
+     */
+    public final synchronized long getPassed() {
+        return passed;
+    }
+
+    /**
+     * Total number of cycles that failed.
+     * @return The fail count.
+     */
+    public final synchronized long getFailed() {
+        return cycles - passed;
+    }
+
+    /**
+     * Mean latency of all cycles.
+     * @return The mean in milliseconds; 0 if no cycle completed.
+     */
+    public final synchronized double getMeanLatency() {
+        return cycles == 0 ? 0 : totalLatency / (double) cycles / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Shortest cycle latency.
+     * @return The latency in milliseconds; 0 if no cycle completed.
+     */
+    public final synchronized double getMinLatency() {
+        return cycles == 0 ? 0 : minLatency / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Longest cycle latency.
+     * @return The latency in milliseconds.
+     */
+    public final synchronized double getMaxLatency() {
+        return maxLatency / NANOS_PER_MILLI;
+    }
+
+    /**
+     * The fraction of the recent cycles that passed.
+     * @return The rolling pass rate between 0 and 1; 0 if no cycle completed.
+     */
+    public final synchronized double getRollingPassRate() {
+        final int count = windowSize();
+        if (count == 0) {
+            return 0;
+        }
+        int pass = 0;
+        for (int i = 0; i < count; i++) {
+            if (recentPassed[i]) {
+                pass++;
+            }
+        }
+        return pass / (double) count;
+    }
+
+    /**
+     * Mean latency of the recent cycles.
+     * @return The rolling mean in milliseconds; 0 if no cycle completed.
+     */
+    public final synchronized double getRollingMeanLatency() {
+        final int count = windowSize();
+        if (count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += recentLatency[i];
+        }
+        return sum / (double) count / NANOS_PER_MILLI;
+    }
+
+    /**
+     * The number of cycles currently in the rolling window.
+     * @return The filled part of the window.
+     */
+    private int windowSize() {
+        return (int) Math.min(cycles, recentPassed.length);
+    }
+
+    /**
+     * The statistics as an element of the JSON interoperability report.
+     * @return The JSON object.
+     */
+    public final synchronized String toJson() {
+        return String.format(Locale.ENGLISH,
+                "{\"Monitoring\":{\"cycles\":%d,\"passed\":%d,\"failed\":%d,"
+                + "\"mean_ms\":%.3f,\"min_ms\":%.3f,\"max_ms\":%.3f,"
+                + "\"rolling_pass_rate\":%.3f,\"rolling_mean_ms\":%.3f}}",
+                cycles, passed, cycles - passed, getMeanLatency(), getMinLatency(),
+                getMaxLatency(), getRollingPassRate(), getRollingMeanLatency());
+    }
+
+    @Override
+    public final synchronized String toString() {
+        return String.format(Locale.ENGLISH,
+                "Cycles: %d; passed: %d; failed: %d; latency mean %.1f ms (min %.1f, max %.1f);"
+                + " last %d cycles: pass rate %.1f%%, mean %.1f ms",
+                cycles, passed, cycles - passed, getMeanLatency(), getMinLatency(), getMaxLatency(),
+                windowSize(), getRollingPassRate() * 100, getRollingMeanLatency());
+    }
+}
@@ -0,0 +1,158 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of worker threads shared by many executing state machines.
+ * Rather than holding a thread for the whole of a test, a state machine
+ * started on a scheduler is a suspended task: it is resumed on a worker only
+ * when an event is pushed to it or when one of its timeouts fires. Hence,
+ * a single JVM can host many concurrent interoperability sessions. The
+ * message of a trigger state is sent by a separate sender thread and the
+ * session is resumed with its response, so a worker is never held while a
+ * service responds.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class SessionScheduler {
+
+    /**
+     * The workers that resume suspended state machines.
+     */
+    private final transient ExecutorService workers;
+
+    /**
+     * The threads that send the messages of trigger states; a thread is
+     * held for as long as the service takes to respond.
+     */
+    private final transient ExecutorService senders;
+
+    /**
+     * The timer wheel shared by the timeout transitions of all sessions.
+     */
+    private final transient HashedWheelTimer timer;
+
+    /**
+     * Create a scheduler with one worker per available processor.
+     */
+    public SessionScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a scheduler with a fixed number of workers.
+     * @param workerCount The number of threads shared by all sessions.
+     */
+    public SessionScheduler(final int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("A scheduler requires at least one worker");
+        }
+        this.workers = Executors.newFixedThreadPool(workerCount, new DaemonFactory("session-worker-"));
+        this.senders = Executors.newCachedThreadPool(new DaemonFactory("session-sender-"));
+        this.timer = new HashedWheelTimer();
+    }
+
+    /**
+     * Run a slice of a session's execution on one of the workers.
+     * @param task The resumption of the session.
+     */
+    final void execute(final Runnable task) {
+        this.workers.execute(task);
+    }
+
+    /**
+     * The executor that sends the messages of trigger states, off the
+     * workers.
+     * @return The sender threads.
+     */
+    final Executor sender() {
+        return this.senders;
+    }
+
+    /**
+     * Run a task once a delay has elapsed, e.g. to wake a session whose
+     * timeout transition is due.
+     * @param task The task to run.
+     * @param delay The delay in milliseconds.
+     * @return The handle with which the task can be cancelled.
+     */
+    final HashedWheelTimer.Entry schedule(final Runnable task, final long delay) {
+        return this.timer.newTimeout(task, delay);
+    }
+
+    /**
+     * Release the worker threads. Sessions still suspended on this
+     * scheduler will no longer be resumed.
+     */
+    public final void shutdown() {
+        this.timer.stop();
+        this.workers.shutdown();
+        this.senders.shutdown();
+    }
+
+    /**
+     * Creates named daemon threads so that an idle scheduler never keeps
+     * the JVM alive.
+     */
+    private static final class DaemonFactory implements ThreadFactory {
+
+        /**
+         * The prefix of each thread name.
+         */
+        private final transient String prefix;
+
+        /**
+         * Counter used to number the threads.
+         */
+        private final transient AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Create the factory.
+         * @param namePrefix The prefix of each thread name.
+         */
+        DaemonFactory(final String namePrefix) {
+            this.prefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+
+/**
+ * Evaluates the candidate transitions of an event in parallel on the
+ * fork/join pool. Used for states whose transitions test the message body
+ * (XPath or JSON path guards), which dominate the cost of an event with a
+ * large payload.
+ *
+ * The result is that of a sequential scan: the first transition in
+ * declaration order that passes is taken. Each task records the outcome of
+ * its transition in its own buffer, which is added to the report in
+ * declaration order up to the winner. Once a transition passes, the
+ * evaluation of the transitions after it is abandoned at their next guard
+ * and waited for, so that no task reads the event after the caller has
+ * released it.
+ *
+ * The tasks share the event: they only read its parameters (without
+ * creating Parameters) and the values streamed from its body, and each
+ * parses its own DOM of an xml body, as a DOM is not safe to read on
+ * several threads at once.
+ *
+ * Enabled by the parallel_transitions property.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+final class SpeculativeEvaluator {
+
+    /**
+     * The outcome of the evaluation of one candidate transition, held until
+     * it is known whether it is to be reported.
+     */
+    interface Outcome {
+        /**
+         * Whether the transition passes.
+         * @return True if every guard passed.
+         */
+        boolean passed();
+
+        /**
+         * Add the outcome to a report.
+         * @param report The report.
+         */
+        void reportTo(InteroperabilityReport report);
+    }
+
+    /**
+     * The evaluation of one candidate transition.
+     */
+    interface Evaluation {
+        /**
+         * Evaluate the guards of a transition.
+         * @param position The position of the transition in the state.
+         * @param abandoned True once the result is no longer needed; checked
+         * between guards.
+         * @return The outcome; null if the transition reports nothing.
+         */
+        Outcome test(int position, BooleanSupplier abandoned);
+    }
+
+    /**
+     * Whether the parallel_transitions property is set.
+     */
+    private static final boolean ENABLED = readEnabled();
+
+    /**
+     * Utility class.
+     */
+    private SpeculativeEvaluator() {
+    }
+
+    /**
+     * Read the parallel_transitions property.
+     * @return True if parallel evaluation is enabled.
+     */
+    private static boolean readEnabled() {
+        try {
+            return Boolean.parseBoolean(SystemProperties.readProperty("parallel_transitions"));
+        } catch (ConfigurationException ex) {
+            ServiceLogger.LOG.error("Could not read parallel_transitions property", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Whether parallel evaluation is enabled.
+     * @return True if enabled.
+     */
+    static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Evaluate candidate transitions in parallel and find the first that
+     * passes in declaration order.
+     * @param positions The positions of the candidates, in declaration order.
+     * @param evaluation Evaluates one candidate.
+     * @param report The report the outcomes up to the winner are added to.
+     * @param outcomes Receives the outcome of each candidate, by index in
+     * positions; if none passes, they are left for the caller to report.
+     * @return The index in positions of the first candidate that passes, or
+     * -1 if none does.
+     */
+    static int firstMatch(final int[] positions, final Evaluation evaluation,
+            final InteroperabilityReport report, final Outcome[] outcomes) {
+        final int count = positions.length;
+        // Lowest index known to pass; candidates after it are abandoned
+        final AtomicInteger winner = new AtomicInteger(count);
+        final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            tasks[i] = ForkJoinTask.adapt(() -> {
+                if (winner.get() < index) {
+                    return;
+                }
+                final Outcome outcome = evaluation.test(positions[index], () -> winner.get() < index);
+                outcomes[index] = outcome;
+                if (outcome != null && outcome.passed()) {
+                    winner.accumulateAndGet(index, Math::min);
+                }
+            });
+        }
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (int i = 1; i < count; i++) {
+            pool.execute(tasks[i]);
+        }
+        // The first candidate is the most likely winner; run it here
+        tasks[0].invoke();
+
+        for (int i = 0; i < count; i++) {
+            tasks[i].join();
+            if (winner.get() == i) {
+                // Tasks not yet started return at once; running ones stop
+                // at their next guard, before the event is released
+                for (int j = i + 1; j < count; j++) {
+                    tasks[j].quietlyJoin();
+                }
+                for (int j = 0; j <= i; j++) {
+                    if (outcomes[j] != null) {
+                        outcomes[j].reportTo(report);
+                    }
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -28,6 +28,9 @@ package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachin
 
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
@@ -141,6 +144,19 @@ public interface State {
      */
     String getLabel();
 
+    /**
+     * Read the state id. Ids are dense integers assigned when the state
+     * machine is assembled; used in place of labels during execution.
+     * @return The state id.
+     */
+    int getId();
+
+    /**
+     * Set the state id.
+     * @param stateId The id of this state within its state machine.
+     */
+    void setId(int stateId);
+
     /**
      * Read the saved event. This is only available from none trigger nodes
      * and only after the state has been transitioned through.
@@ -148,6 +164,20 @@ public interface State {
      */
     MsgEvent getStoredEvent();
 
+    /**
+     * Restore the saved event e.g. when resuming from a checkpoint.
+     * @param event The event to store; may be null.
+     */
+    void setStoredEvent(MsgEvent event);
+
+    /**
+     * Set the fields of the events reaching this state that are kept as
+     * its stored event; by default the whole event is kept.
+     * @param fields The fields read by references to this state; NONE if
+     * the stored event is never read.
+     */
+    void setRetention(CaptureProjection fields);
+
     /**
      * Adds a guard transition between two states in the state machine. If both
      * states do not exist then an InvalidTransitionException is thrown.
@@ -164,6 +194,20 @@ public interface State {
      */
     List<Transition> getTransitions();
 
+    /**
+     * Compile the outgoing transitions into the structures used to evaluate
+     * events quickly. Called once, after all transitions have been added.
+     * @throws InvalidStateMachineException Error in a transition e.g. an
+     * invalid timeout value.
+     */
+    void compileTransitions() throws InvalidStateMachineException;
+
+    /**
+     * The timeout transition of this state, resolved by compileTransitions().
+     * @return The timeout or null if the state has no timeout transition.
+     */
+    Timeout getTimeout();
+
     /**
      * Evaluate a new event (a rest operation) against the set of transitions
      * at this state. If there is a complete match then the next state to
@@ -179,25 +223,22 @@ public interface State {
      * @throws UnexpectedEventException Event detected that doesn't match the
      * behaviour described in the state machine.
      */
-    String evaluateTransition(MsgEvent input, InteroperabilityReport out)
+    State evaluateTransition(MsgEvent input, InteroperabilityReport out)
             throws UnexpectedEventException;
 
     /**
-     * Evaluate a new event (a rest operation) against the set of transitions
-     * at this state. If there is a complete match then the next state to
-     * transition to is returned. If not - we have an error event (i.e.
-     * an interoperability error) and hence we throw an unexpected event error.
+     * Evaluate the counter guards of a loop state. If a counter transition
+     * matches then its state is returned; otherwise the loop continues and
+     * this state is returned.
      *
-     * @param input The details of the occured event - a rest operations with
-     * data and parameters to compare against the condition.
      * @param out As the transition is evaluated it reports actions to the
      * interoperability report passed here
      *
-     * @return the state to move to based upon the event
+     * @return the state to move to based upon the counter
      * @throws UnexpectedEventException Event detected that doesn't match the
      * behaviour described in the state machine.
      */
-    String evaluateConditionalTransition(InteroperabilityReport out, String current)
+    State evaluateConditionalTransition(InteroperabilityReport out)
             throws UnexpectedEventException;
 
     /**
@@ -212,6 +253,19 @@ public interface State {
      * @throws UnexpectedEventException Event detected that doesn't match the
      * behaviour described in the state machine.
      */
-    String executeTransition(BlockingQueue<MsgEvent> input, InteroperabilityReport outputReport)
+    State executeTransition(BlockingQueue<MsgEvent> input, InteroperabilityReport outputReport)
             throws UnexpectedEventException;
+
+    /**
+     * Execute the trigger transition as executeTransition() does, but send
+     * the message on another thread rather than waiting for the response.
+     * @param input The queue to store the result of the method invocation.
+     * @param outputReport The report the actions are written to.
+     * @param sender The executor that sends the message.
+     * @return A future completed with the state to move to once the response
+     * has been queued, or completed exceptionally with the
+     * UnexpectedEventException of a failed invocation.
+     */
+    CompletableFuture<State> executeTransition(BlockingQueue<MsgEvent> input,
+            InteroperabilityReport outputReport, Executor sender);
  }
\ No newline at end of file
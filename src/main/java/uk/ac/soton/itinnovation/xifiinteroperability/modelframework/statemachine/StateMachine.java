@@ -26,20 +26,25 @@
 
 
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
+import uk.ac.soton.itinnovation.xifiinteroperability.ConfigurationException;
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
+import uk.ac.soton.itinnovation.xifiinteroperability.SystemProperties;
 import uk.ac.soton.itinnovation.xifiinteroperability.guitool.data.forms.ExecutionPanel;
-import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
 
 /**
  * The java data representation of a set of states that form a state machine.
@@ -67,12 +72,17 @@ public class StateMachine implements EventCapture {
     private transient State firstState;
 
     /**
-     * Synchronised blocking queue for execution input. That is,
+     * Bounded event queue for execution input. That is,
      * the only input to this machine comes via this queue. The RESTLET
      * framework captures REST operations and pushes them as events to
      * this queue.
      */
-    private final transient BlockingQueue<MsgEvent> eventQueue;
+    private final transient EventRingBuffer eventQueue;
+
+    /**
+     * The queue capacity used when none is configured.
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 50;
 
     /**
      * Each state machine is a set of states. We use a hash map to
@@ -81,6 +91,11 @@ public class StateMachine implements EventCapture {
      */
     private transient Map<String, State> states;
 
+    /**
+     * The states indexed by their id.
+     */
+    private transient State[] stateTable;
+
     /**
      * Each state machine when executed traces an output report.
      */
@@ -89,36 +104,47 @@ public class StateMachine implements EventCapture {
     /**
      * a boolean to represent if the test was manually stopped by the user
      */
-    private transient boolean stopped;
+    private transient volatile boolean stopped;
 
     /**
      * a setter for the stopped attribute, stops the state machine
      */
     public void stop(){
         stopped = true;
+        stepper.wakeWaiters();
+        wake();
     }
 
     /**
-     * a boolean to represent if we are in debug mode or not
+     * Pauses, steps and breakpoints of the execution. In debug mode the
+     * machine pauses after every transition.
      */
-    private volatile boolean debugMode;
+    private final transient StepController stepper;
 
     /**
-     * a boolean to represent if next button is clicked
+     * True when a scheduled execution returned because it was paused.
      */
-    private volatile boolean nextClicked;
+    private transient volatile boolean heldByStepper;
 
     /**
      * a method to force the state machine to continue execution
      */
     public void next(){
-        nextClicked = true;
+        stepper.step();
+    }
+
+    /**
+     * Get the controller to pause, step and set breakpoints on this machine.
+     * @return The step controller.
+     */
+    public final StepController getStepController() {
+        return stepper;
     }
 
     /**
      * a boolean to represent if the test has ended
      */
-    private transient boolean finished;
+    private transient volatile boolean finished;
 
     /**
      * a getter for the finished attribute
@@ -133,16 +159,115 @@ public class StateMachine implements EventCapture {
      */
     private transient ExecutionPanel execPanel;
 
+    /**
+     * The shared scheduler when the machine runs as a suspended task (see
+     * start(SessionScheduler)); null when it owns its thread.
+     */
+    private transient SessionScheduler scheduler;
+
+    /**
+     * True while a resumption of this machine is queued or running on the
+     * scheduler. Guarantees that only one worker executes the machine.
+     */
+    private final transient AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Completed with the report once a scheduled execution finishes.
+     */
+    private transient CompletableFuture<InteroperabilityReport> completion;
+
+    /**
+     * Incremented on every state change; identifies which state a pending
+     * timeout was armed for.
+     */
+    private transient volatile long stateEpoch;
+
+    /**
+     * The epoch for which a timeout is currently armed.
+     */
+    private transient long armedEpoch = -1;
+
+    /**
+     * The epoch whose timeout has fired.
+     */
+    private transient volatile long expiredEpoch = -1;
+
+    /**
+     * The trigger message being sent for a scheduled machine; null when no
+     * message is in flight. The machine is suspended until it completes.
+     */
+    private transient CompletableFuture<State> sending;
+
+    /**
+     * Handle to the pending timeout so it can be cancelled when an event
+     * arrives first.
+     */
+    private transient HashedWheelTimer.Entry pendingTimeout;
+
+    /**
+     * The file checkpoints are written to; null when checkpoints are off.
+     */
+    private transient File checkpointFile;
+
+    /**
+     * Minimum time between checkpoints, in nanoseconds.
+     */
+    private transient long checkpointInterval;
+
+    /**
+     * The time after which the next checkpoint is taken.
+     */
+    private transient long nextCheckpoint;
+
+    /**
+     * True while a checkpoint of this machine is being written; further
+     * checkpoints are skipped until it completes.
+     */
+    private final transient AtomicBoolean checkpointWriting = new AtomicBoolean(false);
+
+    /**
+     * True when the state was restored from a checkpoint and the next start
+     * continues from it rather than from the start state.
+     */
+    private transient boolean restored;
+
+    /**
+     * True in monitoring mode: reaching an end state completes a cycle and
+     * the machine is re-armed at the start state instead of finishing.
+     */
+    private transient volatile boolean monitoring;
+
+    /**
+     * Per cycle statistics in monitoring mode.
+     */
+    private transient MonitoringStatistics statistics;
+
+    /**
+     * Receives the verdict of each cycle in monitoring mode; may be null.
+     */
+    private transient CycleListener cycleListener;
+
+    /**
+     * The time the current cycle left the start state; 0 until it does.
+     */
+    private transient long cycleStart;
+
+    /**
+     * The fields of a message that the pattern reads; every field until
+     * the pattern has been analysed.
+     */
+    private transient volatile CaptureProjection projection = CaptureProjection.ALL;
+
     /**
      * Construct a new state machine and create and interoperability report.
      * @param debugMode whether the state machine is in debug mode or not
      */
     public StateMachine(boolean debugMode) {
-        this.eventQueue = new ArrayBlockingQueue(50);
+        this.eventQueue = createEventQueue();
         outputReport = new InteroperabilityReport();
         stopped = false;
-        this.debugMode = debugMode;
-        nextClicked = true;
+        this.stepper = new StepController(debugMode);
+        this.stepper.setOnRelease(this::wake);
         finished = false;
     }
 
@@ -163,11 +288,11 @@ public class StateMachine implements EventCapture {
      * @param debugMode whether the state machine is in debug mode or not
      */
     public StateMachine(final InteroperabilityReport rep, boolean debugMode) {
-        this.eventQueue = new ArrayBlockingQueue(50);
+        this.eventQueue = createEventQueue();
         outputReport = rep;
         stopped = false;
-        this.debugMode = debugMode;
-        nextClicked = true;
+        this.stepper = new StepController(debugMode);
+        this.stepper.setOnRelease(this::wake);
         finished =false;
     }
 
@@ -182,21 +307,283 @@ public class StateMachine implements EventCapture {
          this.execPanel = execPanel;
      }
 
+    /**
+     * Create the event queue from the event_queue_capacity and
+     * event_queue_overflow properties. Missing or invalid values fall back
+     * to a blocking queue of 50 events.
+     * @return The new event queue.
+     */
+    private static EventRingBuffer createEventQueue() {
+        int capacity = DEFAULT_QUEUE_CAPACITY;
+        EventRingBuffer.OverflowPolicy policy = EventRingBuffer.OverflowPolicy.BLOCK;
+        try {
+            final String size = SystemProperties.readProperty("event_queue_capacity");
+            if (size != null) {
+                capacity = Integer.parseInt(size.trim());
+            }
+            final String overflow = SystemProperties.readProperty("event_queue_overflow");
+            if (overflow != null) {
+                policy = EventRingBuffer.OverflowPolicy.fromString(overflow);
+            }
+        } catch (ConfigurationException | IllegalArgumentException ex) {
+            ServiceLogger.LOG.error("Invalid event queue configuration, using defaults", ex);
+        }
+        if (capacity < 1) {
+            capacity = DEFAULT_QUEUE_CAPACITY;
+        }
+        return new EventRingBuffer(capacity, policy);
+    }
+
+    /**
+     * The number of events waiting to be processed by this session.
+     * @return The queue depth.
+     */
+    public final int getQueueDepth() {
+        return this.eventQueue.size();
+    }
+
+    /**
+     * The number of events this session has dropped or rejected because
+     * its queue was full.
+     * @return The drop counter.
+     */
+    public final long getDroppedCount() {
+        return this.eventQueue.getDroppedCount();
+    }
+
     /**
      * Construct a new state machine with a first state and the
      * remaining set of states.
      *
      * @param firstSt The label of the first state.
      * @param stateSet The set of states to create a machine from.
+     * @throws InvalidStateMachineException Error compiling the transitions
+     * of a state.
      */
-    public final void inputContent(final String firstSt, final Map<String, State> stateSet) {
+    public final void inputContent(final String firstSt, final Map<String, State> stateSet)
+            throws InvalidStateMachineException {
         this.states = new HashMap();
+        this.stateTable = new State[stateSet.size()];
+        int stateId = 0;
         for (State s : stateSet.values()) {
+            s.setId(stateId);
+            this.stateTable[stateId++] = s;
             addState(s);
         }
+        // Resolve the labels of all transitions to direct state references
+        for (State s : this.stateTable) {
+            for (Transition transition : s.getTransitions()) {
+                final State target = getState(transition.readLabel());
+                if (target == null) {
+                    throw new InvalidStateMachineException("State " + s.getLabel()
+                            + " has a transition to unknown state " + transition.readLabel());
+                }
+                transition.setTarget(target);
+            }
+        }
+        for (State s : this.stateTable) {
+            s.compileTransitions();
+        }
         this.firstState = getState(firstSt);
     }
 
+    /**
+     * Write checkpoints of the execution so that it can be resumed after a
+     * restart with restoreCheckpoint(). A checkpoint is taken after a
+     * transition once the interval has passed; it is written by a
+     * background thread so the execution does not wait for the disk.
+     * @param file The checkpoint file, replaced by each checkpoint.
+     * @param intervalMillis Minimum time between checkpoints in milliseconds.
+     */
+    public final void enableCheckpoints(final File file, final long intervalMillis) {
+        this.checkpointInterval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.nextCheckpoint = System.nanoTime() + this.checkpointInterval;
+        this.checkpointFile = file;
+    }
+
+    /**
+     * Run this machine in monitoring mode: each time it reaches an end state
+     * (or an unexpected event fails the pattern) the verdict of the cycle is
+     * reported and the machine is re-armed at the start state, reusing the
+     * same compiled model and proxies. The execution only ends when it is
+     * stopped; the final report then holds the monitoring statistics.
+     * @param listener Receives the verdict of each cycle; may be null.
+     */
+    public final void enableMonitoring(final CycleListener listener) {
+        this.statistics = new MonitoringStatistics();
+        this.cycleListener = listener;
+        this.monitoring = true;
+    }
+
+    /**
+     * The statistics of the cycles completed in monitoring mode.
+     * @return The statistics, or null if not in monitoring mode.
+     */
+    public final MonitoringStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Whether execution continues. In monitoring mode an end state
+     * completes the cycle and re-arms the machine at the start state.
+     * @return True while there are transitions to execute.
+     */
+    private boolean running() {
+        if (monitoring && !stopped && currentState.isEndNode()) {
+            endCycle(Boolean.parseBoolean(currentState.getSuccess()), null);
+        }
+        return !(currentState.isEndNode() || stopped);
+    }
+
+    /**
+     * Evaluate an event taken from the queue in the current state, then
+     * release the queue's hold on the event; the state holds what it keeps.
+     * @param event The event taken from the queue.
+     * @return The state to move to.
+     * @throws UnexpectedEventException No transition matches the event.
+     */
+    private State evaluate(final MsgEvent event) throws UnexpectedEventException {
+        try {
+            return currentState.evaluateTransition(event, outputReport);
+        } finally {
+            event.release();
+        }
+    }
+
+    /**
+     * In monitoring mode, start the clock of the cycle when it takes its
+     * first event (or trigger or timeout), so that the latency covers the
+     * whole first transition.
+     */
+    private void startCycle() {
+        if (monitoring && cycleStart == 0) {
+            cycleStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Report the verdict of a monitoring cycle, then reset the counters,
+     * saved events and report and return to the start state.
+     * @param passed The verdict of the cycle.
+     * @param failure The reason the cycle failed, or null if it reached an
+     * end state.
+     */
+    private void endCycle(final boolean passed, final String failure) {
+        statistics.record(passed, cycleStart == 0 ? 0 : System.nanoTime() - cycleStart);
+        final long cycle = statistics.getCycles();
+        outputReport.setSuccess(Boolean.toString(passed));
+        if (failure == null) {
+            outputReport.addReport(currentState.getReport());
+        } else {
+            outputReport.addReport("{\"Test trace\":\""+ failure + "\"}");
+        }
+        outputReport.println("Cycle " + cycle + (passed ? " passed" : " failed") + " --> " + statistics);
+        if (cycleListener != null) {
+            cycleListener.cycleCompleted(cycle, passed, outputReport, statistics);
+        }
+
+        for (State s : this.stateTable) {
+            s.counter(-s.getCounter());
+            s.setStoredEvent(null);
+        }
+        outputReport.reset();
+        cycleStart = 0;
+        stateEpoch++;
+        currentState = this.firstState;
+        if(execPanel != null) {
+            execPanel.setTestState(currentState.getLabel());
+        }
+        outputReport.println("Starting trace at Node:" + currentState.getLabel());
+    }
+
+    /**
+     * Restore the state of an earlier execution of this pattern from a
+     * checkpoint. The next start() continues from the checkpointed state
+     * with its counters, saved events and report rather than from the
+     * start state.
+     * @param file The checkpoint file.
+     * @throws IOException Error reading the checkpoint.
+     * @throws InvalidStateMachineException The checkpoint was taken from a
+     * different pattern.
+     */
+    public final void restoreCheckpoint(final File file)
+            throws IOException, InvalidStateMachineException {
+        final Checkpoint checkpoint = Checkpoint.read(file);
+        if (this.stateTable == null || checkpoint.getFingerprint() != fingerprint()) {
+            throw new InvalidStateMachineException("Checkpoint " + file
+                    + " was not taken from this pattern");
+        }
+        final int[] counters = checkpoint.getCounters();
+        final MsgEvent[] events = checkpoint.getEvents();
+        for (State s : this.stateTable) {
+            s.counter(counters[s.getId()] - s.getCounter());
+            s.setStoredEvent(events[s.getId()]);
+        }
+        this.outputReport.restore(checkpoint.getSuccess(), checkpoint.getTrace(),
+                checkpoint.getJsonReport());
+        this.currentState = this.stateTable[checkpoint.getCurrentState()];
+        this.restored = true;
+    }
+
+    /**
+     * Identify the pattern by its state labels in id order, so a checkpoint
+     * is only restored into the pattern it was taken from.
+     * @return The fingerprint.
+     */
+    private int fingerprint() {
+        int hash = this.stateTable.length;
+        for (State s : this.stateTable) {
+            hash = 31 * hash + s.getLabel().toLowerCase(Locale.ENGLISH).hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Take a checkpoint if checkpoints are on, the interval has passed and
+     * the previous checkpoint has been written. Called by the executing
+     * thread between transitions, so the snapshot is consistent; it only
+     * copies references and leaves the encoding to the writer thread.
+     */
+    private void checkpointIfDue() {
+        if (this.checkpointFile == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (now - this.nextCheckpoint < 0 || !this.checkpointWriting.compareAndSet(false, true)) {
+            return;
+        }
+        this.nextCheckpoint = now + this.checkpointInterval;
+        final int[] counters = new int[this.stateTable.length];
+        final MsgEvent[] events = new MsgEvent[this.stateTable.length];
+        for (State s : this.stateTable) {
+            counters[s.getId()] = s.getCounter();
+            events[s.getId()] = s.getStoredEvent();
+            // Hold the event so its content stays readable while written
+            if (events[s.getId()] != null) {
+                events[s.getId()].retain();
+            }
+        }
+        new Checkpoint(fingerprint(), this.currentState.getId(), this.outputReport.getSuccess(),
+                this.outputReport.getTextTrace(), this.outputReport.getReportEntries(),
+                counters, events).writeAsync(this.checkpointFile, () -> {
+                    for (MsgEvent event : events) {
+                        if (event != null) {
+                            event.release();
+                        }
+                    }
+                    this.checkpointWriting.set(false);
+                });
+    }
+
+    /**
+     * Get a state by its id.
+     * @param stateId The id assigned when the state machine was assembled.
+     * @return The state.
+     */
+    public final State getState(final int stateId) {
+        return this.stateTable[stateId];
+    }
+
 
     /**
      * Assign a state as the current executable position in the state machine.
@@ -239,10 +626,17 @@ public class StateMachine implements EventCapture {
     @Override
     public final void pushEvent(final MsgEvent restEvent) {
         try {
-            this.eventQueue.put(restEvent);
+            if (!this.eventQueue.push(restEvent)
+                    && this.eventQueue.getPolicy() == EventRingBuffer.OverflowPolicy.FAIL_FAST) {
+                // A lost event invalidates the trace, so end the test now
+                outputReport.println("Interoperability Error: event queue full - event rejected");
+                stop();
+                return;
+            }
         } catch (InterruptedException ex) {
             ServiceLogger.LOG.debug("Event queue interupted", ex);
         }
+        wake();
     }
 
     /**
@@ -255,61 +649,58 @@ public class StateMachine implements EventCapture {
         outputReport.println("Interoperability Error: " + excep.getMessage());
     }
 
+    /**
+     * The fields of a message that the pattern of this state machine reads.
+     * @return The projection set when the pattern was loaded.
+     */
+    @Override
+    public final CaptureProjection getProjection() {
+        return this.projection;
+    }
+
+    /**
+     * Set the fields of a message that the pattern reads.
+     * @param fields The projection found by analysing the pattern.
+     */
+    public final void setProjection(final CaptureProjection fields) {
+        this.projection = fields;
+    }
+
     /**
      * Start the trace and begin outputting the event tests that correspond
      * to the state machine checks.
      * @return The string version of the output report.
      */
     public final InteroperabilityReport start()	{
-	currentState = this.firstState;
-        if (currentState == null) {
-            outputReport.println("Invalid test model -> no valid start state");
-            outputReport.setSuccess("false");
-            outputReport.addReport("{\"Begin Testing\":\"Error in test model\"");
+        if (!begin()) {
             return outputReport;
         }
 
-        if(execPanel != null) {
-            execPanel.setTestState(currentState.getLabel());
-        }
-
-        outputReport.clear();
-        outputReport.println("Test started - run the application");
-        outputReport.println("----------------------------------");
-        outputReport.println("Starting trace at Node:" + currentState.getLabel());
-
-        while (!(currentState.isEndNode() || stopped)) {
-            if (debugMode && !nextClicked){
-                continue;
-            }
+        while (running()) {
+            final State from = currentState;
             try {
+                if (!stepper.mayProceed()) {
+                    // An interrupt while paused ends the session below
+                    stepper.awaitProceed(() -> stopped);
+                    continue;
+                }
                 if (currentState.isTrigger()) {
-                    currentState = getState(currentState.executeTransition(this.eventQueue, outputReport));
+                    startCycle();
+                    currentState = currentState.executeTransition(this.eventQueue, outputReport);
                 }
                 else if (currentState.isLoop()) {
-                    String tState = currentState.evaluateConditionalTransition(outputReport, currentState.getLabel());
-                    if(tState.equalsIgnoreCase(currentState.getLabel())) {
+                    startCycle();
+                    final State tState = currentState.evaluateConditionalTransition(outputReport);
+                    if(tState == currentState) {
                         currentState.counter(1);
-                        currentState = getState(currentState.executeTransition(this.eventQueue, outputReport));
+                        currentState = currentState.executeTransition(this.eventQueue, outputReport);
                     }
                     else {
-                        currentState = getState(tState);
+                        currentState = tState;
                     }
                 }
                 else {
-                    Long timeout = null;
-                    Transition timeoutTransition = null;
-                    for(Transition transition: currentState.getTransitions()){
-                        List<Guard> guards = transition.listGuards();
-                        if (guards.size() == 1){
-                            Guard guard = guards.get(0);
-                            if (guard.getGuardLabel().equalsIgnoreCase("timeout")){
-                                timeout = Long.parseLong(guard.getGuardCompare());
-                                timeoutTransition = transition;
-                                break;
-                            }
-                        }
-                    }
+                    final Timeout timeout = currentState.getTimeout();
                     MsgEvent event = null;
                     if (timeout == null){
                         while(event == null){
@@ -321,18 +712,23 @@ public class StateMachine implements EventCapture {
                         if (stopped){
                             continue;
                         }
-                        currentState = getState(currentState.evaluateTransition(event, outputReport));
+                        startCycle();
+                        currentState = evaluate(event);
                     }
                     else {
-                        TimerDialog timerDialog = new TimerDialog();
-                        timerDialog.initGUI(timeout);
-                        event = this.eventQueue.poll(timeout, TimeUnit.MILLISECONDS);
+                        if (execPanel != null) {
+                            execPanel.showTimeout(timeout.getTimeoutLength());
+                        }
+                        event = this.eventQueue.poll(timeout.getTimeoutLength(), TimeUnit.MILLISECONDS);
+                        startCycle();
                         if (event == null){
-                            currentState = getState(timeoutTransition.readLabel());
+                            currentState = timeout.getTimeoutTarget();
                         }
                         else {
-                            timerDialog.dispose();
-                            currentState = getState(currentState.evaluateTransition(event, outputReport));
+                            if (execPanel != null) {
+                                execPanel.hideTimeout();
+                            }
+                            currentState = evaluate(event);
                         }
                     }
                     if (currentState == null) {
@@ -344,12 +740,17 @@ public class StateMachine implements EventCapture {
                     }
                     outputReport.println("Transition Success - move to state:" + currentState.getLabel());
                 }
-                nextClicked = false;
+                stepper.transitionTaken(from, currentState);
                 if(execPanel != null) {
                     execPanel.setTestState(currentState.getLabel());
                 }
+                checkpointIfDue();
             } catch (UnexpectedEventException ex) {
                logException(ex);
+               if (monitoring) {
+                   endCycle(false, ex.getLocalizedMessage());
+                   continue;
+               }
                outputReport.setSuccess("false");
                outputReport.addReport("{\"Test trace\":\""+ ex.getLocalizedMessage() + "\"");
                finished = true;
@@ -370,7 +771,56 @@ public class StateMachine implements EventCapture {
                 return outputReport;
             }
         }
-        if (!stopped){
+        return conclude();
+    }
+
+    /**
+     * Put the machine in its start state and write the opening lines of the
+     * report.
+     * @return False if the model has no start state; the report then
+     * describes the error.
+     */
+    private boolean begin() {
+        if (restored) {
+            restored = false;
+            if(execPanel != null) {
+                execPanel.setTestState(currentState.getLabel());
+            }
+            outputReport.println("Resuming trace at Node:" + currentState.getLabel());
+            return true;
+        }
+        currentState = this.firstState;
+        if (currentState == null) {
+            outputReport.println("Invalid test model -> no valid start state");
+            outputReport.setSuccess("false");
+            outputReport.addReport("{\"Begin Testing\":\"Error in test model\"");
+            return false;
+        }
+
+        if(execPanel != null) {
+            execPanel.setTestState(currentState.getLabel());
+        }
+
+        outputReport.clear();
+        outputReport.println("Test started - run the application");
+        outputReport.println("----------------------------------");
+        outputReport.println("Starting trace at Node:" + currentState.getLabel());
+        return true;
+    }
+
+    /**
+     * Write the final verdict once an end state is reached or the test
+     * was stopped.
+     * @return The completed report.
+     */
+    private InteroperabilityReport conclude() {
+        if (monitoring) {
+            outputReport.setSuccess(Boolean.toString(statistics.getCycles() > 0
+                    && statistics.getFailed() == 0));
+            outputReport.addReport(statistics.toJson());
+            outputReport.println("Monitoring stopped --> " + statistics);
+        }
+        else if (!stopped){
             outputReport.setSuccess(currentState.getSuccess());
             outputReport.addReport(currentState.getReport());
             outputReport.println("End node reached --> Interoperability Testing Complete");
@@ -383,6 +833,218 @@ public class StateMachine implements EventCapture {
         return outputReport;
     }
 
+    /**
+     * Record a failed execution in the report.
+     * @param trace The reason for the failure.
+     * @return The completed report.
+     */
+    private InteroperabilityReport fail(final String trace) {
+        outputReport.setSuccess("false");
+        outputReport.addReport("{\"Test trace\":\""+ trace + "\"");
+        finished = true;
+        return outputReport;
+    }
+
+    /**
+     * Start the trace as a suspended task on a shared scheduler rather than
+     * on the calling thread. The machine only occupies a worker while it has
+     * events to process or a timeout to take; the returned future completes
+     * with the report once an end state is reached.
+     * @param sched The scheduler whose workers execute this machine.
+     * @return The future interoperability report.
+     */
+    public final Future<InteroperabilityReport> start(final SessionScheduler sched) {
+        this.completion = new CompletableFuture();
+        if (!begin()) {
+            finished = true;
+            this.completion.complete(outputReport);
+            return this.completion;
+        }
+        this.scheduler = sched;
+        wake();
+        return this.completion;
+    }
+
+    /**
+     * Ask the scheduler to resume this machine, unless a resumption is
+     * already queued or running.
+     */
+    private void wake() {
+        if (this.scheduler != null && !finished && scheduled.compareAndSet(false, true)) {
+            this.scheduler.execute(this::resume);
+        }
+    }
+
+    /**
+     * Worker entry point: advance the machine as far as the queued events
+     * allow and then suspend it again.
+     */
+    private void resume() {
+        try {
+            advance();
+        } catch (RuntimeException ex) {
+            ServiceLogger.LOG.error("Error processing events", ex);
+            outputReport.println("An unexpected error occurred, while running your pattern.");
+            outputReport.println("Please check all fields where you are using any of the following - pattern data,"
+                + " components' data, previous states' data.");
+            completion.complete(fail(ex.getLocalizedMessage()));
+        }
+        scheduled.set(false);
+        // An event, timeout, step or response may have arrived after it was
+        // last read; a paused machine is only resumed by its step controller,
+        // and one sending a message only once the response has arrived
+        if (!finished && (stopped || stepper.mayProceed() && (sending != null ? sending.isDone()
+                : heldByStepper || !eventQueue.isEmpty() || expiredEpoch == stateEpoch))) {
+            wake();
+        }
+    }
+
+    /**
+     * Execute transitions until the machine ends or has to wait for input.
+     * Unlike the blocking start() loop, waiting never holds the worker,
+     * whether for an event, a timeout or the response to a trigger message.
+     */
+    private void advance() {
+        heldByStepper = false;
+        while (running()) {
+            if (!stepper.mayProceed()) {
+                heldByStepper = true;
+                return;
+            }
+            final State from = currentState;
+            try {
+                if (sending != null || currentState.isTrigger()) {
+                    if (sending == null) {
+                        startCycle();
+                        send();
+                    }
+                    if (!sending.isDone()) {
+                        return;
+                    }
+                    currentState = sent();
+                }
+                else if (currentState.isLoop()) {
+                    startCycle();
+                    final State tState = currentState.evaluateConditionalTransition(outputReport);
+                    if(tState == currentState) {
+                        currentState.counter(1);
+                        send();
+                        if (!sending.isDone()) {
+                            return;
+                        }
+                        currentState = sent();
+                    }
+                    else {
+                        currentState = tState;
+                    }
+                }
+                else {
+                    final MsgEvent event = this.eventQueue.poll();
+                    if (event != null) {
+                        cancelTimeout();
+                        startCycle();
+                        currentState = evaluate(event);
+                    }
+                    else if (expiredEpoch == stateEpoch) {
+                        startCycle();
+                        currentState = currentState.getTimeout().getTimeoutTarget();
+                    }
+                    else {
+                        armTimeout();
+                        return;
+                    }
+                    if (currentState == null) {
+                        ServiceLogger.LOG.error("Invalid state machine - could not find next state");
+                        completion.complete(fail("Invalid state machine - could not find next state, check traces"));
+                        return;
+                    }
+                    outputReport.println("Transition Success - move to state:" + currentState.getLabel());
+                }
+                stateEpoch++;
+                stepper.transitionTaken(from, currentState);
+                if(execPanel != null) {
+                    execPanel.setTestState(currentState.getLabel());
+                }
+                checkpointIfDue();
+            } catch (UnexpectedEventException ex) {
+                logException(ex);
+                if (monitoring) {
+                    endCycle(false, ex.getLocalizedMessage());
+                    continue;
+                }
+                completion.complete(fail(ex.getLocalizedMessage()));
+                return;
+            }
+        }
+        cancelTimeout();
+        completion.complete(conclude());
+    }
+
+    /**
+     * Send the message of the current trigger state on a sender thread; the
+     * machine is woken once the response has been queued.
+     */
+    private void send() {
+        sending = currentState.executeTransition(this.eventQueue, outputReport, scheduler.sender());
+        sending.whenComplete((state, ex) -> wake());
+    }
+
+    /**
+     * Take the result of the trigger message that has been sent.
+     * @return The state to move to.
+     * @throws UnexpectedEventException The message could not be sent.
+     */
+    private State sent() throws UnexpectedEventException {
+        final CompletableFuture<State> done = sending;
+        sending = null;
+        try {
+            return done.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UnexpectedEventException) {
+                throw (UnexpectedEventException) ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * If the current state has a timeout transition, ask the scheduler to
+     * wake this machine once it expires. Armed once per state entry.
+     */
+    private void armTimeout() {
+        final long epoch = stateEpoch;
+        if (armedEpoch == epoch) {
+            return;
+        }
+        armedEpoch = epoch;
+        final Timeout timeout = currentState.getTimeout();
+        if (timeout != null) {
+            pendingTimeout = scheduler.schedule(() -> {
+                expiredEpoch = epoch;
+                wake();
+            }, timeout.getTimeoutLength());
+            if (execPanel != null) {
+                execPanel.showTimeout(timeout.getTimeoutLength());
+            }
+        }
+    }
+
+    /**
+     * Cancel the timeout of the state being left.
+     */
+    private void cancelTimeout() {
+        if (pendingTimeout != null) {
+            pendingTimeout.cancel();
+            pendingTimeout = null;
+            if (execPanel != null) {
+                execPanel.hideTimeout();
+            }
+        }
+    }
+
     /**
      * Given the label id, retrieve a state from the state machine.
      * @param label The id of the state - the label.
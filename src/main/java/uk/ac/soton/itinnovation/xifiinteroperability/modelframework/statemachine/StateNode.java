@@ -28,15 +28,24 @@ package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachin
 
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import org.w3c.dom.Node;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import org.w3c.dom.Document;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Architecture;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.MultiPathMatcher;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.EventParameters;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
@@ -44,12 +53,11 @@ import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEv
 import uk.ac.soton.itinnovation.xifiinteroperability.ServiceLogger;
 import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.InvalidPatternReferenceException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.ProtocolMessage;
-import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.TraceEvent;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidJSONPathException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidXPathException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathEvaluationResult;
-import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathEvaluationResult.DataFormat;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.specification.XMLStateMachine;
 
 /**
@@ -68,6 +76,11 @@ public class StateNode implements State {
      */
     private final transient String name;
 
+    /**
+     * The id of the state, assigned by the state machine.
+     */
+    private transient int stateId = -1;
+
     /**
      * The values describing the state type, start, trigger, etc.
      * Can be start and trigger, or start and normal.
@@ -80,12 +93,57 @@ public class StateNode implements State {
      */
     private final transient List<Transition> nextStates;
 
+    /**
+     * Index of the transitions by their discriminating equality guard; null
+     * when not compiled or when no guard discriminates the transitions.
+     */
+    private transient TransitionIndex dispatch;
+
+    /**
+     * The positions of all transitions; the candidates when there is no
+     * dispatch index.
+     */
+    private transient int[] allPositions;
+
+    /**
+     * True if the candidate transitions are evaluated in parallel i.e.
+     * parallel evaluation is enabled and several transitions test the
+     * message body.
+     */
+    private transient boolean speculative;
+
+    /**
+     * The content paths of the guards on this state's transitions, matched
+     * in one pass of an xml body; null if there are none or one of them
+     * cannot be streamed.
+     */
+    private transient MultiPathMatcher xmlMatcher;
+
+    /**
+     * The content paths of the guards on this state's transitions, matched
+     * in one pass of a json body; null if there are none or one of them
+     * cannot be streamed.
+     */
+    private transient MultiPathMatcher jsonMatcher;
+
+    /**
+     * The timeout transition of this state; null if there is none.
+     */
+    private transient Timeout timeout;
+
     /**
      * After a transition has occurred, the event that this state receives
-     * will be saved for future reference.
+     * will be saved for future reference. The state holds the event (see
+     * MsgEvent.retain()) until it is replaced or cleared.
      */
     private transient MsgEvent savedEvent;
 
+    /**
+     * The fields of a received event that are saved; only those read by
+     * $$ references to this state need be kept.
+     */
+    private transient CaptureProjection retention = CaptureProjection.ALL;
+
     /**
      * The state machine that this state node belongs to.
      */
@@ -100,6 +158,11 @@ public class StateNode implements State {
      */
     private static final String CONTENTLABEL = "content";
 
+    /**
+     * Constant to the label of a timeout guard.
+     */
+    private static final String TIMEOUTLABEL = "timeout";
+
         /**
      * A node has a report field that is used to annotate information about
      * why a test succeeds or fails. This is particularly used to explain
@@ -202,6 +265,16 @@ public class StateNode implements State {
 	return this.name;
     }
 
+    @Override
+    public final int getId() {
+        return this.stateId;
+    }
+
+    @Override
+    public final void setId(final int id) {
+        this.stateId = id;
+    }
+
     /**
      * Return true if this is an end node state; otherwise return false.
      * @return boolean value indicating end node status
@@ -261,6 +334,61 @@ public class StateNode implements State {
         return this.nextStates;
     };
 
+    /**
+     * Build the dispatch index of this state's transitions, the matchers of
+     * their content paths, and resolve its timeout: the transition with a
+     * single guard labelled timeout.
+     * @throws InvalidStateMachineException The timeout value is not a number.
+     */
+    @Override
+    public final void compileTransitions() throws InvalidStateMachineException {
+        this.dispatch = TransitionIndex.build(this.nextStates);
+        this.allPositions = new int[this.nextStates.size()];
+        final List<String> valuePaths = new ArrayList<>();
+        final List<String> childPaths = new ArrayList<>();
+        int contentTransitions = 0;
+        for (int i = 0; i < this.allPositions.length; i++) {
+            this.allPositions[i] = i;
+            this.nextStates.get(i).compileEvaluationOrder();
+            boolean content = false;
+            for (Guard guard : this.nextStates.get(i).listGuards()) {
+                if (guard.getGuardLabel().startsWith(CONTENTLABEL) && guard.getContentPath() != null) {
+                    content = true;
+                    if (guard.getType() == Guard.ComparisonType.CONTAINS) {
+                        childPaths.add(guard.getContentPath());
+                    } else if (guard.getType() != Guard.ComparisonType.COUNTER) {
+                        valuePaths.add(guard.getContentPath());
+                    }
+                }
+            }
+            if (content) {
+                contentTransitions++;
+            }
+        }
+        this.xmlMatcher = MultiPathMatcher.compile(valuePaths, childPaths, true);
+        this.jsonMatcher = MultiPathMatcher.compile(valuePaths, childPaths, false);
+        this.speculative = SpeculativeEvaluator.isEnabled() && contentTransitions > 1;
+        this.timeout = null;
+        for (Transition transition : this.nextStates) {
+            final List<Guard> guards = transition.listGuards();
+            if (guards.size() == 1 && guards.get(0).getGuardLabel().equalsIgnoreCase(TIMEOUTLABEL)) {
+                try {
+                    this.timeout = new Timeout(Long.parseLong(guards.get(0).getGuardCompare().trim()),
+                            transition.readLabel(), transition.getTarget());
+                } catch (NumberFormatException ex) {
+                    throw new InvalidStateMachineException("State " + this.name
+                            + " has an invalid timeout value", ex);
+                }
+                break;
+            }
+        }
+    }
+
+    @Override
+    public final Timeout getTimeout() {
+        return this.timeout;
+    }
+
     /**
      * Execute transition - which can only be applied to a trigger transition
      * and not a guarded transition.
@@ -274,13 +402,48 @@ public class StateNode implements State {
      * behaviour has happened to indicate and interoperability problem.
      */
     @Override
-    public final String executeTransition(final BlockingQueue<MsgEvent> input, final InteroperabilityReport outputReport)
+    public final State executeTransition(final BlockingQueue<MsgEvent> input, final InteroperabilityReport outputReport)
+            throws UnexpectedEventException {
+        if (!(this.isTrigger() || this.isLoop())) {
+            throw new UnexpectedEventException("Trying to execute a message trigger when the state"
+                    + "is not a trigger");
+        }
+        return invokeTrigger(input, outputReport);
+    };
+
+    @Override
+    public final CompletableFuture<State> executeTransition(final BlockingQueue<MsgEvent> input,
+            final InteroperabilityReport outputReport, final Executor sender) {
+        final CompletableFuture<State> result = new CompletableFuture<>();
+        if (!(this.isTrigger() || this.isLoop())) {
+            result.completeExceptionally(new UnexpectedEventException("Trying to execute a message trigger"
+                    + " when the state is not a trigger"));
+            return result;
+        }
+        try {
+            sender.execute(() -> {
+                try {
+                    result.complete(invokeTrigger(input, outputReport));
+                } catch (UnexpectedEventException | RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(new UnexpectedEventException("Cannot send the trigger message", ex));
+        }
+        return result;
+    }
+
+    /**
+     * Send the message of the trigger transition and queue the response.
+     * @param input The state machine's message queue.
+     * @param outputReport The running output report.
+     * @return The state to move to.
+     * @throws UnexpectedEventException The message could not be sent.
+     */
+    private State invokeTrigger(final BlockingQueue<MsgEvent> input, final InteroperabilityReport outputReport)
             throws UnexpectedEventException {
         try {
-            if (!(this.isTrigger() || this.isLoop())) {
-                throw new UnexpectedEventException("Trying to execute a message trigger when the state"
-                        + "is not a trigger");
-            }
             final ProtocolMessage action = this.nextStates.get(0).getTrigger();
 
             final MsgEvent retValue = action.invokeMessage();
@@ -289,12 +452,12 @@ public class StateNode implements State {
             outputReport.println("Invoked action - moving to state: " + this.nextStates.get(0).readLabel());
 
             // A Trigger state can only have one transition
-            return this.nextStates.get(0).readLabel();
+            return this.nextStates.get(0).getTarget();
         } catch (InterruptedException ex) {
             ServiceLogger.LOG.error("Cannot execute transition", ex);
             throw new UnexpectedEventException("Cannot access locked state machine", ex);
         }
-    };
+    }
 
     /**
      * Evaluate a new event (a rest operation) against the set of transitions
@@ -310,24 +473,65 @@ public class StateNode implements State {
      * @throws UnexpectedEventException event error - no transition matches the event.
      */
     @Override
-    public final String evaluateTransition(final MsgEvent input, final InteroperabilityReport outputReport)
+    public final State evaluateTransition(final MsgEvent input, final InteroperabilityReport outputReport)
             throws UnexpectedEventException {
         // Find transitions with matching resource locations
 
-        this.savedEvent = input;
+        setStoredEvent(input.project(this.retention));
 
         /**
          * Iterate through each potential event transition to find a matching
          * next state. If no matches then we have an interoperability fail.
          * Report in the exception.
          */
-        final Iterator<Transition> transIt = this.nextStates.iterator();
-        while (transIt.hasNext()) {
-            final Transition evTrans = transIt.next();
-            if (!evTrans.listGuards().isEmpty()) {
-                if (evaluateGuards(evTrans.listGuards(), input.getParameterMap(), outputReport)) {
-                    outputReport.println("Transition to state " + evTrans.readLabel() + " successful");
-                        return evTrans.readLabel();
+        if (this.allPositions == null) {
+            final Iterator<Transition> transIt = this.nextStates.iterator();
+            while (transIt.hasNext()) {
+                final Transition evTrans = transIt.next();
+                if (matches(evTrans, input, outputReport)) {
+                    return evTrans.getTarget();
+                }
+            }
+        } else {
+            // Only the candidates of the index can match the event
+            final int[] candidates = this.dispatch == null ? this.allPositions
+                    : this.dispatch.candidates(input.getParameterMap());
+            // Failed candidates are held so that, if none matches, every
+            // transition is reported in declaration order
+            final SpeculativeEvaluator.Outcome[] held = new SpeculativeEvaluator.Outcome[candidates.length];
+            if (this.speculative && candidates.length > 1) {
+                final int found = SpeculativeEvaluator.firstMatch(candidates,
+                        (position, abandoned) -> evaluate(this.nextStates.get(position),
+                                input, true, abandoned), outputReport, held);
+                if (found >= 0) {
+                    return this.nextStates.get(candidates[found]).getTarget();
+                }
+            } else {
+                for (int c = 0; c < candidates.length; c++) {
+                    final Transition evTrans = this.nextStates.get(candidates[c]);
+                    final GuardOutcomes outcomes = evaluate(evTrans, input, false, null);
+                    if (outcomes != null && outcomes.passed()) {
+                        for (int p = 0; p < c; p++) {
+                            if (held[p] != null) {
+                                held[p].reportTo(outputReport);
+                            }
+                        }
+                        outcomes.reportTo(outputReport);
+                        return evTrans.getTarget();
+                    }
+                    held[c] = outcomes;
+                }
+            }
+            // Report why each transition failed
+            int next = 0;
+            for (int i = 0; i < this.nextStates.size(); i++) {
+                if (next < candidates.length && candidates[next] == i) {
+                    if (held[next] != null) {
+                        held[next].reportTo(outputReport);
+                    }
+                    next++;
+                } else {
+                    matches(this.nextStates.get(i), input, outputReport);
                 }
             }
         }
@@ -335,7 +539,46 @@ public class StateNode implements State {
         throw new UnexpectedEventException("Fail: no transition possible");
     };
 
-    public final String evaluateConditionalTransition(final InteroperabilityReport outputReport, String currentState)
+    /**
+     * Evaluate the guards of a transition against an event.
+     * @param evTrans The transition to evaluate.
+     * @param input The event.
+     * @param outputReport The output stream to return the evaluation result.
+     * @return True if the transition is taken.
+     */
+    private boolean matches(final Transition evTrans, final MsgEvent input,
+            final InteroperabilityReport outputReport) {
+        final GuardOutcomes outcomes = evaluate(evTrans, input, false, null);
+        if (outcomes == null) {
+            return false;
+        }
+        outcomes.reportTo(outputReport);
+        return outcomes.passed();
+    }
+
+    /**
+     * Evaluate the guards of a transition against an event and hold the
+     * outcomes until they are reported.
+     * @param evTrans The transition to evaluate.
+     * @param input The event.
+     * @param isolated True if the guards of other transitions are evaluated
+     * on the same event on other threads.
+     * @param abandoned True once the result is no longer needed; may be null.
+     * @return The outcomes; null if the transition has no guards or its
+     * evaluation was abandoned.
+     */
+    private GuardOutcomes evaluate(final Transition evTrans, final MsgEvent input,
+            final boolean isolated, final BooleanSupplier abandoned) {
+        if (evTrans.listGuards().isEmpty()) {
+            return null;
+        }
+        final GuardOutcomes outcomes = new GuardOutcomes(evTrans, isolated);
+        evaluateGuards(evTrans, input, outcomes, abandoned);
+        return abandoned != null && abandoned.getAsBoolean() ? null : outcomes;
+    }
+
+    @Override
+    public final State evaluateConditionalTransition(final InteroperabilityReport outputReport)
             throws UnexpectedEventException {
         // Find transitions with matching resource locations
 
@@ -352,12 +595,12 @@ public class StateNode implements State {
             if (!evTrans.listGuards().isEmpty()) {
                 if (evaluateCounterGuards(evTrans.listGuards().get(0), outputReport)) {
                     outputReport.println("Transition to state " + evTrans.readLabel() + " successful");
-                        return evTrans.readLabel();
+                        return evTrans.getTarget();
                 }
             }
         }
 
-        return currentState;
+        return this;
     };
 
     /**
@@ -369,9 +612,11 @@ public class StateNode implements State {
      * The final part of the expression is the field label value to read.
      *
      * @param exp The state$$eventpart[headers or content]$$field
+     * @param outcomes The evaluation reading the value; null if it is not
+     * read by a guard.
      * @return The value of the evaluated expression.
      */
-    private String getStateValue(final String exp) {
+    private String getStateValue(final String exp, final GuardOutcomes outcomes) {
 
         final String[] exprSplit = exp.replaceAll("\\$", "").split("\\|");
         if (exprSplit.length != 3) {
@@ -381,14 +626,15 @@ public class StateNode implements State {
         final MsgEvent rEv = stateA.getStoredEvent();
 
         if (exprSplit[1].equalsIgnoreCase(CONTENTLABEL)) {
-            final String content = rEv.getDataBody().getData();
-            if (rEv.getDataBody().getType().contains("xml")) {
-                return XML.readValue(content, exprSplit[2]);
+            final Content content = rEv.getDataBody();
+            if (content.getType().contains("xml")) {
+                return XML.readValue(outcomes == null ? content.getXmlDocument()
+                        : outcomes.xmlDocument(content), exprSplit[2]);
             } else {
-                return JSON.readValue(content, "$." + exprSplit[2]);
+                return JSON.readValue(content.getJsonDocument(), "$." + exprSplit[2]);
             }
         } else if (exprSplit[1].equalsIgnoreCase("headers")) {
-            return rEv.getParameterMap().get(exprSplit[2]).getValue();
+            return valueOf(rEv.getParameterMap(), exprSplit[2]);
         }
         return null;
     }
@@ -417,105 +663,48 @@ public class StateNode implements State {
         throw new InvalidPatternReferenceException("Data field does not exist");
     }
 
+    /**
+     * Bind a guard whose value refers to $$...$$ data to the value of that
+     * data in this session: pattern data or a field of an event stored by a
+     * state of this state machine. The shared guard itself is unchanged.
+     * @param chGuard The guard from the transition.
+     * @param outcomes The evaluation of the transition.
+     * @return The guard to evaluate.
+     */
+    private Guard bind(final Guard chGuard, final GuardOutcomes outcomes) {
+        if (!chGuard.requiresBinding()) {
+            return chGuard;
+        }
+        final String reference = chGuard.getGuardCompare();
+        if (reference.contains(XMLStateMachine.DATA_TAG)) {
+            try {
+                return chGuard.bind(getData(reference));
+            } catch (InvalidPatternReferenceException ex) {
+                return chGuard.bind(null);
+            }
+        }
+        return chGuard.bind(getStateValue(reference, outcomes));
+    }
+
     /**
      * The guard failure is reported to the interoperability report.
      * @param chGuard The rule that has failed.
      * @param value The input to the failed rule.
-     * @param report The output location to report the failure.
-     */
-    private void reportGuardFailure(final Guard chGuard, final Parameter value, final InteroperabilityReport report) {
-        String originalGuardCompare = chGuard.getGuardCompare();
-        String originalValue = value.getValue();
-        if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)) {
-            chGuard.setGuardCompare(originalGuardCompare + "ms");
-            value.setValue(originalValue + "ms");
-        }
-        switch (chGuard.getType()) {
-            case EQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be equal to the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case NOTEQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be not equal to the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case GREATERTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be greater than the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case LESSTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "', while it was supposed to be less than the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case REGEX:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue() + "' while it was supposed to match the regular expression: '" + chGuard.getGuardCompare() + "'");
-                break;
-            default:
-                report.printtabline("Guard test failed!");
-        }
-        if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)) {
-            chGuard.setGuardCompare(originalGuardCompare);
-            value.setValue(originalValue);
-        }
+     * @param outcomes The outcomes the result of the guard is recorded in.
+     */
+    private void reportGuardFailure(final Guard chGuard, final String value, final GuardOutcomes outcomes) {
+        outcomes.record(TraceEvent.failed(chGuard, value));
     }
 
     /**
      * The guard failure(due to a content evaluation) is reported to the interoperability report.
      * @param chGuard The rule that has failed.
      * @param value The input to the failed rule.
-     * @param report The output location to report the failure.
+     * @param outcomes The outcomes the result of the guard is recorded in.
      */
-    private void reportGuardFailure(final Guard chGuard, final PathEvaluationResult value, final InteroperabilityReport report) {
-        switch (chGuard.getType()) {
-            case EQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be equal to the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case NOTEQUALS:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be not equal to the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case GREATERTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be greater than the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case LESSTHAN:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to be less than the guard value: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case REGEX:
-                report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' is '" + value.getValue().toString() + "', while it was supposed to match the regular expression: '" + chGuard.getGuardCompare() + "'");
-                break;
-            case CONTAINS:
-                if (value.getType() == DataFormat.XML){
-                    List<Node> nodesList = (List<Node>) value.getValue();
-
-                    if (nodesList.isEmpty()){
-                        report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' doesn't contain any child fields");
-                    }
-                    else {
-                        String msg = "Guard test failed: '" + chGuard.getGuardLabel() + "' contains child fields (";
-
-                        for (int i=0; i<nodesList.size()-1; i++){
-                            msg += "'" + nodesList.get(i).getNodeName() + "' ";
-                        }
-
-                        msg += "'" + nodesList.get(nodesList.size()-1).getNodeName() + "') but doesn't contain child field '" + chGuard.getGuardCompare() + "'";
-                        report.printtabline(msg);
-                    }
-                }
-                else if (value.getType() == DataFormat.JSON) {
-                    List<String> childFields = (List<String>) value.getValue();
-                    if (childFields.isEmpty()){
-                        report.printtabline("Guard test failed: '" + chGuard.getGuardLabel() + "' doesn't contain any child fields");
-                    }
-                    else {
-                        String msg = "Guard test failed: '" + chGuard.getGuardLabel() + "' contains child fields (";
-
-                        for (int i=0; i < childFields.size()-1; i++){
-                            msg += "'" + childFields.get(i) + "' ";
-                        }
-
-                        msg += "'" + childFields.get(childFields.size()-1) + "') but doesn't contain child field '" + chGuard.getGuardCompare() + "'";
-                        report.printtabline(msg);
-                    }
-                }
-
-                break;
-            default:
-                report.printtabline("Guard test failed!");
+    private void reportGuardFailure(final Guard chGuard, final PathEvaluationResult value, final GuardOutcomes outcomes) {
+        if (chGuard.getType() != Guard.ComparisonType.CONTAINS || value.getValue() != null) {
+            outcomes.record(TraceEvent.contentFailed(chGuard, value.getValue()));
         }
     }
 
@@ -523,52 +712,116 @@ public class StateNode implements State {
      * The guard failure(due to an exception) is reported to the interoperability report.
      * @param chGuard The rule that has failed.
      * @param value The input to the failed rule.
-     * @param report The output location to report the failure.
+     * @param outcomes The outcomes the result of the guard is recorded in.
      * @param ex The exception, which caused the guard to fail
      */
-    private void reportGuardFailure(final InteroperabilityReport report, Exception ex){
-        report.printtabline("Guard test failed due to the following error:");
-        report.printtabline(ex.getMessage());
+    private void reportGuardFailure(final GuardOutcomes outcomes, final Exception ex){
+        outcomes.record(TraceEvent.error(ex.getMessage()));
+    }
+
+    /**
+     * Get the value of a parameter of an event; the value of an event's own
+     * parameters is read without creating a Parameter for it.
+     * @param conditions The parameters of the event.
+     * @param name The parameter name.
+     * @return The value, or null if there is no such parameter.
+     */
+    static String valueOf(final Map<String, Parameter> conditions, final String name) {
+        if (conditions instanceof EventParameters) {
+            return ((EventParameters) conditions).getValue(name);
+        }
+        final Parameter value = conditions.get(name);
+        return value == null ? null : value.getValue();
+    }
+
+    /**
+     * Get the body of the event that content guards are evaluated against.
+     * The event's own data body is used so that its parsed document is
+     * shared by every guard; a body is only created if the event's content
+     * parameter has been replaced. The body is not decoded to check this:
+     * the content parameter still refers to the same body.
+     * @param input The event.
+     * @param conditions The parameters of the event.
+     * @return The content to evaluate.
+     */
+    private static Content contentOf(final MsgEvent input, final Map<String, Parameter> conditions) {
+        final Content body = input.getDataBody();
+        if (body != null && conditions instanceof EventParameters
+                && ((EventParameters) conditions).getContent() == body) {
+            return body;
+        }
+        final String value = valueOf(conditions, CONTENTLABEL);
+        if (body != null && value == null) {
+            return body;
+        }
+        return new Content(valueOf(conditions, "http.content-type"), value);
+    }
+
+    /**
+     * Get the document a content path is evaluated against: the matches of
+     * the state's single pass over the body when they answer the path,
+     * otherwise the matches of streaming the path from a large body, or the
+     * parsed body.
+     * @param body The message content of the event.
+     * @param path The content path.
+     * @param xml True for an xml body, false for json.
+     * @param children True if the child field names at the path are read.
+     * @param outcomes The evaluation reading the document.
+     * @return The document to evaluate the path against.
+     */
+    private Object documentFor(final Content body, final String path, final boolean xml,
+            final boolean children, final GuardOutcomes outcomes) {
+        final MultiPathMatcher.Matches matches = body.getMatches(xml ? this.xmlMatcher : this.jsonMatcher);
+        if (matches != null && (children ? matches.children(path) : matches.value(path)) != null) {
+            return matches;
+        }
+        if (xml) {
+            final MultiPathMatcher.Matches streamed = children ? null : body.streamXmlPath(path);
+            return streamed != null ? streamed : outcomes.xmlDocument(body);
+        }
+        return children ? body.getJsonDocument() : body.getJsonDocument(path);
     }
 
     /**
      * Evaluate a guard based on the contains operation.
      * @param chGuard The guard to evaluate
      * @param conditions The set of events
-     * @param report The output report stream
+     * @param body The message content of the event
+     * @param outcomes The outcomes the result of the guard is recorded in.
      * @return True if the guard is true.
      */
     private boolean guardContainsEvaluation(final Guard chGuard, final Map<String, Parameter> conditions,
-            final InteroperabilityReport report) {
+            final Content body, final GuardOutcomes outcomes) {
 
         if (chGuard.getGuardLabel().startsWith(CONTENTLABEL)) {
-            final String xpathExp = chGuard.getGuardLabel().substring(8, chGuard.getGuardLabel().length() - 1);
-            final Parameter value = conditions.get(CONTENTLABEL);
-            final Parameter dataType = conditions.get("http.content-type");
+            final String xpathExp = chGuard.getContentPath();
+            final String dataType = valueOf(conditions, "http.content-type");
             PathEvaluationResult evaluationResult;
-            if (dataType.getValue().contains("xml")) {
+            if (dataType.contains("xml")) {
                 try {
-                    evaluationResult = XML.xmlContains(value.getValue(), xpathExp, chGuard.getGuardCompare());
+                    evaluationResult = XML.xmlContains(documentFor(body, xpathExp, true, true, outcomes), xpathExp,
+                            chGuard.getGuardCompare());
                     if (!evaluationResult.getResult()) {
-                        reportGuardFailure(chGuard, evaluationResult, report);
+                        reportGuardFailure(chGuard, evaluationResult, outcomes);
                         return false;
                     }
                 }
                 catch (InvalidXPathException ex) {
-                    reportGuardFailure(report, ex);
+                    reportGuardFailure(outcomes, ex);
                     return false;
                 }
             }
-            else if (dataType.getValue().contains("json")) {
+            else if (dataType.contains("json")) {
                 try {
-                    evaluationResult = JSON.containsJSON(value.getValue(), xpathExp, chGuard.getGuardCompare());
+                    evaluationResult = JSON.containsJSON(documentFor(body, xpathExp, false, true, outcomes), xpathExp,
+                            chGuard.getGuardCompare());
                     if (!evaluationResult.getResult()) {
-                        reportGuardFailure(chGuard, evaluationResult, report);
+                        reportGuardFailure(chGuard, evaluationResult, outcomes);
                         return false;
                     }
                 }
                 catch (InvalidJSONPathException ex) {
-                    reportGuardFailure(report, ex);
+                    reportGuardFailure(outcomes, ex);
                     return false;
                 }
             }
@@ -577,13 +830,13 @@ public class StateNode implements State {
             try {
                 final Object compareVal = conditions;
                 if (!chGuard.evaluate(compareVal)) {
-                    report.printtabline("Guard test failed: " + chGuard.getGuardLabel() + " doesn't contain " + chGuard.getGuardCompare());
+                    outcomes.record(TraceEvent.notContained(chGuard));
                     return false;
                 }
             } catch (InvalidInputException ex) {
                 return false;
             } catch (InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
+                reportGuardFailure(outcomes, ex);
                 return false;
             }
         }
@@ -603,7 +856,7 @@ public class StateNode implements State {
             return Integer.valueOf(chGuard.getGuardCompare());
         }
 
-        final String xpathExp = chGuard.getGuardLabel().substring(8, chGuard.getGuardLabel().length() - 1);
+        final String xpathExp = chGuard.getContentPath();
 //        final Parameter value = conditions.get(CONTENTLABEL);
 //        final Parameter dataType = conditions.get("http.content-type");
 //        if (dataType.getValue().contains("xml")) {
@@ -624,99 +877,101 @@ public class StateNode implements State {
      * Evaluate the guard content.
      * @param chGuard The guard to evaluate with.
      * @param conditions The list of conditions that occurred from the event.
-     * @param report The output stream to output the data.
+     * @param body The message content of the event.
+     * @param outcomes The outcomes the result of the guard is recorded in.
      * @return True if all guards evaluate against the conditions.
      */
     private boolean contentEvaluation(final Guard chGuard, final Map<String, Parameter> conditions,
-            final InteroperabilityReport report) {
-        final String pathExp = chGuard.getGuardLabel().substring(8, chGuard.getGuardLabel().length() - 1);
-        final Parameter value = conditions.get(CONTENTLABEL);
-        final Parameter dataType = conditions.get("http.content-type");
+            final Content body, final GuardOutcomes outcomes) {
+        final String pathExp = chGuard.getContentPath();
+        final String dataType = valueOf(conditions, "http.content-type");
         PathEvaluationResult pathResult;
-        if (dataType.getValue().contains("xml")) {
+        if (dataType.contains("xml")) {
+            final Object document = documentFor(body, pathExp, true, false, outcomes);
             try {
                 Object exprValue = null;
                 if(null != chGuard.getType()) switch (chGuard.getType()) {
                     case NOTEQUALS:
-                        pathResult = XML.xmlAssert(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = XML.xmlAssert(document, pathExp, chGuard.getGuardCompare());
                         if (pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case EQUALS:
-                        pathResult = XML.xmlAssert(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = XML.xmlAssert(document, pathExp, chGuard.getGuardCompare());
                         if (!pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case GREATERTHAN:
-                        pathResult = XML.xmlCompare(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
+                        pathResult = XML.xmlCompare(document, pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
                         if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case LESSTHAN:
-                        pathResult = XML.xmlCompare(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
+                        pathResult = XML.xmlCompare(document, pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
                         if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case REGEX:
-                        pathResult = XML.xmlRegex(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = XML.xmlRegex(document, pathExp, chGuard.getGuardCompare());
                         if (!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     default:
-                        reportGuardFailure(report, new InvalidInputException("Unknown condition type"));
+                        reportGuardFailure(outcomes, new InvalidInputException("Unknown condition type"));
                         return false;
                 }
             }
             catch (InvalidXPathException | InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
+                reportGuardFailure(outcomes, ex);
                 return false;
             }
         }
-        else if (dataType.getValue().contains("json")) {
+        else if (dataType.contains("json")) {
+            final Object document = documentFor(body, pathExp, false, false, outcomes);
             try {
                 if(null != chGuard.getType()) switch (chGuard.getType()) {
                     case NOTEQUALS:
-                        pathResult = JSON.assertJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = JSON.assertJSON(document, pathExp, chGuard.getGuardCompare());
                         if (pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case EQUALS:
-                        pathResult = JSON.assertJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = JSON.assertJSON(document, pathExp, chGuard.getGuardCompare());
                         if (!pathResult.getResult()) {
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case GREATERTHAN:
-                        pathResult = JSON.compareJSON(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
+                        pathResult = JSON.compareJSON(document, pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.GREATERTHAN);
                         if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case LESSTHAN:
-                        pathResult = JSON.compareJSON(value.getValue(), pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
+                        pathResult = JSON.compareJSON(document, pathExp, chGuard.getGuardCompare(), Guard.ComparisonType.LESSTHAN);
                         if(!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     case REGEX:
-                        pathResult = JSON.regexJSON(value.getValue(), pathExp, chGuard.getGuardCompare());
+                        pathResult = JSON.regexJSON(document, pathExp, chGuard.getGuardCompare());
                         if (!pathResult.getResult()){
-                            reportGuardFailure(chGuard, pathResult, report);
+                            reportGuardFailure(chGuard, pathResult, outcomes);
                             return false;
                         }   break;
                     default:
-                        reportGuardFailure(report, new InvalidInputException("Unknown condition type"));
+                        reportGuardFailure(outcomes, new InvalidInputException("Unknown condition type"));
                         return false;
                 }
             }
             catch (InvalidJSONPathException | InvalidRegexException ex) {
-                reportGuardFailure(report, ex);
+                reportGuardFailure(outcomes, ex);
                 return false;
             }
         }
@@ -730,7 +985,7 @@ public class StateNode implements State {
      * Evaluate the guards on a transition of this state.
      * @param checks The list of guards to evaluate with.
      * @param conditions The list of conditions that occurred from the event.
-     * @param report The output stream to output the data.
+     * @param outcomes The outcomes the result of the guard is recorded in.
      * @return True if all guards evaluate against the conditions.
      */
     private boolean evaluateCounterGuards(final Guard chGuard, final InteroperabilityReport report) {
@@ -739,7 +994,7 @@ public class StateNode implements State {
             comparitor = Integer.valueOf(chGuard.getGuardCompare());
         }
         else if (chGuard.getGuardLabel().contains("$$")) {
-            comparitor = Integer.valueOf(getStateValue(chGuard.getGuardLabel()));
+            comparitor = Integer.valueOf(getStateValue(chGuard.getGuardLabel(), null));
         }
 
         if (this.counter == comparitor) {
@@ -752,107 +1007,277 @@ public class StateNode implements State {
 
 
     /**
-     * Evaluate the guards on a transition of this state.
-     * @param checks The list of guards to evaluate with.
-     * @param conditions The list of conditions that occurred from the event.
-     * @param report The output stream to output the data.
+     * Evaluate the guards on a transition of this state. The guards are run
+     * in the transition's evaluation order, cheapest first, and evaluation
+     * stops at the first guard that fails. Each guard's outcome is recorded
+     * by the declared position of the guard.
+     * @param evTrans The transition whose guards are evaluated.
+     * @param input The event whose parameters and content are evaluated.
+     * @param outcomes The outcomes the results of the guards are recorded in.
+     * @param abandoned True once the result is no longer needed, in which
+     * case the evaluation stops at the next guard; may be null.
      * @return True if all guards evaluate against the conditions.
      */
-    private boolean evaluateGuards(final List<Guard> checks,
-            final Map<String, Parameter> conditions, final InteroperabilityReport report) {
+    private boolean evaluateGuards(final Transition evTrans,
+            final MsgEvent input, final GuardOutcomes outcomes,
+            final BooleanSupplier abandoned) {
 
-        report.printtabline("Evaluating " + checks.size() +  " guards");
+        final List<Guard> checks = evTrans.listGuards();
+        final Map<String, Parameter> conditions = input.getParameterMap();
+        final Content body = contentOf(input, conditions);
 
-        final Iterator<Guard> itCheck = checks.iterator();
-        while (itCheck.hasNext()) {
-            try {
-                final Guard chGuard = itCheck.next();
-                if (chGuard.getGuardCompare().contains("$$")) {
-                    if (chGuard.getGuardCompare().contains(XMLStateMachine.DATA_TAG)){
-                        try {
-                            chGuard.setGuardCompare(getData(chGuard.getGuardCompare()));
-                        }
-                        catch (InvalidPatternReferenceException ex){
-                            chGuard.setGuardCompare(null);
-                        }
-                    }
-                    else {
-                        chGuard.setGuardCompare(getStateValue(chGuard.getGuardCompare()));
-                    }
+        final int[] order = evTrans.getEvaluationOrder();
+        for (int i = 0; i < checks.size(); i++) {
+            if (abandoned != null && abandoned.getAsBoolean()) {
+                return false;
+            }
+            final int position = order == null ? i : order[i];
+            outcomes.moveTo(position);
+            if (!evaluateGuard(checks.get(position), conditions, body, outcomes)) {
+                return false;
+            }
+        }
+        outcomes.pass();
+        return true;
+    }
+
+    /**
+     * The outcome of the evaluation of a transition: the outcome of each
+     * guard, held by its declared position, and whether the transition
+     * passed. It is added to the report in declared order, whatever order
+     * the guards were run in. An evaluation that runs alongside those of
+     * other transitions on other threads also holds the DOMs it reads, as
+     * a DOM is not safe to read on several threads at once.
+     */
+    private static final class GuardOutcomes implements SpeculativeEvaluator.Outcome {
+
+        /**
+         * The transition evaluated.
+         */
+        private final Transition transition;
+
+        /**
+         * The outcome of each guard; null if it has not been evaluated or
+         * failed without a report line.
+         */
+        private final TraceEvent[] events;
+
+        /**
+         * True if other threads evaluate guards on the same event.
+         */
+        private final boolean isolated;
+
+        /**
+         * The xml documents parsed by this evaluation; null until one is
+         * read by an isolated evaluation.
+         */
+        private Map<Content, Document> documents;
+
+        /**
+         * The position of the guard being evaluated.
+         */
+        private int position;
+
+        /**
+         * True once every guard has passed.
+         */
+        private boolean passed;
+
+        /**
+         * Construct the outcomes of a transition.
+         * @param evTrans The transition evaluated.
+         * @param own True if the evaluation parses its own documents.
+         */
+        GuardOutcomes(final Transition evTrans, final boolean own) {
+            this.transition = evTrans;
+            this.events = new TraceEvent[evTrans.listGuards().size()];
+            this.isolated = own;
+        }
+
+        /**
+         * Start recording the outcome of a guard.
+         * @param guard The declared position of the guard.
+         */
+        void moveTo(final int guard) {
+            this.position = guard;
+        }
+
+        /**
+         * Record the outcome of the guard being evaluated.
+         * @param event The outcome.
+         */
+        void record(final TraceEvent event) {
+            events[position] = event;
+        }
+
+        /**
+         * Record that every guard passed.
+         */
+        void pass() {
+            this.passed = true;
+        }
+
+        /**
+         * Get the xml document of a body for this evaluation to read: the
+         * body's shared document, or a document parsed for this evaluation
+         * alone if it is isolated.
+         * @param body The message content.
+         * @return The document or null if the data is not valid xml.
+         */
+        Document xmlDocument(final Content body) {
+            if (!isolated) {
+                return body.getXmlDocument();
+            }
+            if (documents == null) {
+                documents = new IdentityHashMap<>();
+            }
+            if (!documents.containsKey(body)) {
+                documents.put(body, body.parseXmlDocument());
+            }
+            return documents.get(body);
+        }
+
+        @Override
+        public boolean passed() {
+            return passed;
+        }
+
+        @Override
+        public void reportTo(final InteroperabilityReport report) {
+            report.trace(TraceEvent.guards(events.length));
+            for (TraceEvent event : events) {
+                if (event != null) {
+                    report.trace(event);
                 }
+            }
+            if (passed) {
+                report.println("Transition to state " + transition.readLabel() + " successful");
+            }
+        }
+    }
 
-                if (chGuard.getType() == Guard.ComparisonType.CONTAINS) {
-                    if (!guardContainsEvaluation(chGuard, conditions, report)) {
-                        return false;
-                    }
+    /**
+     * Evaluate one guard of a transition against an event.
+     * @param guard The guard to evaluate.
+     * @param conditions The parameters of the event.
+     * @param body The message content of the event.
+     * @param outcomes The outcomes the result of the guard is recorded in.
+     * @return True if the guard evaluates to true.
+     */
+    private boolean evaluateGuard(final Guard guard, final Map<String, Parameter> conditions,
+            final Content body, final GuardOutcomes outcomes) {
+        try {
+            final Guard chGuard = bind(guard, outcomes);
+
+            if (chGuard.getType() == Guard.ComparisonType.CONTAINS) {
+                if (!guardContainsEvaluation(chGuard, conditions, body, outcomes)) {
+                    return false;
                 }
-                else if (chGuard.getGuardLabel().startsWith(CONTENTLABEL)) {
-                    if (!contentEvaluation(chGuard, conditions, report)) {
-                        return false;
-                    }
+            }
+            else if (chGuard.getType() == Guard.ComparisonType.VALIDATES) {
+                if (!validatesEvaluation(chGuard, conditions, body, outcomes)) {
+                    return false;
                 }
-                else {
-                    final Parameter value = conditions.get(chGuard.getGuardLabel());
-                    if (value == null) {
-                        report.printtabline("Guard test failed: " + chGuard.getGuardLabel() + " is not part of message");
-                        return false;
-                    }
-                    final Object compareVal = value.getValue();
-                   System.out.println(compareVal);
-                   System.out.println(chGuard.getGuardCompare());
-                    try {
-                        if (!chGuard.evaluate(compareVal)) {
-                            reportGuardFailure(chGuard, value, report);
-                            return false;
-                        }
-                    }
-                    catch (InvalidRegexException ex) {
-                        reportGuardFailure(report, ex);
-                        return false;
-                    }
+            }
+            else if (chGuard.getGuardLabel().startsWith(CONTENTLABEL)) {
+                if (!contentEvaluation(chGuard, conditions, body, outcomes)) {
+                    return false;
                 }
-
-                String originalGuardCompare = chGuard.getGuardCompare();
-                if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)){
-                    chGuard.setGuardCompare(originalGuardCompare + "ms");
+            }
+            else {
+                final String compareVal = valueOf(conditions, chGuard.getGuardLabel());
+                if (compareVal == null && !conditions.containsKey(chGuard.getGuardLabel())) {
+                    outcomes.record(TraceEvent.absent(chGuard));
+                    return false;
                 }
-                switch (chGuard.getType()) {
-                    case NOTEQUALS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is not equal to '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case EQUALS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is equal to '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case GREATERTHAN:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is greater than '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case LESSTHAN:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is less than '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case CONTAINS:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' contains child field '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    case REGEX:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' matches the regular expression '" + chGuard.getGuardCompare() + "'");
-                        break;
-                    default:
-                        report.printtabline("Guard test succeeded: '" + chGuard.getGuardLabel() + "' is '" + chGuard.getGuardCompare() + "'");
-                        break;
+                try {
+                    if (!chGuard.evaluate(compareVal)) {
+                        reportGuardFailure(chGuard, compareVal, outcomes);
+                        return false;
+                    }
                 }
-                if (chGuard.getGuardLabel().equalsIgnoreCase(RESTEvent.RESPONSE_TIME)){
-                    chGuard.setGuardCompare(originalGuardCompare);
+                catch (InvalidRegexException ex) {
+                    reportGuardFailure(outcomes, ex);
+                    return false;
                 }
             }
-            catch (InvalidInputException ex) {
-                ServiceLogger.LOG.error("Invalid guard test specification", ex);
+
+            outcomes.record(TraceEvent.succeeded(chGuard));
+        }
+        catch (InvalidInputException ex) {
+            ServiceLogger.LOG.error("Invalid guard test specification", ex);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate a guard that the message content, or an event parameter,
+     * complies with a schema. The schema is compiled once, with the guard;
+     * the first error found is reported.
+     * @param chGuard The guard to evaluate.
+     * @param conditions The parameters of the event.
+     * @param body The message content of the event.
+     * @param outcomes The outcomes the result of the guard is recorded in.
+     * @return True if the document validates.
+     */
+    private boolean validatesEvaluation(final Guard chGuard, final Map<String, Parameter> conditions,
+            final Content body, final GuardOutcomes outcomes) {
+        final String document;
+        if (chGuard.getGuardLabel().equalsIgnoreCase(CONTENTLABEL)) {
+            document = body == null ? null : body.getData();
+        } else {
+            document = valueOf(conditions, chGuard.getGuardLabel());
+            if (document == null && !conditions.containsKey(chGuard.getGuardLabel())) {
+                outcomes.record(TraceEvent.absent(chGuard));
                 return false;
             }
         }
-        return true;
+        try {
+            final String error = chGuard.explain(document);
+            if (error != null) {
+                outcomes.record(TraceEvent.invalid(chGuard, error));
+                return false;
+            }
+            return true;
+        } catch (InvalidInputException ex) {
+            reportGuardFailure(outcomes, ex);
+            return false;
+        }
     }
 
     @Override
     public final MsgEvent getStoredEvent() {
         return this.savedEvent;
     }
+
+    /**
+     * Set whether the candidate transitions of an event are evaluated in
+     * parallel, whatever the parallel_transitions property. Takes effect
+     * until the transitions are next compiled.
+     * @param parallel True to evaluate the candidates in parallel.
+     */
+    public final void setSpeculative(final boolean parallel) {
+        this.speculative = parallel;
+    }
+
+    @Override
+    public final void setRetention(final CaptureProjection fields) {
+        this.retention = fields;
+    }
+
+    @Override
+    public final void setStoredEvent(final MsgEvent event) {
+        final MsgEvent previous = this.savedEvent;
+        if (event == previous) {
+            return;
+        }
+        if (event != null) {
+            event.retain();
+        }
+        this.savedEvent = event;
+        if (previous != null) {
+            previous.release();
+        }
+    }
 }
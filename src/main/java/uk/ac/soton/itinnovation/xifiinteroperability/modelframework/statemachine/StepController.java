@@ -0,0 +1,311 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Controls the stepwise execution of a state machine for debugging: pause,
+ * resume, step one transition, run to a state, and breakpoints on states
+ * and on transitions. A paused machine waits on a condition (or, when run on
+ * a SessionScheduler, is simply not resumed), so it uses no CPU however
+ * long it is paused.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class StepController {
+
+    /**
+     * Separates the two labels of a transition breakpoint.
+     */
+    private static final String ARROW = "->";
+
+    /**
+     * Guards the pause state.
+     */
+    private final transient ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when the machine may proceed or is stopped.
+     */
+    private final transient Condition released = lock.newCondition();
+
+    /**
+     * True while paused.
+     */
+    private transient volatile boolean paused;
+
+    /**
+     * The number of transitions allowed while paused.
+     */
+    private transient volatile int steps;
+
+    /**
+     * The label of the state to pause at; null for none.
+     */
+    private transient volatile String runTo;
+
+    /**
+     * Labels of the states to pause on entering.
+     */
+    private final transient Set<String> stateBreakpoints = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Transitions (from->to labels) to pause after.
+     */
+    private final transient Set<String> transitionBreakpoints = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Called when the machine may proceed after a pause.
+     */
+    private transient volatile Runnable onRelease;
+
+    /**
+     * Create a step controller.
+     * @param stepwise True to pause after every transition (the first
+     * transition is allowed), as in the step by step execution mode.
+     */
+    public StepController(final boolean stepwise) {
+        this.paused = stepwise;
+        this.steps = stepwise ? 1 : 0;
+    }
+
+    /**
+     * Pause before the next transition.
+     */
+    public final void pause() {
+        lock.lock();
+        try {
+            paused = true;
+            steps = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Resume free running execution; breakpoints remain set.
+     */
+    public final void resume() {
+        lock.lock();
+        try {
+            paused = false;
+            steps = 0;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyRelease();
+    }
+
+    /**
+     * Allow one transition and pause again after it.
+     */
+    public final void step() {
+        lock.lock();
+        try {
+            if (!paused) {
+                return;
+            }
+            steps++;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyRelease();
+    }
+
+    /**
+     * Run until the given state is entered.
+     * @param label The label of the state to pause at.
+     */
+    public final void runToState(final String label) {
+        lock.lock();
+        try {
+            runTo = label.toLowerCase(Locale.ENGLISH);
+            paused = false;
+            steps = 0;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        notifyRelease();
+    }
+
+    /**
+     * Whether the machine is paused (and has no step to take).
+     * @return True if paused.
+     */
+    public final boolean isPaused() {
+        return paused && steps == 0;
+    }
+
+    /**
+     * Pause whenever the given state is entered.
+     * @param label The state label.
+     */
+    public final void addStateBreakpoint(final String label) {
+        stateBreakpoints.add(label.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Remove a state breakpoint.
+     * @param label The state label.
+     */
+    public final void removeStateBreakpoint(final String label) {
+        stateBreakpoints.remove(label.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Pause whenever the transition between two states is taken.
+     * @param from The label of the state the transition leaves.
+     * @param to The label of the state the transition enters.
+     */
+    public final void addTransitionBreakpoint(final String from, final String to) {
+        transitionBreakpoints.add(transitionKey(from, to));
+    }
+
+    /**
+     * Remove a transition breakpoint.
+     * @param from The label of the state the transition leaves.
+     * @param to The label of the state the transition enters.
+     */
+    public final void removeTransitionBreakpoint(final String from, final String to) {
+        transitionBreakpoints.remove(transitionKey(from, to));
+    }
+
+    /**
+     * Remove all breakpoints.
+     */
+    public final void clearBreakpoints() {
+        stateBreakpoints.clear();
+        transitionBreakpoints.clear();
+    }
+
+    /**
+     * The key of a transition breakpoint.
+     * @param from The label of the state the transition leaves.
+     * @param to The label of the state the transition enters.
+     * @return The key.
+     */
+    private static String transitionKey(final String from, final String to) {
+        return (from + ARROW + to).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Set the action that resumes the machine after a pause; used by
+     * machines run on a scheduler.
+     * @param action The action; may be null.
+     */
+    final void setOnRelease(final Runnable action) {
+        this.onRelease = action;
+    }
+
+    /**
+     * Run the release action.
+     */
+    private void notifyRelease() {
+        final Runnable action = onRelease;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Whether the machine may take its next transition. Non-blocking.
+     * @return True if not paused or a step is allowed.
+     */
+    final boolean mayProceed() {
+        return !paused || steps > 0;
+    }
+
+    /**
+     * Block until the machine may take its next transition or is stopped.
+     * @param stopped True once the machine is stopped.
+     * @throws InterruptedException The waiting thread was interrupted; the
+     * machine should stop rather than wait again.
+     */
+    final void awaitProceed(final BooleanSupplier stopped) throws InterruptedException {
+        lock.lock();
+        try {
+            while (paused && steps == 0 && !stopped.getAsBoolean()) {
+                released.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wake a blocked awaitProceed() e.g. because the machine was stopped.
+     */
+    final void wakeWaiters() {
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record a transition: consume a step and pause if it hits a breakpoint
+     * or the run to state.
+     * @param from The state left.
+     * @param to The state entered.
+     */
+    final void transitionTaken(final State from, final State to) {
+        if (!paused && runTo == null && stateBreakpoints.isEmpty()
+                && transitionBreakpoints.isEmpty()) {
+            return;
+        }
+        final String label = to.getLabel().toLowerCase(Locale.ENGLISH);
+        lock.lock();
+        try {
+            if (paused && steps > 0) {
+                steps--;
+            }
+            if (label.equals(runTo) || stateBreakpoints.contains(label)
+                    || transitionBreakpoints.contains(transitionKey(from.getLabel(), label))) {
+                runTo = null;
+                paused = true;
+                steps = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -41,13 +41,13 @@ public class Timeout {
     /**
      * The length of the timeout guard in milliseconds.
      */
-    private final transient int timeoutLength;
+    private final transient long timeoutLength;
 
     /**
      * Get the length of the timeout.
      * @return The timeout length.
      */
-    public final int getTimeoutLength() {
+    public final long getTimeoutLength() {
         return timeoutLength;
     }
 
@@ -64,13 +64,37 @@ public class Timeout {
         return timeoutTo;
     }
 
+    /**
+     * The state in the timed automaton to transition to.
+     */
+    private final transient State timeoutTarget;
+
+    /**
+     * Get the state to transition to on timeout.
+     * @return The state.
+     */
+    public final State getTimeoutTarget() {
+        return timeoutTarget;
+    }
+
     /**
      * Create a new timeout guard.
      * @param timeout The timeout length.
      * @param failTo The condition state to exception to.
      */
-    public Timeout(final int timeout, final String failTo) {
+    public Timeout(final long timeout, final String failTo) {
+        this(timeout, failTo, null);
+    }
+
+    /**
+     * Create a new timeout guard with the resolved state to transition to.
+     * @param timeout The timeout length.
+     * @param failTo The label of the condition state to exception to.
+     * @param target The condition state to exception to.
+     */
+    public Timeout(final long timeout, final String failTo, final State target) {
         this.timeoutLength = timeout;
         this.timeoutTo = failTo;
+        this.timeoutTarget = target;
     }
 }
@@ -68,6 +68,8 @@ public class TraceCapture implements EventCapture {
 
     @Override
     public final void pushEvent(final MsgEvent httpMessage) {
+        // The trace keeps its events, so a body stored off the heap is held
+        httpMessage.retain();
         resourceName.add(httpMessage);
     }
 
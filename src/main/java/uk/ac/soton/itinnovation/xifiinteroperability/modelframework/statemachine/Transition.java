@@ -27,6 +27,7 @@
 package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
@@ -56,6 +57,12 @@ public class Transition {
      */
     private transient String transitionLabel;
 
+    /**
+     * The state the transition is directed at; resolved from the label when
+     * the state machine is assembled.
+     */
+    private transient State target;
+
     /**
      * The list of guard transitions attached to the transition.
      */
@@ -112,6 +119,22 @@ public class Transition {
         return this.transitionLabel;
     }
 
+    /**
+     * Get the state the transition is directed at.
+     * @return The to state, or null before the state machine is assembled.
+     */
+    public final State getTarget() {
+        return this.target;
+    }
+
+    /**
+     * Set the state the transition is directed at.
+     * @param state The to state.
+     */
+    public final void setTarget(final State state) {
+        this.target = state;
+    }
+
     /**
      * Set the message trigger.
      * @param rMesg The Rest message to send.
@@ -145,6 +168,42 @@ public class Transition {
         return this.conditions;
     }
 
+    /**
+     * Positions of the guards in the order they are evaluated; null when
+     * they are evaluated in declaration order.
+     */
+    private transient int[] evaluationOrder;
+
+    /**
+     * Order the guards for evaluation, cheapest first (see Guard.getCost), so
+     * that an event is rejected by a cheap guard before an expensive one is
+     * run. Guards of equal cost keep their declaration order.
+     */
+    public final void compileEvaluationOrder() {
+        final Integer[] order = new Integer[this.conditions.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> Integer.compare(this.conditions.get(first).getCost(),
+                this.conditions.get(second).getCost()));
+        boolean reordered = false;
+        final int[] positions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            positions[i] = order[i];
+            reordered |= positions[i] != i;
+        }
+        this.evaluationOrder = reordered ? positions : null;
+    }
+
+    /**
+     * Get the order the guards are evaluated in.
+     * @return The guard positions in evaluation order, or null if the guards
+     * are evaluated in declaration order.
+     */
+    public final int[] getEvaluationOrder() {
+        return this.evaluationOrder;
+    }
+
     /**
      * Get a guard with a specific id.
      * @param label The label/id of the guard.
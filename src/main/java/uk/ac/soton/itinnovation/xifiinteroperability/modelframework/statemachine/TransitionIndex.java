@@ -0,0 +1,245 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+// Created By : Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+
+/**
+ * Dispatch index over the outgoing transitions of a state. Most transitions
+ * of a large state are distinguished by an equality guard on the same event
+ * field (e.g. http.msg, http.code, http.from or coap.code). The index maps
+ * each compared value of that field to the transitions that could match it,
+ * so that an event is only evaluated against its candidate transitions.
+ *
+ * Candidates are kept in declaration order, hence the first transition that
+ * matches is the same as with a full scan.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+final class TransitionIndex {
+
+    /**
+     * Prefix of guards on the message body; these are never indexed.
+     */
+    private static final String CONTENTLABEL = "content";
+
+    /**
+     * The event field that the index is keyed on.
+     */
+    private final transient String keyLabel;
+
+    /**
+     * Folded guard value to the positions of the candidate transitions,
+     * including those without a guard on the key field.
+     */
+    private final transient Map<String, int[]> byValue;
+
+    /**
+     * The positions of transitions that do not guard the key field; the
+     * candidates for any value that is not in the index.
+     */
+    private final transient int[] wildcard;
+
+    /**
+     * The positions of transitions that can match an event without the
+     * key field.
+     */
+    private final transient int[] absent;
+
+    /**
+     * Construct the index.
+     * @param label The event field indexed.
+     * @param values The candidates of each folded value.
+     * @param others The transitions that do not guard the field.
+     * @param missing The candidates for events without the field.
+     */
+    private TransitionIndex(final String label, final Map<String, int[]> values,
+            final int[] others, final int[] missing) {
+        this.keyLabel = label;
+        this.byValue = values;
+        this.wildcard = others;
+        this.absent = missing;
+    }
+
+    /**
+     * Build the index of a state's transitions.
+     * @param transitions The outgoing transitions in declaration order.
+     * @return The index or null if no event field discriminates at least
+     * two transitions, in which case a full scan is just as cheap.
+     */
+    static TransitionIndex build(final List<Transition> transitions) {
+        final Map<String, Integer> usage = new HashMap();
+        for (Transition transition : transitions) {
+            final List<String> seen = new ArrayList();
+            for (Guard guard : transition.listGuards()) {
+                if (isIndexable(guard) && !seen.contains(guard.getGuardLabel())) {
+                    seen.add(guard.getGuardLabel());
+                    usage.merge(guard.getGuardLabel(), 1, Integer::sum);
+                }
+            }
+        }
+        String label = null;
+        int best = 1;
+        for (Map.Entry<String, Integer> entry : usage.entrySet()) {
+            if (entry.getValue() > best) {
+                best = entry.getValue();
+                label = entry.getKey();
+            }
+        }
+        if (label == null) {
+            return null;
+        }
+
+        final Map<String, List<Integer>> keyed = new HashMap();
+        final List<Integer> others = new ArrayList();
+        final List<Integer> missing = new ArrayList();
+        for (int i = 0; i < transitions.size(); i++) {
+            final List<Guard> guards = transitions.get(i).listGuards();
+            if (guards.isEmpty()) {
+                continue;
+            }
+            final String value = requiredValue(guards, label);
+            if (value == null) {
+                others.add(i);
+                if (!guardsField(guards, label)) {
+                    missing.add(i);
+                }
+            } else {
+                keyed.computeIfAbsent(value, k -> new ArrayList()).add(i);
+            }
+        }
+
+        final Map<String, int[]> values = new HashMap();
+        for (Map.Entry<String, List<Integer>> entry : keyed.entrySet()) {
+            final List<Integer> merged = new ArrayList(entry.getValue());
+            merged.addAll(others);
+            merged.sort(null);
+            values.put(entry.getKey(), toArray(merged));
+        }
+        return new TransitionIndex(label, values, toArray(others), toArray(missing));
+    }
+
+    /**
+     * The positions of the transitions that could match an event, in
+     * declaration order.
+     * @param parameters The fields of the event.
+     * @return The candidate positions.
+     */
+    int[] candidates(final Map<String, Parameter> parameters) {
+        final String value = StateNode.valueOf(parameters, keyLabel);
+        if (value == null) {
+            return absent;
+        }
+        final int[] positions = byValue.get(fold(value));
+        return positions == null ? wildcard : positions;
+    }
+
+    /**
+     * Whether a guard is a literal equality test on an event field.
+     * @param guard The guard to test.
+     * @return True if the guard can key the index.
+     */
+    private static boolean isIndexable(final Guard guard) {
+        return guard.getType() == Guard.ComparisonType.EQUALS
+                && guard.getGuardLabel() != null
+                && !guard.getGuardLabel().startsWith(CONTENTLABEL)
+                && guard.getGuardCompare() != null
+                && !guard.getGuardCompare().contains("$$");
+    }
+
+    /**
+     * The folded value a transition requires of the key field.
+     * @param guards The guards of the transition.
+     * @param label The key field.
+     * @return The value, or null if the transition has no single literal
+     * equality guard on the field.
+     */
+    private static String requiredValue(final List<Guard> guards, final String label) {
+        String value = null;
+        for (Guard guard : guards) {
+            if (isIndexable(guard) && guard.getGuardLabel().equals(label)) {
+                if (value != null) {
+                    return null;
+                }
+                value = fold(guard.getGuardCompare());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Whether any guard reads the given event field; such a transition
+     * fails for events that do not carry the field.
+     * @param guards The guards of the transition.
+     * @param label The field.
+     * @return True if a guard reads the field.
+     */
+    private static boolean guardsField(final List<Guard> guards, final String label) {
+        for (Guard guard : guards) {
+            if (guard.getType() != Guard.ComparisonType.CONTAINS && label.equals(guard.getGuardLabel())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fold a value so that two values are equal exactly when
+     * String.equalsIgnoreCase (used by the equality guard) holds.
+     * @param value The value to fold.
+     * @return The folded value.
+     */
+    static String fold(final String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Convert a list of positions into an array.
+     * @param positions The positions.
+     * @return The array of positions.
+     */
+    private static int[] toArray(final List<Integer> positions) {
+        final int[] result = new int[positions.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = positions.get(i);
+        }
+        return result;
+    }
+}
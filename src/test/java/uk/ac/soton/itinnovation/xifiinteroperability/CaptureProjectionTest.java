@@ -0,0 +1,157 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidGuard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CaptureProjection;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CorrelationKey;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventDemultiplexer;
+
+/**
+ * Set of tests for the fields of a captured message that a pattern reads.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class CaptureProjectionTest {
+
+    /**
+     * Guards name the parameters they read; a body guard reads the body
+     * and its content type.
+     */
+    @Test
+    public void testGuards() {
+        CaptureProjection fields = CaptureProjection.of(Collections.<String>emptySet(), false);
+        Assert.assertFalse(fields.wantsHeaders());
+        Assert.assertFalse(fields.wantsQuery());
+        Assert.assertFalse(fields.wantsFormFields());
+        Assert.assertFalse(fields.wantsContent());
+
+        fields = fields.withGuard("http.x-device").withGuard("query.page");
+        Assert.assertTrue(fields.wants("http.x-device"));
+        Assert.assertFalse(fields.wants("http.accept"));
+        Assert.assertTrue(fields.wantsHeaders());
+        Assert.assertTrue(fields.wantsQuery());
+        Assert.assertFalse(fields.wantsFormFields());
+        Assert.assertFalse(fields.wantsContent());
+
+        fields = fields.withGuard("content[$.unit]").withGuard("username");
+        Assert.assertTrue(fields.wantsContent());
+        Assert.assertTrue(fields.wants("http.content-type"));
+        Assert.assertTrue(fields.wantsFormFields());
+        Assert.assertFalse(fields.isAll());
+    }
+
+    /**
+     * A contains guard on the parameters of an event reads the parameter
+     * its value names; fixed fields and protocol names are not form fields.
+     */
+    @Test
+    public void testContainsGuard() throws InvalidGuard {
+        CaptureProjection fields = CaptureProjection.NONE.withGuard(
+                new Guard("http", Map.class, Guard.ComparisonType.CONTAINS, "http.etag", null));
+        Assert.assertTrue(fields.wants("http.etag"));
+        Assert.assertTrue(fields.wantsHeaders());
+        Assert.assertFalse(fields.wantsFormFields());
+
+        fields = fields.withGuard("response-time").withGuard("http").withGuard("coap");
+        Assert.assertFalse(fields.wantsFormFields());
+
+        Assert.assertTrue(CaptureProjection.NONE.withGuard(
+                new Guard("http", Map.class, Guard.ComparisonType.CONTAINS, "$$A|headers|http.x-id$$", null)).isAll());
+    }
+
+    /**
+     * State references add the header or the body they read; pattern
+     * data references read no message.
+     */
+    @Test
+    public void testReferences() {
+        final CaptureProjection none = CaptureProjection.of(Arrays.asList("http.code"), false);
+        Assert.assertSame(none, none.withReferences("id=$$patterndata.id$$"));
+
+        final CaptureProjection fields = none.withReferences(
+                "{\"id\": \"$$A|headers|http.x-id$$\", \"t\": \"$$B|content|temp$$\"}");
+        Assert.assertTrue(fields.wants("http.x-id"));
+        Assert.assertTrue(fields.wants("http.code"));
+        Assert.assertTrue(fields.wantsContent());
+
+        Assert.assertSame(CaptureProjection.ALL, CaptureProjection.ALL.withGuard("http.code"));
+        Assert.assertTrue(CaptureProjection.ALL.wants("anything"));
+    }
+
+    /**
+     * A demultiplexer captures the fields of its sessions and its key.
+     */
+    @Test
+    public void testDemultiplexer() {
+        final EventDemultiplexer router = new EventDemultiplexer(CorrelationKey.header("http.x-client"), 60000);
+        Assert.assertTrue(router.getProjection().isAll());
+        router.setProjection(CaptureProjection.of(Arrays.asList("http.code"), false));
+        Assert.assertTrue(router.getProjection().wants("http.x-client"));
+        Assert.assertFalse(router.getProjection().wants("http.accept"));
+    }
+
+    /**
+     * A state keeps only the fields of its event that references to it
+     * read, or nothing.
+     */
+    @Test
+    public void testRetention() {
+        final String text = "$$A|headers|http.x-id$$/$$B|content|temp$$";
+        final CaptureProjection keptByA = CaptureProjection.NONE.withReferences(text, "A");
+        final CaptureProjection keptByC = CaptureProjection.NONE.withReferences(text, "C");
+        Assert.assertFalse(keptByA.wantsContent());
+        Assert.assertTrue(keptByC.isEmpty());
+
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(RESTEvent.HTTP_CODE, "200");
+        event.addParameter("http.x-id", "7");
+        event.addContent("application/json", "{\"temp\": 21}");
+
+        final MsgEvent stored = event.project(keptByA);
+        Assert.assertEquals("7", stored.getParameterMap().get("http.x-id").getValue());
+        Assert.assertNull(stored.getParameterMap().get(RESTEvent.HTTP_CODE));
+        Assert.assertNull(stored.getDataBody());
+
+        final MsgEvent withBody = event.project(CaptureProjection.NONE.withReferences(text, "B"));
+        Assert.assertSame(event.getDataBody(), withBody.getDataBody());
+        Assert.assertNull(event.project(keptByC));
+        Assert.assertSame(event, event.project(CaptureProjection.ALL));
+    }
+}
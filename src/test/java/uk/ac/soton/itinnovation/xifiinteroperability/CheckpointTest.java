@@ -0,0 +1,145 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.SessionScheduler;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Tests that a state machine execution resumes from a checkpoint with its
+ * current state and saved events.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class CheckpointTest {
+
+    /**
+     * How long to wait for the machine, in milliseconds.
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * Create a machine start -GET-> middle -POST-> end.
+     * @return The state machine.
+     * @throws Exception Error in the state specification.
+     */
+    private static StateMachine machine() throws Exception {
+        final Map<String, State> states = new HashMap();
+        states.put("start", state("start", StateNode.StateType.START, "middle", "GET"));
+        states.put("middle", state("middle", StateNode.StateType.NORMAL, "end", "POST"));
+        states.put("end", new StateNode("end", StateNode.StateType.END, null, null, "true"));
+        final StateMachine machine = new StateMachine(new InteroperabilityReport(), false);
+        machine.inputContent("start", states);
+        return machine;
+    }
+
+    /**
+     * Create a state with one transition on the http method.
+     * @param label The state label.
+     * @param type The state type.
+     * @param next The label of the to state.
+     * @param method The http method of the transition.
+     * @return The state.
+     * @throws Exception Error in the state specification.
+     */
+    private static State state(final String label, final StateNode.StateType type,
+            final String next, final String method) throws Exception {
+        final State state = new StateNode(label, type, null, null, null);
+        final List<Guard> guards = new ArrayList();
+        guards.add(new Guard(RESTEvent.HTTP_MSG, String.class, Guard.ComparisonType.EQUALS, method, null));
+        state.addTransition(new Transition(next, guards, null));
+        return state;
+    }
+
+    /**
+     * Create a REST event.
+     * @param method The http method.
+     * @return The new event.
+     */
+    private static RESTEvent event(final String method) {
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(new Parameter(RESTEvent.HTTP_MSG, method));
+        return event;
+    }
+
+    /**
+     * A machine restored from the checkpoint of another continues from the
+     * checkpointed state.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testResume() throws Exception {
+        final File file = File.createTempFile("interop", ".checkpoint");
+        Assert.assertTrue(file.delete());
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final StateMachine first = machine();
+            first.enableCheckpoints(file, 0);
+            first.start(scheduler);
+            first.pushEvent(event("GET"));
+            final long deadline = System.currentTimeMillis() + WAIT;
+            while (!file.exists() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            first.stop();
+
+            final StateMachine second = machine();
+            second.restoreCheckpoint(file);
+            Assert.assertEquals("middle", second.getCurrentState().getLabel());
+            Assert.assertEquals("GET", second.getState("start").getStoredEvent()
+                    .getParameterMap().get(RESTEvent.HTTP_MSG).getValue());
+
+            final Future<InteroperabilityReport> result = second.start(scheduler);
+            second.pushEvent(event("POST"));
+            final InteroperabilityReport report = result.get(WAIT, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("true", report.getSuccess());
+            Assert.assertTrue(report.outputTrace().contains("Resuming trace at Node:middle"));
+        } finally {
+            scheduler.shutdown();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.PayloadStore;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+
+/**
+ * Set of tests for the parsed documents shared by the guards that read
+ * a message's content.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class ContentTest {
+
+    /**
+     * Sample xml message body.
+     */
+    private static final String XMLDOC = "<resp><temp>21</temp><unit>C</unit></resp>";
+
+    /**
+     * Sample json message body.
+     */
+    private static final String JSONDOC = "{\"temp\": 21, \"unit\": \"C\"}";
+
+    /**
+     * The document is parsed once and evaluates as the text does.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testXmlDocumentShared() throws Exception {
+        final Content body = new Content("application/xml", XMLDOC);
+        Assert.assertSame(body.getXmlDocument(), body.getXmlDocument());
+        Assert.assertTrue(XML.xmlAssert(body.getXmlDocument(), "/resp/unit", "C").getResult());
+        Assert.assertTrue(XML.xmlCompare(body.getXmlDocument(), "/resp/temp", "20",
+                Guard.ComparisonType.GREATERTHAN).getResult());
+        Assert.assertTrue(XML.xmlContains(body.getXmlDocument(), "/resp", "temp").getResult());
+        Assert.assertEquals(XML.readValue(XMLDOC, "/resp/temp"), body.getFieldValue("/resp/temp"));
+
+        body.setData("<resp><temp>5</temp></resp>");
+        Assert.assertEquals("5", XML.readValue(body.getXmlDocument(), "/resp/temp"));
+    }
+
+    /**
+     * The json tree is shared; unparsable content is remembered as such.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testJsonDocumentShared() throws Exception {
+        final Content body = new Content("json", JSONDOC);
+        Assert.assertSame(body.getJsonDocument(), body.getJsonDocument());
+        Assert.assertTrue(JSON.assertJSON(body.getJsonDocument(), "$.unit", "C").getResult());
+        Assert.assertTrue(JSON.compareJSON(body.getJsonDocument(), "$.temp", "30",
+                Guard.ComparisonType.LESSTHAN).getResult());
+        Assert.assertEquals(JSONDOC, body.getFieldValue("*"));
+
+        final Content broken = new Content("json", "{not json");
+        Assert.assertNull(broken.getJsonDocument());
+        Assert.assertNull(broken.getXmlDocument());
+    }
+
+    /**
+     * A body captured as bytes keeps them, and is decoded in its character
+     * set when read.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testByteBody() throws Exception {
+        final byte[] body = "{\"unit\": \"\u00b0C\"}".getBytes(StandardCharsets.ISO_8859_1);
+        final RESTEvent event = new RESTEvent();
+        event.addContent("json", body, "ISO-8859-1");
+        final Content content = event.getDataBody();
+        Assert.assertSame(body, content.getBytes());
+        Assert.assertEquals(StandardCharsets.ISO_8859_1, content.getCharset());
+        Assert.assertEquals("\u00b0C", content.getFieldValue("$.unit"));
+        Assert.assertEquals(content.getData(), event.getParameterMap().get("content").getValue());
+
+        final Content binary = new Content("application/octet-stream", new byte[] {0, (byte) 0xff}, null);
+        Assert.assertEquals(2, binary.getBytes().length);
+        Assert.assertEquals(StandardCharsets.UTF_8, binary.getCharset());
+    }
+
+    /**
+     * A large body read from a stream is stored off the heap, parsed from
+     * its bytes, decoded only once, and passed on intact.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testStreamedBody() throws Exception {
+        final char[] pad = new char[1 << 21];
+        Arrays.fill(pad, 'x');
+        final String text = "{\"pad\": \"" + new String(pad) + "\", \"unit\": \"\u00b0C\"}";
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        final RESTEvent event = new RESTEvent();
+        event.addContent("json", new ByteArrayInputStream(body), "UTF-8");
+        final Content content = event.getDataBody();
+        Assert.assertTrue(content.isStoredOffHeap());
+        Assert.assertEquals(body.length, content.size());
+        Assert.assertNotNull(content.getJsonDocument());
+        Assert.assertEquals("\u00b0C", content.getFieldValue("$.unit"));
+        Assert.assertSame(content.getData(), content.getData());
+        Assert.assertEquals(text, event.getParameterMap().get("content").getValue());
+
+        final byte[] copy = new byte[body.length];
+        try (InputStream stream = content.openStream()) {
+            int length = 0;
+            int read = stream.read(copy, 0, copy.length);
+            while (read > 0) {
+                length += read;
+                read = stream.read(copy, length, copy.length - length);
+            }
+            Assert.assertEquals(body.length, length);
+        }
+        Assert.assertTrue(Arrays.equals(body, copy));
+    }
+
+    /**
+     * A simple path into a large off-heap body is read by streaming the
+     * bytes, without decoding the text or parsing the document.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testStreamedPath() throws Exception {
+        final char[] pad = new char[1 << 21];
+        Arrays.fill(pad, 'x');
+        final byte[] json = ("{\"pad\": \"" + new String(pad) + "\", \"unit\": \"C\"}")
+                .getBytes(StandardCharsets.UTF_8);
+        final Content content = Content.read("json", new ByteArrayInputStream(json), "UTF-8");
+        Assert.assertTrue(content.isStoredOffHeap());
+        Assert.assertEquals("C", content.getFieldValue("$.unit"));
+        Assert.assertFalse(content.isDecoded());
+
+        final byte[] xml = ("<resp><pad>" + new String(pad) + "</pad><unit>C</unit></resp>")
+                .getBytes(StandardCharsets.UTF_8);
+        final Content xmlContent = Content.read("xml", new ByteArrayInputStream(xml), "UTF-8");
+        Assert.assertTrue(xmlContent.isStoredOffHeap());
+        Assert.assertEquals("C", xmlContent.getFieldValue("/resp/unit"));
+        Assert.assertFalse(xmlContent.isDecoded());
+    }
+
+    /**
+     * Replacing the data of an off-heap body releases the holds taken on
+     * it through the content, while holds taken elsewhere keep it.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testSetDataReleasesPayload() throws Exception {
+        final byte[] body = new byte[1 << 21];
+        Arrays.fill(body, (byte) 'x');
+        final Content content = Content.read("text", new ByteArrayInputStream(body), "UTF-8");
+        Assert.assertTrue(content.isStoredOffHeap());
+        content.retain();
+        content.retain();
+        try (InputStream stream = content.openStream()) {
+            content.setData("replaced");
+            Assert.assertFalse(content.isStoredOffHeap());
+            Assert.assertEquals('x', stream.read());
+        }
+        content.release();
+        Assert.assertEquals("replaced", content.getData());
+    }
+
+    /**
+     * An off-heap payload reads back as stored and cannot be read once
+     * its last holder has released it.
+     */
+    @Test
+    public void testPayloadRelease() {
+        final byte[] data = "<resp><temp>21</temp></resp>".getBytes(StandardCharsets.UTF_8);
+        final PayloadStore.Payload payload = PayloadStore.store(data);
+        Assert.assertEquals(data.length, payload.length());
+        Assert.assertEquals("<resp><temp>21</temp></resp>", payload.decode(StandardCharsets.UTF_8));
+        Assert.assertTrue(Arrays.equals(data, payload.toArray()));
+
+        payload.retain();
+        payload.retain();
+        payload.release();
+        Assert.assertEquals(data.length, payload.toArray().length);
+        payload.release();
+        try {
+            payload.toArray();
+            Assert.fail("Released payload was readable");
+        } catch (IllegalStateException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+}
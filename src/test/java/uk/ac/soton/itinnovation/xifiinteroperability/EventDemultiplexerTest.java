@@ -0,0 +1,201 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.CorrelationKey;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventCapture;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.EventDemultiplexer;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Set of tests for routing captured events to concurrent sessions by
+ * correlation key.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventDemultiplexerTest {
+
+    /**
+     * The header used as correlation key.
+     */
+    private static final String CLIENT_HEADER = "http.x-client";
+
+    /**
+     * A session that records the events it receives.
+     */
+    private static final class Recorder implements EventCapture {
+        /**
+         * The received events.
+         */
+        private final List<MsgEvent> events = new ArrayList<>();
+
+        /**
+         * Whether the session has been stopped.
+         */
+        private volatile boolean stopped;
+
+        @Override
+        public void pushEvent(final MsgEvent httpMessage) {
+            events.add(httpMessage);
+        }
+
+        @Override
+        public void logException(final Exception excep) {
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Create an event with an optional client header.
+     * @param client The header value; null for none.
+     * @return The new event.
+     */
+    private static MsgEvent event(final String client) {
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(new Parameter(RESTEvent.HTTP_MSG, "GET"));
+        if (client != null) {
+            event.addParameter(new Parameter(CLIENT_HEADER, client));
+        }
+        return event;
+    }
+
+    /**
+     * Events are routed by key; unkeyed events follow the thread's last
+     * request and unknown keys are dropped.
+     */
+    @Test
+    public final void testRouteByHeader() {
+        final EventDemultiplexer demux = new EventDemultiplexer(
+                CorrelationKey.header(CLIENT_HEADER), 60000);
+        final Recorder first = new Recorder();
+        final Recorder second = new Recorder();
+        demux.register("a", first);
+        demux.register("b", second);
+
+        demux.pushEvent(event("a"));
+        demux.pushEvent(event("b"));
+        demux.pushEvent(event(null));
+        demux.pushEvent(event("c"));
+
+        Assert.assertEquals(1, first.events.size());
+        Assert.assertEquals(2, second.events.size());
+        Assert.assertEquals(1, demux.getUnroutedCount());
+    }
+
+    /**
+     * The session factory creates one session per new key.
+     */
+    @Test
+    public final void testSessionFactory() {
+        final EventDemultiplexer demux = new EventDemultiplexer(
+                CorrelationKey.header(CLIENT_HEADER), 60000);
+        final List<Recorder> created = new ArrayList<>();
+        demux.setSessionFactory(key -> {
+            final Recorder session = new Recorder();
+            created.add(session);
+            return session;
+        });
+
+        demux.pushEvent(event("a"));
+        demux.pushEvent(event("b"));
+        demux.pushEvent(event("a"));
+
+        Assert.assertEquals(2, created.size());
+        Assert.assertEquals(2, demux.getRouteCount());
+        Assert.assertEquals(2, created.get(0).events.size());
+        demux.close();
+    }
+
+    /**
+     * An unkeyed event only follows the request of its own exchange.
+     */
+    @Test
+    public final void testEndExchange() {
+        final EventDemultiplexer demux = new EventDemultiplexer(
+                CorrelationKey.header(CLIENT_HEADER), 60000);
+        final Recorder first = new Recorder();
+        demux.register("a", first);
+
+        demux.pushEvent(event("a"));
+        demux.pushEvent(event(null));
+        demux.endExchange();
+        demux.pushEvent(event(null));
+
+        Assert.assertEquals(2, first.events.size());
+        Assert.assertEquals(1, demux.getUnroutedCount());
+        demux.close();
+    }
+
+    /**
+     * Idle sessions created by the factory are removed by the timer and
+     * stopped, without further traffic.
+     * @throws InterruptedException Test interrupted.
+     */
+    @Test
+    public final void testIdleSessionStopped() throws InterruptedException {
+        final EventDemultiplexer demux = new EventDemultiplexer(
+                CorrelationKey.header(CLIENT_HEADER), 50);
+        final Recorder session = new Recorder();
+        demux.setSessionFactory(key -> session);
+
+        demux.pushEvent(event("a"));
+        Assert.assertEquals(1, demux.getRouteCount());
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!session.stopped && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(session.stopped);
+        Assert.assertEquals(0, demux.getRouteCount());
+        demux.close();
+    }
+
+    /**
+     * The idle time after which sessions are removed must be positive.
+     */
+    @Test
+    public final void testInvalidIdleTimeout() {
+        try {
+            new EventDemultiplexer(CorrelationKey.header(CLIENT_HEADER), 0);
+            Assert.fail("Zero idle timeout accepted");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+}
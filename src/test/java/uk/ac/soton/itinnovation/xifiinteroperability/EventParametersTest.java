@@ -0,0 +1,114 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.EventParameters;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+
+/**
+ * Set of tests for the compact parameter layout of events.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventParametersTest {
+
+    /**
+     * Fixed fields and other parameters behave as a map of parameters,
+     * through growth of the table and removal.
+     */
+    @Test
+    public void testMap() {
+        final EventParameters params = new EventParameters();
+        final Map<String, String> expected = new HashMap<>();
+        params.putValue(RESTEvent.HTTP_CODE, "200");
+        expected.put(RESTEvent.HTTP_CODE, "200");
+        params.put("query.id", new Parameter("query.id", "7"));
+        expected.put("query.id", "7");
+        for (int i = 0; i < 100; i++) {
+            params.putValue("http.x-header-" + i, Integer.toString(i));
+            expected.put("http.x-header-" + i, Integer.toString(i));
+        }
+        Assert.assertEquals("200", params.putValue(RESTEvent.HTTP_CODE, "404"));
+        expected.put(RESTEvent.HTTP_CODE, "404");
+        for (int i = 0; i < 100; i += 3) {
+            Assert.assertEquals(Integer.toString(i), params.remove("http.x-header-" + i).getValue());
+            expected.remove("http.x-header-" + i);
+        }
+
+        Assert.assertEquals(expected.size(), params.size());
+        int entries = 0;
+        for (Map.Entry<String, Parameter> entry : params.entrySet()) {
+            Assert.assertEquals(expected.get(entry.getKey()), entry.getValue().getValue());
+            entries++;
+        }
+        Assert.assertEquals(expected.size(), entries);
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), params.get(entry.getKey()).getValue());
+            Assert.assertEquals(entry.getKey(), params.get(entry.getKey()).getName());
+        }
+        Assert.assertNull(params.get("http.x-header-0"));
+        Assert.assertFalse(params.containsKey(RESTEvent.HTTP_FROM));
+    }
+
+    /**
+     * Header names are shared between messages and in lower case.
+     */
+    @Test
+    public void testHeaderKey() {
+        final String key = EventParameters.headerKey(RESTEvent.HTTP_CONFIG_HEAD, new String("Content-Type"));
+        Assert.assertEquals("http.content-type", key);
+        Assert.assertSame(key, EventParameters.headerKey(RESTEvent.HTTP_CONFIG_HEAD, new String("Content-Type")));
+
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(key, "application/json");
+        Assert.assertEquals("application/json", event.getParameterMap().get("http.content-type").getValue());
+    }
+
+    /**
+     * The Parameter made for a value that is read is kept and shared by
+     * later reads.
+     */
+    @Test
+    public void testParameterShared() {
+        final EventParameters params = new EventParameters();
+        params.putValue(RESTEvent.HTTP_FROM, "http://127.0.0.1:8080");
+        params.putValue("http.x-header", "value");
+        Assert.assertSame(params.get(RESTEvent.HTTP_FROM), params.get(RESTEvent.HTTP_FROM));
+        Assert.assertSame(params.get("http.x-header"), params.get("http.x-header"));
+        Assert.assertEquals("value", params.getValue("http.x-header"));
+        Assert.assertEquals(2, params.size());
+    }
+}
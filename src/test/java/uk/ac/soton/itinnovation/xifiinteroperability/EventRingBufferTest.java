@@ -0,0 +1,232 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Content;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.EventRingBuffer;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.EventRingBuffer.OverflowPolicy;
+
+/**
+ * Set of tests for the overflow policies of the bounded event queue used
+ * as the input of each state machine.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class EventRingBufferTest {
+
+    /**
+     * Capacity of the queues under test.
+     */
+    private static final int CAPACITY = 4;
+
+    /**
+     * Create a distinguishable event.
+     * @param index The value of its http.msg parameter.
+     * @return The new event.
+     */
+    private static MsgEvent event(final int index) {
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(new Parameter(RESTEvent.HTTP_MSG, Integer.toString(index)));
+        return event;
+    }
+
+    /**
+     * Read the index of an event created by event().
+     * @param event The event.
+     * @return Its index.
+     */
+    private static int index(final MsgEvent event) {
+        return Integer.parseInt(event.getParameterMap().get(RESTEvent.HTTP_MSG).getValue());
+    }
+
+    /**
+     * Fill a queue beyond its capacity.
+     * @param queue The queue to fill.
+     * @param count The number of events to push.
+     * @throws InterruptedException Not expected.
+     */
+    private static void fill(final EventRingBuffer queue, final int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            queue.push(event(i));
+        }
+    }
+
+    /**
+     * Drop-oldest keeps the newest events and counts the dropped ones.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testDropOldest() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.DROP_OLDEST);
+        fill(queue, CAPACITY + 2);
+        Assert.assertEquals(CAPACITY, queue.size());
+        Assert.assertEquals(2, queue.getDroppedCount());
+        Assert.assertEquals(2, index(queue.poll()));
+    }
+
+    /**
+     * Fail-fast rejects new events without blocking.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testFailFast() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.FAIL_FAST);
+        fill(queue, CAPACITY);
+        Assert.assertFalse(queue.push(event(CAPACITY)));
+        Assert.assertEquals(1, queue.getDroppedCount());
+        Assert.assertEquals(0, index(queue.poll()));
+    }
+
+    /**
+     * Spilled events are read back after the queued ones, in order.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testSpill() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.SPILL);
+        final int total = CAPACITY * 3;
+        fill(queue, total);
+        Assert.assertEquals(total, queue.size());
+        Assert.assertEquals(0, queue.getDroppedCount());
+        for (int i = 0; i < total; i++) {
+            Assert.assertEquals(i, index(queue.poll()));
+            queue.push(event(total + i));
+        }
+        for (int i = 0; i < total; i++) {
+            Assert.assertEquals(total + i, index(queue.poll()));
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+    /**
+     * A dropped event is released, so its off-heap body is returned to the
+     * store rather than held.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testDropReleases() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.DROP_OLDEST);
+        final byte[] large = new byte[2 << 20];
+        Arrays.fill(large, (byte) 'a');
+        final RESTEvent first = new RESTEvent();
+        first.addContent("text/plain", large, null);
+        queue.push(first);
+        fill(queue, CAPACITY);
+        Assert.assertEquals(1, queue.getDroppedCount());
+        try {
+            first.getDataBody().getBytes();
+            Assert.fail("Dropped body was still held");
+        } catch (IllegalStateException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * Spilled events keep their kind, parameters and body.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testSpillBody() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.SPILL);
+        fill(queue, CAPACITY);
+        final MsgEvent event = event(CAPACITY);
+        event.addParameter("http.x-id", "7");
+        event.setResponseTime(12);
+        event.addContent("application/json", "{\"unit\": \"\u00b0C\"}".getBytes(StandardCharsets.ISO_8859_1), "ISO-8859-1");
+        queue.push(event);
+        for (int i = 0; i < CAPACITY; i++) {
+            queue.poll();
+        }
+        final MsgEvent read = queue.poll();
+        Assert.assertTrue(read instanceof RESTEvent);
+        Assert.assertEquals(CAPACITY, index(read));
+        Assert.assertEquals("7", read.getParameterMap().get("http.x-id").getValue());
+        Assert.assertEquals(12, read.getResponseTime());
+        Assert.assertEquals("application/json", read.getDataBody().getType());
+        Assert.assertEquals("{\"unit\": \"\u00b0C\"}", read.getDataBody().getData());
+        Assert.assertEquals(read.getDataBody().getData(), read.getParameterMap().get("content").getValue());
+    }
+
+    /**
+     * The fields kept by a state are written in the same form as captured
+     * events, and read back as kept fields.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testSpillStored() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.SPILL);
+        fill(queue, CAPACITY);
+        final MsgEvent stored = new MsgEvent.StoredEvent();
+        stored.addParameter(new Parameter(RESTEvent.HTTP_MSG, Integer.toString(CAPACITY)));
+        stored.addContent("application/json", "{\"unit\": \"C\"}");
+        queue.push(stored);
+        for (int i = 0; i < CAPACITY; i++) {
+            queue.poll();
+        }
+        final MsgEvent read = queue.poll();
+        Assert.assertTrue(read instanceof MsgEvent.StoredEvent);
+        Assert.assertEquals(CAPACITY, index(read));
+        Assert.assertEquals("{\"unit\": \"C\"}", read.getDataBody().getData());
+    }
+
+    /**
+     * A spilled event whose body has no data is read back without a body,
+     * and the events spilled after it are read intact.
+     * @throws InterruptedException Not expected.
+     */
+    @Test
+    public final void testSpillEmptyBody() throws InterruptedException {
+        final EventRingBuffer queue = new EventRingBuffer(CAPACITY, OverflowPolicy.SPILL);
+        fill(queue, CAPACITY);
+        final MsgEvent empty = event(CAPACITY);
+        empty.setDataBody(new Content("application/json", (String) null));
+        queue.push(empty);
+        final MsgEvent next = event(CAPACITY + 1);
+        next.addParameter("http.x-id", "8");
+        queue.push(next);
+        for (int i = 0; i < CAPACITY; i++) {
+            queue.poll();
+        }
+        final MsgEvent read = queue.poll();
+        Assert.assertEquals(CAPACITY, index(read));
+        Assert.assertNull(read.getDataBody());
+        final MsgEvent after = queue.poll();
+        Assert.assertEquals(CAPACITY + 1, index(after));
+        Assert.assertEquals("8", after.getParameterMap().get("http.x-id").getValue());
+        Assert.assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,142 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidRegexException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Set of tests for the compiled tests of each guard comparison type.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class GuardTest {
+
+    /**
+     * Build a string guard.
+     * @param type The comparison type.
+     * @param value The value to compare against.
+     * @return The guard.
+     * @throws Exception Not expected.
+     */
+    private static Guard guard(final Guard.ComparisonType type, final String value) throws Exception {
+        return new Guard("http.code", String.class, type, value, null);
+    }
+
+    /**
+     * Each comparison type evaluates as specified.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testComparisons() throws Exception {
+        Assert.assertTrue(guard(Guard.ComparisonType.EQUALS, "OK").evaluate("ok"));
+        Assert.assertFalse(guard(Guard.ComparisonType.NOTEQUALS, "OK").evaluate("ok"));
+        Assert.assertTrue(guard(Guard.ComparisonType.GREATERTHAN, "200").evaluate("201.5"));
+        Assert.assertFalse(guard(Guard.ComparisonType.LESSTHAN, "200").evaluate("201"));
+        Assert.assertFalse(guard(Guard.ComparisonType.LESSTHAN, "200").evaluate("n/a"));
+        Assert.assertFalse(guard(Guard.ComparisonType.GREATERTHAN, "many").evaluate("201"));
+        Assert.assertTrue(guard(Guard.ComparisonType.REGEX, "2\\d\\d").evaluate("204"));
+        Assert.assertFalse(guard(Guard.ComparisonType.REGEX, "2\\d\\d").evaluate("404"));
+        Assert.assertTrue(guard(Guard.ComparisonType.COUNTER, "1000").evaluate(1000));
+
+        final Map<String, String> fields = new HashMap<>();
+        fields.put("etag", "x");
+        Assert.assertTrue(new Guard("headers", Map.class, Guard.ComparisonType.CONTAINS, "etag", null)
+                .evaluate(fields));
+    }
+
+    /**
+     * An invalid regular expression is reported when the guard is evaluated.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testInvalidRegex() throws Exception {
+        final Guard regex = guard(Guard.ComparisonType.REGEX, "[0-9");
+        try {
+            regex.evaluate("abc");
+            Assert.fail("Invalid regular expression accepted");
+        } catch (InvalidRegexException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * Binding a template guard leaves the shared template unchanged.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testBindTemplate() throws Exception {
+        final String reference = "$$A|content|temp$$";
+        final Guard template = guard(Guard.ComparisonType.LESSTHAN, reference);
+        Assert.assertTrue(template.requiresBinding());
+
+        final Guard first = template.bind("20");
+        final Guard second = template.bind("10");
+        Assert.assertFalse(first.requiresBinding());
+        Assert.assertTrue(first.evaluate("15"));
+        Assert.assertFalse(second.evaluate("15"));
+        Assert.assertEquals(reference, template.getGuardCompare());
+        Assert.assertEquals(template.getGuardLabel(), first.getGuardLabel());
+        Assert.assertFalse(template.bind(null).evaluate("15"));
+    }
+
+    /**
+     * Guards are evaluated cheapest first, equal costs in declared order.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testEvaluationOrder() throws Exception {
+        final Guard contentRegex = new Guard("content[/resp/name]", String.class,
+                Guard.ComparisonType.REGEX, "a.*", null);
+        final Guard content = new Guard("content[/resp/temp]", String.class,
+                Guard.ComparisonType.EQUALS, "20", null);
+        final Guard numeric = guard(Guard.ComparisonType.LESSTHAN, "300");
+        final Guard header = guard(Guard.ComparisonType.EQUALS, "200");
+        Assert.assertTrue(header.getCost() < numeric.getCost());
+        Assert.assertTrue(numeric.getCost() < content.getCost());
+        Assert.assertTrue(content.getCost() < contentRegex.getCost());
+
+        final Transition transition = new Transition("next",
+                Arrays.asList(contentRegex, header, content, numeric), null);
+        transition.compileEvaluationOrder();
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 2, 0}, transition.getEvaluationOrder()));
+
+        final Transition sorted = new Transition("next", Arrays.asList(header, numeric, content), null);
+        sorted.compileEvaluationOrder();
+        Assert.assertNull(sorted.getEvaluationOrder());
+    }
+}
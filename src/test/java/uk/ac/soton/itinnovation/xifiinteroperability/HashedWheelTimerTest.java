@@ -0,0 +1,141 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.HashedWheelTimer;
+
+/**
+ * Tests that the timer of session timeouts fires each timeout no earlier
+ * than its delay, including delays of several turns of the wheel, and
+ * never fires a cancelled timeout.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class HashedWheelTimerTest {
+
+    /**
+     * How long to wait for a timeout, in milliseconds.
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * The tick of the timers under test, in milliseconds.
+     */
+    private static final long TICK = 10;
+
+    /**
+     * Timeouts fire once, no earlier than their delay, whether the delay is
+     * within one tick, within one turn of the wheel or several turns; the
+     * wheel size is rounded up to a power of two.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testRoundsAndRounding() throws Exception {
+        // Three buckets become four, i.e. one turn of the wheel is 40ms
+        final HashedWheelTimer timer = new HashedWheelTimer(TICK, 3);
+        try {
+            final long[] delays = {0, 5, 25, 45, 130};
+            final CountDownLatch fired = new CountDownLatch(delays.length);
+            final AtomicInteger early = new AtomicInteger();
+            final AtomicInteger count = new AtomicInteger();
+            final long started = System.nanoTime();
+            for (long delay : delays) {
+                timer.newTimeout(() -> {
+                    if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < delay) {
+                        early.incrementAndGet();
+                    }
+                    count.incrementAndGet();
+                    fired.countDown();
+                }, delay);
+            }
+            Assert.assertTrue(fired.await(WAIT, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(0, early.get());
+            Thread.sleep(100);
+            Assert.assertEquals(delays.length, count.get());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * A cancelled timeout never fires, and a timeout that has fired can no
+     * longer be cancelled.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testCancel() throws Exception {
+        final HashedWheelTimer timer = new HashedWheelTimer(TICK, 4);
+        try {
+            final AtomicLong cancelledRuns = new AtomicLong();
+            final HashedWheelTimer.Entry cancelled = timer.newTimeout(cancelledRuns::incrementAndGet, 50);
+            final HashedWheelTimer.Entry later = timer.newTimeout(cancelledRuns::incrementAndGet, 100);
+            Assert.assertTrue(cancelled.cancel());
+            Assert.assertFalse(cancelled.cancel());
+            Assert.assertTrue(cancelled.isCancelled());
+            Thread.sleep(TICK * 2);
+            // Cancelled once in the wheel rather than before it was placed
+            Assert.assertTrue(later.cancel());
+
+            final CountDownLatch fired = new CountDownLatch(1);
+            final HashedWheelTimer.Entry expired = timer.newTimeout(fired::countDown, 20);
+            Assert.assertTrue(fired.await(WAIT, TimeUnit.MILLISECONDS));
+            Thread.sleep(150);
+            Assert.assertEquals(0, cancelledRuns.get());
+            Assert.assertFalse(expired.cancel());
+            Assert.assertFalse(expired.isCancelled());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * A timer needs a positive tick and wheel size.
+     */
+    @Test
+    public final void testInvalidTimer() {
+        try {
+            new HashedWheelTimer(0, 4);
+            Assert.fail("Zero tick accepted");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+        try {
+            new HashedWheelTimer(TICK, 0);
+            Assert.fail("Empty wheel accepted");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import com.jayway.jsonpath.JsonPath;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JsonStreamPath;
+
+/**
+ * Set of tests for the streamed evaluation of simple json paths.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class JsonStreamPathTest {
+
+    /**
+     * Sample document with nested objects and arrays.
+     */
+    private static final String DOC = "{\"skip\": {\"deep\": [1, {\"x\": 2}]}, \"results\": ["
+            + "{\"id\": 7, \"name\": \"first\"}, {\"id\": 12345678901, \"temp\": 21.50, \"ok\": true,"
+            + " \"geo\": {\"lat\": -0.5}}], \"a b\": \"spaced\"}";
+
+    /**
+     * Streamed values match the JsonPath evaluation.
+     */
+    @Test
+    public void testMatchesJsonPath() {
+        final String[] paths = {"$.results[0].name", "$.results[1].id", "$.results[1].temp",
+            "$.results[1].ok", "$.results[1].geo.lat", "$['a b']", "$.results[0]['id']"};
+        for (final String path : paths) {
+            final JsonStreamPath streamed = JsonStreamPath.compile(path);
+            Assert.assertNotNull(path, streamed);
+            Assert.assertEquals(path, JsonPath.read(DOC, path).toString(), streamed.read(DOC));
+        }
+    }
+
+    /**
+     * Complex paths, and paths without a scalar value, are left to JsonPath.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testFallback() throws Exception {
+        Assert.assertNull(JsonStreamPath.compile("$..id"));
+        Assert.assertNull(JsonStreamPath.compile("$.results[*].id"));
+        Assert.assertNull(JsonStreamPath.compile("$.results[?(@.id > 7)]"));
+        Assert.assertNull(JsonStreamPath.compile("$"));
+
+        Assert.assertNull(JsonStreamPath.compile("$.results[1].geo").read(DOC));
+        Assert.assertNull(JsonStreamPath.compile("$.results[5].id").read(DOC));
+        Assert.assertNull(JsonStreamPath.compile("$.a").read("{not json"));
+
+        Assert.assertEquals(JsonPath.read(DOC, "$.results[1].geo").toString(), JSON.readValue(DOC, "$.results[1].geo"));
+        Assert.assertTrue(JSON.assertJSON(DOC, "$.results[1].temp", "21.5").getResult());
+    }
+}
@@ -0,0 +1,119 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.MonitoringStatistics;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.SessionScheduler;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Tests that a state machine in monitoring mode re-arms after each cycle
+ * and keeps the per cycle statistics.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class MonitoringTest {
+
+    /**
+     * How long to wait for the machine, in milliseconds.
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * Create a REST event.
+     * @param method The http method.
+     * @return The new event.
+     */
+    private static RESTEvent event(final String method) {
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(new Parameter(RESTEvent.HTTP_MSG, method));
+        return event;
+    }
+
+    /**
+     * Passing and failing cycles are counted and the machine keeps running
+     * until it is stopped.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testCycles() throws Exception {
+        final State start = new StateNode("start", StateNode.StateType.START, null, null, null);
+        final List<Guard> guards = new ArrayList();
+        guards.add(new Guard(RESTEvent.HTTP_MSG, String.class, Guard.ComparisonType.EQUALS, "GET", null));
+        start.addTransition(new Transition("end", guards, null));
+        final Map<String, State> states = new HashMap();
+        states.put("start", start);
+        states.put("end", new StateNode("end", StateNode.StateType.END, null, null, "true"));
+        final StateMachine machine = new StateMachine(new InteroperabilityReport(), false);
+        machine.inputContent("start", states);
+
+        final List<Boolean> verdicts = new ArrayList();
+        machine.enableMonitoring((cycle, passed, report, statistics) -> verdicts.add(passed));
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final Future<InteroperabilityReport> result = machine.start(scheduler);
+            machine.pushEvent(event("GET"));
+            machine.pushEvent(event("POST"));
+            machine.pushEvent(event("GET"));
+            final MonitoringStatistics statistics = machine.getStatistics();
+            final long deadline = System.currentTimeMillis() + WAIT;
+            while (statistics.getCycles() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertFalse(machine.isFinished());
+            machine.stop();
+            final InteroperabilityReport report = result.get(WAIT, TimeUnit.MILLISECONDS);
+
+            Assert.assertEquals(3, statistics.getCycles());
+            Assert.assertEquals(2, statistics.getPassed());
+            Assert.assertEquals(1, statistics.getFailed());
+            Assert.assertEquals(3, verdicts.size());
+            Assert.assertFalse(verdicts.get(1));
+            Assert.assertEquals("false", report.getSuccess());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.MultiPathMatcher;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+
+/**
+ * Set of tests for matching the content paths of a state in a single pass.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class MultiPathMatcherTest {
+
+    /**
+     * Sample xml document with repeated and nested elements.
+     */
+    private static final String XML_DOC = "<?xml version=\"1.0\"?><resp><skip><item><name>hidden</name></item></skip>"
+            + "<temp>21.5</temp><list><item><name>one</name></item><item><name>two</name><id>2</id></item></list>"
+            + "<unit>C<!-- note --></unit><empty/></resp>";
+
+    /**
+     * Sample json document with nested objects and arrays.
+     */
+    private static final String JSON_DOC = "{\"skip\": {\"deep\": [1, {\"x\": 2}]}, \"results\": ["
+            + "{\"id\": 7, \"name\": \"first\"}, {\"id\": 12, \"temp\": 21.50, \"geo\": {\"lat\": -0.5}}],"
+            + " \"none\": null}";
+
+    /**
+     * One pass over xml gives the same values and child fields as the DOM.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testXmlMatchesDom() throws Exception {
+        final String[] paths = {"/resp/temp", "//item[2]/name", "/resp/list/item[1]/name",
+            "/resp/unit/text()", "//name", "/resp/list"};
+        final MultiPathMatcher matcher = MultiPathMatcher.compile(Arrays.asList(paths),
+                Arrays.asList("/resp/list/item[2]", "/resp/empty"), true);
+        Assert.assertTrue(matcher.isXml());
+        final MultiPathMatcher.Matches matches = matcher.read(XML_DOC);
+        for (final String path : paths) {
+            Assert.assertEquals(path, XML.readValue(XML.parseQuietly(XML_DOC), path), matches.value(path));
+        }
+        Assert.assertEquals(Arrays.asList("name", "id"), matches.children("/resp/list/item[2]"));
+        Assert.assertEquals(XML.xmlContains(XML_DOC, "/resp/list/item[2]", "id").getValue(),
+                XML.xmlContains(matches, "/resp/list/item[2]", "id").getValue());
+        Assert.assertTrue(XML.xmlContains(matches, "/resp/list/item[2]", "id").getResult());
+        Assert.assertFalse(XML.xmlContains(matches, "/resp/empty", "id").getResult());
+        Assert.assertTrue(XML.xmlAssert(matches, "//item[2]/name", "two").getResult());
+    }
+
+    /**
+     * One pass over json gives the same values and child fields as JsonPath.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testJsonMatchesJsonPath() throws Exception {
+        final String[] paths = {"$.results[0].name", "$.results[1].id", "$.results[1].temp",
+            "$.results[1].geo.lat", "$.results[0]['id']"};
+        final MultiPathMatcher matcher = MultiPathMatcher.compile(Arrays.asList(paths),
+                Arrays.asList("$.results[1]", "$.skip.deep"), false);
+        final MultiPathMatcher.Matches matches = matcher.read(JSON_DOC);
+        for (final String path : paths) {
+            Assert.assertEquals(path, JsonPath.read(JSON_DOC, path).toString(), matches.value(path));
+        }
+        Assert.assertEquals(Arrays.asList("id", "temp", "geo"), matches.children("$.results[1]"));
+        Assert.assertTrue(JSON.containsJSON(matches, "$.results[1]", "geo").getResult());
+        Assert.assertEquals(JSON.containsJSON(JSON_DOC, "$.skip.deep", "x").getValue(),
+                JSON.containsJSON(matches, "$.skip.deep", "x").getValue());
+        Assert.assertTrue(JSON.compareJSON(matches, "$.results[1].temp", "21", Guard.ComparisonType.GREATERTHAN)
+                .getResult());
+    }
+
+    /**
+     * Paths the stream cannot answer are left out of the matches, and a set
+     * with a path outside the streamed subset has no matcher.
+     */
+    @Test
+    public void testFallback() {
+        Assert.assertNull(MultiPathMatcher.compile(Arrays.asList("/resp/temp", "count(//item)"),
+                Collections.<String>emptyList(), true));
+        Assert.assertNull(MultiPathMatcher.compile(Arrays.asList("$.results[*].id"),
+                Collections.<String>emptyList(), false));
+        Assert.assertNull(MultiPathMatcher.compile(Collections.<String>emptyList(),
+                Collections.<String>emptyList(), false));
+
+        final MultiPathMatcher.Matches xml = MultiPathMatcher.compile(Arrays.asList("/resp/missing", "/resp/temp"),
+                Collections.<String>emptyList(), true).read("<resp><temp>1</temp><open></resp>");
+        Assert.assertNull(xml.value("/resp/missing"));
+        Assert.assertEquals("1", xml.value("/resp/temp"));
+
+        final MultiPathMatcher.Matches json = MultiPathMatcher.compile(Arrays.asList("$.none", "$.results[5].id"),
+                Arrays.asList("$.none"), false).read(JSON_DOC);
+        Assert.assertNull(json.value("$.none"));
+        Assert.assertNull(json.value("$.results[5].id"));
+        Assert.assertNull(json.children("$.none"));
+    }
+}
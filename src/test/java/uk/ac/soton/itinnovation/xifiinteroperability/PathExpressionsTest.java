@@ -0,0 +1,95 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.xpath.XPathExpression;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidGuard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.PathExpressions;
+
+/**
+ * Set of tests for the registry of compiled content guard paths.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class PathExpressionsTest {
+
+    /**
+     * Compiled paths are reused; XPath expressions are confined to a thread.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testCompiledOnce() throws Exception {
+        Assert.assertSame(PathExpressions.jsonPath("$.results[0]"), PathExpressions.jsonPath("$.results[0]"));
+
+        final XPathExpression mine = PathExpressions.xpath("//result/place_id");
+        Assert.assertSame(mine, PathExpressions.xpath("//result/place_id"));
+
+        final AtomicReference<XPathExpression> other = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                other.set(PathExpressions.xpath("//result/place_id"));
+            } catch (Exception ex) {
+                other.set(null);
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertNotNull(other.get());
+        Assert.assertNotSame(mine, other.get());
+    }
+
+    /**
+     * A content path that does not compile is rejected when the guard is
+     * built from the pattern.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testInvalidPathRejectedAtLoad() throws Exception {
+        new Guard("content[//geometry/bounds]", String.class, Guard.ComparisonType.EQUALS, "x", null);
+        new Guard("content[$.results[0]]", String.class, Guard.ComparisonType.EQUALS, "x", null);
+        try {
+            new Guard("content[$.results[[0]]", String.class, Guard.ComparisonType.EQUALS, "x", null);
+            Assert.fail("Invalid json path accepted");
+        } catch (InvalidGuard ex) {
+            Assert.assertTrue(ex.getMessage().contains("$.results[[0]"));
+        }
+        try {
+            new Guard("content[//result[@]]", String.class, Guard.ComparisonType.EQUALS, "x", null);
+            Assert.fail("Invalid path accepted");
+        } catch (InvalidGuard ex) {
+            Assert.assertTrue(ex.getMessage().contains("//result[@]"));
+        }
+    }
+}
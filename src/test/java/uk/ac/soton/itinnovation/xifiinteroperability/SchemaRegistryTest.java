@@ -0,0 +1,129 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InvalidGuard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.InvalidSchemaException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.JSON;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.SchemaRegistry;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+
+/**
+ * Set of tests for the schema registry and the validates guard.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class SchemaRegistryTest {
+
+    /**
+     * An xml schema for a temperature reading.
+     */
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">"
+            + "<xs:element name=\"reading\"><xs:complexType><xs:sequence>"
+            + "<xs:element name=\"temp\" type=\"xs:decimal\"/>"
+            + "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    /**
+     * A json schema for a temperature reading.
+     */
+    private static final String JSON_SCHEMA = "{\"type\": \"object\", \"required\": [\"temp\"],"
+            + " \"properties\": {\"temp\": {\"type\": \"number\"}}}";
+
+    /**
+     * Schemas are compiled once and check xml and json documents.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testCheck() throws Exception {
+        final SchemaRegistry.CompiledSchema xsd = SchemaRegistry.schema(XSD);
+        Assert.assertTrue(xsd.isXml());
+        Assert.assertSame(xsd, SchemaRegistry.schema(XSD));
+        Assert.assertNull(xsd.check("<reading><temp>20.5</temp></reading>"));
+        Assert.assertNotNull(xsd.check("<reading><temp>warm</temp></reading>"));
+        Assert.assertNotNull(xsd.check("<reading>"));
+        Assert.assertTrue(XML.xmlValidate("<reading><temp>1</temp></reading>", XSD));
+
+        final SchemaRegistry.CompiledSchema json = SchemaRegistry.schema(JSON_SCHEMA);
+        Assert.assertFalse(json.isXml());
+        Assert.assertNull(json.check("{\"temp\": 20.5}"));
+        Assert.assertNotNull(json.check("{\"temp\": \"warm\"}"));
+        Assert.assertNotNull(json.check("{\"unit\": \"C\"}"));
+        Assert.assertNotNull(json.check(null));
+        Assert.assertFalse(JSON.validateJSON("{\"unit\": \"C\"}", JSON_SCHEMA));
+
+        try {
+            SchemaRegistry.schema("no-such-schema.json");
+            Assert.fail("Missing schema accepted");
+        } catch (InvalidSchemaException ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * A validates guard compiles its schema when the pattern is loaded.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testValidatesGuard() throws Exception {
+        final Guard guard = new Guard("content", String.class, Guard.ComparisonType.VALIDATES, JSON_SCHEMA, null);
+        Assert.assertTrue(guard.evaluate("{\"temp\": 20}"));
+        Assert.assertFalse(guard.evaluate("{\"temp\": true}"));
+        Assert.assertNull(guard.explain("{\"temp\": 20}"));
+        Assert.assertNotNull(guard.explain("{\"temp\": true}"));
+
+        try {
+            new Guard("content", String.class, Guard.ComparisonType.VALIDATES, "{\"type\": 5}", null);
+            Assert.fail("Invalid schema accepted");
+        } catch (InvalidGuard ex) {
+            Assert.assertNotNull(ex.getMessage());
+        }
+    }
+
+    /**
+     * Once the registry is full the least recently used schema is evicted,
+     * and schemas in use stay cached.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        final SchemaRegistry.CompiledSchema first = SchemaRegistry.schema(JSON_SCHEMA);
+        final SchemaRegistry.CompiledSchema used = SchemaRegistry.schema(XSD);
+        for (int i = 0; i < 300; i++) {
+            SchemaRegistry.schema("{\"type\": \"object\", \"maxProperties\": " + i + "}");
+            Assert.assertSame(used, SchemaRegistry.schema(XSD));
+        }
+        Assert.assertNotSame(first, SchemaRegistry.schema(JSON_SCHEMA));
+        Assert.assertSame(used, SchemaRegistry.schema(XSD));
+    }
+}
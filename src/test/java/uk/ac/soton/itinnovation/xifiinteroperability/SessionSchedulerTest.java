@@ -0,0 +1,253 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.MsgEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.ProtocolMessage;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.SessionScheduler;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Tests that state machines started on a shared scheduler are resumed by
+ * their events, their timeouts and the responses to their trigger
+ * messages, and that a trigger message waiting for its response does not
+ * hold a worker.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class SessionSchedulerTest {
+
+    /**
+     * How long to wait for a machine, in milliseconds.
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * Create a REST event.
+     * @param method The http method.
+     * @return The new event.
+     */
+    private static RESTEvent event(final String method) {
+        final RESTEvent event = new RESTEvent();
+        event.addParameter(new Parameter(RESTEvent.HTTP_MSG, method));
+        return event;
+    }
+
+    /**
+     * Create a transition taken by a GET event.
+     * @param label The label of the to state.
+     * @return The new transition.
+     * @throws Exception Error in the guard specification.
+     */
+    private static Transition getTransition(final String label) throws Exception {
+        final List<Guard> guards = new ArrayList();
+        guards.add(new Guard(RESTEvent.HTTP_MSG, String.class, Guard.ComparisonType.EQUALS, "GET", null));
+        return new Transition(label, guards, null);
+    }
+
+    /**
+     * Create a machine that sends a message and then expects its response
+     * to be a GET.
+     * @param message The trigger message.
+     * @return The machine.
+     * @throws Exception Error in the state specification.
+     */
+    private static StateMachine triggerMachine(final ProtocolMessage message) throws Exception {
+        final State send = new StateNode("send", StateNode.StateType.TRIGGERSTART, null, null, null);
+        send.addTransition(new Transition("response", message, null));
+        final State response = new StateNode("response", StateNode.StateType.NORMAL, null, null, null);
+        response.addTransition(getTransition("end"));
+        final Map<String, State> states = new HashMap();
+        states.put("send", send);
+        states.put("response", response);
+        states.put("end", new StateNode("end", StateNode.StateType.END, null, null, "true"));
+        final StateMachine machine = new StateMachine(new InteroperabilityReport(), false);
+        machine.inputContent("send", states);
+        return machine;
+    }
+
+    /**
+     * Create a machine that expects a GET and then either a second GET or a
+     * timeout.
+     * @param delay The timeout in milliseconds.
+     * @param afterTimeout The verdict of the state reached by the timeout.
+     * @param afterEvent The verdict of the state reached by the second GET.
+     * @return The machine.
+     * @throws Exception Error in the state specification.
+     */
+    private static StateMachine timeoutMachine(final long delay, final String afterTimeout,
+            final String afterEvent) throws Exception {
+        final State start = new StateNode("start", StateNode.StateType.START, null, null, null);
+        start.addTransition(getTransition("waiting"));
+        final State waiting = new StateNode("waiting", StateNode.StateType.NORMAL, null, null, null);
+        final List<Guard> guards = new ArrayList();
+        guards.add(new Guard("timeout", String.class, Guard.ComparisonType.EQUALS, Long.toString(delay), null));
+        waiting.addTransition(new Transition("timedout", guards, null));
+        waiting.addTransition(getTransition("received"));
+        final Map<String, State> states = new HashMap();
+        states.put("start", start);
+        states.put("waiting", waiting);
+        states.put("timedout", new StateNode("timedout", StateNode.StateType.END, null, null, afterTimeout));
+        states.put("received", new StateNode("received", StateNode.StateType.END, null, null, afterEvent));
+        final StateMachine machine = new StateMachine(new InteroperabilityReport(), false);
+        machine.inputContent("start", states);
+        return machine;
+    }
+
+    /**
+     * A session waiting on a scheduler takes its timeout transition once
+     * the timeout elapses.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testTimeout() throws Exception {
+        final StateMachine machine = timeoutMachine(50, "true", "false");
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final Future<InteroperabilityReport> result = machine.start(scheduler);
+            final long started = System.nanoTime();
+            machine.pushEvent(event("GET"));
+            final InteroperabilityReport report = result.get(WAIT, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("true", report.getSuccess());
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 50);
+            Assert.assertTrue(machine.isFinished());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * An event taken before the timeout cancels it, so the session ends on
+     * the event's transition.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testEventCancelsTimeout() throws Exception {
+        final StateMachine machine = timeoutMachine(200, "false", "true");
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final Future<InteroperabilityReport> result = machine.start(scheduler);
+            machine.pushEvent(event("GET"));
+            machine.pushEvent(event("GET"));
+            final InteroperabilityReport report = result.get(WAIT, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("true", report.getSuccess());
+            // The cancelled timeout does not resume the finished session
+            Thread.sleep(300);
+            Assert.assertFalse(report.outputTrace().contains("timedout"));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * A machine whose trigger message waits for its response does not hold
+     * the only worker: another machine runs to completion meanwhile, and the
+     * first completes once the response arrives.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testTriggerReleasesWorker() throws Exception {
+        final CountDownLatch responded = new CountDownLatch(1);
+        final StateMachine sender = triggerMachine(new ProtocolMessage() {
+            @Override
+            public MsgEvent invokeMessage() throws UnexpectedEventException {
+                try {
+                    responded.await();
+                } catch (InterruptedException ex) {
+                    throw new UnexpectedEventException("Interrupted", ex);
+                }
+                return event("GET");
+            }
+        });
+
+        final State start = new StateNode("start", StateNode.StateType.START, null, null, null);
+        start.addTransition(getTransition("end"));
+        final Map<String, State> states = new HashMap();
+        states.put("start", start);
+        states.put("end", new StateNode("end", StateNode.StateType.END, null, null, "true"));
+        final StateMachine receiver = new StateMachine(new InteroperabilityReport(), false);
+        receiver.inputContent("start", states);
+
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final Future<InteroperabilityReport> sent = sender.start(scheduler);
+            final Future<InteroperabilityReport> received = receiver.start(scheduler);
+            receiver.pushEvent(event("GET"));
+            Assert.assertEquals("true", received.get(WAIT, TimeUnit.MILLISECONDS).getSuccess());
+            Assert.assertFalse(sender.isFinished());
+
+            responded.countDown();
+            Assert.assertEquals("true", sent.get(WAIT, TimeUnit.MILLISECONDS).getSuccess());
+            Assert.assertTrue(sender.isFinished());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * A trigger message that cannot be sent fails the test.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testTriggerFailure() throws Exception {
+        final StateMachine machine = triggerMachine(new ProtocolMessage() {
+            @Override
+            public MsgEvent invokeMessage() throws UnexpectedEventException {
+                throw new UnexpectedEventException("Connection refused");
+            }
+        });
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final InteroperabilityReport report = machine.start(scheduler).get(WAIT, TimeUnit.MILLISECONDS);
+            Assert.assertEquals("false", report.getSuccess());
+            Assert.assertTrue(report.outputTrace().contains("Connection refused"));
+            Assert.assertTrue(machine.isFinished());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -26,11 +26,19 @@
 
 package uk.ac.soton.itinnovation.xifiinteroperability;
 
+import java.util.ArrayList;
+import java.util.List;
 import junit.framework.Assert;
 import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.UnexpectedEventException;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
 import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.InvalidStateMachineException;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
 
 /**
  * Set of tests for ensuring that the code for managing state behaviour in
@@ -174,4 +182,139 @@ public class StateNodeTest {
         }
     }
 
+    /**
+     * Create a transition guarded by equality tests.
+     * @param label The label of the to state.
+     * @param fields Pairs of field name and required value.
+     * @return The new transition.
+     * @throws Exception Error in the guard or state specification.
+     */
+    private static Transition equalsTransition(final String label, final String... fields) throws Exception {
+        final List<Guard> guards = new ArrayList();
+        for (int i = 0; i < fields.length; i += 2) {
+            guards.add(new Guard(fields[i], String.class, Guard.ComparisonType.EQUALS, fields[i + 1], null));
+        }
+        final Transition transition = new Transition(label, guards, null);
+        transition.setTarget(new StateNode(label, StateNode.StateType.END, null, null, null));
+        return transition;
+    }
+
+    /**
+     * Create a state whose transitions each test a path of the body.
+     * @param paths Pairs of content path and required value; the target of
+     * each transition is labelled s0, s1...
+     * @return The compiled state, evaluating its transitions in parallel.
+     * @throws Exception Error in the guard or state specification.
+     */
+    private static StateNode contentState(final String... paths) throws Exception {
+        final StateNode state = new StateNode(TESTVALUE, StateNode.StateType.NORMAL, null, null, null);
+        for (int i = 0; i < paths.length; i += 2) {
+            final List<Guard> guards = new ArrayList();
+            guards.add(new Guard("content[" + paths[i] + "]", String.class, Guard.ComparisonType.EQUALS,
+                    paths[i + 1], null));
+            final Transition transition = new Transition("s" + (i / 2), guards, null);
+            transition.setTarget(new StateNode("s" + (i / 2), StateNode.StateType.END, null, null, null));
+            state.addTransition(transition);
+        }
+        state.compileTransitions();
+        state.setSpeculative(true);
+        return state;
+    }
+
+    /**
+     * Create a REST event with a body.
+     * @param type The content type.
+     * @param body The body.
+     * @return The new event.
+     */
+    private static RESTEvent contentEvent(final String type, final String body) {
+        final RESTEvent event = event(RESTEvent.HTTP_MSG, "POST", "http.content-type", type);
+        event.addContent(type, body);
+        return event;
+    }
+
+    /**
+     * Test that transitions evaluated in parallel on one event, each with
+     * XPath or json path guards, take the first matching transition in
+     * declaration order and report as a sequential scan does.
+     * @throws Exception Error in the test state specification.
+     */
+    @Test
+    public final void testSpeculativeEvaluation() throws Exception {
+        final StateNode xmlState = contentState("//item[@id='1']/name", "x", "//item[@id='2']/name", "y",
+                "//item[@id='3']/name", "c", "//item[@id='4']/name", "d");
+        final StateNode jsonState = contentState("$.items[0].name", "x", "$.items[1].name", "y",
+                "$.items[2].name", "c", "$.items[3].name", "d");
+        final StringBuilder xml = new StringBuilder("<items>");
+        final StringBuilder json = new StringBuilder("{\"items\": [");
+        for (int i = 1; i <= 4; i++) {
+            xml.append("<item id='").append(i).append("'><name>").append((char) ('a' + i - 1)).append("</name></item>");
+            json.append(i > 1 ? ", " : "").append("{\"name\": \"").append((char) ('a' + i - 1)).append("\"}");
+        }
+        xml.append("</items>");
+        json.append("]}");
+
+        for (int run = 0; run < 50; run++) {
+            final InteroperabilityReport report = new InteroperabilityReport();
+            Assert.assertEquals("s2", xmlState.evaluateTransition(
+                    contentEvent("application/xml", xml.toString()), report).getLabel());
+            Assert.assertEquals("s2", jsonState.evaluateTransition(
+                    contentEvent("application/json", json.toString()), report).getLabel());
+            final String trace = report.outputTrace();
+            Assert.assertEquals(2, trace.split("Transition to state s2 successful", -1).length - 1);
+            Assert.assertFalse(trace.contains("s3"));
+        }
+    }
+
+    /**
+     * Create a REST event.
+     * @param fields Pairs of field name and value.
+     * @return The new event.
+     */
+    private static RESTEvent event(final String... fields) {
+        final RESTEvent event = new RESTEvent();
+        for (int i = 0; i < fields.length; i += 2) {
+            event.addParameter(new Parameter(fields[i], fields[i + 1]));
+        }
+        return event;
+    }
+
+    /**
+     * Test that the transition dispatch index takes the first matching
+     * transition in declaration order, and that a failure reports every
+     * transition in declaration order.
+     * @throws Exception Error in the test state specification.
+     */
+    @Test
+    public final void testTransitionDispatch() throws Exception {
+        final State sFirst = new StateNode(TESTVALUE, StateNode.StateType.NORMAL, null, null, null);
+        sFirst.addTransition(equalsTransition("sa", RESTEvent.HTTP_MSG, "GET", RESTEvent.HTTP_CODE, "200"));
+        sFirst.addTransition(equalsTransition("sb", RESTEvent.HTTP_MSG, "POST"));
+        sFirst.addTransition(equalsTransition("sc", RESTEvent.HTTP_CODE, "500"));
+        sFirst.addTransition(equalsTransition("sd", RESTEvent.HTTP_MSG, "get"));
+        sFirst.compileTransitions();
+
+        final InteroperabilityReport report = new InteroperabilityReport();
+        Assert.assertEquals("sa", sFirst.evaluateTransition(
+                event(RESTEvent.HTTP_MSG, "get", RESTEvent.HTTP_CODE, "200"), report).getLabel());
+        Assert.assertEquals("sd", sFirst.evaluateTransition(
+                event(RESTEvent.HTTP_MSG, "GET", RESTEvent.HTTP_CODE, "404"), report).getLabel());
+        Assert.assertEquals("sb", sFirst.evaluateTransition(event(RESTEvent.HTTP_MSG, "POST"), report).getLabel());
+        Assert.assertEquals("sc", sFirst.evaluateTransition(
+                event(RESTEvent.HTTP_MSG, "DELETE", RESTEvent.HTTP_CODE, "500"), report).getLabel());
+        Assert.assertEquals("sc", sFirst.evaluateTransition(event(RESTEvent.HTTP_CODE, "500"), report).getLabel());
+        final InteroperabilityReport failure = new InteroperabilityReport();
+        try {
+            sFirst.evaluateTransition(event(RESTEvent.HTTP_MSG, "PUT"), failure);
+            Assert.fail("No transition should match the event");
+        } catch (UnexpectedEventException ex) {
+            ServiceLogger.LOG.info("Code correctly captures exception " + ex);
+        }
+        final String trace = failure.outputTrace();
+        final int first = trace.indexOf("'GET'");
+        final int second = trace.indexOf("'POST'");
+        final int third = trace.indexOf(RESTEvent.HTTP_CODE, second);
+        final int fourth = trace.indexOf("'get'");
+        Assert.assertTrue(trace, first >= 0 && first < second && second < third && third < fourth);
+    }
 }
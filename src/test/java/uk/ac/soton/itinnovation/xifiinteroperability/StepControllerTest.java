@@ -0,0 +1,158 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.architecturemodel.Parameter;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.RESTEvent;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.SessionScheduler;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.State;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateMachine;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.StateNode;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.statemachine.Transition;
+
+/**
+ * Tests pausing a state machine at breakpoints and stepping it.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class StepControllerTest {
+
+    /**
+     * How long to wait for the machine, in milliseconds.
+     */
+    private static final long WAIT = 5000;
+
+    /**
+     * Create a machine first -GET-> second -GET-> third -GET-> end.
+     * @return The state machine.
+     * @throws Exception Error in the state specification.
+     */
+    private static StateMachine machine() throws Exception {
+        final Map<String, State> states = new HashMap();
+        states.put("first", state("first", StateNode.StateType.START, "second"));
+        states.put("second", state("second", StateNode.StateType.NORMAL, "third"));
+        states.put("third", state("third", StateNode.StateType.NORMAL, "end"));
+        states.put("end", new StateNode("end", StateNode.StateType.END, null, null, "true"));
+        final StateMachine machine = new StateMachine(new InteroperabilityReport(), false);
+        machine.inputContent("first", states);
+        return machine;
+    }
+
+    /**
+     * Create a state with a transition on a GET event.
+     * @param label The state label.
+     * @param type The state type.
+     * @param next The label of the to state.
+     * @return The state.
+     * @throws Exception Error in the state specification.
+     */
+    private static State state(final String label, final StateNode.StateType type,
+            final String next) throws Exception {
+        final State state = new StateNode(label, type, null, null, null);
+        final List<Guard> guards = new ArrayList();
+        guards.add(new Guard(RESTEvent.HTTP_MSG, String.class, Guard.ComparisonType.EQUALS, "GET", null));
+        state.addTransition(new Transition(next, guards, null));
+        return state;
+    }
+
+    /**
+     * Wait until the machine is paused.
+     * @param machine The machine.
+     * @throws InterruptedException Not expected.
+     */
+    private static void awaitPause(final StateMachine machine) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT;
+        while (!machine.getStepController().isPaused() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * The machine pauses at a state breakpoint with events queued, steps
+     * one transition at a time and then runs to the end.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testBreakpointAndStep() throws Exception {
+        final StateMachine machine = machine();
+        machine.getStepController().addStateBreakpoint("second");
+        final SessionScheduler scheduler = new SessionScheduler(1);
+        try {
+            final Future<InteroperabilityReport> result = machine.start(scheduler);
+            for (int i = 0; i < 3; i++) {
+                final RESTEvent event = new RESTEvent();
+                event.addParameter(new Parameter(RESTEvent.HTTP_MSG, "GET"));
+                machine.pushEvent(event);
+            }
+            awaitPause(machine);
+            Thread.sleep(50);
+            Assert.assertEquals("second", machine.getCurrentState().getLabel());
+            Assert.assertEquals(2, machine.getQueueDepth());
+
+            machine.next();
+            awaitPause(machine);
+            Assert.assertEquals("third", machine.getCurrentState().getLabel());
+
+            machine.getStepController().resume();
+            Assert.assertEquals("true", result.get(WAIT, TimeUnit.MILLISECONDS).getSuccess());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Interrupting the thread of a paused machine ends the session rather
+     * than leaving it waiting again.
+     * @throws Exception Test failure.
+     */
+    @Test
+    public final void testInterruptWhilePaused() throws Exception {
+        final StateMachine machine = machine();
+        machine.getStepController().pause();
+        final InteroperabilityReport[] report = new InteroperabilityReport[1];
+        final Thread runner = new Thread(() -> report[0] = machine.start());
+        runner.start();
+        Thread.sleep(50);
+        runner.interrupt();
+        runner.join(WAIT);
+        Assert.assertFalse(runner.isAlive());
+        Assert.assertEquals("false", report[0].getSuccess());
+    }
+}
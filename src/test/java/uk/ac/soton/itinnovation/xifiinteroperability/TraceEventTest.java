@@ -0,0 +1,129 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import java.util.Arrays;
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.Guard;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.InteroperabilityReport;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.TraceEvent;
+
+/**
+ * Set of tests for the structured trace events of a report.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class TraceEventTest {
+
+    /**
+     * Events are rendered in order with the text of the report.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testRendering() throws Exception {
+        final Guard code = new Guard("http.code", String.class, Guard.ComparisonType.EQUALS, "200", null);
+        final Guard regex = new Guard("content[/resp/name]", String.class, Guard.ComparisonType.REGEX, "a.*", null);
+        final Guard fields = new Guard("content[/resp]", String.class, Guard.ComparisonType.CONTAINS, "unit", null);
+
+        final InteroperabilityReport report = new InteroperabilityReport();
+        report.clear();
+        report.trace(TraceEvent.guards(2));
+        report.trace(TraceEvent.succeeded(code));
+        report.trace(TraceEvent.contentFailed(regex, "bob"));
+        report.trace(TraceEvent.contentFailed(fields, Arrays.asList("temp", "time")));
+        report.println("Fail: no transition possible");
+
+        Assert.assertEquals(4, report.getTraceEvents().size());
+        Assert.assertEquals(TraceEvent.Kind.CONTENT_FAILED, report.getTraceEvents().get(2).getKind());
+        Assert.assertEquals("bob", report.getTraceEvents().get(2).getObserved());
+        Assert.assertEquals("a.*", report.getTraceEvents().get(2).getComparand());
+        Assert.assertEquals("content[/resp/name]", report.getTraceEvents().get(2).getLabel());
+        Assert.assertEquals("\tEvaluating 2 guards\n"
+                + "\tGuard test succeeded: 'http.code' is equal to '200'\n"
+                + "\tGuard test failed: 'content[/resp/name]' is 'bob', while it was supposed to match the"
+                + " regular expression: 'a.*'\n"
+                + "\tGuard test failed: 'content[/resp]' contains child fields ('temp' 'time') but doesn't"
+                + " contain child field 'unit'\n"
+                + "\nFail: no transition possible\n", report.outputTrace());
+        // Rendered entries are dropped; the text is kept
+        Assert.assertTrue(report.getTraceEvents().isEmpty());
+        report.println("Done");
+        Assert.assertTrue(report.outputTrace().endsWith("no transition possible\n\nDone\n"));
+    }
+
+    /**
+     * The trace can be read while events are still being added to it.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testConcurrentRead() throws Exception {
+        final Guard code = new Guard("http.code", String.class, Guard.ComparisonType.EQUALS, "200", null);
+        final InteroperabilityReport report = new InteroperabilityReport();
+        report.clear();
+        final int count = 20000;
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                report.trace(TraceEvent.succeeded(code));
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            Assert.assertNotNull(report.outputTrace());
+        }
+        writer.join();
+        final String line = "\tGuard test succeeded: 'http.code' is equal to '200'\n";
+        Assert.assertEquals(count * line.length(), report.outputTrace().length());
+    }
+
+    /**
+     * Failed response time guards are reported in milliseconds.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testUnits() throws Exception {
+        final Guard time = new Guard("response-time", String.class, Guard.ComparisonType.LESSTHAN, "100", null);
+        Assert.assertEquals("Guard test failed: 'response-time' is '250ms', while it was supposed to be less"
+                + " than the guard value: '100ms'", TraceEvent.failed(time, "250").getMessage());
+    }
+
+    /**
+     * A guard that could not be evaluated is reported with its error.
+     */
+    @Test
+    public void testError() {
+        final InteroperabilityReport report = new InteroperabilityReport();
+        report.clear();
+        report.trace(TraceEvent.error("JSONPath '$.a' is invalid or does not exist."));
+        Assert.assertEquals("\tGuard test failed due to the following error:\n"
+                + "\tJSONPath '$.a' is invalid or does not exist.\n", report.outputTrace());
+    }
+}
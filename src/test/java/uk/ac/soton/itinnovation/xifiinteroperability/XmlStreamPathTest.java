@@ -0,0 +1,87 @@
+/////////////////////////////////////////////////////////////////////////
+//
+// © University of Southampton IT Innovation Centre, 2017
+//
+// Copyright in this library belongs to the University of Southampton
+// University Road, Highfield, Southampton, UK, SO17 1BJ
+//
+// This software may not be used, sold, licensed, transferred, copied
+// or reproduced in whole or in part in any manner or form or in or
+// on any media by any person other than in accordance with the terms
+// of the Licence Agreement supplied with the software, or otherwise
+// without the prior written consent of the copyright owners.
+//
+// This software is distributed WITHOUT ANY WARRANTY, without even the
+// implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+// PURPOSE, except where stated in the Licence Agreement supplied with
+// the software.
+//
+//	Created By :			Paul Grace
+//
+/////////////////////////////////////////////////////////////////////////
+//
+//  License : GNU Lesser General Public License, version 3
+//
+/////////////////////////////////////////////////////////////////////////
+
+
+package uk.ac.soton.itinnovation.xifiinteroperability;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XML;
+import uk.ac.soton.itinnovation.xifiinteroperability.modelframework.data.XmlStreamPath;
+
+/**
+ * Set of tests for the streamed evaluation of simple XPath expressions.
+ *
+ * Project acknowledgements - developed in FIESTA (http://www.fiesta-iot.eu)
+ * & XIFI (http://www.fi-xifi.eu)
+ *
+ * @author Paul Grace
+ */
+public class XmlStreamPathTest {
+
+    /**
+     * Sample document with repeated and nested elements.
+     */
+    private static final String DOC = "<?xml version=\"1.0\"?><resp><skip><item><name>hidden</name></item></skip>"
+            + "<temp>21.5</temp><list><item><name>one</name></item><item><name>two</name></item></list>"
+            + "<unit>C<!-- note --></unit><desc>a &amp; <![CDATA[b]]></desc></resp>";
+
+    /**
+     * Streamed values match the DOM evaluation.
+     */
+    @Test
+    public void testMatchesDom() {
+        final String[] paths = {"/resp/temp", "//item[2]/name", "/resp/list/item[1]/name",
+            "/resp/unit/text()", "/resp/desc", "//name"};
+        for (final String path : paths) {
+            final XmlStreamPath streamed = XmlStreamPath.compile(path);
+            Assert.assertNotNull(path, streamed);
+            Assert.assertEquals(path, XML.readValue(XML.parseQuietly(DOC), path), streamed.read(DOC));
+        }
+    }
+
+    /**
+     * Complex expressions, namespaced elements and missing values are left
+     * to the DOM.
+     * @throws Exception Not expected.
+     */
+    @Test
+    public void testFallback() throws Exception {
+        Assert.assertNull(XmlStreamPath.compile("resp/temp"));
+        Assert.assertNull(XmlStreamPath.compile("/resp/item[name='one']"));
+        Assert.assertNull(XmlStreamPath.compile("/resp/@id"));
+        Assert.assertNull(XmlStreamPath.compile("count(//item)"));
+
+        final String namespaced = "<resp xmlns=\"urn:x\"><temp>1</temp></resp>";
+        Assert.assertNull(XmlStreamPath.compile("/resp/temp").read(namespaced));
+        Assert.assertNull(XmlStreamPath.compile("/resp/missing").read(DOC));
+        Assert.assertNull(XmlStreamPath.compile("/resp").read("<resp><open></resp>"));
+
+        Assert.assertEquals("", XML.readValue(namespaced, "/resp/temp"));
+        Assert.assertEquals("2", XML.readValue(DOC, "count(//list/item)"));
+        Assert.assertTrue(XML.xmlAssert(DOC, "//item[2]/name", "two").getResult());
+    }
+}